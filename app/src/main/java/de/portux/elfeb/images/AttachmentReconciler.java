@@ -0,0 +1,590 @@
+package de.portux.elfeb.images;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import de.portux.elfeb.model.merge.KeyOrder;
+import de.portux.elfeb.support.Assert;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code AttachmentReconciler} makes sure the attachments and the files on disk still match.
+ * <p>
+ * Files within the directories the app owns which are not referenced by any attachment are
+ * <em>orphans</em>, e.g. photos which have been taken for an observation that has been discarded
+ * later on. They are moved into a quarantine directory, from which they are deleted once the
+ * retention period has passed. References to files which do not exist anymore are
+ * <em>dangling</em>, e.g. because the files have been deleted outside of the app. They are flagged
+ * in the {@link Catalog}, such that the app does not try to display them.
+ * <p>
+ * A pass walks the owned directories and the referenced files side by side, both ordered by their
+ * path, just like a merge join. A directory is only listed once the walk descends into it, so
+ * memory is bounded by the largest single directory rather than by the number of files. The store
+ * and the archive are sharded by hash, which keeps their directories small even for a hundred
+ * thousand files. References are read in pages.
+ * <p>
+ * The pass runs in slices of a fixed number of files and references, each of which is a separate
+ * task of the executor. Sharing a single-threaded executor with the {@link PhotoIngestion} lets
+ * both interleave without ever running at the same time. After each slice, the current position
+ * is saved as {@link Checkpoint}, so a pass which has been interrupted by the app being stopped is
+ * resumed right there.
+ *
+ * @author Rico Bergmann
+ */
+public class AttachmentReconciler {
+
+  /**
+   * A file which is referenced by at least one attachment.
+   */
+  public static final class Reference {
+
+    private final File mPath;
+    private final boolean mFlagged;
+
+    /**
+     * @param path the referenced file
+     * @param flagged whether the reference has been flagged as dangling before
+     */
+    public Reference(@NonNull File path, boolean flagged) {
+      this.mPath = path;
+      this.mFlagged = flagged;
+    }
+
+    @NonNull
+    public File getPath() {
+      return mPath;
+    }
+
+    public boolean isFlagged() {
+      return mFlagged;
+    }
+  }
+
+  /**
+   * Records the files the attachments refer to.
+   */
+  public interface Catalog {
+
+    /**
+     * Provides all referenced files, including working copies and archived originals, ordered by
+     * their absolute path. Each file is provided only once.
+     *
+     * @param after the file to continue after, or {@code null} to start from the beginning
+     * @param limit the maximum number of files to return
+     */
+    @NonNull
+    List<Reference> getReferences(@Nullable File after, int limit) throws IOException;
+
+    /**
+     * Checks whether a file is referenced right now.
+     */
+    boolean isReferenced(@NonNull File file) throws IOException;
+
+    /**
+     * Flags all references to a file which does not exist anymore. An archived original which
+     * has gone missing is forgotten instead.
+     */
+    void recordMissing(@NonNull File file) throws IOException;
+
+    /**
+     * Clears the flag of all references to a file which has shown up again.
+     */
+    void recordFound(@NonNull File file) throws IOException;
+  }
+
+  /**
+   * Keeps the progress of the passes across restarts of the app.
+   */
+  public interface Checkpoint {
+
+    /**
+     * The last file the current pass has reconciled, or {@code null} if there is no unfinished
+     * pass.
+     */
+    @Nullable
+    File getPosition();
+
+    void savePosition(@NonNull File position);
+
+    /**
+     * The time the last pass has been completed at in milliseconds, or {@code 0} if there has not
+     * been any.
+     */
+    long getCompletedAt();
+
+    /**
+     * Records the completion of a pass, which discards its position.
+     */
+    void saveCompleted(long completedAt);
+  }
+
+  /**
+   * The number of files and references which are reconciled within a single task.
+   */
+  static final int SLICE_SIZE = 500;
+
+  /**
+   * The number of references which are read from the catalog at once.
+   */
+  static final int REFERENCE_PAGE_SIZE = 200;
+
+  /**
+   * How old an unreferenced file has to be before it is considered an orphan. Younger files might
+   * still be about to be attached, e.g. a photo taken for an observation which has not been saved
+   * yet, or a working copy which has not been recorded yet.
+   */
+  static final long GRACE_PERIOD = TimeUnit.DAYS.toMillis(1);
+
+  /**
+   * How long orphans are kept in quarantine before they are deleted.
+   */
+  static final long QUARANTINE_RETENTION = TimeUnit.DAYS.toMillis(7);
+
+  private final Catalog mCatalog;
+  private final Checkpoint mCheckpoint;
+  private final List<File> mRoots;
+  private final File mQuarantine;
+  private final Executor mExecutor;
+
+  private final AtomicBoolean mRunning = new AtomicBoolean();
+
+  // the state of the current pass is only accessed by the slices, which never run concurrently
+  private DirectoryWalk mWalk;
+  private final Deque<Reference> mReferences = new ArrayDeque<>();
+  private File mLastReference;
+  private boolean mReferencesExhausted;
+  private long mPassStartedAt;
+  private long mPassBusyNanos;
+
+  @Nullable
+  private volatile File mPosition;
+
+  private final AtomicLong mPassCount = new AtomicLong();
+  private final AtomicLong mFailureCount = new AtomicLong();
+  private final AtomicLong mPassFileCount = new AtomicLong();
+  private final AtomicLong mPassReferenceCount = new AtomicLong();
+  private final AtomicLong mOrphanCount = new AtomicLong();
+  private final AtomicLong mQuarantinedBytes = new AtomicLong();
+  private final AtomicLong mDanglingCount = new AtomicLong();
+  private final AtomicLong mFoundCount = new AtomicLong();
+  private final AtomicLong mPurgedCount = new AtomicLong();
+  private final AtomicLong mLastPassMillis = new AtomicLong();
+  private final AtomicLong mLastPassBusyMillis = new AtomicLong();
+
+  /**
+   * @param catalog records the referenced files
+   * @param checkpoint keeps the progress across restarts
+   * @param roots the directories whose files belong to the app. None of them may contain an
+   *     other one.
+   * @param quarantine where orphans are moved to. It may not be located within any root.
+   * @param executor the executor to run the slices on. It has to execute at most one task at a
+   *     time.
+   */
+  public AttachmentReconciler(@NonNull Catalog catalog, @NonNull Checkpoint checkpoint,
+      @NonNull Collection<File> roots, @NonNull File quarantine, @NonNull Executor executor) {
+    Assert.notNull(catalog, "Catalog may not be null");
+    Assert.notNull(checkpoint, "Checkpoint may not be null");
+    Assert.noNullElements(roots, "Roots may not be null");
+    Assert.notNull(quarantine, "Quarantine may not be null");
+    Assert.notNull(executor, "Executor may not be null");
+    this.mCatalog = catalog;
+    this.mCheckpoint = checkpoint;
+    this.mRoots = new ArrayList<>(roots.size());
+    for (File root : roots) {
+      mRoots.add(root.getAbsoluteFile());
+    }
+    // the walk visits the roots in the order of their paths, just like the references
+    Collections.sort(mRoots,
+        (first, second) -> KeyOrder.compareCodePoints(keyOf(first), keyOf(second)));
+    this.mQuarantine = quarantine.getAbsoluteFile();
+    this.mExecutor = executor;
+  }
+
+  /**
+   * Starts a pass unless one is running already. An interrupted pass is resumed.
+   */
+  public void reconcile() {
+    if (mRunning.compareAndSet(false, true)) {
+      mExecutor.execute(this::slice);
+    }
+  }
+
+  /**
+   * Starts a pass if the last one has been completed longer ago than the given interval, or if it
+   * has not been completed at all.
+   *
+   * @return whether a pass has been started
+   */
+  public boolean reconcileIfDue(long interval) {
+    boolean due = mCheckpoint.getPosition() != null
+        || System.currentTimeMillis() - mCheckpoint.getCompletedAt() >= interval;
+    if (due) {
+      reconcile();
+    }
+    return due;
+  }
+
+  @WorkerThread
+  private void slice() {
+    long started = System.nanoTime();
+    boolean completed = false;
+    try {
+      if (mWalk == null) {
+        begin();
+      }
+      for (int steps = 0; steps < SLICE_SIZE && !completed; ++steps) {
+        completed = step();
+      }
+      if (!completed) {
+        mCheckpoint.savePosition(mPosition);
+      }
+    } catch (IOException e) {
+      // the next pass resumes at the last checkpoint
+      mFailureCount.incrementAndGet();
+      mWalk = null;
+      mRunning.set(false);
+      return;
+    } finally {
+      mPassBusyNanos += System.nanoTime() - started;
+    }
+    if (completed) {
+      finish();
+    } else {
+      mExecutor.execute(this::slice);
+    }
+  }
+
+  private void begin() {
+    File position = mCheckpoint.getPosition();
+    mWalk = new DirectoryWalk(mRoots, position);
+    mReferences.clear();
+    mLastReference = position;
+    mReferencesExhausted = false;
+    mPosition = position;
+    mPassStartedAt = System.currentTimeMillis();
+    mPassBusyNanos = 0;
+    mPassFileCount.set(0);
+    mPassReferenceCount.set(0);
+  }
+
+  /**
+   * Reconciles the next file or reference, whichever comes first.
+   *
+   * @return whether the pass is complete
+   */
+  private boolean step() throws IOException {
+    File file = mWalk.peek();
+    Reference reference = peekReference();
+    if (file == null && reference == null) {
+      return true;
+    }
+    // the paths are compared by their code points, which is the binary order of the database
+    int order = file == null ? 1
+        : reference == null ? -1
+            : KeyOrder.compareCodePoints(file.getPath(), reference.getPath().getPath());
+    if (order < 0) {
+      mWalk.advance();
+      mPassFileCount.incrementAndGet();
+      reconcileOrphan(file);
+      mPosition = file;
+    } else if (order > 0) {
+      mReferences.poll();
+      mPassReferenceCount.incrementAndGet();
+      reconcileReference(reference, reference.getPath().exists());
+      mPosition = reference.getPath();
+    } else {
+      mWalk.advance();
+      mReferences.poll();
+      mPassFileCount.incrementAndGet();
+      mPassReferenceCount.incrementAndGet();
+      reconcileReference(reference, true);
+      mPosition = file;
+    }
+    return false;
+  }
+
+  @Nullable
+  private Reference peekReference() throws IOException {
+    if (mReferences.isEmpty() && !mReferencesExhausted) {
+      List<Reference> page = mCatalog.getReferences(mLastReference, REFERENCE_PAGE_SIZE);
+      mReferences.addAll(page);
+      mReferencesExhausted = page.size() < REFERENCE_PAGE_SIZE;
+      if (!page.isEmpty()) {
+        mLastReference = page.get(page.size() - 1).getPath();
+      }
+    }
+    return mReferences.peek();
+  }
+
+  private void reconcileReference(Reference reference, boolean exists) throws IOException {
+    if (!exists) {
+      // files which are not known to be missing yet might have been attached in the meantime
+      mCatalog.recordMissing(reference.getPath());
+      mDanglingCount.incrementAndGet();
+    } else if (reference.isFlagged()) {
+      mCatalog.recordFound(reference.getPath());
+      mFoundCount.incrementAndGet();
+    }
+  }
+
+  private void reconcileOrphan(File file) throws IOException {
+    long now = System.currentTimeMillis();
+    if (now - file.lastModified() < GRACE_PERIOD || mCatalog.isReferenced(file)) {
+      // it is too young or has been referenced since the page of references has been read
+      return;
+    }
+    File target = quarantineFileOf(file);
+    File directory = target.getParentFile();
+    long size = file.length();
+    if (!(directory.isDirectory() || directory.mkdirs()) || !file.renameTo(target)) {
+      // the orphan is tried again by the next pass, rather than holding up this one
+      mFailureCount.incrementAndGet();
+      return;
+    }
+    // the retention starts now rather than when the file has been written
+    //noinspection ResultOfMethodCallIgnored
+    target.setLastModified(now);
+    mOrphanCount.incrementAndGet();
+    mQuarantinedBytes.addAndGet(size);
+  }
+
+  /**
+   * Keeps the path of an orphan within its root, such that it may be restored by hand.
+   */
+  private File quarantineFileOf(File file) {
+    String path = file.getPath();
+    for (File root : mRoots) {
+      if (path.startsWith(keyOf(root))) {
+        return new File(new File(mQuarantine, root.getName()),
+            path.substring(root.getPath().length() + 1));
+      }
+    }
+    throw new IllegalArgumentException(file + " is not located within any root");
+  }
+
+  @WorkerThread
+  private void finish() {
+    long now = System.currentTimeMillis();
+    purgeQuarantine(now);
+    mCheckpoint.saveCompleted(now);
+    mPassCount.incrementAndGet();
+    mLastPassMillis.set(now - mPassStartedAt);
+    mLastPassBusyMillis.set(TimeUnit.NANOSECONDS.toMillis(mPassBusyNanos));
+    mWalk = null;
+    mPosition = null;
+    mRunning.set(false);
+  }
+
+  private void purgeQuarantine(long now) {
+    DirectoryWalk walk = new DirectoryWalk(Collections.singletonList(mQuarantine), null);
+    for (File file = walk.peek(); file != null; walk.advance(), file = walk.peek()) {
+      if (now - file.lastModified() >= QUARANTINE_RETENTION && file.delete()) {
+        mPurgedCount.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * The key a directory is ordered by. Its files are all prefixed by it.
+   */
+  private static String keyOf(File directory) {
+    return directory.getPath() + File.separatorChar;
+  }
+
+  /**
+   * Walks the files within some directories in the order of their paths, optionally starting
+   * after a given path. Only the directories on the way down to the current file are listed at
+   * any time.
+   * <p>
+   * The entries of each directory are ordered by their name, followed by a separator in case of a
+   * directory. Ordering them by their plain name would visit the directory {@code a} before the
+   * file {@code a-b}, although {@code a/} comes after {@code a-b} when comparing whole paths.
+   * Names are compared by their code points, like the database compares the referenced paths.
+   */
+  static final class DirectoryWalk {
+
+    private static final class Listing {
+      final String mPrefix;
+      final String[] mKeys;
+      int mIndex = 0;
+
+      Listing(String prefix, String[] keys) {
+        this.mPrefix = prefix;
+        this.mKeys = keys;
+      }
+    }
+
+    private final Deque<Listing> mListings = new ArrayDeque<>();
+
+    @Nullable
+    private final String mAfter;
+
+    @Nullable
+    private File mNext;
+
+    /**
+     * @param roots the directories to walk, ordered by their path
+     * @param after the file to continue after, or {@code null} to start from the beginning
+     */
+    DirectoryWalk(@NonNull List<File> roots, @Nullable File after) {
+      this.mAfter = after != null ? after.getPath() : null;
+      String[] keys = new String[roots.size()];
+      for (int i = 0; i < keys.length; ++i) {
+        keys[i] = keyOf(roots.get(i));
+      }
+      mListings.push(new Listing("", keys));
+    }
+
+    /**
+     * The next file, or {@code null} if all files have been visited.
+     */
+    @Nullable
+    File peek() {
+      while (mNext == null && !mListings.isEmpty()) {
+        Listing listing = mListings.peek();
+        if (listing.mIndex >= listing.mKeys.length) {
+          mListings.pop();
+          continue;
+        }
+        String path = listing.mPrefix + listing.mKeys[listing.mIndex++];
+        if (path.charAt(path.length() - 1) == File.separatorChar) {
+          if (!isDone(path)) {
+            mListings.push(new Listing(path, list(new File(path))));
+          }
+        } else if (mAfter == null || KeyOrder.compareCodePoints(path, mAfter) > 0) {
+          mNext = new File(path);
+        }
+      }
+      return mNext;
+    }
+
+    void advance() {
+      peek();
+      mNext = null;
+    }
+
+    /**
+     * Checks whether all files within a directory come before the position to start after.
+     */
+    private boolean isDone(String directoryKey) {
+      return mAfter != null && KeyOrder.compareCodePoints(directoryKey, mAfter) < 0
+          && !mAfter.startsWith(directoryKey);
+    }
+
+    private static String[] list(File directory) {
+      String[] names = directory.list();
+      if (names == null) {
+        return new String[0];
+      }
+      for (int i = 0; i < names.length; ++i) {
+        if (new File(directory, names[i]).isDirectory()) {
+          names[i] += File.separatorChar;
+        }
+      }
+      Arrays.sort(names, KeyOrder::compareCodePoints);
+      return names;
+    }
+  }
+
+  /**
+   * The last file or reference the current pass has reconciled, or {@code null} if no pass is
+   * running.
+   */
+  @Nullable
+  public File getPosition() {
+    return mPosition;
+  }
+
+  public boolean isRunning() {
+    return mRunning.get();
+  }
+
+  /**
+   * The number of passes which have been completed.
+   */
+  public long getPassCount() {
+    return mPassCount.get();
+  }
+
+  /**
+   * The number of slices which have failed, whose pass is resumed by the next one, and of orphans
+   * which could not be quarantined.
+   */
+  public long getFailureCount() {
+    return mFailureCount.get();
+  }
+
+  /**
+   * The number of files the current or last pass has visited.
+   */
+  public long getPassFileCount() {
+    return mPassFileCount.get();
+  }
+
+  /**
+   * The number of references the current or last pass has checked.
+   */
+  public long getPassReferenceCount() {
+    return mPassReferenceCount.get();
+  }
+
+  /**
+   * The number of orphans which have been moved into quarantine.
+   */
+  public long getOrphanCount() {
+    return mOrphanCount.get();
+  }
+
+  public long getQuarantinedBytes() {
+    return mQuarantinedBytes.get();
+  }
+
+  /**
+   * The number of references which have been found dangling.
+   */
+  public long getDanglingCount() {
+    return mDanglingCount.get();
+  }
+
+  /**
+   * The number of dangling references whose file has shown up again.
+   */
+  public long getFoundCount() {
+    return mFoundCount.get();
+  }
+
+  /**
+   * The number of quarantined files which have been deleted after the retention period.
+   */
+  public long getPurgedCount() {
+    return mPurgedCount.get();
+  }
+
+  /**
+   * The time between the start and the completion of the last pass in milliseconds. For a pass
+   * which has been resumed, it starts with the resumption.
+   */
+  public long getLastPassMillis() {
+    return mLastPassMillis.get();
+  }
+
+  /**
+   * The time the slices of the last pass have actually been running in milliseconds.
+   */
+  public long getLastPassBusyMillis() {
+    return mLastPassBusyMillis.get();
+  }
+
+}
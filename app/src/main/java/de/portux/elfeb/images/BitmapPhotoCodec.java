@@ -0,0 +1,97 @@
+package de.portux.elfeb.images;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+import androidx.annotation.NonNull;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Transcodes photos into the working copies of the {@link PhotoIngestion}.
+ * <p>
+ * Just like thumbnails, the photo is subsampled and scaled within a single decoding pass, so the
+ * full resolution image is never held in memory. The pixels are written as is, which is why the
+ * orientation tag is carried over to the working copy together with the time and location the
+ * photo has been taken at.
+ *
+ * @author Rico Bergmann
+ */
+public class BitmapPhotoCodec implements PhotoIngestion.Codec {
+
+  private static final int JPEG_QUALITY = 90;
+
+  private static final String[] PRESERVED_ATTRIBUTES = {
+      ExifInterface.TAG_ORIENTATION,
+      ExifInterface.TAG_DATETIME,
+      ExifInterface.TAG_MAKE,
+      ExifInterface.TAG_MODEL,
+      ExifInterface.TAG_GPS_LATITUDE,
+      ExifInterface.TAG_GPS_LATITUDE_REF,
+      ExifInterface.TAG_GPS_LONGITUDE,
+      ExifInterface.TAG_GPS_LONGITUDE_REF,
+      ExifInterface.TAG_GPS_ALTITUDE,
+      ExifInterface.TAG_GPS_ALTITUDE_REF,
+      ExifInterface.TAG_GPS_TIMESTAMP,
+      ExifInterface.TAG_GPS_DATESTAMP
+  };
+
+  @Override
+  public void transcode(@NonNull File source, @NonNull File target, int maxDimension)
+      throws IOException {
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeFile(source.getPath(), options);
+    if (options.outWidth <= 0 || options.outHeight <= 0) {
+      throw new IOException("Not an image: " + source);
+    }
+
+    int sampleSize = ThumbnailLoader
+        .calculateSampleSize(options.outWidth, options.outHeight, maxDimension, maxDimension);
+    int sampledLength = (Math.max(options.outWidth, options.outHeight) + sampleSize - 1)
+        / sampleSize;
+    options.inJustDecodeBounds = false;
+    options.inSampleSize = sampleSize;
+    if (sampledLength > maxDimension) {
+      options.inScaled = true;
+      options.inDensity = sampledLength;
+      options.inTargetDensity = maxDimension;
+    }
+
+    Bitmap photo = BitmapFactory.decodeFile(source.getPath(), options);
+    if (photo == null) {
+      throw new IOException("Could not decode " + source);
+    }
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(target))) {
+      if (!photo.compress(CompressFormat.JPEG, JPEG_QUALITY, out)) {
+        throw new IOException("Could not encode " + source);
+      }
+    } finally {
+      photo.recycle();
+    }
+    copyAttributes(source, target);
+  }
+
+  private static void copyAttributes(File source, File target) throws IOException {
+    ExifInterface original;
+    try {
+      original = new ExifInterface(source.getPath());
+    } catch (IOException e) {
+      // not a JPEG, so there is nothing to carry over
+      return;
+    }
+    ExifInterface workingCopy = new ExifInterface(target.getPath());
+    for (String attribute : PRESERVED_ATTRIBUTES) {
+      String value = original.getAttribute(attribute);
+      if (value != null) {
+        workingCopy.setAttribute(attribute, value);
+      }
+    }
+    workingCopy.saveAttributes();
+  }
+
+}
@@ -0,0 +1,164 @@
+package de.portux.elfeb.images;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.portux.elfeb.support.Assert;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps bitmaps which are no longer displayed, such that further images may be decoded into them
+ * instead of allocating new ones.
+ * <p>
+ * The bitmaps are bucketed by the number of bytes they have allocated. As any bitmap may be reused
+ * for an image which does not need more memory than it provides, a request is served from the
+ * smallest bucket that is large enough. Bitmaps which are considerably larger than requested are
+ * not handed out though, as they would waste the memory for as long as the image is shown.
+ * <p>
+ * The pool is bounded by the total size of its bitmaps. If it is full, the bitmaps which have been
+ * returned the longest time ago are dropped.
+ *
+ * @param <B> the type of the bitmaps
+ * @author Rico Bergmann
+ */
+public class BitmapPool<B> {
+
+  /**
+   * The factor by which a pooled bitmap may be larger than requested.
+   */
+  private static final int MAX_OVERSIZE = 4;
+
+  private final long mMaxBytes;
+  private final SizedLruCache.Sizer<B> mSizer;
+
+  @GuardedBy("this")
+  private final TreeMap<Integer, Deque<B>> mBuckets = new TreeMap<>();
+
+  /**
+   * All pooled bitmaps in the order they have been returned.
+   */
+  @GuardedBy("this")
+  private final Deque<B> mBitmaps = new ArrayDeque<>();
+
+  @GuardedBy("this")
+  private long mBytes = 0;
+
+  @GuardedBy("this")
+  private long mReuseCount = 0;
+
+  @GuardedBy("this")
+  private long mAllocationCount = 0;
+
+  @GuardedBy("this")
+  private long mEvictionCount = 0;
+
+  /**
+   * @param maxBytes the maximum size of all pooled bitmaps
+   * @param sizer determines the number of bytes a bitmap has allocated
+   */
+  BitmapPool(long maxBytes, @NonNull SizedLruCache.Sizer<B> sizer) {
+    Assert.isTrue(maxBytes > 0, "Maximum size must be positive");
+    this.mMaxBytes = maxBytes;
+    this.mSizer = sizer;
+  }
+
+  /**
+   * Takes a bitmap out of the pool.
+   *
+   * @param byteCount the number of bytes the bitmap has to provide at least
+   * @return the bitmap, or {@code null} if a new one has to be allocated
+   */
+  @Nullable
+  public synchronized B get(int byteCount) {
+    Map.Entry<Integer, Deque<B>> bucket = mBuckets.ceilingEntry(byteCount);
+    if (bucket == null || bucket.getKey() > (long) byteCount * MAX_OVERSIZE) {
+      ++mAllocationCount;
+      return null;
+    }
+    B bitmap = bucket.getValue().pollLast();
+    if (bucket.getValue().isEmpty()) {
+      mBuckets.remove(bucket.getKey());
+    }
+    mBitmaps.removeLastOccurrence(bitmap);
+    mBytes -= bucket.getKey();
+    ++mReuseCount;
+    return bitmap;
+  }
+
+  /**
+   * Returns a bitmap to the pool. It must not be displayed or otherwise used anymore.
+   */
+  public synchronized void put(@NonNull B bitmap) {
+    int size = mSizer.sizeOf(bitmap);
+    if (size > mMaxBytes) {
+      ++mEvictionCount;
+      return;
+    }
+    Deque<B> bucket = mBuckets.get(size);
+    if (bucket == null) {
+      bucket = new ArrayDeque<>();
+      mBuckets.put(size, bucket);
+    }
+    bucket.addLast(bitmap);
+    mBitmaps.addLast(bitmap);
+    mBytes += size;
+
+    while (mBytes > mMaxBytes) {
+      B eldest = mBitmaps.pollFirst();
+      int eldestSize = mSizer.sizeOf(eldest);
+      Deque<B> eldestBucket = mBuckets.get(eldestSize);
+      eldestBucket.removeFirstOccurrence(eldest);
+      if (eldestBucket.isEmpty()) {
+        mBuckets.remove(eldestSize);
+      }
+      mBytes -= eldestSize;
+      ++mEvictionCount;
+    }
+  }
+
+  /**
+   * Drops all pooled bitmaps, e.g. if the system runs low on memory.
+   */
+  public synchronized void clear() {
+    mEvictionCount += mBitmaps.size();
+    mBuckets.clear();
+    mBitmaps.clear();
+    mBytes = 0;
+  }
+
+  /**
+   * The total size of all pooled bitmaps.
+   */
+  public synchronized long size() {
+    return mBytes;
+  }
+
+  public long getMaxSize() {
+    return mMaxBytes;
+  }
+
+  /**
+   * The number of requests which could be served from the pool.
+   */
+  public synchronized long getReuseCount() {
+    return mReuseCount;
+  }
+
+  /**
+   * The number of requests which required a new bitmap to be allocated.
+   */
+  public synchronized long getAllocationCount() {
+    return mAllocationCount;
+  }
+
+  /**
+   * The number of bitmaps which have been dropped to stay within the maximum size.
+   */
+  public synchronized long getEvictionCount() {
+    return mEvictionCount;
+  }
+
+}
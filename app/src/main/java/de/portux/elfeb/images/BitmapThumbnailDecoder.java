@@ -0,0 +1,121 @@
+package de.portux.elfeb.images;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.BitmapFactory;
+import androidx.annotation.NonNull;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Decodes image files into {@link Bitmap Bitmaps} for the {@link ThumbnailLoader}.
+ * <p>
+ * Thumbnails are decoded without alpha channel, which halves their size compared to the default
+ * configuration. As subsampling only works in powers of two, the image is scaled down further to
+ * fit the requested bounds exactly. This happens within the same decoding pass by pretending
+ * different densities, so no intermediate bitmap is allocated.
+ * <p>
+ * All thumbnails are decoded into mutable bitmaps, such that they may be reused through
+ * {@link BitmapFactory.Options#inBitmap} once they are not displayed anymore. Since KitKat a bitmap
+ * may be reused for any image which does not need more memory than it has allocated.
+ *
+ * @author Rico Bergmann
+ */
+class BitmapThumbnailDecoder implements ThumbnailLoader.Decoder<Bitmap> {
+
+  private static final int JPEG_QUALITY = 85;
+
+  private static final int BYTES_PER_PIXEL = 2;
+
+  @NonNull
+  @Override
+  public Bitmap decode(@NonNull File source, int maxWidth, int maxHeight,
+      @NonNull BitmapPool<Bitmap> pool) throws IOException {
+    BitmapFactory.Options options = readBounds(source);
+    int sampleSize = ThumbnailLoader
+        .calculateSampleSize(options.outWidth, options.outHeight, maxWidth, maxHeight);
+    int sampledWidth = divideRoundingUp(options.outWidth, sampleSize);
+    int sampledHeight = divideRoundingUp(options.outHeight, sampleSize);
+    float scale = Math.min(1, Math.min((float) maxWidth / sampledWidth,
+        (float) maxHeight / sampledHeight));
+    int width = Math.max(1, Math.round(sampledWidth * scale));
+    int height = Math.max(1, Math.round(sampledHeight * scale));
+
+    options.inJustDecodeBounds = false;
+    options.inSampleSize = sampleSize;
+    if (scale < 1) {
+      options.inScaled = true;
+      options.inDensity = sampledWidth;
+      options.inTargetDensity = width;
+    }
+    // leave some room for rounding differences of the decoder
+    return decodeInto(source, options, (width + 1) * (height + 1) * BYTES_PER_PIXEL, pool);
+  }
+
+  @NonNull
+  @Override
+  public Bitmap read(@NonNull File thumbnail, @NonNull BitmapPool<Bitmap> pool)
+      throws IOException {
+    BitmapFactory.Options options = readBounds(thumbnail);
+    options.inJustDecodeBounds = false;
+    return decodeInto(thumbnail, options,
+        options.outWidth * options.outHeight * BYTES_PER_PIXEL, pool);
+  }
+
+  /**
+   * Decodes an image into a pooled bitmap if possible.
+   *
+   * @param byteCount the number of bytes the decoded image will occupy
+   */
+  private static Bitmap decodeInto(File source, BitmapFactory.Options options, int byteCount,
+      BitmapPool<Bitmap> pool) throws IOException {
+    options.inPreferredConfig = Bitmap.Config.RGB_565;
+    options.inMutable = true;
+    options.inBitmap = pool.get(byteCount);
+    Bitmap bitmap;
+    try {
+      bitmap = BitmapFactory.decodeFile(source.getPath(), options);
+    } catch (IllegalArgumentException e) {
+      // the pooled bitmap is not suitable after all, so allocate a new one instead
+      Bitmap unsuitable = options.inBitmap;
+      options.inBitmap = null;
+      bitmap = BitmapFactory.decodeFile(source.getPath(), options);
+      pool.put(unsuitable);
+    }
+    if (bitmap == null) {
+      if (options.inBitmap != null) {
+        pool.put(options.inBitmap);
+      }
+      throw new IOException("Could not decode " + source);
+    }
+    return bitmap;
+  }
+
+  private static BitmapFactory.Options readBounds(File source) throws IOException {
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeFile(source.getPath(), options);
+    if (options.outWidth <= 0 || options.outHeight <= 0) {
+      throw new IOException("Not an image: " + source);
+    }
+    return options;
+  }
+
+  private static int divideRoundingUp(int dividend, int divisor) {
+    return (dividend + divisor - 1) / divisor;
+  }
+
+  @Override
+  public void encode(@NonNull Bitmap thumbnail, @NonNull OutputStream out) throws IOException {
+    if (!thumbnail.compress(CompressFormat.JPEG, JPEG_QUALITY, out)) {
+      throw new IOException("Could not encode thumbnail");
+    }
+  }
+
+  @Override
+  public int sizeOf(@NonNull Bitmap thumbnail) {
+    return thumbnail.getAllocationByteCount();
+  }
+
+}
@@ -0,0 +1,134 @@
+package de.portux.elfeb.images;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Lays out files within a directory by the hash of their content.
+ * <p>
+ * The files are sharded into subdirectories named after the first characters of their hash, such
+ * that no single directory has to hold all of them. A file which is stored under its hash is never
+ * written again, so identical content is only kept once.
+ *
+ * @author Rico Bergmann
+ */
+public class ContentStore {
+
+  private static final int SHARD_LENGTH = 2;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Marks the files which are still being written.
+   */
+  static final String TEMP_SUFFIX = ".tmp";
+
+  private final File mRoot;
+
+  /**
+   * @param root the directory to store the files in
+   */
+  ContentStore(@NonNull File root) {
+    this.mRoot = root.getAbsoluteFile();
+  }
+
+  @NonNull
+  File getRoot() {
+    return mRoot;
+  }
+
+  /**
+   * Provides the location of some content. It does not have to exist yet.
+   *
+   * @param hash the hash of the content
+   * @param extension the extension of the file, including the dot
+   */
+  @NonNull
+  File fileFor(@NonNull String hash, @NonNull String extension) {
+    return new File(new File(mRoot, hash.substring(0, SHARD_LENGTH)), hash + extension);
+  }
+
+  /**
+   * Creates a new, empty file to write some content into before it is stored under its hash.
+   */
+  @NonNull
+  File newTempFile() throws IOException {
+    ensureExists(mRoot);
+    return File.createTempFile("content", TEMP_SUFFIX, mRoot);
+  }
+
+  /**
+   * Stores a file under the hash of its content. The file has to be located on the same file
+   * system as the store, e.g. because it has been created by {@link #newTempFile()}.
+   *
+   * @return the stored file
+   */
+  @NonNull
+  File put(@NonNull File file, @NonNull String hash, @NonNull String extension)
+      throws IOException {
+    File target = fileFor(hash, extension);
+    ensureExists(target.getParentFile());
+    if (!file.renameTo(target)) {
+      throw new IOException("Could not store " + file + " as " + target);
+    }
+    return target;
+  }
+
+  /**
+   * Checks whether a file is located within the store.
+   */
+  boolean contains(@NonNull File file) {
+    for (File directory = file.getAbsoluteFile().getParentFile(); directory != null;
+        directory = directory.getParentFile()) {
+      if (directory.equals(mRoot)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Determines the hex encoded SHA-256 hash of a file. It is streamed through a channel in chunks
+   * of a fixed size, so hashing a large file does not take more memory than hashing a small one.
+   */
+  @NonNull
+  @WorkerThread
+  public static String hash(@NonNull File file) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+    try (FileInputStream in = new FileInputStream(file);
+        FileChannel channel = in.getChannel()) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      while (channel.read(buffer) >= 0) {
+        buffer.flip();
+        digest.update(buffer);
+        buffer.clear();
+      }
+    }
+    byte[] hash = digest.digest();
+    StringBuilder hex = new StringBuilder(hash.length * 2);
+    for (byte b : hash) {
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+      hex.append(Character.forDigit(b & 0xf, 16));
+    }
+    return hex.toString();
+  }
+
+  private static void ensureExists(File directory) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create directory " + directory);
+    }
+  }
+
+}
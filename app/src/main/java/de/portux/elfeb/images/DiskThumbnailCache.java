@@ -0,0 +1,170 @@
+package de.portux.elfeb.images;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.portux.elfeb.support.Assert;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Stores encoded thumbnails as files within a directory, bounded by their total size.
+ * <p>
+ * Each key is mapped to a file named after its hash. The last modification time of the files
+ * serves as access time, such that the least recently used thumbnails are deleted first once the
+ * cache has grown too large. The size of the directory is only determined once and tracked
+ * afterwards, so the directory is not listed on each access.
+ *
+ * @author Rico Bergmann
+ */
+class DiskThumbnailCache {
+
+  /**
+   * Writes the content of a cache file.
+   */
+  interface Writer {
+    void writeTo(@NonNull OutputStream out) throws IOException;
+  }
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * Marks the files which are still being written. They are neither counted nor trimmed.
+   */
+  private static final String TEMP_MARKER = ".tmp.";
+
+  private final File mDirectory;
+  private final long mMaxBytes;
+
+  @GuardedBy("this")
+  private long mBytes = -1;
+
+  /**
+   * @param directory the directory to store the thumbnails in. It should not contain any other
+   *     files, as they may be deleted.
+   * @param maxBytes the maximum total size of all thumbnails
+   */
+  DiskThumbnailCache(@NonNull File directory, long maxBytes) {
+    Assert.isTrue(maxBytes > 0, "Maximum size must be positive");
+    this.mDirectory = directory;
+    this.mMaxBytes = maxBytes;
+  }
+
+  /**
+   * Provides the file of a cached thumbnail.
+   *
+   * @return the file or {@code null} if the thumbnail is not cached
+   */
+  @Nullable
+  synchronized File get(@NonNull String key) {
+    File file = fileFor(key);
+    if (!file.isFile()) {
+      return null;
+    }
+    //noinspection ResultOfMethodCallIgnored
+    file.setLastModified(System.currentTimeMillis());
+    return file;
+  }
+
+  /**
+   * Stores a thumbnail. The file is written in full before it becomes visible, such that a crash
+   * never leaves a truncated thumbnail behind.
+   */
+  void put(@NonNull String key, @NonNull Writer writer) throws IOException {
+    File file = fileFor(key);
+    File temp = new File(mDirectory,
+        file.getName() + TEMP_MARKER + Thread.currentThread().getId());
+    if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+      throw new IOException("Could not create cache directory " + mDirectory);
+    }
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+      writer.writeTo(out);
+    } catch (IOException | RuntimeException e) {
+      //noinspection ResultOfMethodCallIgnored
+      temp.delete();
+      throw e;
+    }
+
+    synchronized (this) {
+      ensureSizeKnown();
+      mBytes -= file.length();
+      if (!temp.renameTo(file)) {
+        //noinspection ResultOfMethodCallIgnored
+        temp.delete();
+        throw new IOException("Could not store thumbnail " + file);
+      }
+      mBytes += file.length();
+      if (mBytes > mMaxBytes) {
+        trim();
+      }
+    }
+  }
+
+  /**
+   * The total size of all cached thumbnails.
+   */
+  synchronized long size() {
+    ensureSizeKnown();
+    return mBytes;
+  }
+
+  long getMaxBytes() {
+    return mMaxBytes;
+  }
+
+  @GuardedBy("this")
+  private void ensureSizeKnown() {
+    if (mBytes >= 0) {
+      return;
+    }
+    mBytes = 0;
+    for (File file : listThumbnails()) {
+      mBytes += file.length();
+    }
+  }
+
+  /**
+   * Deletes the least recently used thumbnails until at most three quarters of the maximum size
+   * are occupied. This leaves some room for further thumbnails before the next trim.
+   */
+  @GuardedBy("this")
+  private void trim() {
+    File[] files = listThumbnails();
+    Arrays.sort(files,
+        (first, second) -> Long.compare(first.lastModified(), second.lastModified()));
+    long target = mMaxBytes / 4 * 3;
+    for (int i = 0; i < files.length && mBytes > target; ++i) {
+      long length = files[i].length();
+      if (files[i].delete()) {
+        mBytes -= length;
+      }
+    }
+  }
+
+  private File[] listThumbnails() {
+    File[] files = mDirectory.listFiles(file -> !file.getName().contains(TEMP_MARKER));
+    return files != null ? files : new File[0];
+  }
+
+  private File fileFor(String key) {
+    try {
+      byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes(UTF_8));
+      StringBuilder name = new StringBuilder(hash.length * 2);
+      for (byte b : hash) {
+        name.append(Character.forDigit((b >> 4) & 0xf, 16));
+        name.append(Character.forDigit(b & 0xf, 16));
+      }
+      return new File(mDirectory, name.toString());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-1 is not available", e);
+    }
+  }
+
+}
@@ -0,0 +1,744 @@
+package de.portux.elfeb.images;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import de.portux.elfeb.support.Assert;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code PhotoIngestion} turns freshly attached photos into the copies the app actually works
+ * with.
+ * <p>
+ * Camera images are far larger than anything the app displays. Each attached image is therefore
+ * re-encoded at a bounded resolution in the background, and the attachment is switched over to
+ * this working copy. Depending on the {@link OriginalPolicy}, the original is either archived or
+ * deleted. This only applies to originals within the directories the app owns, e.g. the photos it
+ * has taken itself. Images which have been picked from the gallery are left alone.
+ * <p>
+ * Working copies are kept in a {@link ContentStore} under the hash of the attached file. Before an
+ * image is transcoded, its hash is looked up in the {@link Catalog}. If the same content has been
+ * attached before, the attachment simply refers to the stored working copy, so attaching a known
+ * image takes neither further space nor a further transcoding. Stored content which is not
+ * referenced by any attachment anymore is collected in the background.
+ * <p>
+ * Archived originals count against a storage budget. Whenever it is exceeded, the originals which
+ * have not been opened for the longest time are dropped, leaving only their working copies.
+ * <p>
+ * Images are submitted to a bounded queue. If it is full, the image is left for a sweep over all
+ * attachments which have not been ingested yet. Such a sweep is scheduled as soon as the queue has
+ * drained, so nothing is lost if the user attaches many photos at once.
+ * <p>
+ * The attachments are only accessed through the {@link Catalog} and the images only through the
+ * {@link Codec}, which keeps the pipeline itself testable without a device.
+ *
+ * @author Rico Bergmann
+ */
+public class PhotoIngestion {
+
+  /**
+   * What happens to an owned original once its working copy has been written.
+   */
+  public enum OriginalPolicy {
+
+    /**
+     * The original is kept in the archive directory, as long as the storage budget permits.
+     */
+    ARCHIVE,
+
+    /**
+     * The original is deleted right away.
+     */
+    DELETE
+  }
+
+  /**
+   * Re-encodes the images.
+   */
+  public interface Codec {
+
+    /**
+     * Writes a JPEG version of an image which fits into a square of the given size. Smaller images
+     * should not be scaled up.
+     *
+     * @param source the image to transcode
+     * @param target the file to write to. It exists already and has to be overwritten.
+     * @param maxDimension the maximum width and height of the working copy
+     * @throws IOException if the source could not be decoded or the target not be written
+     */
+    void transcode(@NonNull File source, @NonNull File target, int maxDimension)
+        throws IOException;
+  }
+
+  /**
+   * Records the state of the image attachments.
+   */
+  public interface Catalog {
+
+    /**
+     * Checks whether there is an image attachment which refers to a file and has not been ingested
+     * yet.
+     */
+    boolean isPending(@NonNull File image) throws IOException;
+
+    /**
+     * Provides image attachments which have not been ingested yet, ordered by their file.
+     *
+     * @param after the file to continue after, or {@code null} to start from the beginning
+     * @param limit the maximum number of files to return
+     */
+    @NonNull
+    List<File> getPendingImages(@Nullable File after, int limit) throws IOException;
+
+    /**
+     * Looks up stored content by its hash.
+     *
+     * @return the content or {@code null} if it is not known
+     */
+    @Nullable
+    StoredContent findContent(@NonNull String hash) throws IOException;
+
+    /**
+     * Records new content and switches all pending attachments of a file over to it. Attachments
+     * which would refer to the same content twice within an observation are dropped.
+     *
+     * @param source the file the attachments currently refer to
+     * @param content the content. Its file may be the source itself, if it has been kept as is.
+     * @param originalSize the size of the source in bytes
+     * @return whether any attachment still referred to the source
+     */
+    boolean recordIngested(@NonNull File source, @NonNull StoredContent content,
+        long originalSize) throws IOException;
+
+    /**
+     * Switches all pending attachments of a file over to content which is stored already.
+     *
+     * @return whether any attachment still referred to the source
+     * @see #recordIngested(File, StoredContent, long)
+     */
+    boolean recordDuplicate(@NonNull File source, @NonNull StoredContent content,
+        long originalSize) throws IOException;
+
+    /**
+     * The total size of all archived originals in bytes.
+     */
+    long getArchivedSize() throws IOException;
+
+    /**
+     * Provides the archived originals which have not been opened for the longest time, least
+     * recently opened first.
+     */
+    @NonNull
+    List<ArchivedOriginal> getLeastRecentlyUsedOriginals(int limit) throws IOException;
+
+    /**
+     * Forgets an archived original, such that only its working copy remains.
+     */
+    void recordDemoted(@NonNull File archivedOriginal) throws IOException;
+
+    /**
+     * Provides stored content which is not referred to by any attachment anymore.
+     */
+    @NonNull
+    List<StoredContent> getUnreferencedContents(int limit) throws IOException;
+
+    /**
+     * Forgets stored content, unless it has been referred to again in the meantime.
+     *
+     * @return whether the content has been removed, such that its files may be deleted
+     */
+    boolean removeContent(@NonNull String hash) throws IOException;
+  }
+
+  /**
+   * An attached file which is kept in the store, identified by its hash.
+   */
+  public static final class StoredContent {
+
+    private final String mHash;
+    private final File mFile;
+    private final long mSize;
+
+    @Nullable
+    private final File mOriginal;
+
+    /**
+     * @param hash the hash of the attached file
+     * @param file the working copy, or the attached file itself if it has been kept as is
+     * @param size the size of the file in bytes
+     * @param original the archived original, or {@code null}
+     */
+    public StoredContent(@NonNull String hash, @NonNull File file, long size,
+        @Nullable File original) {
+      this.mHash = hash;
+      this.mFile = file;
+      this.mSize = size;
+      this.mOriginal = original;
+    }
+
+    @NonNull
+    public String getHash() {
+      return mHash;
+    }
+
+    @NonNull
+    public File getFile() {
+      return mFile;
+    }
+
+    public long getSize() {
+      return mSize;
+    }
+
+    @Nullable
+    public File getOriginal() {
+      return mOriginal;
+    }
+  }
+
+  /**
+   * An original which is kept in the archive.
+   */
+  public static final class ArchivedOriginal {
+
+    private final File mPath;
+    private final long mSize;
+
+    public ArchivedOriginal(@NonNull File path, long size) {
+      this.mPath = path;
+      this.mSize = size;
+    }
+
+    @NonNull
+    public File getPath() {
+      return mPath;
+    }
+
+    public long getSize() {
+      return mSize;
+    }
+  }
+
+  /**
+   * The number of pending images which are read from the catalog at once while sweeping.
+   */
+  static final int SWEEP_PAGE_SIZE = 50;
+
+  /**
+   * The number of originals which are demoted at once while enforcing the budget.
+   */
+  private static final int DEMOTION_PAGE_SIZE = 20;
+
+  /**
+   * The number of unreferenced contents which are collected at once.
+   */
+  private static final int COLLECTION_PAGE_SIZE = 20;
+
+  private static final String WORKING_COPY_SUFFIX = ".jpg";
+
+  private static final int COPY_BUFFER_SIZE = 8 * 1024;
+
+  private final Codec mCodec;
+  private final Catalog mCatalog;
+  private final List<File> mOwnedDirectories;
+  private final ContentStore mStore;
+  private final ContentStore mArchive;
+  private final int mMaxDimension;
+  private final int mQueueCapacity;
+  private final Executor mExecutor;
+
+  private volatile long mStorageBudget;
+  private volatile OriginalPolicy mOriginalPolicy;
+
+  @GuardedBy("mQueue")
+  private final Set<File> mQueue = new LinkedHashSet<>();
+
+  /**
+   * Whether an image has been rejected since the last sweep started.
+   */
+  @GuardedBy("mQueue")
+  private boolean mSweepNeeded = false;
+
+  private final AtomicLong mIngestedCount = new AtomicLong();
+  private final AtomicLong mKeptCount = new AtomicLong();
+  private final AtomicLong mFailureCount = new AtomicLong();
+  private final AtomicLong mRejectedCount = new AtomicLong();
+  private final AtomicLong mOriginalBytes = new AtomicLong();
+  private final AtomicLong mStoredBytes = new AtomicLong();
+  private final AtomicLong mDemotedCount = new AtomicLong();
+  private final AtomicLong mDemotedBytes = new AtomicLong();
+  private final AtomicLong mHashedBytes = new AtomicLong();
+  private final AtomicLong mDuplicateCount = new AtomicLong();
+  private final AtomicLong mDuplicateBytes = new AtomicLong();
+  private final AtomicLong mCollectedCount = new AtomicLong();
+
+  /**
+   * @param codec re-encodes the images
+   * @param catalog records the state of the attachments
+   * @param ownedDirectories the directories whose images belong to the app, such that their
+   *     originals may be archived or deleted
+   * @param storeDirectory the directory of the store the working copies are kept in
+   * @param archiveDirectory where the originals are archived, likewise by their hash
+   * @param maxDimension the maximum width and height of the working copies
+   * @param queueCapacity the maximum number of submitted images waiting to be ingested
+   * @param storageBudget the maximum total size of all archived originals in bytes
+   * @param originalPolicy what happens to the owned originals
+   * @param executor the executor to ingest the images on. It has to execute at most one task at a
+   *     time.
+   */
+  public PhotoIngestion(@NonNull Codec codec, @NonNull Catalog catalog,
+      @NonNull Collection<File> ownedDirectories, @NonNull File storeDirectory,
+      @NonNull File archiveDirectory, int maxDimension, int queueCapacity, long storageBudget,
+      @NonNull OriginalPolicy originalPolicy, @NonNull Executor executor) {
+    Assert.notNull(codec, "Codec may not be null");
+    Assert.notNull(catalog, "Catalog may not be null");
+    Assert.noNullElements(ownedDirectories, "Owned directories may not be null");
+    Assert.notNull(storeDirectory, "Store directory may not be null");
+    Assert.notNull(archiveDirectory, "Archive directory may not be null");
+    Assert.isTrue(maxDimension > 0, "Maximum dimension must be positive");
+    Assert.isTrue(queueCapacity > 0, "Queue capacity must be positive");
+    Assert.isTrue(storageBudget >= 0, "Storage budget may not be negative");
+    Assert.notNull(originalPolicy, "Original policy may not be null");
+    Assert.notNull(executor, "Executor may not be null");
+    this.mCodec = codec;
+    this.mCatalog = catalog;
+    this.mOwnedDirectories = new ArrayList<>(ownedDirectories);
+    this.mStore = new ContentStore(storeDirectory);
+    this.mArchive = new ContentStore(archiveDirectory);
+    this.mMaxDimension = maxDimension;
+    this.mQueueCapacity = queueCapacity;
+    this.mStorageBudget = storageBudget;
+    this.mOriginalPolicy = originalPolicy;
+    this.mExecutor = executor;
+  }
+
+  /**
+   * Schedules an attached image for ingestion.
+   *
+   * @return whether the image has been queued. If the queue is full, it will be picked up by the
+   *     next sweep instead.
+   */
+  public boolean submit(@NonNull File image) {
+    Assert.notNull(image, "Image may not be null");
+    synchronized (mQueue) {
+      if (mQueue.contains(image)) {
+        return true;
+      }
+      if (mQueue.size() >= mQueueCapacity) {
+        mRejectedCount.incrementAndGet();
+        mSweepNeeded = true;
+        return false;
+      }
+      mQueue.add(image);
+    }
+    mExecutor.execute(() -> {
+      try {
+        ingest(image);
+      } finally {
+        dequeue(image);
+      }
+    });
+    return true;
+  }
+
+  /**
+   * Schedules all images which have not been ingested yet, e.g. because the app has been stopped
+   * before.
+   */
+  public void submitPending() {
+    mExecutor.execute(this::sweep);
+  }
+
+  private void dequeue(File image) {
+    boolean sweepNecessary;
+    synchronized (mQueue) {
+      mQueue.remove(image);
+      sweepNecessary = mSweepNeeded && mQueue.isEmpty();
+      if (sweepNecessary) {
+        mSweepNeeded = false;
+      }
+    }
+    if (sweepNecessary) {
+      submitPending();
+    }
+  }
+
+  @WorkerThread
+  private void sweep() {
+    File last = null;
+    try {
+      List<File> pending;
+      do {
+        pending = mCatalog.getPendingImages(last, SWEEP_PAGE_SIZE);
+        for (File image : pending) {
+          ingest(image);
+          last = image;
+        }
+      } while (pending.size() == SWEEP_PAGE_SIZE);
+      collect();
+    } catch (IOException e) {
+      // the remaining images will be ingested by the next sweep
+      mFailureCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * Schedules the removal of all stored content which is not referenced anymore, e.g. after
+   * attachments have been removed.
+   */
+  public void collectGarbage() {
+    mExecutor.execute(() -> {
+      try {
+        collect();
+      } catch (IOException e) {
+        mFailureCount.incrementAndGet();
+      }
+    });
+  }
+
+  @WorkerThread
+  private void collect() throws IOException {
+    List<StoredContent> unreferenced;
+    boolean removedAny;
+    do {
+      unreferenced = mCatalog.getUnreferencedContents(COLLECTION_PAGE_SIZE);
+      removedAny = false;
+      for (StoredContent content : unreferenced) {
+        if (!mCatalog.removeContent(content.getHash())) {
+          continue;
+        }
+        removedAny = true;
+        mCollectedCount.incrementAndGet();
+        // attached files which have been kept in place are not ours to delete
+        if (mStore.contains(content.getFile()) || isOwned(content.getFile())) {
+          delete(content.getFile());
+        }
+        if (content.getOriginal() != null) {
+          delete(content.getOriginal());
+        }
+      }
+    } while (removedAny && unreferenced.size() == COLLECTION_PAGE_SIZE);
+  }
+
+  /**
+   * Ingests a single image. Failures are counted, the image stays pending in that case.
+   */
+  @WorkerThread
+  private void ingest(File source) {
+    try {
+      if (!source.isFile() || !mCatalog.isPending(source)) {
+        // the attachment has been removed or ingested in the meantime
+        return;
+      }
+      long originalSize = source.length();
+      String hash = ContentStore.hash(source);
+      mHashedBytes.addAndGet(originalSize);
+      boolean owned = isOwned(source);
+
+      StoredContent known = mCatalog.findContent(hash);
+      if (known != null && known.getFile().isFile()) {
+        if (mCatalog.recordDuplicate(source, known, originalSize)) {
+          mDuplicateCount.incrementAndGet();
+          mDuplicateBytes.addAndGet(originalSize);
+          if (owned && !known.getFile().equals(source.getAbsoluteFile())) {
+            delete(source);
+          }
+        }
+        return;
+      }
+
+      // files within the store are working copies already, e.g. from before it was addressed
+      File workingCopy = mStore.contains(source) ? null : transcode(source);
+      if (workingCopy != null && workingCopy.length() >= originalSize) {
+        // re-encoding did not pay off, e.g. because the image has been small already
+        delete(workingCopy);
+        workingCopy = null;
+      }
+      if (workingCopy == null) {
+        keep(source, hash, originalSize, owned);
+        return;
+      }
+
+      File stored = mStore.put(workingCopy, hash, WORKING_COPY_SUFFIX);
+      File archivedOriginal = owned && mOriginalPolicy == OriginalPolicy.ARCHIVE
+          ? mArchive.fileFor(hash, extensionOf(source))
+          : null;
+      long storedSize = stored.length();
+      StoredContent content = new StoredContent(hash, stored, storedSize, archivedOriginal);
+      boolean recorded;
+      try {
+        recorded = mCatalog.recordIngested(source, content, originalSize);
+      } catch (IOException e) {
+        delete(stored);
+        throw e;
+      }
+      if (!recorded) {
+        // the unreferenced content is collected later on
+        return;
+      }
+      mIngestedCount.incrementAndGet();
+      mOriginalBytes.addAndGet(originalSize);
+      mStoredBytes.addAndGet(storedSize);
+
+      // the attachments refer to the working copy now, so the original may be moved safely
+      if (archivedOriginal != null) {
+        try {
+          move(source, archivedOriginal);
+        } catch (IOException e) {
+          // keep the original where it is, the attachments do not depend on it anymore
+          delete(archivedOriginal);
+          mCatalog.recordDemoted(archivedOriginal);
+          throw e;
+        }
+        enforceBudget();
+      } else if (owned) {
+        delete(source);
+      }
+    } catch (IOException e) {
+      mFailureCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * Records an image which could not be shrunk as its own working copy. Owned images are moved into
+   * the store, while foreign ones are referred to where they are.
+   */
+  private void keep(File source, String hash, long size, boolean owned) throws IOException {
+    File stored = owned && !mStore.contains(source)
+        ? mStore.fileFor(hash, extensionOf(source))
+        : source.getAbsoluteFile();
+    if (!mCatalog.recordIngested(source, new StoredContent(hash, stored, size, null), size)) {
+      return;
+    }
+    mKeptCount.incrementAndGet();
+    if (!stored.equals(source.getAbsoluteFile())) {
+      try {
+        move(source, stored);
+      } catch (IOException e) {
+        // the attachments refer to the stored file already, which is reported as dangling
+        delete(stored);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Writes the working copy of an image into a temporary file of the store.
+   *
+   * @return the working copy or {@code null} if the image could not be transcoded. It is kept as
+   *     is in that case, as it might not be an image Android is able to decode.
+   */
+  @Nullable
+  private File transcode(File source) throws IOException {
+    File workingCopy = mStore.newTempFile();
+    try {
+      mCodec.transcode(source, workingCopy, mMaxDimension);
+      return workingCopy;
+    } catch (IOException | RuntimeException e) {
+      delete(workingCopy);
+      return null;
+    }
+  }
+
+  /**
+   * Demotes the least recently used originals until the archive fits into the storage budget
+   * again.
+   */
+  @WorkerThread
+  private void enforceBudget() throws IOException {
+    long budget = mStorageBudget;
+    long archivedSize = mCatalog.getArchivedSize();
+    while (archivedSize > budget) {
+      List<ArchivedOriginal> originals = mCatalog.getLeastRecentlyUsedOriginals(DEMOTION_PAGE_SIZE);
+      if (originals.isEmpty()) {
+        return;
+      }
+      for (int i = 0; i < originals.size() && archivedSize > budget; ++i) {
+        ArchivedOriginal original = originals.get(i);
+        mCatalog.recordDemoted(original.getPath());
+        delete(original.getPath());
+        archivedSize -= original.getSize();
+        mDemotedCount.incrementAndGet();
+        mDemotedBytes.addAndGet(original.getSize());
+      }
+    }
+  }
+
+  /**
+   * Changes the maximum total size of all archived originals. If the archive is larger than that
+   * already, originals are demoted in the background.
+   */
+  public void setStorageBudget(long storageBudget) {
+    Assert.isTrue(storageBudget >= 0, "Storage budget may not be negative");
+    mStorageBudget = storageBudget;
+    mExecutor.execute(() -> {
+      try {
+        enforceBudget();
+      } catch (IOException e) {
+        mFailureCount.incrementAndGet();
+      }
+    });
+  }
+
+  public long getStorageBudget() {
+    return mStorageBudget;
+  }
+
+  /**
+   * Changes what happens to the originals of images which are ingested from now on. Originals
+   * which are archived already are kept.
+   */
+  public void setOriginalPolicy(@NonNull OriginalPolicy originalPolicy) {
+    Assert.notNull(originalPolicy, "Original policy may not be null");
+    mOriginalPolicy = originalPolicy;
+  }
+
+  @NonNull
+  public OriginalPolicy getOriginalPolicy() {
+    return mOriginalPolicy;
+  }
+
+  private boolean isOwned(File image) {
+    File directory = image.getAbsoluteFile().getParentFile();
+    for (; directory != null; directory = directory.getParentFile()) {
+      for (File owned : mOwnedDirectories) {
+        if (directory.equals(owned.getAbsoluteFile())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static String extensionOf(File file) {
+    String name = file.getName();
+    int extension = name.lastIndexOf('.');
+    return extension > 0 ? name.substring(extension) : "";
+  }
+
+  /**
+   * Moves a file, copying it if it cannot be renamed, e.g. because the target is located on an
+   * other file system.
+   */
+  private static void move(File source, File target) throws IOException {
+    File directory = target.getParentFile();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create directory " + directory);
+    }
+    if (source.renameTo(target)) {
+      return;
+    }
+    try (InputStream in = new FileInputStream(source);
+        OutputStream out = new FileOutputStream(target)) {
+      byte[] buffer = new byte[COPY_BUFFER_SIZE];
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        out.write(buffer, 0, read);
+      }
+    }
+    delete(source);
+  }
+
+  private static void delete(File file) {
+    //noinspection ResultOfMethodCallIgnored
+    file.delete();
+  }
+
+  /**
+   * The number of images which have been replaced by a working copy.
+   */
+  public long getIngestedCount() {
+    return mIngestedCount.get();
+  }
+
+  /**
+   * The number of images which have been kept as they are, as they could not be transcoded or
+   * re-encoding would not have made them smaller.
+   */
+  public long getKeptCount() {
+    return mKeptCount.get();
+  }
+
+  /**
+   * The number of images whose ingestion failed. They stay pending and are retried by the next
+   * sweep.
+   */
+  public long getFailureCount() {
+    return mFailureCount.get();
+  }
+
+  /**
+   * The number of images which have not been queued, as the queue was full.
+   */
+  public long getRejectedCount() {
+    return mRejectedCount.get();
+  }
+
+  /**
+   * The total size of all ingested images before they have been replaced by their working copies.
+   */
+  public long getOriginalBytes() {
+    return mOriginalBytes.get();
+  }
+
+  /**
+   * The total size of the working copies of all ingested images.
+   */
+  public long getStoredBytes() {
+    return mStoredBytes.get();
+  }
+
+  /**
+   * The number of bytes which have been hashed to look up the content of attached images.
+   */
+  public long getHashedBytes() {
+    return mHashedBytes.get();
+  }
+
+  /**
+   * The number of attached images whose content had been stored already.
+   */
+  public long getDuplicateCount() {
+    return mDuplicateCount.get();
+  }
+
+  /**
+   * The total size of all attached images whose content had been stored already. None of these
+   * bytes have been stored again.
+   */
+  public long getDuplicateBytes() {
+    return mDuplicateBytes.get();
+  }
+
+  /**
+   * The number of stored contents which have been removed, as they were not referenced anymore.
+   */
+  public long getCollectedCount() {
+    return mCollectedCount.get();
+  }
+
+  /**
+   * The number of archived originals which have been dropped to stay within the storage budget.
+   */
+  public long getDemotedCount() {
+    return mDemotedCount.get();
+  }
+
+  public long getDemotedBytes() {
+    return mDemotedBytes.get();
+  }
+
+}
@@ -0,0 +1,139 @@
+package de.portux.elfeb.images;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.portux.elfeb.support.Assert;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache which is bounded by the total size of its values rather than their number.
+ * <p>
+ * If the values exceed the maximum size, the least recently used ones are evicted. A single value
+ * which is larger than the whole cache is not stored at all.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ * @author Rico Bergmann
+ */
+class SizedLruCache<K, V> {
+
+  /**
+   * Determines the size of a value, usually in bytes.
+   */
+  interface Sizer<V> {
+    int sizeOf(@NonNull V value);
+  }
+
+  /**
+   * Is notified about values which have been removed from the cache.
+   */
+  interface EvictionListener<V> {
+    void onEvicted(@NonNull V value);
+  }
+
+  private final long mMaxSize;
+  private final Sizer<V> mSizer;
+
+  @Nullable
+  private final EvictionListener<V> mEvictionListener;
+
+  @GuardedBy("this")
+  private final LinkedHashMap<K, V> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+  @GuardedBy("this")
+  private long mSize = 0;
+
+  @GuardedBy("this")
+  private long mEvictionCount = 0;
+
+  /**
+   * @param maxSize the maximum total size of all values
+   * @param sizer determines the size of each value
+   */
+  SizedLruCache(long maxSize, @NonNull Sizer<V> sizer) {
+    this(maxSize, sizer, null);
+  }
+
+  /**
+   * @param maxSize the maximum total size of all values
+   * @param sizer determines the size of each value
+   * @param evictionListener is notified about each value which leaves the cache, be it evicted,
+   *     replaced, cleared or rejected for being too large. It is called while the cache is locked.
+   */
+  SizedLruCache(long maxSize, @NonNull Sizer<V> sizer,
+      @Nullable EvictionListener<V> evictionListener) {
+    Assert.isTrue(maxSize > 0, "Maximum size must be positive");
+    this.mMaxSize = maxSize;
+    this.mSizer = sizer;
+    this.mEvictionListener = evictionListener;
+  }
+
+  @Nullable
+  synchronized V get(@NonNull K key) {
+    return mEntries.get(key);
+  }
+
+  /**
+   * Stores a value, evicting the least recently used ones as necessary.
+   */
+  synchronized void put(@NonNull K key, @NonNull V value) {
+    int size = mSizer.sizeOf(value);
+    V previous = mEntries.remove(key);
+    if (previous != null) {
+      mSize -= mSizer.sizeOf(previous);
+      evicted(previous);
+    }
+    if (size > mMaxSize) {
+      evicted(value);
+      return;
+    }
+    mEntries.put(key, value);
+    mSize += size;
+    trimTo(mMaxSize);
+  }
+
+  /**
+   * Evicts all values.
+   */
+  synchronized void clear() {
+    trimTo(0);
+  }
+
+  @GuardedBy("this")
+  private void trimTo(long maxSize) {
+    Iterator<Map.Entry<K, V>> eldest = mEntries.entrySet().iterator();
+    while (mSize > maxSize && eldest.hasNext()) {
+      V value = eldest.next().getValue();
+      mSize -= mSizer.sizeOf(value);
+      eldest.remove();
+      ++mEvictionCount;
+      evicted(value);
+    }
+  }
+
+  @GuardedBy("this")
+  private void evicted(V value) {
+    if (mEvictionListener != null) {
+      mEvictionListener.onEvicted(value);
+    }
+  }
+
+  /**
+   * The total size of all cached values.
+   */
+  synchronized long size() {
+    return mSize;
+  }
+
+  long getMaxSize() {
+    return mMaxSize;
+  }
+
+  synchronized long getEvictionCount() {
+    return mEvictionCount;
+  }
+
+}
@@ -0,0 +1,374 @@
+package de.portux.elfeb.images;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import de.portux.elfeb.support.Assert;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code ThumbnailLoader} provides downsampled versions of image files without blocking the
+ * calling thread.
+ * <p>
+ * Thumbnails are looked up in three stages: first in a memory cache which is bounded by the size of
+ * the thumbnails in bytes, then in a disk cache of encoded thumbnails and only then the image
+ * itself is decoded - with subsampling, such that a full resolution photo is never held in memory.
+ * Everything but the memory lookup happens on a background executor, the result is delivered on
+ * the callback executor (usually the main thread).
+ * <p>
+ * Each request may be cancelled, e.g. once the view it was issued for is recycled. A cancelled
+ * request will not be decoded if it did not start yet, and its result will never be delivered.
+ * <p>
+ * Thumbnails are reference counted: the memory cache holds one reference, and each delivered
+ * thumbnail another one until it is {@link #release(Object) released}. Once a thumbnail is neither
+ * cached nor displayed, it is returned to the {@link BitmapPool}, from which further thumbnails
+ * are decoded. While scrolling through a list, this replaces the allocation of a new bitmap per
+ * item by reusing the bitmaps of items which have scrolled out of view.
+ * <p>
+ * The loader does not depend on the actual image representation. The {@link Decoder} takes care of
+ * that, which keeps the loader itself testable without a device.
+ *
+ * @param <B> the type of the decoded images
+ * @author Rico Bergmann
+ */
+public class ThumbnailLoader<B> {
+
+  /**
+   * Decodes and encodes the images.
+   */
+  public interface Decoder<B> {
+
+    /**
+     * Decodes an image, such that it fits into the given bounds. The image should be subsampled
+     * while decoding, as determined by
+     * {@link ThumbnailLoader#calculateSampleSize(int, int, int, int)}.
+     *
+     * @param pool provides bitmaps to decode into
+     */
+    @NonNull
+    B decode(@NonNull File source, int maxWidth, int maxHeight, @NonNull BitmapPool<B> pool)
+        throws IOException;
+
+    /**
+     * Reads a thumbnail which has been written by {@link #encode(Object, OutputStream)}.
+     *
+     * @param pool provides bitmaps to decode into
+     */
+    @NonNull
+    B read(@NonNull File thumbnail, @NonNull BitmapPool<B> pool) throws IOException;
+
+    void encode(@NonNull B thumbnail, @NonNull OutputStream out) throws IOException;
+
+    /**
+     * The number of bytes a thumbnail occupies in memory.
+     */
+    int sizeOf(@NonNull B thumbnail);
+  }
+
+  /**
+   * Receives the result of a request. The methods are called on the callback executor.
+   * <p>
+   * A loaded thumbnail has to be {@link #release(Object) released} once it is not displayed
+   * anymore.
+   */
+  public interface Target<B> {
+
+    void onThumbnailLoaded(@NonNull B thumbnail);
+
+    void onThumbnailFailed(@NonNull IOException cause);
+  }
+
+  /**
+   * A pending (or already completed) thumbnail request.
+   */
+  public static final class Request {
+
+    private volatile boolean mCancelled = false;
+
+    @Nullable
+    private final FutureTask<Void> mTask;
+
+    private Request(@Nullable FutureTask<Void> task) {
+      this.mTask = task;
+    }
+
+    /**
+     * Drops the request. Its target will not be notified afterwards, if this is called on the
+     * thread the results are delivered on.
+     */
+    public void cancel() {
+      mCancelled = true;
+      if (mTask != null) {
+        mTask.cancel(false);
+      }
+    }
+
+    public boolean isCancelled() {
+      return mCancelled;
+    }
+  }
+
+  private final Decoder<B> mDecoder;
+  private final BitmapPool<B> mPool;
+
+  /**
+   * The cache is only modified while holding the lock of the reference counts, such that a cached
+   * thumbnail cannot be pooled between looking it up and acquiring it.
+   */
+  private final SizedLruCache<String, B> mMemoryCache;
+
+  /**
+   * The reference counts of the thumbnails. They are kept weakly, such that a thumbnail whose view
+   * is discarded without releasing it is garbage collected instead of leaked. Thumbnails are
+   * compared by identity, as neither bitmaps nor most other image types override equals.
+   */
+  @GuardedBy("mReferences")
+  private final WeakHashMap<B, Integer> mReferences = new WeakHashMap<>();
+
+  @Nullable
+  private final DiskThumbnailCache mDiskCache;
+
+  private final Executor mDecodeExecutor;
+  private final Executor mCallbackExecutor;
+
+  private final AtomicLong mMemoryHitCount = new AtomicLong();
+  private final AtomicLong mDiskHitCount = new AtomicLong();
+  private final AtomicLong mDecodeCount = new AtomicLong();
+  private final AtomicLong mCancelCount = new AtomicLong();
+
+  /**
+   * @param decoder decodes the images
+   * @param memoryCacheBytes the maximum size of all thumbnails kept in memory
+   * @param poolBytes the maximum size of all bitmaps kept for reuse
+   * @param diskCacheDirectory the directory to cache encoded thumbnails in, or {@code null} to
+   *     not cache them on disk
+   * @param diskCacheBytes the maximum size of the disk cache
+   * @param decodeExecutor the executor to read and decode the images on
+   * @param callbackExecutor the executor to deliver the results on
+   */
+  public ThumbnailLoader(@NonNull Decoder<B> decoder, long memoryCacheBytes, long poolBytes,
+      @Nullable File diskCacheDirectory, long diskCacheBytes, @NonNull Executor decodeExecutor,
+      @NonNull Executor callbackExecutor) {
+    this.mDecoder = decoder;
+    this.mPool = new BitmapPool<>(poolBytes, decoder::sizeOf);
+    this.mMemoryCache = new SizedLruCache<>(memoryCacheBytes, decoder::sizeOf, this::release);
+    this.mDiskCache = diskCacheDirectory != null
+        ? new DiskThumbnailCache(diskCacheDirectory, diskCacheBytes)
+        : null;
+    this.mDecodeExecutor = decodeExecutor;
+    this.mCallbackExecutor = callbackExecutor;
+  }
+
+  /**
+   * Requests the thumbnail of an image. If it is held in memory, the target is notified right
+   * away. Otherwise the thumbnail is loaded in the background.
+   *
+   * @param source the image file
+   * @param maxWidth the maximum width of the thumbnail
+   * @param maxHeight the maximum height of the thumbnail
+   * @param target receives the thumbnail
+   * @return the request, which may be used to cancel it
+   */
+  @MainThread
+  @NonNull
+  public Request load(@NonNull File source, int maxWidth, int maxHeight,
+      @NonNull Target<B> target) {
+    Assert.isTrue(maxWidth > 0 && maxHeight > 0, "Thumbnail bounds must be positive");
+    // the modification time is part of the key, so a changed image is not served from the caches
+    final String key = source.getAbsolutePath() + '@' + source.lastModified() //
+        + '/' + maxWidth + 'x' + maxHeight;
+
+    B cached;
+    synchronized (mReferences) {
+      cached = mMemoryCache.get(key);
+      if (cached != null) {
+        acquire(cached);
+      }
+    }
+    if (cached != null) {
+      mMemoryHitCount.incrementAndGet();
+      target.onThumbnailLoaded(cached);
+      return new Request(null);
+    }
+
+    final Request[] request = new Request[1];
+    FutureTask<Void> task = new FutureTask<>(() -> {
+      if (request[0].isCancelled()) {
+        return;
+      }
+      try {
+        B thumbnail = loadThumbnail(key, source, maxWidth, maxHeight);
+        synchronized (mReferences) {
+          // one reference for the cache, one for the target
+          acquire(thumbnail);
+          acquire(thumbnail);
+          mMemoryCache.put(key, thumbnail);
+        }
+        deliver(request[0], () -> target.onThumbnailLoaded(thumbnail), thumbnail);
+      } catch (IOException e) {
+        deliver(request[0], () -> target.onThumbnailFailed(e), null);
+      }
+    }, null);
+    request[0] = new Request(task);
+    mDecodeExecutor.execute(task);
+    return request[0];
+  }
+
+  @WorkerThread
+  private B loadThumbnail(String key, File source, int maxWidth, int maxHeight)
+      throws IOException {
+    if (mDiskCache != null) {
+      File cached = mDiskCache.get(key);
+      if (cached != null) {
+        try {
+          B thumbnail = mDecoder.read(cached, mPool);
+          mDiskHitCount.incrementAndGet();
+          return thumbnail;
+        } catch (IOException e) {
+          // the cache file has been evicted or damaged in the meantime, so decode the image again
+        }
+      }
+    }
+
+    B thumbnail = mDecoder.decode(source, maxWidth, maxHeight, mPool);
+    mDecodeCount.incrementAndGet();
+
+    if (mDiskCache != null) {
+      try {
+        mDiskCache.put(key, out -> mDecoder.encode(thumbnail, out));
+      } catch (IOException e) {
+        // the thumbnail is still usable, it will just have to be decoded again next time
+      }
+    }
+    return thumbnail;
+  }
+
+  /**
+   * Runs a callback of a request on the callback executor, unless the request has been cancelled.
+   *
+   * @param thumbnail the thumbnail which has been acquired for the target, or {@code null}
+   */
+  private void deliver(Request request, Runnable callback, @Nullable B thumbnail) {
+    mCallbackExecutor.execute(() -> {
+      if (request.isCancelled()) {
+        mCancelCount.incrementAndGet();
+        if (thumbnail != null) {
+          release(thumbnail);
+        }
+      } else {
+        callback.run();
+      }
+    });
+  }
+
+  @GuardedBy("mReferences")
+  private void acquire(B thumbnail) {
+    Integer count = mReferences.get(thumbnail);
+    mReferences.put(thumbnail, count != null ? count + 1 : 1);
+  }
+
+  /**
+   * Gives up a thumbnail which has been delivered to a {@link Target}, as it is not displayed
+   * anymore. Once it is not cached either, its bitmap will be reused for other thumbnails. It must
+   * therefore not be used any further by the caller.
+   */
+  public void release(@NonNull B thumbnail) {
+    synchronized (mReferences) {
+      Integer count = mReferences.get(thumbnail);
+      Assert.notNull(count, "Thumbnail has been released already");
+      if (count > 1) {
+        mReferences.put(thumbnail, count - 1);
+        return;
+      }
+      mReferences.remove(thumbnail);
+    }
+    mPool.put(thumbnail);
+  }
+
+  /**
+   * Determines the factor to subsample an image by, such that it still covers the bounds it will
+   * be fit into. This is the largest power of two which keeps at least one dimension at or above
+   * the bounds, as the image is scaled by the dimension which exceeds the bounds the most.
+   *
+   * @param width the width of the image
+   * @param height the height of the image
+   * @param maxWidth the width of the bounds
+   * @param maxHeight the height of the bounds
+   */
+  public static int calculateSampleSize(int width, int height, int maxWidth, int maxHeight) {
+    int sampleSize = 1;
+    while (width / (sampleSize * 2) >= maxWidth || height / (sampleSize * 2) >= maxHeight) {
+      sampleSize *= 2;
+    }
+    return sampleSize;
+  }
+
+  /**
+   * Drops all thumbnails from memory, e.g. if the system runs low on it. The disk cache is kept.
+   */
+  public void clearMemory() {
+    synchronized (mReferences) {
+      mMemoryCache.clear();
+    }
+    mPool.clear();
+  }
+
+  /**
+   * The number of bytes the thumbnails which are held in memory occupy.
+   */
+  public long getMemoryCacheSize() {
+    return mMemoryCache.size();
+  }
+
+  public long getMaxMemoryCacheSize() {
+    return mMemoryCache.getMaxSize();
+  }
+
+  /**
+   * The pool of bitmaps which are neither cached nor displayed anymore. It also tells how many
+   * bitmaps had to be allocated and how many could be reused.
+   */
+  @NonNull
+  public BitmapPool<B> getBitmapPool() {
+    return mPool;
+  }
+
+  /**
+   * The number of bytes the encoded thumbnails occupy on disk.
+   */
+  public long getDiskCacheSize() {
+    return mDiskCache != null ? mDiskCache.size() : 0;
+  }
+
+  public long getMemoryHitCount() {
+    return mMemoryHitCount.get();
+  }
+
+  public long getDiskHitCount() {
+    return mDiskHitCount.get();
+  }
+
+  /**
+   * The number of images which have actually been decoded.
+   */
+  public long getDecodeCount() {
+    return mDecodeCount.get();
+  }
+
+  /**
+   * The number of results which have been dropped because their request was cancelled while they
+   * were loaded.
+   */
+  public long getCancelCount() {
+    return mCancelCount.get();
+  }
+
+}
@@ -0,0 +1,71 @@
+package de.portux.elfeb.images;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides the app-wide {@link ThumbnailLoader} for image attachments.
+ *
+ * @author Rico Bergmann
+ */
+public class Thumbnails {
+
+  /**
+   * The share of the heap which may be occupied by thumbnails.
+   */
+  private static final int MEMORY_CACHE_FRACTION = 8;
+
+  /**
+   * The share of the heap which may be occupied by bitmaps kept for reuse. It only has to hold the
+   * bitmaps of about a screen full of images which have just scrolled out of view.
+   */
+  private static final int BITMAP_POOL_FRACTION = 16;
+
+  private static final long DISK_CACHE_BYTES = 32 * 1024 * 1024;
+
+  /**
+   * The number of images to decode in parallel. Decoding is mostly bound by I/O and memory
+   * bandwidth, so more threads would not load the thumbnails any faster.
+   */
+  private static final int DECODER_COUNT = 2;
+
+  private static volatile ThumbnailLoader<Bitmap> INSTANCE;
+
+  public static ThumbnailLoader<Bitmap> getLoader(Context context) {
+    if (INSTANCE == null) {
+      synchronized (Thumbnails.class) {
+        if (INSTANCE == null) {
+          Context app = context.getApplicationContext();
+          Handler mainThread = new Handler(Looper.getMainLooper());
+          INSTANCE = new ThumbnailLoader<>(new BitmapThumbnailDecoder(),
+              Runtime.getRuntime().maxMemory() / MEMORY_CACHE_FRACTION,
+              Runtime.getRuntime().maxMemory() / BITMAP_POOL_FRACTION,
+              new File(app.getCacheDir(), "thumbnails"), DISK_CACHE_BYTES,
+              newDecoderExecutor(), mainThread::post);
+        }
+      }
+    }
+    return INSTANCE;
+  }
+
+  private static Executor newDecoderExecutor() {
+    AtomicInteger decoderCount = new AtomicInteger();
+    return Executors.newFixedThreadPool(DECODER_COUNT, runnable -> {
+      Thread decoder = new Thread(runnable, "ThumbnailDecoder-" + decoderCount.incrementAndGet());
+      decoder.setDaemon(true);
+      decoder.setPriority(Thread.MIN_PRIORITY);
+      return decoder;
+    });
+  }
+
+  private Thumbnails() {
+    ;
+  }
+
+}
@@ -4,6 +4,8 @@ import androidx.room.ColumnInfo;
 import androidx.room.Entity;
 import androidx.room.ForeignKey;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.room.Ignore;
 import androidx.room.Index;
 import java.io.File;
 import java.io.Serializable;
@@ -13,18 +15,31 @@ import java.util.Objects;
 /**
  * An {@code attachment} represents some additional resource or information that is associated with
  * a specific {@link Observation}.
+ * <p>
+ * Images are ingested in the background after they have been attached: the file is replaced by a
+ * resized working copy, while the original may be archived. Archived originals are bounded by the
+ * storage budget and are dropped again in least recently used order. Until an image has been
+ * ingested, its content hash and byte counters are {@code null}.
+ * <p>
+ * Ingested images refer to a {@link ContentBlob}, which is shared by all attachments of the same
+ * content. The same file may therefore be attached to several observations.
+ * <p>
+ * Attachments whose file has disappeared, e.g. because it has been deleted outside of the app, are
+ * flagged as missing until the file shows up again.
  *
  * @author Rico Bergmann
  */
 @Entity(tableName = "attachments", //
-    primaryKeys = {"file_path"}, //
+    primaryKeys = {"file_path", "observation_id"}, //
     foreignKeys = @ForeignKey( //
-        childColumns = {"observation_time", "observation_suspicion"}, //
-        parentColumns = {"time", "suspicion"}, //
+        childColumns = "observation_id", //
+        parentColumns = "id", //
         entity = Observation.class, //
-        onUpdate = ForeignKey.CASCADE), //
+        onDelete = ForeignKey.CASCADE), //
     indices = { //
-        @Index({"observation_time", "observation_suspicion"})
+        @Index("observation_id"), //
+        @Index("content_hash"), //
+        @Index("original_path")
     }
 )
 public class Attachment implements Serializable {
@@ -33,13 +48,8 @@ public class Attachment implements Serializable {
     IMAGE, AUDIO
   }
 
-  @NonNull
-  @ColumnInfo(name = "observation_time")
-  private final Date mObservationTime;
-
-  @NonNull
-  @ColumnInfo(name = "observation_suspicion")
-  private final String mObservationSuspicion;
+  @ColumnInfo(name = "observation_id")
+  private final long mObservationId;
 
   @NonNull
   @ColumnInfo(name = "file_path")
@@ -49,6 +59,36 @@ public class Attachment implements Serializable {
   @ColumnInfo(name = "type")
   private final AttachmentType mType;
 
+  /**
+   * The hash of the {@link ContentBlob} the attachment refers to.
+   */
+  @Nullable
+  @ColumnInfo(name = "content_hash")
+  private final String mContentHash;
+
+  /**
+   * The archived original of an ingested image. It is only set as long as the original is kept and
+   * mirrors the one of the {@link ContentBlob}.
+   */
+  @Nullable
+  @ColumnInfo(name = "original_path")
+  private final File mOriginalPath;
+
+  @Nullable
+  @ColumnInfo(name = "original_size")
+  private final Long mOriginalSize;
+
+  @Nullable
+  @ColumnInfo(name = "stored_size")
+  private final Long mStoredSize;
+
+  /**
+   * When the file of the attachment has been found missing, or {@code null} if it exists.
+   */
+  @Nullable
+  @ColumnInfo(name = "missing_since")
+  private final Date mMissingSince;
+
   @NonNull
   public static Attachment forImage(@NonNull File imageFile, @NonNull Observation observation) {
     return new Attachment(observation, imageFile, AttachmentType.IMAGE);
@@ -59,20 +99,28 @@ public class Attachment implements Serializable {
     return new Attachment(observation, audioFile, AttachmentType.AUDIO);
   }
 
-  public Attachment(@NonNull Date mObservationTime, @NonNull String mObservationSuspicion,
-      @NonNull File mPath, @NonNull AttachmentType mType) {
-    this.mObservationTime = mObservationTime;
-    this.mObservationSuspicion = mObservationSuspicion;
-    this.mPath = mPath;
-    this.mType = mType;
+  @Ignore
+  public Attachment(long mObservationId, @NonNull File mPath, @NonNull AttachmentType mType) {
+    this(mObservationId, mPath, mType, null, null, null, null, null);
   }
 
+  @Ignore
   Attachment(@NonNull Observation observation, @NonNull File path,
       @NonNull AttachmentType type) {
-    this.mObservationTime = observation.getTime();
-    this.mObservationSuspicion = observation.getSuspicion();
-    this.mPath = path;
-    this.mType = type;
+    this(observation.getId(), path, type, null, null, null, null, null);
+  }
+
+  Attachment(long mObservationId, @NonNull File mPath, @NonNull AttachmentType mType,
+      @Nullable String mContentHash, @Nullable File mOriginalPath, @Nullable Long mOriginalSize,
+      @Nullable Long mStoredSize, @Nullable Date mMissingSince) {
+    this.mObservationId = mObservationId;
+    this.mPath = mPath;
+    this.mType = mType;
+    this.mContentHash = mContentHash;
+    this.mOriginalPath = mOriginalPath;
+    this.mOriginalSize = mOriginalSize;
+    this.mStoredSize = mStoredSize;
+    this.mMissingSince = mMissingSince;
   }
 
   @NonNull
@@ -85,14 +133,67 @@ public class Attachment implements Serializable {
     return mType;
   }
 
-  @NonNull
-  protected Date getObservationTime() {
-    return mObservationTime;
+  protected long getObservationId() {
+    return mObservationId;
+  }
+
+  /**
+   * The hash of the content the attachment refers to, or {@code null} if it has not been ingested
+   * yet.
+   */
+  @Nullable
+  public String getContentHash() {
+    return mContentHash;
+  }
+
+  /**
+   * The archived original of an ingested image, or {@code null} if it has not been kept.
+   */
+  @Nullable
+  public File getOriginalPath() {
+    return mOriginalPath;
+  }
+
+  /**
+   * The number of bytes the file occupied when it was attached, or {@code null} if it has not
+   * been ingested yet.
+   */
+  @Nullable
+  public Long getOriginalSize() {
+    return mOriginalSize;
+  }
+
+  /**
+   * The number of bytes the working copy occupies, or {@code null} if the file has not been
+   * ingested yet.
+   */
+  @Nullable
+  public Long getStoredSize() {
+    return mStoredSize;
+  }
+
+  /**
+   * When the file of the attachment has been found missing, or {@code null} if it is not known to
+   * be missing.
+   */
+  @Nullable
+  public Date getMissingSince() {
+    return mMissingSince;
+  }
+
+  public boolean isMissing() {
+    return mMissingSince != null;
   }
 
+  /**
+   * Creates a copy of {@code this} which belongs to an other observation. This is necessary if
+   * the attachment was created before its observation has been saved and the observation's id
+   * has therefore not been known.
+   */
   @NonNull
-  protected String getObservationSuspicion() {
-    return mObservationSuspicion;
+  Attachment reassignTo(@NonNull Observation observation) {
+    return new Attachment(observation.getId(), mPath, mType, mContentHash, mOriginalPath,
+        mOriginalSize, mStoredSize, mMissingSince);
   }
 
   @Override
@@ -104,21 +205,19 @@ public class Attachment implements Serializable {
       return false;
     }
     Attachment that = (Attachment) o;
-    return Objects.equals(mObservationTime, that.mObservationTime) &&
-        Objects.equals(mObservationSuspicion, that.mObservationSuspicion) &&
+    return mObservationId == that.mObservationId &&
         Objects.equals(mPath, that.mPath);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(mObservationTime, mObservationSuspicion, mPath);
+    return Objects.hash(mObservationId, mPath);
   }
 
   @Override
   public String toString() {
     return this.getClass().getSimpleName() + '{' +
-        "mObservationTime=" + mObservationTime +
-        ", mObservationSuspicion='" + mObservationSuspicion + '\'' +
+        "mObservationId=" + mObservationId +
         ", mPath=" + mPath +
         '}';
   }
@@ -0,0 +1,309 @@
+package de.portux.elfeb.model;
+
+import android.database.Cursor;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import com.google.common.util.concurrent.ListenableFuture;
+import de.portux.elfeb.images.AttachmentReconciler;
+import de.portux.elfeb.images.AttachmentReconciler.Reference;
+import de.portux.elfeb.images.PhotoIngestion;
+import de.portux.elfeb.images.PhotoIngestion.ArchivedOriginal;
+import de.portux.elfeb.images.PhotoIngestion.StoredContent;
+import de.portux.elfeb.model.Attachment.AttachmentType;
+import de.portux.elfeb.support.Assert;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Provides the image {@link Attachment attachments} and their {@link ContentBlob blobs} to the
+ * {@link PhotoIngestion}, and the files they refer to to the {@link AttachmentReconciler}. Reads
+ * are performed right away, all writes go through the {@link BatchingWriteQueue}.
+ *
+ * @author Rico Bergmann
+ */
+class AttachmentCatalog implements PhotoIngestion.Catalog, AttachmentReconciler.Catalog {
+
+  private static final String IMAGE = AttachmentType.IMAGE.name();
+
+  private static final String INSERT_BLOB = "INSERT OR IGNORE INTO blobs (hash, file_path, size, "
+      + "original_path, original_size, original_accessed, ref_count) VALUES (?, ?, ?, ?, ?, ?, 0)";
+
+  /**
+   * Replaces the file of a blob which is known already, but whose file has gone missing.
+   */
+  private static final String UPDATE_BLOB = "UPDATE blobs SET file_path = ?, size = ? "
+      + "WHERE hash = ?";
+
+  /**
+   * Switches the pending attachments of a file over to a blob. Attachments whose observation
+   * refers to the blob already are skipped, as they would violate the primary key.
+   */
+  private static final String SWITCH_TO_BLOB = "UPDATE OR IGNORE attachments SET file_path = ?, "
+      + "content_hash = ?, original_path = (SELECT original_path FROM blobs WHERE hash = ?), "
+      + "original_size = COALESCE(original_size, ?), stored_size = ? "
+      + "WHERE file_path = ? AND content_hash IS NULL";
+
+  private static final String DROP_SKIPPED = "DELETE FROM attachments "
+      + "WHERE file_path = ? AND content_hash IS NULL";
+
+  private static final String REMOVE_BLOB = "DELETE FROM blobs WHERE hash = ? AND ref_count <= 0 "
+      + "AND NOT EXISTS (SELECT 1 FROM attachments a WHERE a.file_path = blobs.file_path)";
+
+  /**
+   * Merges the columns which refer to files. Each of them is read in order from its index, and only
+   * as far as the page may reach.
+   */
+  private static final String REFERENCES_QUERY = "SELECT path, MAX(flagged) FROM ("
+      + "SELECT * FROM (SELECT file_path AS path, MAX(missing_since IS NOT NULL) AS flagged "
+      + "FROM attachments WHERE file_path > ? GROUP BY file_path ORDER BY file_path LIMIT ?) "
+      + "UNION ALL SELECT * FROM (SELECT DISTINCT original_path, 0 FROM attachments "
+      + "WHERE original_path > ? ORDER BY original_path LIMIT ?) "
+      + "UNION ALL SELECT * FROM (SELECT DISTINCT file_path, 0 FROM blobs "
+      + "WHERE file_path > ? ORDER BY file_path LIMIT ?) "
+      + "UNION ALL SELECT * FROM (SELECT DISTINCT original_path, 0 FROM blobs "
+      + "WHERE original_path > ? ORDER BY original_path LIMIT ?)) "
+      + "GROUP BY path ORDER BY path LIMIT ?";
+
+  @NonNull
+  private final FieldNotesDatabase mDatabase;
+
+  AttachmentCatalog(@NonNull FieldNotesDatabase database) {
+    Assert.notNull(database, "Database may not be null");
+    this.mDatabase = database;
+  }
+
+  @Override
+  public boolean isPending(@NonNull File image) {
+    try (Cursor pending = mDatabase.query("SELECT 1 FROM attachments "
+            + "WHERE file_path = ? AND type = ? AND content_hash IS NULL LIMIT 1",
+        new Object[]{image.getAbsolutePath(), IMAGE})) {
+      return pending.moveToFirst();
+    }
+  }
+
+  @NonNull
+  @Override
+  public List<File> getPendingImages(@Nullable File after, int limit) {
+    String query = "SELECT DISTINCT file_path FROM attachments "
+        + "WHERE type = ? AND content_hash IS NULL "
+        + (after != null ? "AND file_path > ? " : "") + "ORDER BY file_path LIMIT " + limit;
+    Object[] args = after != null
+        ? new Object[]{IMAGE, after.getAbsolutePath()}
+        : new Object[]{IMAGE};
+    List<File> pending = new ArrayList<>();
+    try (Cursor images = mDatabase.query(query, args)) {
+      while (images.moveToNext()) {
+        pending.add(new File(images.getString(0)));
+      }
+    }
+    return pending;
+  }
+
+  @Nullable
+  @Override
+  public StoredContent findContent(@NonNull String hash) {
+    try (Cursor blob = mDatabase.query("SELECT file_path, size, original_path FROM blobs "
+        + "WHERE hash = ?", new Object[]{hash})) {
+      if (!blob.moveToFirst()) {
+        return null;
+      }
+      return new StoredContent(hash, new File(blob.getString(0)), blob.getLong(1),
+          blob.isNull(2) ? null : new File(blob.getString(2)));
+    }
+  }
+
+  @Override
+  public boolean recordIngested(@NonNull File source, @NonNull StoredContent content,
+      long originalSize) throws IOException {
+    final boolean[] recorded = new boolean[1];
+    await(mDatabase.writeQueue().submit(() -> {
+      SupportSQLiteDatabase db = mDatabase.getOpenHelper().getWritableDatabase();
+      File original = content.getOriginal();
+      Long archivedSize = original != null ? originalSize : null;
+      if (original == null) {
+        // attachments which have been ingested before the store existed keep their original
+        try (Cursor legacy = db.query("SELECT original_path, original_size FROM attachments "
+                + "WHERE file_path = ? AND original_path IS NOT NULL LIMIT 1",
+            new Object[]{source.getAbsolutePath()})) {
+          if (legacy.moveToFirst()) {
+            original = new File(legacy.getString(0));
+            archivedSize = legacy.getLong(1);
+          }
+        }
+      }
+      db.execSQL(INSERT_BLOB, new Object[]{content.getHash(),
+          content.getFile().getAbsolutePath(), content.getSize(),
+          original != null ? original.getAbsolutePath() : null, archivedSize,
+          original != null ? System.currentTimeMillis() : null});
+      db.execSQL(UPDATE_BLOB, new Object[]{content.getFile().getAbsolutePath(),
+          content.getSize(), content.getHash()});
+      recorded[0] = switchToBlob(db, source, content, originalSize);
+    }));
+    return recorded[0];
+  }
+
+  @Override
+  public boolean recordDuplicate(@NonNull File source, @NonNull StoredContent content,
+      long originalSize) throws IOException {
+    final boolean[] recorded = new boolean[1];
+    await(mDatabase.writeQueue().submit(() -> recorded[0] = switchToBlob(
+        mDatabase.getOpenHelper().getWritableDatabase(), source, content, originalSize)));
+    return recorded[0];
+  }
+
+  /**
+   * Lets the pending attachments of a file refer to a blob. Has to run on the writer thread.
+   *
+   * @return whether there have been any such attachments
+   */
+  private static boolean switchToBlob(SupportSQLiteDatabase db, File source,
+      StoredContent content, long originalSize) {
+    String sourcePath = source.getAbsolutePath();
+    try (SupportSQLiteStatement switchToBlob = db.compileStatement(SWITCH_TO_BLOB);
+        SupportSQLiteStatement dropSkipped = db.compileStatement(DROP_SKIPPED)) {
+      switchToBlob.bindString(1, content.getFile().getAbsolutePath());
+      switchToBlob.bindString(2, content.getHash());
+      switchToBlob.bindString(3, content.getHash());
+      switchToBlob.bindLong(4, originalSize);
+      switchToBlob.bindLong(5, content.getSize());
+      switchToBlob.bindString(6, sourcePath);
+      int switched = switchToBlob.executeUpdateDelete();
+      dropSkipped.bindString(1, sourcePath);
+      int dropped = dropSkipped.executeUpdateDelete();
+      return switched + dropped > 0;
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not release statement", e);
+    }
+  }
+
+  @Override
+  public long getArchivedSize() {
+    try (Cursor size = mDatabase.query("SELECT COALESCE(SUM(original_size), 0) "
+        + "FROM blobs WHERE original_path IS NOT NULL", null)) {
+      return size.moveToFirst() ? size.getLong(0) : 0;
+    }
+  }
+
+  @NonNull
+  @Override
+  public List<ArchivedOriginal> getLeastRecentlyUsedOriginals(int limit) {
+    List<ArchivedOriginal> originals = new ArrayList<>(limit);
+    try (Cursor cursor = mDatabase.query("SELECT original_path, original_size FROM blobs "
+        + "WHERE original_path IS NOT NULL ORDER BY original_accessed LIMIT " + limit, null)) {
+      while (cursor.moveToNext()) {
+        originals.add(new ArchivedOriginal(new File(cursor.getString(0)), cursor.getLong(1)));
+      }
+    }
+    return originals;
+  }
+
+  @Override
+  public void recordDemoted(@NonNull File archivedOriginal) throws IOException {
+    Object[] path = {archivedOriginal.getAbsolutePath()};
+    await(mDatabase.writeQueue().submit(() -> {
+      SupportSQLiteDatabase db = mDatabase.getOpenHelper().getWritableDatabase();
+      // the attachments of the blob are updated by a trigger
+      db.execSQL("UPDATE blobs SET original_path = NULL, original_size = NULL, "
+          + "original_accessed = NULL WHERE original_path = ?", path);
+      // attachments which have not been switched over to a blob yet
+      db.execSQL("UPDATE attachments SET original_path = NULL WHERE original_path = ?", path);
+    }));
+  }
+
+  @NonNull
+  @Override
+  public List<StoredContent> getUnreferencedContents(int limit) {
+    List<StoredContent> contents = new ArrayList<>(limit);
+    try (Cursor blobs = mDatabase.query("SELECT hash, file_path, size, original_path FROM blobs "
+        + "WHERE ref_count <= 0 LIMIT " + limit, null)) {
+      while (blobs.moveToNext()) {
+        contents.add(new StoredContent(blobs.getString(0), new File(blobs.getString(1)),
+            blobs.getLong(2), blobs.isNull(3) ? null : new File(blobs.getString(3))));
+      }
+    }
+    return contents;
+  }
+
+  @Override
+  public boolean removeContent(@NonNull String hash) throws IOException {
+    final boolean[] removed = new boolean[1];
+    await(mDatabase.writeQueue().submit(() -> {
+      try (SupportSQLiteStatement remove = mDatabase.compileStatement(REMOVE_BLOB)) {
+        remove.bindString(1, hash);
+        removed[0] = remove.executeUpdateDelete() > 0;
+      } catch (IOException e) {
+        throw new IllegalStateException("Could not release statement", e);
+      }
+    }));
+    return removed[0];
+  }
+
+  @NonNull
+  @Override
+  public List<Reference> getReferences(@Nullable File after, int limit) {
+    String position = after != null ? after.getAbsolutePath() : "";
+    Object[] args = new Object[9];
+    for (int i = 0; i < 8; i += 2) {
+      args[i] = position;
+      args[i + 1] = limit;
+    }
+    args[8] = limit;
+    List<Reference> references = new ArrayList<>(limit);
+    try (Cursor cursor = mDatabase.query(REFERENCES_QUERY, args)) {
+      while (cursor.moveToNext()) {
+        references.add(new Reference(new File(cursor.getString(0)), cursor.getInt(1) != 0));
+      }
+    }
+    return references;
+  }
+
+  @Override
+  public boolean isReferenced(@NonNull File file) {
+    String path = file.getAbsolutePath();
+    try (Cursor referenced = mDatabase.query("SELECT 1 FROM attachments "
+            + "WHERE file_path = ? OR original_path = ? "
+            + "UNION ALL SELECT 1 FROM blobs WHERE file_path = ? OR original_path = ? LIMIT 1",
+        new Object[]{path, path, path, path})) {
+      return referenced.moveToFirst();
+    }
+  }
+
+  @Override
+  public void recordMissing(@NonNull File file) throws IOException {
+    Object[] path = {file.getAbsolutePath()};
+    await(mDatabase.writeQueue().submit(() -> {
+      SupportSQLiteDatabase db = mDatabase.getOpenHelper().getWritableDatabase();
+      db.execSQL("UPDATE attachments SET missing_since = ? "
+          + "WHERE file_path = ? AND missing_since IS NULL",
+          new Object[]{System.currentTimeMillis(), path[0]});
+      // there is no use in keeping track of an original which cannot be opened anymore
+      db.execSQL("UPDATE blobs SET original_path = NULL, original_size = NULL, "
+          + "original_accessed = NULL WHERE original_path = ?", path);
+      db.execSQL("UPDATE attachments SET original_path = NULL WHERE original_path = ?", path);
+    }));
+  }
+
+  @Override
+  public void recordFound(@NonNull File file) throws IOException {
+    await(mDatabase.writeQueue().submit(() -> mDatabase.getOpenHelper().getWritableDatabase()
+        .execSQL("UPDATE attachments SET missing_since = NULL WHERE file_path = ?",
+            new Object[]{file.getAbsolutePath()})));
+  }
+
+  private static void await(@NonNull ListenableFuture<Void> write) throws IOException {
+    try {
+      write.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Ingestion has been interrupted", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Could not update attachments", e.getCause());
+    }
+  }
+
+}
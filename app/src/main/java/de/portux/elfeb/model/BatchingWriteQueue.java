@@ -0,0 +1,193 @@
+package de.portux.elfeb.model;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import de.portux.elfeb.support.Assert;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code BatchingWriteQueue} is the single writer of the {@link FieldNotesDatabase}.
+ * <p>
+ * Mutations are applied strictly in the order they were submitted, one after another on a single
+ * background thread. All mutations which queue up while a transaction is running are coalesced
+ * into the next transaction. Under burst input (such as taking several pictures in a row) this
+ * results in far fewer transactions - and therefore journal commits - than mutations.
+ * <p>
+ * If a batch fails, each of its mutations is retried in a transaction of its own, such that a
+ * single broken mutation only fails its own future. Errors fail the futures of the whole batch
+ * without a retry.
+ *
+ * @author Rico Bergmann
+ */
+class BatchingWriteQueue {
+
+  /**
+   * Runs a unit of work within a single database transaction.
+   */
+  interface TransactionRunner {
+    void runInTransaction(@NonNull Runnable transaction);
+  }
+
+  static final int DEFAULT_MAX_BATCH_SIZE = 128;
+
+  private static final class PendingWrite {
+    final Runnable mutation;
+    final SettableFuture<Void> completion = SettableFuture.create();
+
+    PendingWrite(Runnable mutation) {
+      this.mutation = mutation;
+    }
+  }
+
+  private final TransactionRunner mTransactionRunner;
+  private final Executor mWriter;
+  private final int mMaxBatchSize;
+
+  private final Object mLock = new Object();
+
+  @GuardedBy("mLock")
+  private final Deque<PendingWrite> mPendingWrites = new ArrayDeque<>();
+
+  @GuardedBy("mLock")
+  private boolean mDrainScheduled = false;
+
+  private final AtomicLong mTransactionCount = new AtomicLong();
+  private final AtomicLong mMutationCount = new AtomicLong();
+
+  /**
+   * Creates a new queue which applies its mutations on a dedicated writer thread.
+   *
+   * @param transactionRunner the database to write to
+   */
+  BatchingWriteQueue(@NonNull TransactionRunner transactionRunner) {
+    this(transactionRunner, newWriterExecutor(), DEFAULT_MAX_BATCH_SIZE);
+  }
+
+  /**
+   * Full constructor.
+   *
+   * @param transactionRunner the database to write to
+   * @param writer the executor to apply the mutations on. It has to execute at most one task at
+   *     a time.
+   * @param maxBatchSize the maximum number of mutations to coalesce into a single transaction
+   */
+  BatchingWriteQueue(@NonNull TransactionRunner transactionRunner, @NonNull Executor writer,
+      int maxBatchSize) {
+    Assert.notNull(transactionRunner, "Transaction runner may not be null");
+    Assert.notNull(writer, "Writer may not be null");
+    Assert.isTrue(maxBatchSize > 0, "Batch size must be positive");
+    this.mTransactionRunner = transactionRunner;
+    this.mWriter = writer;
+    this.mMaxBatchSize = maxBatchSize;
+  }
+
+  /**
+   * Schedules a mutation.
+   *
+   * @param mutation the mutation. It will be executed on the writer thread within a transaction.
+   * @return a future which completes as soon as the mutation has been committed
+   */
+  @NonNull
+  ListenableFuture<Void> submit(@NonNull Runnable mutation) {
+    Assert.notNull(mutation, "Mutation may not be null");
+    PendingWrite write = new PendingWrite(mutation);
+    boolean drainNecessary;
+    synchronized (mLock) {
+      mPendingWrites.addLast(write);
+      drainNecessary = !mDrainScheduled;
+      mDrainScheduled = true;
+    }
+    if (drainNecessary) {
+      mWriter.execute(this::drain);
+    }
+    return write.completion;
+  }
+
+  /**
+   * The number of transactions that were committed so far.
+   */
+  long getTransactionCount() {
+    return mTransactionCount.get();
+  }
+
+  /**
+   * The number of mutations that were committed so far.
+   */
+  long getMutationCount() {
+    return mMutationCount.get();
+  }
+
+  private void drain() {
+    while (true) {
+      List<PendingWrite> batch;
+      synchronized (mLock) {
+        if (mPendingWrites.isEmpty()) {
+          mDrainScheduled = false;
+          return;
+        }
+        batch = new ArrayList<>(Math.min(mPendingWrites.size(), mMaxBatchSize));
+        while (!mPendingWrites.isEmpty() && batch.size() < mMaxBatchSize) {
+          batch.add(mPendingWrites.pollFirst());
+        }
+      }
+      try {
+        apply(batch);
+      } catch (Throwable e) {
+        // an error is not retried. It is handed to the submitters, such that none of them waits
+        // forever, and the queue goes on with the next batch
+        for (PendingWrite write : batch) {
+          write.completion.setException(e);
+        }
+      }
+    }
+  }
+
+  private void apply(List<PendingWrite> batch) {
+    try {
+      mTransactionRunner.runInTransaction(() -> {
+        for (PendingWrite write : batch) {
+          write.mutation.run();
+        }
+      });
+    } catch (RuntimeException e) {
+      if (batch.size() == 1) {
+        batch.get(0).completion.setException(e);
+        return;
+      }
+
+      // the whole batch has been rolled back. Retry each mutation on its own to find the broken one
+      for (PendingWrite write : batch) {
+        apply(Collections.singletonList(write));
+      }
+      return;
+    }
+
+    mTransactionCount.incrementAndGet();
+    mMutationCount.addAndGet(batch.size());
+    for (PendingWrite write : batch) {
+      write.completion.set(null);
+    }
+  }
+
+  private static Executor newWriterExecutor() {
+    // there will never be more than one drain pending while another one is running
+    return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1),
+        runnable -> {
+          Thread writer = new Thread(runnable, "FieldNotesWriter");
+          writer.setDaemon(true);
+          return writer;
+        });
+  }
+
+}
@@ -0,0 +1,58 @@
+package de.portux.elfeb.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+import java.util.Date;
+
+/**
+ * The {@code change_log} records each modification of an observation, its tags or its attachments
+ * under a monotonically increasing sequence number. It tells the {@link FieldNotesSync} which
+ * observations have to be pushed since the last acknowledged sequence.
+ * <p>
+ * Each entry refers to the observation through its id as well as its key. The latter is required
+ * to propagate deletions, as the observation will be gone already when the change is pushed. The
+ * table is maintained by triggers and should never be written directly (except for pruning
+ * acknowledged entries).
+ *
+ * @author Rico Bergmann
+ */
+@Entity(tableName = "change_log")
+class ChangeLogEntry {
+
+  /**
+   * Never re-used, even after the most recent entries have been pruned.
+   */
+  @PrimaryKey(autoGenerate = true)
+  @ColumnInfo(name = "seq")
+  public final long sequence;
+
+  @ColumnInfo(name = "observation_id")
+  public final long observationId;
+
+  @NonNull
+  @ColumnInfo(name = "time")
+  public final Date time;
+
+  @NonNull
+  @ColumnInfo(name = "suspicion")
+  public final String suspicion;
+
+  /**
+   * Whether the observation has been deleted - or its key has been changed, which amounts to the
+   * same for the other side.
+   */
+  @ColumnInfo(name = "deleted")
+  public final boolean deleted;
+
+  ChangeLogEntry(long sequence, long observationId, @NonNull Date time, @NonNull String suspicion,
+      boolean deleted) {
+    this.sequence = sequence;
+    this.observationId = observationId;
+    this.time = time;
+    this.suspicion = suspicion;
+    this.deleted = deleted;
+  }
+
+}
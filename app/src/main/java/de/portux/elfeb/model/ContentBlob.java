@@ -0,0 +1,81 @@
+package de.portux.elfeb.model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+import java.io.File;
+import java.util.Date;
+
+/**
+ * A {@code ContentBlob} is a stored file which is identified by the hash of its content, such that
+ * identical images attached to several observations (or several times) share the same file.
+ * <p>
+ * The hash is the one of the file which has been attached, while the stored file is its working
+ * copy. An attached file is therefore recognized even though only a re-encoded version of it is
+ * kept. The reference count tells how many {@link Attachment attachments} refer to the blob. It is
+ * maintained by triggers on the {@code attachments} table, and blobs which are not referenced
+ * anymore are removed in the background together with their files.
+ * <p>
+ * The archived original of the content is kept here as well, as it belongs to the content rather
+ * than to any of its attachments.
+ *
+ * @author Rico Bergmann
+ */
+@Entity(tableName = "blobs", //
+    indices = { //
+        @Index("ref_count"), //
+        @Index("file_path"), //
+        @Index("original_path")
+    }
+)
+class ContentBlob {
+
+  /**
+   * The hex encoded SHA-256 hash of the attached file.
+   */
+  @NonNull
+  @PrimaryKey
+  @ColumnInfo(name = "hash")
+  public final String hash;
+
+  @NonNull
+  @ColumnInfo(name = "file_path")
+  public final File path;
+
+  @ColumnInfo(name = "size")
+  public final long size;
+
+  @Nullable
+  @ColumnInfo(name = "original_path")
+  public final File originalPath;
+
+  @Nullable
+  @ColumnInfo(name = "original_size")
+  public final Long originalSize;
+
+  /**
+   * When the archived original has last been opened, which determines the order in which the
+   * originals are dropped once the storage budget is exceeded.
+   */
+  @Nullable
+  @ColumnInfo(name = "original_accessed")
+  public final Date originalAccessed;
+
+  @ColumnInfo(name = "ref_count")
+  public final int referenceCount;
+
+  ContentBlob(@NonNull String hash, @NonNull File path, long size, @Nullable File originalPath,
+      @Nullable Long originalSize, @Nullable Date originalAccessed, int referenceCount) {
+    this.hash = hash;
+    this.path = path;
+    this.size = size;
+    this.originalPath = originalPath;
+    this.originalSize = originalSize;
+    this.originalAccessed = originalAccessed;
+    this.referenceCount = referenceCount;
+  }
+
+}
@@ -2,10 +2,15 @@ package de.portux.elfeb.model;
 
 import androidx.lifecycle.LiveData;
 import androidx.paging.PagedList;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.Date;
 import java.util.List;
 
 /**
  * The {@code field notes} contain a sequence of observations that were written down by the user.
+ * <p>
+ * All modifications are performed asynchronously. The returned futures complete as soon as the
+ * modification has been committed.
  *
  * @author Rico Bergmann
  */
@@ -16,33 +21,166 @@ public interface FieldNotes {
    *
    * @param obs the note to save. May not be {@code null}.
    */
-  void writeDown(Observation obs);
+  ListenableFuture<Void> writeDown(Observation obs);
+
+  /**
+   * Saves a number of notes at once. This is way faster than saving each note on its own and
+   * should be preferred for imports and the like.
+   *
+   * @param observations the notes to save. May not be {@code null}.
+   */
+  ListenableFuture<Void> writeDown(List<Observation> observations);
 
   /**
    * Provides all observations that have been noted so far.
    */
   LiveData<PagedList<Observation>> getObservations();
 
+  /**
+   * Provides a single observation. It is looked up through its unique key, so the cost does not
+   * depend on the number of observations.
+   *
+   * @param time the time the observation has been noted. May not be {@code null}.
+   * @param suspicion the suspicion of the observation. May not be {@code null}.
+   * @return the observation. Its value will be {@code null} if there is no such observation (any
+   *     more), e.g. because its suspicion has been changed.
+   */
+  LiveData<Observation> getObservation(Date time, String suspicion);
+
+  /**
+   * Provides a single observation by its id. Unlike its key, the id of an observation stays the
+   * same if its suspicion is changed, so the observation may be followed across such changes.
+   *
+   * @param observationId the id of the observation
+   * @return the observation. Its value will be {@code null} if there is no such observation (any
+   *     more), e.g. because it has been deleted.
+   */
+  LiveData<Observation> getObservation(long observationId);
+
   /**
    * Provides all observations that match certain criteria.
+   * <p>
+   * If the criteria contain tags, an observation has to be tagged with at least one of them.
    *
    * @param criteria the criteria. May not be {@code null}.
    */
   LiveData<PagedList<Observation>> getObservations(FilterCriteria criteria);
 
+  /**
+   * Provides all observations whose location is within a bounding box, most recent first.
+   *
+   * @param southWest the south-western corner of the box. May not be {@code null}.
+   * @param northEast the north-eastern corner of the box. May not be {@code null}.
+   */
+  LiveData<PagedList<Observation>> getObservationsWithin(GPSPosition southWest,
+      GPSPosition northEast);
+
+  /**
+   * Provides all observations whose location is within some distance, nearest first.
+   *
+   * @param center the position to measure the distance to. May not be {@code null}.
+   * @param radiusInMeters the maximum distance
+   */
+  LiveData<PagedList<Observation>> getObservationsNear(GPSPosition center, double radiusInMeters);
+
+  /**
+   * Provides the observations which are closest to some position, nearest first.
+   *
+   * @param center the position to measure the distance to. May not be {@code null}.
+   * @param count the maximum number of observations
+   */
+  LiveData<PagedList<Observation>> getNearestObservations(GPSPosition center, int count);
+
+  /**
+   * Searches the suspicion, comment and tags of all observations. Each word of the query matches
+   * all words it is a prefix of, such that the search may be performed while typing.
+   * <p>
+   * Observations which match by suspicion are ranked before those which match by tag, followed by
+   * those which match by comment.
+   *
+   * @param query the query. May not be {@code null}. If it does not contain any words, all
+   *     observations are provided.
+   */
+  LiveData<PagedList<Observation>> search(String query);
+
   LiveData<List<Tag>> getTagsFor(Observation observation);
 
   LiveData<List<Attachment>> getAttachmentsFor(Observation observation);
 
   LiveData<List<Attachment>> getAllAttachments();
 
-  void tagObservation(Observation observation, Tag tag);
+  ListenableFuture<Void> tagObservation(Observation observation, Tag tag);
+
+  ListenableFuture<Void> addAttachment(Attachment attachment);
 
-  void addAttachment(Attachment attachment);
+  ListenableFuture<Void> removeAttachment(Attachment attachment);
 
-  void removeAttachment(Attachment attachment);
+  /**
+   * Notes that the archived original of an image has been opened. Originals which have not been
+   * opened for the longest time are the first to be dropped once the storage budget is exceeded.
+   */
+  ListenableFuture<Void> recordOriginalOpened(Attachment attachment);
+
+  ListenableFuture<Void> updateSuspicion(String oldSuspicion, Observation updatedObservation);
+
+  ListenableFuture<Void> updateTags(Observation observation, List<Tag> tags);
+
+  /**
+   * Assigns a number of tags to each of a number of observations. Tags which have already been
+   * assigned are skipped.
+   *
+   * @param observations the observations to tag. They have to be saved already.
+   * @param tags the tags to assign. They have to be saved already.
+   */
+  ListenableFuture<Void> tagObservations(List<Observation> observations, List<Tag> tags);
 
-  void updateSuspicion(String oldSuspicion, Observation updatedObservation);
+  /**
+   * Removes a number of tags from each of a number of observations.
+   *
+   * @param observations the observations to untag
+   * @param tags the tags to remove
+   */
+  ListenableFuture<Void> untagObservations(List<Observation> observations, List<Tag> tags);
+
+  /**
+   * Counts the observations per suspicion within each day or month, most recent first. The counts
+   * are maintained along with the observations, so they are read without scanning the
+   * observations themselves.
+   *
+   * @param period the size of the buckets to count in
+   */
+  LiveData<List<StatisticsEntry>> getSuspicionStatistics(StatisticsEntry.Period period);
 
-  void updateTags(Observation observation, List<Tag> tags);
+  /**
+   * Counts the observations per tag within each day or month, most recent first. See
+   * {@link #getSuspicionStatistics(StatisticsEntry.Period)}.
+   *
+   * @param period the size of the buckets to count in
+   */
+  LiveData<List<StatisticsEntry>> getTagStatistics(StatisticsEntry.Period period);
+
+  /**
+   * Provides the first sighting of each suspicion or tag, in the order they have been sighted. For
+   * {@link FirstSighting#ALL_TIME} this is the life list, otherwise the list of the given year.
+   *
+   * @param kind whether suspicions or tags are listed
+   * @param year the year (of the local time zone) or {@link FirstSighting#ALL_TIME}
+   */
+  LiveData<List<FirstSighting>> getFirstSightings(FirstSighting.Kind kind, int year);
+
+  /**
+   * Provides the first sighting of a single suspicion or tag. The value will be {@code null} as
+   * long as the subject has not been sighted within the year.
+   *
+   * @param kind whether {@code subject} is a suspicion or a tag
+   * @param subject the suspicion or the name of the tag
+   * @param year the year (of the local time zone) or {@link FirstSighting#ALL_TIME}
+   */
+  LiveData<FirstSighting> getFirstSighting(FirstSighting.Kind kind, String subject, int year);
+
+  /**
+   * Recounts all statistics and determines the first sightings anew. This is necessary after the
+   * time zone has changed, as the buckets and years are based on the local time.
+   */
+  ListenableFuture<Void> rebuildStatistics();
 }
@@ -1,25 +1,55 @@
 package de.portux.elfeb.model;
 
+import androidx.room.migration.Migration;
 import androidx.sqlite.db.SupportSQLiteDatabase;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.RoomDatabase.JournalMode;
 import androidx.room.TypeConverters;
 import android.content.Context;
+import android.database.Cursor;
+import androidx.sqlite.db.SupportSQLiteStatement;
 import android.os.AsyncTask;
 import androidx.annotation.NonNull;
 import android.util.Log;
 import de.portux.elfeb.model.support.AttachmentTypeTypeConverter;
 import de.portux.elfeb.support.DefaultTypeConverters;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
-@Database(version = 1, entities = {Observation.class, Tag.class, Attachment.class,
-    ObservationTag.class})
+@Database(version = 12, entities = {Observation.class, Tag.class, Attachment.class,
+    ObservationTag.class, TagClosure.class, ObservationFts.class, ChangeLogEntry.class,
+    ObservationRollup.class, TagRollup.class, FirstSighting.class, ContentBlob.class})
 @TypeConverters({DefaultTypeConverters.class, AttachmentTypeTypeConverter.class})
 abstract class FieldNotesDatabase extends RoomDatabase {
 
   private static final String TAG = FieldNotesDatabase.class.getSimpleName();
   private static volatile FieldNotesDatabase INSTANCE;
 
+  /**
+   * The number of threads to run queries on. Android's connection pool provides about as many
+   * read-only connections in WAL mode, so each of them may read concurrently.
+   */
+  private static final int READER_COUNT = 4;
+
+  /**
+   * The number of pages in the WAL after which it will be checkpointed into the database.
+   */
+  private static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+  /**
+   * The size (in bytes) the WAL is truncated to after a checkpoint.
+   */
+  private static final long WAL_SIZE_LIMIT = 4 * 1024 * 1024;
+
+  /**
+   * The size of the page cache in KiB. This is given as negative number, as SQLite would interpret
+   * a positive one as number of pages.
+   */
+  private static final int PAGE_CACHE_SIZE_KIB = -4 * 1024;
+
   static FieldNotesDatabase getDatabase(final Context context) {
     if (INSTANCE == null) {
       synchronized (FieldNotesDatabase.class) {
@@ -30,6 +60,11 @@ abstract class FieldNotesDatabase extends RoomDatabase {
                   FieldNotesDatabase.class, //
                   "field_notes_database") //
               .addCallback(sRoomDatabaseCallback) //
+              .setJournalMode(JournalMode.WRITE_AHEAD_LOGGING) //
+              .setQueryExecutor(newReaderExecutor()) //
+              .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5,
+                  MIGRATION_5_6, MIGRATION_6_7, MIGRATION_7_8, MIGRATION_8_9, MIGRATION_9_10,
+                  MIGRATION_10_11, MIGRATION_11_12) //
               .build();
         }
       }
@@ -37,16 +72,842 @@ abstract class FieldNotesDatabase extends RoomDatabase {
     return INSTANCE;
   }
 
+  /**
+   * Creates the executor which Room runs the queries for {@code LiveData} and paged lists on. Writes
+   * are performed by the {@link BatchingWriteQueue} on its own thread instead.
+   */
+  private static Executor newReaderExecutor() {
+    AtomicInteger readerCount = new AtomicInteger();
+    return Executors.newFixedThreadPool(READER_COUNT, runnable -> {
+      Thread reader = new Thread(runnable, "FieldNotesReader-" + readerCount.incrementAndGet());
+      reader.setDaemon(true);
+      return reader;
+    });
+  }
+
+  /**
+   * Tunes the connection for the write-ahead log.
+   * <p>
+   * In WAL mode readers see the last committed state and are never blocked by the writer. A
+   * {@code synchronous} level of {@code NORMAL} is sufficient to keep the database consistent, as
+   * the WAL is only synced on checkpoints. Only the most recent transactions might get lost on a
+   * power failure. All writes go through the primary connection, which is the one configured
+   * here.
+   */
+  private static void configureConnection(SupportSQLiteDatabase db) {
+    pragma(db, "synchronous = NORMAL");
+    pragma(db, "wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES);
+    pragma(db, "journal_size_limit = " + WAL_SIZE_LIMIT);
+    pragma(db, "cache_size = " + PAGE_CACHE_SIZE_KIB);
+  }
+
+  /**
+   * Executes a {@code PRAGMA} statement. Some of them return their new value, which is why they may
+   * not be executed through {@link SupportSQLiteDatabase#execSQL(String)}. As cursors are
+   * evaluated lazily, the result has to be fetched for the statement to take effect.
+   */
+  private static void pragma(SupportSQLiteDatabase db, String pragma) {
+    try (Cursor result = db.query("PRAGMA " + pragma)) {
+      result.moveToFirst();
+    }
+  }
+
+  private volatile BatchingWriteQueue mWriteQueue;
+
   abstract public ObservationDao observationDao();
 
   abstract public TagDao tagDao();
 
+  abstract StatisticsDao statisticsDao();
+
+  /**
+   * Provides the queue which all writes to {@code this} database should go through.
+   */
+  BatchingWriteQueue writeQueue() {
+    if (mWriteQueue == null) {
+      synchronized (this) {
+        if (mWriteQueue == null) {
+          mWriteQueue = new BatchingWriteQueue(this::runInTransaction);
+        }
+      }
+    }
+    return mWriteQueue;
+  }
+
+  /**
+   * Persists the parent of each tag and introduces the {@link TagClosure} table.
+   */
+  static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+    @Override
+    public void migrate(@NonNull SupportSQLiteDatabase db) {
+      db.execSQL("CREATE TABLE tags_new (tag TEXT NOT NULL, parent TEXT, PRIMARY KEY(tag), "
+          + "FOREIGN KEY(parent) REFERENCES tags(tag) ON UPDATE NO ACTION ON DELETE SET NULL)");
+      db.execSQL("INSERT INTO tags_new (tag) SELECT tag FROM tags");
+      db.execSQL("DROP TABLE tags");
+      db.execSQL("ALTER TABLE tags_new RENAME TO tags");
+      db.execSQL("CREATE INDEX index_tags_parent ON tags (parent)");
+
+      db.execSQL("CREATE TABLE tag_closure (ancestor TEXT NOT NULL, descendant TEXT NOT NULL, "
+          + "depth INTEGER NOT NULL, PRIMARY KEY(ancestor, descendant), "
+          + "FOREIGN KEY(ancestor) REFERENCES tags(tag) ON UPDATE NO ACTION ON DELETE CASCADE, "
+          + "FOREIGN KEY(descendant) REFERENCES tags(tag) ON UPDATE NO ACTION ON DELETE CASCADE)");
+      db.execSQL("CREATE INDEX index_tag_closure_descendant_ancestor "
+          + "ON tag_closure (descendant, ancestor)");
+      db.execSQL("INSERT INTO tag_closure (ancestor, descendant, depth) SELECT tag, tag, 0 FROM tags");
+
+      createTagClosureTriggers(db);
+    }
+  };
+
+  /**
+   * Replaces the composite {@code (time, suspicion)} key of the observations by a surrogate integer
+   * key and lets the {@code attachments} and {@code observation_tags} reference it.
+   */
+  static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+    @Override
+    public void migrate(@NonNull SupportSQLiteDatabase db) {
+      db.execSQL("CREATE TABLE observations_new (id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+          + "time INTEGER NOT NULL, suspicion TEXT NOT NULL, comment TEXT, "
+          + "determined INTEGER NOT NULL, images_attached INTEGER NOT NULL, "
+          + "recordings_attached INTEGER NOT NULL, pos_latitude REAL, pos_longitude REAL)");
+      db.execSQL("INSERT INTO observations_new (time, suspicion, comment, determined, "
+          + "images_attached, recordings_attached, pos_latitude, pos_longitude) "
+          + "SELECT time, suspicion, comment, determined, images_attached, recordings_attached, "
+          + "pos_latitude, pos_longitude FROM observations ORDER BY time, suspicion");
+
+      db.execSQL("CREATE TABLE attachments_new (observation_id INTEGER NOT NULL, "
+          + "file_path TEXT NOT NULL, type TEXT NOT NULL, PRIMARY KEY(file_path), "
+          + "FOREIGN KEY(observation_id) REFERENCES observations(id) "
+          + "ON UPDATE NO ACTION ON DELETE CASCADE)");
+      db.execSQL("INSERT INTO attachments_new (observation_id, file_path, type) "
+          + "SELECT o.id, a.file_path, a.type FROM attachments a INNER JOIN observations_new o "
+          + "ON o.time = a.observation_time AND o.suspicion = a.observation_suspicion");
+
+      db.execSQL("CREATE TABLE observation_tags_new (observation_id INTEGER NOT NULL, "
+          + "tag TEXT NOT NULL, PRIMARY KEY(observation_id, tag), "
+          + "FOREIGN KEY(observation_id) REFERENCES observations(id) "
+          + "ON UPDATE NO ACTION ON DELETE CASCADE, "
+          + "FOREIGN KEY(tag) REFERENCES tags(tag) ON UPDATE NO ACTION ON DELETE NO ACTION)");
+      db.execSQL("INSERT INTO observation_tags_new (observation_id, tag) "
+          + "SELECT o.id, ot.tag FROM observation_tags ot INNER JOIN observations_new o "
+          + "ON o.time = ot.observation_time AND o.suspicion = ot.observation_suspicion");
+
+      db.execSQL("DROP TABLE observation_tags");
+      db.execSQL("DROP TABLE attachments");
+      db.execSQL("DROP TABLE observations");
+      db.execSQL("ALTER TABLE observations_new RENAME TO observations");
+      db.execSQL("ALTER TABLE attachments_new RENAME TO attachments");
+      db.execSQL("ALTER TABLE observation_tags_new RENAME TO observation_tags");
+
+      db.execSQL("CREATE UNIQUE INDEX index_observations_time_suspicion "
+          + "ON observations (time, suspicion)");
+      db.execSQL("CREATE INDEX index_attachments_observation_id ON attachments (observation_id)");
+      db.execSQL("CREATE INDEX index_observation_tags_tag_observation_id "
+          + "ON observation_tags (tag, observation_id)");
+    }
+  };
+
+  /**
+   * Introduces the {@link ObservationFts full-text index}.
+   */
+  static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+    @Override
+    public void migrate(@NonNull SupportSQLiteDatabase db) {
+      db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `observations_fts` "
+          + "USING FTS4(`suspicion` TEXT, `tags` TEXT, `comment` TEXT)");
+      db.execSQL("INSERT INTO observations_fts (rowid, suspicion, tags, comment) "
+          + "SELECT o.id, o.suspicion, "
+          + "(SELECT group_concat(ot.tag, ' ') FROM observation_tags ot WHERE ot.observation_id = o.id), "
+          + "o.comment FROM observations o");
+      for (String statement : FullTextFolding.foldStatements(null, "suspicion", "tags",
+          "comment")) {
+        db.execSQL(statement);
+      }
+
+      createFullTextTriggers(db);
+    }
+  };
+
+  /**
+   * Introduces the {@link GeoHash} index on the locations of the observations.
+   */
+  static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+    @Override
+    public void migrate(@NonNull SupportSQLiteDatabase db) {
+      db.execSQL("ALTER TABLE observations ADD COLUMN geohash TEXT");
+
+      SupportSQLiteStatement updateGeohash = db
+          .compileStatement("UPDATE observations SET geohash = ? WHERE id = ?");
+      try (Cursor located = db.query("SELECT id, pos_latitude, pos_longitude FROM observations "
+          + "WHERE pos_latitude IS NOT NULL AND pos_longitude IS NOT NULL")) {
+        while (located.moveToNext()) {
+          updateGeohash.bindString(1, GeoHash.encode(located.getDouble(1), located.getDouble(2),
+              GeoHash.STORED_PRECISION));
+          updateGeohash.bindLong(2, located.getLong(0));
+          updateGeohash.executeUpdateDelete();
+        }
+      }
+
+      db.execSQL("CREATE INDEX index_observations_geohash ON observations (geohash)");
+    }
+  };
+
+  /**
+   * Introduces the attachment counters of the observations.
+   */
+  static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+    @Override
+    public void migrate(@NonNull SupportSQLiteDatabase db) {
+      db.execSQL("ALTER TABLE observations ADD COLUMN image_count INTEGER NOT NULL DEFAULT 0");
+      db.execSQL("ALTER TABLE observations ADD COLUMN audio_count INTEGER NOT NULL DEFAULT 0");
+      db.execSQL("UPDATE observations SET "
+          + "image_count = (SELECT COUNT(*) FROM attachments a "
+          + "WHERE a.observation_id = observations.id AND a.type = 'IMAGE'), "
+          + "audio_count = (SELECT COUNT(*) FROM attachments a "
+          + "WHERE a.observation_id = observations.id AND a.type = 'AUDIO')");
+      db.execSQL("UPDATE observations SET images_attached = image_count > 0, "
+          + "recordings_attached = audio_count > 0");
+
+      createAttachmentCounterTriggers(db);
+    }
+  };
+
+  /**
+   * Introduces the {@link ChangeLogEntry change log}. All existing observations are logged, such
+   * that the first sync pushes them.
+   */
+  static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+    @Override
+    public void migrate(@NonNull SupportSQLiteDatabase db) {
+      db.execSQL("CREATE TABLE IF NOT EXISTS change_log (seq INTEGER PRIMARY KEY AUTOINCREMENT "
+          + "NOT NULL, observation_id INTEGER NOT NULL, time INTEGER NOT NULL, "
+          + "suspicion TEXT NOT NULL, deleted INTEGER NOT NULL)");
+      db.execSQL("INSERT INTO change_log (observation_id, time, suspicion, deleted) "
+          + "SELECT id, time, suspicion, 0 FROM observations ORDER BY time, suspicion");
+
+      createChangeLogTriggers(db);
+    }
+  };
+
+  /**
+   * Introduces the {@link ObservationRollup} and {@link TagRollup} statistics.
+   */
+  static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+    @Override
+    public void migrate(@NonNull SupportSQLiteDatabase db) {
+      db.execSQL("CREATE TABLE IF NOT EXISTS observation_rollups (period TEXT NOT NULL, "
+          + "bucket TEXT NOT NULL, suspicion TEXT NOT NULL, determined INTEGER NOT NULL, "
+          + "count INTEGER NOT NULL, PRIMARY KEY(period, bucket, suspicion, determined))");
+      db.execSQL("CREATE TABLE IF NOT EXISTS tag_rollups (period TEXT NOT NULL, "
+          + "bucket TEXT NOT NULL, tag TEXT NOT NULL, determined INTEGER NOT NULL, "
+          + "count INTEGER NOT NULL, PRIMARY KEY(period, bucket, tag, determined))");
+      rebuildStatistics(db);
+
+      createStatisticsTriggers(db);
+    }
+  };
+
+  /**
+   * Recounts the {@link ObservationRollup} and {@link TagRollup} tables from scratch.
+   * <p>
+   * The buckets are determined in the time zone which is in effect when an observation is counted.
+   * After the time zone has changed, observations would be removed from other buckets than they
+   * have been added to. The statistics should therefore be rebuilt in that case.
+   */
+  static void rebuildStatistics(SupportSQLiteDatabase db) {
+    db.execSQL("DELETE FROM observation_rollups");
+    db.execSQL("DELETE FROM tag_rollups");
+    for (StatisticsEntry.Period period : StatisticsEntry.Period.values()) {
+      db.execSQL("INSERT INTO observation_rollups (period, bucket, suspicion, determined, count) "
+          + "SELECT '" + period.name() + "', " + bucketOf(period, "time") + ", suspicion, "
+          + "determined, COUNT(*) FROM observations GROUP BY 2, 3, 4");
+      db.execSQL("INSERT INTO tag_rollups (period, bucket, tag, determined, count) "
+          + "SELECT '" + period.name() + "', " + bucketOf(period, "o.time") + ", ot.tag, "
+          + "o.determined, COUNT(*) FROM observation_tags ot "
+          + "INNER JOIN observations o ON o.id = ot.observation_id GROUP BY 2, 3, 4");
+    }
+  }
+
+  /**
+   * Keeps the {@link ObservationRollup} and {@link TagRollup} tables in sync with the
+   * {@code observations} and their tags.
+   * <p>
+   * The tags of a deleted observation have to be uncounted before the foreign keys cascade, as
+   * neither the time nor the determined flag of the observation are known afterwards.
+   */
+  static void createStatisticsTriggers(SupportSQLiteDatabase db) {
+    final String tagsOfNew = "SELECT tag FROM observation_tags WHERE observation_id = NEW.id";
+    final String tagsOfOld = "SELECT tag FROM observation_tags WHERE observation_id = OLD.id";
+
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS rollups_after_insert "
+        + "AFTER INSERT ON observations BEGIN "
+        + countObservation("NEW", 1)
+        + "END");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS rollups_after_update "
+        + "AFTER UPDATE OF time, suspicion, determined ON observations "
+        + "WHEN OLD.time IS NOT NEW.time OR OLD.suspicion IS NOT NEW.suspicion "
+        + "OR OLD.determined IS NOT NEW.determined BEGIN "
+        + countObservation("OLD", -1)
+        + countObservation("NEW", 1)
+        + "END");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS rollups_after_delete "
+        + "AFTER DELETE ON observations BEGIN "
+        + countObservation("OLD", -1)
+        + "END");
+
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS tag_rollups_after_update "
+        + "AFTER UPDATE OF time, determined ON observations "
+        + "WHEN OLD.time IS NOT NEW.time OR OLD.determined IS NOT NEW.determined BEGIN "
+        + countTags(tagsOfOld, "OLD.time", "OLD.determined", -1)
+        + countTags(tagsOfNew, "NEW.time", "NEW.determined", 1)
+        + "END");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS tag_rollups_before_delete "
+        + "BEFORE DELETE ON observations BEGIN "
+        + countTags(tagsOfOld, "OLD.time", "OLD.determined", -1)
+        + "END");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS tag_rollups_after_tag_insert "
+        + "AFTER INSERT ON observation_tags BEGIN "
+        + countTags("SELECT NEW.tag AS tag",
+        "(SELECT time FROM observations WHERE id = NEW.observation_id)",
+        "(SELECT determined FROM observations WHERE id = NEW.observation_id)", 1)
+        + "END");
+    // if the observation is being deleted, its tags have been uncounted already
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS tag_rollups_after_tag_delete "
+        + "AFTER DELETE ON observation_tags BEGIN "
+        + countTags("SELECT OLD.tag AS tag",
+        "(SELECT time FROM observations WHERE id = OLD.observation_id)",
+        "(SELECT determined FROM observations WHERE id = OLD.observation_id)", -1)
+        + "END");
+  }
+
+  /**
+   * Creates the statements of a trigger which add an observation to, or remove it from, its
+   * {@link ObservationRollup} buckets.
+   *
+   * @param row either {@code NEW} or {@code OLD}
+   * @param delta either {@code 1} or {@code -1}
+   */
+  private static String countObservation(String row, int delta) {
+    StringBuilder statements = new StringBuilder();
+    for (StatisticsEntry.Period period : StatisticsEntry.Period.values()) {
+      String bucket = bucketOf(period, row + ".time");
+      String key = "period = '" + period.name() + "' AND bucket = " + bucket + " "
+          + "AND suspicion = " + row + ".suspicion AND determined = " + row + ".determined";
+      if (delta > 0) {
+        statements.append("INSERT OR IGNORE INTO observation_rollups (period, bucket, suspicion, "
+            + "determined, count) VALUES ('" + period.name() + "', " + bucket + ", " + row
+            + ".suspicion, " + row + ".determined, 0); ");
+      }
+      statements.append("UPDATE observation_rollups SET count = count + (" + delta + ") "
+          + "WHERE " + key + "; ");
+      if (delta < 0) {
+        statements.append("DELETE FROM observation_rollups WHERE " + key + " AND count <= 0; ");
+      }
+    }
+    return statements.toString();
+  }
+
+  /**
+   * Creates the statements of a trigger which add some tags of an observation to, or remove them
+   * from, their {@link TagRollup} buckets.
+   *
+   * @param tags a query for the tags
+   * @param time the time of the observation. If it evaluates to {@code NULL}, the tags are not
+   *     counted at all.
+   * @param determined whether the observation has been determined
+   * @param delta either {@code 1} or {@code -1}
+   */
+  private static String countTags(String tags, String time, String determined, int delta) {
+    StringBuilder statements = new StringBuilder();
+    for (StatisticsEntry.Period period : StatisticsEntry.Period.values()) {
+      String bucket = bucketOf(period, time);
+      String key = "period = '" + period.name() + "' AND bucket = " + bucket + " "
+          + "AND tag IN (" + tags + ") AND determined = " + determined;
+      if (delta > 0) {
+        // NULL buckets violate the NOT NULL constraint and are thereby ignored
+        statements.append("INSERT OR IGNORE INTO tag_rollups (period, bucket, tag, determined, "
+            + "count) SELECT '" + period.name() + "', " + bucket + ", tag, " + determined
+            + ", 0 FROM (" + tags + "); ");
+      }
+      statements.append("UPDATE tag_rollups SET count = count + (" + delta + ") "
+          + "WHERE " + key + "; ");
+      if (delta < 0) {
+        statements.append("DELETE FROM tag_rollups WHERE " + key + " AND count <= 0; ");
+      }
+    }
+    return statements.toString();
+  }
+
+  /**
+   * Creates the expression which determines the bucket of a time within a period.
+   *
+   * @param time an expression for the time in milliseconds since the epoch
+   */
+  private static String bucketOf(StatisticsEntry.Period period, String time) {
+    switch (period) {
+      case DAY:
+        return "date(" + time + " / 1000, 'unixepoch', 'localtime')";
+      case MONTH:
+        return "strftime('%Y-%m', " + time + " / 1000, 'unixepoch', 'localtime')";
+      default:
+        throw new IllegalArgumentException("Unknown period: " + period);
+    }
+  }
+
+  /**
+   * Introduces the {@link FirstSighting} index. The observations are additionally indexed by their
+   * suspicion, such that a removed first sighting may be replaced by a single index lookup.
+   */
+  static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+    @Override
+    public void migrate(@NonNull SupportSQLiteDatabase db) {
+      db.execSQL("CREATE INDEX IF NOT EXISTS index_observations_suspicion_time "
+          + "ON observations (suspicion, time)");
+      db.execSQL("CREATE TABLE IF NOT EXISTS first_sightings (kind TEXT NOT NULL, "
+          + "subject TEXT NOT NULL, year INTEGER NOT NULL, time INTEGER NOT NULL, "
+          + "PRIMARY KEY(kind, subject, year))");
+      db.execSQL("CREATE INDEX IF NOT EXISTS index_first_sightings_kind_year_time "
+          + "ON first_sightings (kind, year, time)");
+      rebuildFirstSightings(db);
+
+      createFirstSightingTriggers(db);
+    }
+  };
+
+  /**
+   * Adds the byte counters of ingested images and their archived originals to the
+   * {@link Attachment attachments}.
+   */
+  static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+    @Override
+    public void migrate(@NonNull SupportSQLiteDatabase db) {
+      db.execSQL("ALTER TABLE attachments ADD COLUMN original_path TEXT");
+      db.execSQL("ALTER TABLE attachments ADD COLUMN original_size INTEGER");
+      db.execSQL("ALTER TABLE attachments ADD COLUMN stored_size INTEGER");
+      db.execSQL("ALTER TABLE attachments ADD COLUMN original_accessed INTEGER");
+    }
+  };
+
+  /**
+   * Introduces the {@link ContentBlob content-addressed store}. The attachments are keyed by their
+   * observation as well, such that the same file may be attached to several observations. The
+   * access times of the archived originals move to the blobs, as they belong to the content.
+   * Attachments which have been ingested before are hashed again by the ingestion.
+   */
+  static final Migration MIGRATION_10_11 = new Migration(10, 11) {
+    @Override
+    public void migrate(@NonNull SupportSQLiteDatabase db) {
+      db.execSQL("CREATE TABLE attachments_new (observation_id INTEGER NOT NULL, "
+          + "file_path TEXT NOT NULL, type TEXT NOT NULL, content_hash TEXT, original_path TEXT, "
+          + "original_size INTEGER, stored_size INTEGER, "
+          + "PRIMARY KEY(file_path, observation_id), "
+          + "FOREIGN KEY(observation_id) REFERENCES observations(id) "
+          + "ON UPDATE NO ACTION ON DELETE CASCADE)");
+      db.execSQL("INSERT INTO attachments_new (observation_id, file_path, type, original_path, "
+          + "original_size, stored_size) SELECT observation_id, file_path, type, original_path, "
+          + "original_size, stored_size FROM attachments");
+      db.execSQL("DROP TABLE attachments");
+      db.execSQL("ALTER TABLE attachments_new RENAME TO attachments");
+      db.execSQL("CREATE INDEX index_attachments_observation_id ON attachments (observation_id)");
+      db.execSQL("CREATE INDEX index_attachments_content_hash ON attachments (content_hash)");
+
+      db.execSQL("CREATE TABLE IF NOT EXISTS blobs (hash TEXT NOT NULL, file_path TEXT NOT NULL, "
+          + "size INTEGER NOT NULL, original_path TEXT, original_size INTEGER, "
+          + "original_accessed INTEGER, ref_count INTEGER NOT NULL, PRIMARY KEY(hash))");
+      db.execSQL("CREATE INDEX IF NOT EXISTS index_blobs_ref_count ON blobs (ref_count)");
+
+      // the triggers on the attachments have been dropped together with the old table
+      createAttachmentCounterTriggers(db);
+      createChangeLogTriggers(db);
+      createBlobTriggers(db);
+    }
+  };
+
+  /**
+   * Lets attachments be flagged as missing and indexes all columns which refer to files, such that
+   * the {@link de.portux.elfeb.images.AttachmentReconciler} may read them in order.
+   */
+  static final Migration MIGRATION_11_12 = new Migration(11, 12) {
+    @Override
+    public void migrate(@NonNull SupportSQLiteDatabase db) {
+      db.execSQL("ALTER TABLE attachments ADD COLUMN missing_since INTEGER");
+      db.execSQL("CREATE INDEX IF NOT EXISTS index_attachments_original_path "
+          + "ON attachments (original_path)");
+      db.execSQL("CREATE INDEX IF NOT EXISTS index_blobs_file_path ON blobs (file_path)");
+      db.execSQL("CREATE INDEX IF NOT EXISTS index_blobs_original_path ON blobs (original_path)");
+    }
+  };
+
+  /**
+   * Determines the {@link FirstSighting} table from scratch. Just like the statistics, the years
+   * are based on the local time zone and the index should be rebuilt after it has changed.
+   */
+  static void rebuildFirstSightings(SupportSQLiteDatabase db) {
+    db.execSQL("DELETE FROM first_sightings");
+    String allTime = String.valueOf(FirstSighting.ALL_TIME);
+    db.execSQL("INSERT INTO first_sightings (kind, subject, year, time) "
+        + "SELECT '" + FirstSighting.Kind.SUSPICION.name() + "', suspicion, " + allTime + ", "
+        + "MIN(time) FROM observations GROUP BY 2");
+    db.execSQL("INSERT INTO first_sightings (kind, subject, year, time) "
+        + "SELECT '" + FirstSighting.Kind.SUSPICION.name() + "', suspicion, " + yearOf("time")
+        + ", MIN(time) FROM observations GROUP BY 2, 3");
+    db.execSQL("INSERT INTO first_sightings (kind, subject, year, time) "
+        + "SELECT '" + FirstSighting.Kind.TAG.name() + "', ot.tag, " + allTime + ", "
+        + "MIN(o.time) FROM observation_tags ot "
+        + "INNER JOIN observations o ON o.id = ot.observation_id GROUP BY 2");
+    db.execSQL("INSERT INTO first_sightings (kind, subject, year, time) "
+        + "SELECT '" + FirstSighting.Kind.TAG.name() + "', ot.tag, " + yearOf("o.time") + ", "
+        + "MIN(o.time) FROM observation_tags ot "
+        + "INNER JOIN observations o ON o.id = ot.observation_id GROUP BY 2, 3");
+  }
+
+  /**
+   * Keeps the {@link FirstSighting} table in sync with the {@code observations} and their tags.
+   * <p>
+   * A new sighting only has to be compared to the current first one. Once the first sighting is
+   * gone, the next one is looked up from the remaining observations. For suspicions the
+   * {@code (suspicion, time)} index leads to it directly. The tags of a deleted observation are
+   * only noticed when the foreign keys cascade, at which point the observation cannot be read
+   * anymore. Therefore a first sighting of a tag is rather checked for whether some observation
+   * with that tag still exists at its time.
+   */
+  static void createFirstSightingTriggers(SupportSQLiteDatabase db) {
+    final String suspicion = FirstSighting.Kind.SUSPICION.name();
+    final String tag = FirstSighting.Kind.TAG.name();
+    final String tagsOfNew = "SELECT tag AS subject FROM observation_tags "
+        + "WHERE observation_id = NEW.id";
+
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS first_sightings_after_insert "
+        + "AFTER INSERT ON observations BEGIN "
+        + sight(suspicion, "SELECT NEW.suspicion AS subject", "NEW.time")
+        + "END");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS first_sightings_after_update "
+        + "AFTER UPDATE OF time, suspicion ON observations "
+        + "WHEN OLD.time IS NOT NEW.time OR OLD.suspicion IS NOT NEW.suspicion BEGIN "
+        + unsightSuspicion("OLD")
+        + sight(suspicion, "SELECT NEW.suspicion AS subject", "NEW.time")
+        + "END");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS first_sightings_after_delete "
+        + "AFTER DELETE ON observations BEGIN "
+        + unsightSuspicion("OLD")
+        + "END");
+
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS first_tag_sightings_after_update "
+        + "AFTER UPDATE OF time ON observations "
+        + "WHEN OLD.time IS NOT NEW.time BEGIN "
+        + unsightTags(tagsOfNew)
+        + sight(tag, tagsOfNew, "NEW.time")
+        + "END");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS first_tag_sightings_after_tag_insert "
+        + "AFTER INSERT ON observation_tags BEGIN "
+        + sight(tag, "SELECT NEW.tag AS subject",
+        "(SELECT time FROM observations WHERE id = NEW.observation_id)")
+        + "END");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS first_tag_sightings_after_tag_delete "
+        + "AFTER DELETE ON observation_tags BEGIN "
+        + unsightTags("SELECT OLD.tag AS subject")
+        + "END");
+  }
+
+  /**
+   * Creates the statements of a trigger which record a sighting as the first one of its subjects,
+   * unless they have been sighted before within all time or the year respectively.
+   *
+   * @param kind the name of a {@link FirstSighting.Kind}
+   * @param subjects a query for the sighted subjects
+   * @param time the time of the sighting. If it evaluates to {@code NULL}, nothing is recorded.
+   */
+  private static String sight(String kind, String subjects, String time) {
+    StringBuilder statements = new StringBuilder();
+    for (String year : new String[]{String.valueOf(FirstSighting.ALL_TIME), yearOf(time)}) {
+      // NULL times violate the NOT NULL constraint and are thereby ignored
+      statements.append("INSERT OR IGNORE INTO first_sightings (kind, subject, year, time) "
+          + "SELECT '" + kind + "', subject, " + year + ", " + time + " "
+          + "FROM (" + subjects + "); ");
+    }
+    statements.append("UPDATE first_sightings SET time = " + time + " "
+        + "WHERE kind = '" + kind + "' AND subject IN (" + subjects + ") "
+        + "AND year IN (" + FirstSighting.ALL_TIME + ", " + yearOf(time) + ") "
+        + "AND time > " + time + "; ");
+    return statements.toString();
+  }
+
+  /**
+   * Creates the statements of a trigger which replace the first sightings of the suspicion of an
+   * observation that has been removed or changed.
+   *
+   * @param row most probably {@code OLD}
+   */
+  private static String unsightSuspicion(String row) {
+    String next = "SELECT time FROM observations WHERE suspicion = first_sightings.subject "
+        + "AND " + withinYear("time") + " ORDER BY time LIMIT 1";
+    return replaceSightings(FirstSighting.Kind.SUSPICION.name(),
+        "subject = " + row + ".suspicion AND time = " + row + ".time", next);
+  }
+
+  /**
+   * Creates the statements of a trigger which replace the first sightings of some tags, if no
+   * observation with the respective tag exists at their time anymore.
+   *
+   * @param tags a query for the tags which may have lost their first sighting
+   */
+  private static String unsightTags(String tags) {
+    String stale = "subject IN (" + tags + ") AND NOT EXISTS (SELECT 1 FROM observations o "
+        + "INNER JOIN observation_tags ot ON ot.observation_id = o.id "
+        + "WHERE o.time = first_sightings.time AND ot.tag = first_sightings.subject)";
+    String next = "SELECT o.time FROM observation_tags ot "
+        + "INNER JOIN observations o ON o.id = ot.observation_id "
+        + "WHERE ot.tag = first_sightings.subject AND " + withinYear("o.time") + " "
+        + "ORDER BY o.time LIMIT 1";
+    return replaceSightings(FirstSighting.Kind.TAG.name(), stale, next);
+  }
+
+  /**
+   * Creates the statements which replace some first sightings by the next sighting, or remove them
+   * if there is none.
+   *
+   * @param kind the name of a {@link FirstSighting.Kind}
+   * @param condition the condition of the first sightings to replace
+   * @param next a query for the time of the next sighting, correlated to {@code first_sightings}
+   */
+  private static String replaceSightings(String kind, String condition, String next) {
+    String where = "WHERE kind = '" + kind + "' AND " + condition;
+    return "DELETE FROM first_sightings " + where + " AND NOT EXISTS (" + next + "); "
+        + "UPDATE first_sightings SET time = (" + next + ") " + where + "; ";
+  }
+
+  /**
+   * Creates the condition whether a time lies within the year of a first sighting. It is given as a
+   * range, such that an index on the time may be used.
+   *
+   * @param time the time column to restrict
+   */
+  private static String withinYear(String time) {
+    String year = "first_sightings.year";
+    return time + " >= CASE WHEN " + year + " = " + FirstSighting.ALL_TIME + " "
+        + "THEN -9223372036854775807 "
+        + "ELSE strftime('%s', " + year + " || '-01-01', 'utc') * 1000 END "
+        + "AND " + time + " < CASE WHEN " + year + " = " + FirstSighting.ALL_TIME + " "
+        + "THEN 9223372036854775807 "
+        + "ELSE strftime('%s', " + year + " || '-01-01', '+1 year', 'utc') * 1000 END";
+  }
+
+  /**
+   * Creates the expression which determines the year (of the local time zone) of a time.
+   *
+   * @param time an expression for the time in milliseconds since the epoch
+   */
+  private static String yearOf(String time) {
+    return "CAST(strftime('%Y', " + time + " / 1000, 'unixepoch', 'localtime') AS INTEGER)";
+  }
+
+  /**
+   * Keeps the attachment counters of the {@code observations} - and the flags derived from them -
+   * in sync with the {@code attachments} table. Attaching or removing a file therefore only takes
+   * a single statement.
+   * <p>
+   * Within the {@code SET} clause all columns still refer to their old value.
+   */
+  static void createAttachmentCounterTriggers(SupportSQLiteDatabase db) {
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS attachment_counters_after_insert "
+        + "AFTER INSERT ON attachments BEGIN "
+        + "UPDATE observations SET "
+        + "image_count = image_count + (NEW.type = 'IMAGE'), "
+        + "audio_count = audio_count + (NEW.type = 'AUDIO'), "
+        + "images_attached = image_count + (NEW.type = 'IMAGE') > 0, "
+        + "recordings_attached = audio_count + (NEW.type = 'AUDIO') > 0 "
+        + "WHERE id = NEW.observation_id; "
+        + "END");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS attachment_counters_after_delete "
+        + "AFTER DELETE ON attachments BEGIN "
+        + "UPDATE observations SET "
+        + "image_count = image_count - (OLD.type = 'IMAGE'), "
+        + "audio_count = audio_count - (OLD.type = 'AUDIO'), "
+        + "images_attached = image_count - (OLD.type = 'IMAGE') > 0, "
+        + "recordings_attached = audio_count - (OLD.type = 'AUDIO') > 0 "
+        + "WHERE id = OLD.observation_id; "
+        + "END");
+  }
+
+  /**
+   * Logs each change of the {@code observations}, their tags and their attachments in the
+   * {@link ChangeLogEntry change log}.
+   * <p>
+   * Only the columns which are synced are watched, so the attachment counters do not log the same
+   * change twice. Changing the key of an observation logs the old key as deleted. Moving an
+   * attachment to another file is not logged, as only the ingestion does that: its working copy
+   * is a local matter of each device, which ingests the files it receives on its own.
+   */
+  static void createChangeLogTriggers(SupportSQLiteDatabase db) {
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS change_log_after_insert "
+        + "AFTER INSERT ON observations BEGIN "
+        + "INSERT INTO change_log (observation_id, time, suspicion, deleted) "
+        + "VALUES (NEW.id, NEW.time, NEW.suspicion, 0); "
+        + "END");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS change_log_after_key_update "
+        + "AFTER UPDATE OF time, suspicion ON observations "
+        + "WHEN OLD.time IS NOT NEW.time OR OLD.suspicion IS NOT NEW.suspicion BEGIN "
+        + "INSERT INTO change_log (observation_id, time, suspicion, deleted) "
+        + "VALUES (OLD.id, OLD.time, OLD.suspicion, 1); "
+        + "END");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS change_log_after_update "
+        + "AFTER UPDATE OF time, suspicion, comment, determined, pos_latitude, pos_longitude "
+        + "ON observations BEGIN "
+        + "INSERT INTO change_log (observation_id, time, suspicion, deleted) "
+        + "VALUES (NEW.id, NEW.time, NEW.suspicion, 0); "
+        + "END");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS change_log_after_delete "
+        + "AFTER DELETE ON observations BEGIN "
+        + "INSERT INTO change_log (observation_id, time, suspicion, deleted) "
+        + "VALUES (OLD.id, OLD.time, OLD.suspicion, 1); "
+        + "END");
+
+    // tags and attachments are synced as part of their observation. If the observation itself is
+    // being deleted, there is nothing left to log.
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS change_log_after_tag_insert "
+        + "AFTER INSERT ON observation_tags BEGIN "
+        + "INSERT INTO change_log (observation_id, time, suspicion, deleted) "
+        + "SELECT id, time, suspicion, 0 FROM observations WHERE id = NEW.observation_id; "
+        + "END");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS change_log_after_tag_delete "
+        + "AFTER DELETE ON observation_tags BEGIN "
+        + "INSERT INTO change_log (observation_id, time, suspicion, deleted) "
+        + "SELECT id, time, suspicion, 0 FROM observations WHERE id = OLD.observation_id; "
+        + "END");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS change_log_after_attachment_insert "
+        + "AFTER INSERT ON attachments BEGIN "
+        + "INSERT INTO change_log (observation_id, time, suspicion, deleted) "
+        + "SELECT id, time, suspicion, 0 FROM observations WHERE id = NEW.observation_id; "
+        + "END");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS change_log_after_attachment_delete "
+        + "AFTER DELETE ON attachments BEGIN "
+        + "INSERT INTO change_log (observation_id, time, suspicion, deleted) "
+        + "SELECT id, time, suspicion, 0 FROM observations WHERE id = OLD.observation_id; "
+        + "END");
+  }
+
+  /**
+   * Keeps the reference counts of the {@link ContentBlob blobs} in sync with the
+   * {@code attachments} which refer to them. The archived original of a blob is mirrored to its
+   * attachments, such that they may be displayed without looking up the blob.
+   */
+  static void createBlobTriggers(SupportSQLiteDatabase db) {
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS blob_refs_after_insert "
+        + "AFTER INSERT ON attachments WHEN NEW.content_hash IS NOT NULL BEGIN "
+        + "UPDATE blobs SET ref_count = ref_count + 1 WHERE hash = NEW.content_hash; "
+        + "END");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS blob_refs_after_delete "
+        + "AFTER DELETE ON attachments WHEN OLD.content_hash IS NOT NULL BEGIN "
+        + "UPDATE blobs SET ref_count = ref_count - 1 WHERE hash = OLD.content_hash; "
+        + "END");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS blob_refs_after_update "
+        + "AFTER UPDATE OF content_hash ON attachments "
+        + "WHEN OLD.content_hash IS NOT NEW.content_hash BEGIN "
+        + "UPDATE blobs SET ref_count = ref_count - 1 WHERE hash = OLD.content_hash; "
+        + "UPDATE blobs SET ref_count = ref_count + 1 WHERE hash = NEW.content_hash; "
+        + "END");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS blob_original_after_update "
+        + "AFTER UPDATE OF original_path ON blobs "
+        + "WHEN OLD.original_path IS NOT NEW.original_path BEGIN "
+        + "UPDATE attachments SET original_path = NEW.original_path "
+        + "WHERE content_hash = NEW.hash; "
+        + "END");
+  }
+
+  /**
+   * Keeps the {@link TagClosure} table in sync with the parent relation of the {@code tags} table.
+   */
+  static void createTagClosureTriggers(SupportSQLiteDatabase db) {
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS tag_closure_after_insert AFTER INSERT ON tags BEGIN "
+        + "INSERT INTO tag_closure (ancestor, descendant, depth) VALUES (NEW.tag, NEW.tag, 0); "
+        + "INSERT INTO tag_closure (ancestor, descendant, depth) "
+        + "SELECT ancestor, NEW.tag, depth + 1 FROM tag_closure WHERE descendant = NEW.parent; "
+        + "END");
+
+    // a tag may not be moved below one of its own sub-tags
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS tag_closure_before_parent_update "
+        + "BEFORE UPDATE OF parent ON tags "
+        + "WHEN NEW.parent IS NOT NULL AND EXISTS (SELECT 1 FROM tag_closure "
+        + "WHERE ancestor = NEW.tag AND descendant = NEW.parent) BEGIN "
+        + "SELECT RAISE(ABORT, 'Tag may not become a sub-tag of itself'); "
+        + "END");
+
+    // detach the whole sub-tree from its former ancestors and attach it to the new ones
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS tag_closure_after_parent_update "
+        + "AFTER UPDATE OF parent ON tags WHEN OLD.parent IS NOT NEW.parent BEGIN "
+        + "DELETE FROM tag_closure "
+        + "WHERE descendant IN (SELECT descendant FROM tag_closure WHERE ancestor = NEW.tag) "
+        + "AND ancestor IN (SELECT ancestor FROM tag_closure "
+        + "WHERE descendant = NEW.tag AND ancestor <> NEW.tag); "
+        + "INSERT INTO tag_closure (ancestor, descendant, depth) "
+        + "SELECT a.ancestor, d.descendant, a.depth + d.depth + 1 "
+        + "FROM tag_closure a, tag_closure d WHERE a.descendant = NEW.parent AND d.ancestor = NEW.tag; "
+        + "END");
+
+    // sub-tags of a deleted tag become top-level tags. This has to happen before the foreign keys
+    // cascade, as the sub-tree could not be determined afterwards.
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS tag_closure_before_delete BEFORE DELETE ON tags BEGIN "
+        + "DELETE FROM tag_closure "
+        + "WHERE descendant IN (SELECT descendant FROM tag_closure WHERE ancestor = OLD.tag) "
+        + "AND ancestor IN (SELECT ancestor FROM tag_closure WHERE descendant = OLD.tag); "
+        + "END");
+  }
+
+  /**
+   * Keeps the {@link ObservationFts full-text index} in sync with the {@code observations} and
+   * their tags. The text is {@link FullTextFolding folded} once it has been written to the index.
+   */
+  static void createFullTextTriggers(SupportSQLiteDatabase db) {
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS observations_fts_after_insert "
+        + "AFTER INSERT ON observations BEGIN "
+        + "INSERT INTO observations_fts (rowid, suspicion, tags, comment) "
+        + "VALUES (NEW.id, NEW.suspicion, NULL, NEW.comment); "
+        + FullTextFolding.foldTriggerStatements("rowid = NEW.id", "suspicion", "comment")
+        + "END");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS observations_fts_after_update "
+        + "AFTER UPDATE OF suspicion, comment ON observations BEGIN "
+        + "UPDATE observations_fts SET suspicion = NEW.suspicion, comment = NEW.comment "
+        + "WHERE rowid = NEW.id; "
+        + FullTextFolding.foldTriggerStatements("rowid = NEW.id", "suspicion", "comment")
+        + "END");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS observations_fts_after_delete "
+        + "AFTER DELETE ON observations BEGIN "
+        + "DELETE FROM observations_fts WHERE rowid = OLD.id; "
+        + "END");
+
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS observations_fts_after_tag_insert "
+        + "AFTER INSERT ON observation_tags BEGIN "
+        + "UPDATE observations_fts SET tags = (SELECT group_concat(tag, ' ') FROM observation_tags "
+        + "WHERE observation_id = NEW.observation_id) WHERE rowid = NEW.observation_id; "
+        + FullTextFolding.foldTriggerStatements("rowid = NEW.observation_id", "tags")
+        + "END");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS observations_fts_after_tag_delete "
+        + "AFTER DELETE ON observation_tags BEGIN "
+        + "UPDATE observations_fts SET tags = (SELECT group_concat(tag, ' ') FROM observation_tags "
+        + "WHERE observation_id = OLD.observation_id) WHERE rowid = OLD.observation_id; "
+        + FullTextFolding.foldTriggerStatements("rowid = OLD.observation_id", "tags")
+        + "END");
+  }
+
   private static RoomDatabase.Callback sRoomDatabaseCallback =
       new RoomDatabase.Callback() {
 
+        @Override
+        public void onCreate(@NonNull SupportSQLiteDatabase db) {
+          super.onCreate(db);
+          createTagClosureTriggers(db);
+          createFullTextTriggers(db);
+          createAttachmentCounterTriggers(db);
+          createChangeLogTriggers(db);
+          createStatisticsTriggers(db);
+          createFirstSightingTriggers(db);
+          createBlobTriggers(db);
+        }
+
         @Override
         public void onOpen(@NonNull SupportSQLiteDatabase db) {
           super.onOpen(db);
+          configureConnection(db);
           new PopulateDbAsync(INSTANCE).execute();
         }
 
@@ -0,0 +1,140 @@
+package de.portux.elfeb.model;
+
+import android.content.Context;
+import android.database.Cursor;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import de.portux.elfeb.model.export.CsvObservationWriter;
+import de.portux.elfeb.model.export.DarwinCoreArchiveWriter;
+import de.portux.elfeb.model.export.GeoJsonObservationWriter;
+import de.portux.elfeb.model.export.ObservationRecord;
+import de.portux.elfeb.model.export.ObservationWriter;
+import de.portux.elfeb.support.Assert;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The {@code FieldNotesExporter} writes all observations to a file in some interchange format.
+ * <p>
+ * The observations are streamed right from a forward-only cursor into the target. They are never
+ * converted into {@link Observation} instances or collected in lists, so the memory required is
+ * the same for any number of observations. Tags and attachments are joined into the row of their
+ * observation by the query itself. Only Darwin Core Archives remember the entry names of the
+ * attached files.
+ *
+ * @author Rico Bergmann
+ */
+public class FieldNotesExporter {
+
+  public enum Format {
+    DARWIN_CORE_ARCHIVE, CSV, GEOJSON
+  }
+
+  /**
+   * Separates the tags and attachments joined by the query. The ASCII unit separator will neither
+   * occur in tags nor in file names.
+   */
+  private static final char SEPARATOR = '\u001f';
+
+  private static final String OBSERVATIONS_QUERY = "SELECT o.id, o.time, o.suspicion, o.comment, "
+      + "o.determined, o.pos_latitude, o.pos_longitude, "
+      + "(SELECT group_concat(ot.tag, '" + SEPARATOR + "') FROM observation_tags ot "
+      + "WHERE ot.observation_id = o.id), "
+      + "(SELECT group_concat(a.file_path, '" + SEPARATOR + "') FROM attachments a "
+      + "WHERE a.observation_id = o.id) "
+      + "FROM observations o ORDER BY o.time, o.suspicion";
+
+  private static final String ATTACHMENTS_QUERY = "SELECT DISTINCT file_path FROM attachments";
+
+  @NonNull
+  private final SupportSQLiteOpenHelper mOpenHelper;
+
+  public FieldNotesExporter(@NonNull Context context) {
+    this(FieldNotesDatabase.getDatabase(context).getOpenHelper());
+  }
+
+  /**
+   * @param openHelper provides the database to export
+   */
+  FieldNotesExporter(@NonNull SupportSQLiteOpenHelper openHelper) {
+    Assert.notNull(openHelper, "Open helper may not be null");
+    this.mOpenHelper = openHelper;
+  }
+
+  /**
+   * Exports all observations.
+   *
+   * @param format the format to write
+   * @param target the channel to write to. It will be closed afterwards.
+   * @param includeAttachments whether the attached files should be added to the export, too. This
+   *     is only supported by {@link Format#DARWIN_CORE_ARCHIVE}.
+   * @return the number of observations that have been exported
+   */
+  @WorkerThread
+  public int export(@NonNull Format format, @NonNull WritableByteChannel target,
+      boolean includeAttachments) throws IOException {
+    Assert.notNull(format, "Format may not be null");
+    Assert.notNull(target, "Target may not be null");
+    Assert.isTrue(!includeAttachments || format == Format.DARWIN_CORE_ARCHIVE,
+        "Attachments may only be included in Darwin Core Archives");
+
+    OutputStream out = Channels.newOutputStream(target);
+    try (ObservationWriter writer = createWriter(format, out)) {
+      int exported = writeObservations(writer);
+      if (includeAttachments) {
+        writeAttachments((DarwinCoreArchiveWriter) writer);
+      }
+      return exported;
+    }
+  }
+
+  private int writeObservations(@NonNull ObservationWriter writer) throws IOException {
+    ObservationRecord record = new ObservationRecord();
+    int exported = 0;
+    try (Cursor observations = mOpenHelper.getReadableDatabase().query(OBSERVATIONS_QUERY)) {
+      while (observations.moveToNext()) {
+        record.fill(observations.getLong(0), //
+            observations.getLong(1), //
+            observations.getString(2), //
+            observations.getString(3), //
+            observations.getInt(4) != 0, //
+            observations.isNull(5) ? null : observations.getDouble(5), //
+            observations.isNull(6) ? null : observations.getDouble(6), //
+            observations.getString(7), //
+            observations.getString(8), //
+            SEPARATOR);
+        writer.write(record);
+        ++exported;
+      }
+    }
+    return exported;
+  }
+
+  private void writeAttachments(@NonNull DarwinCoreArchiveWriter writer) throws IOException {
+    try (Cursor attachments = mOpenHelper.getReadableDatabase().query(ATTACHMENTS_QUERY)) {
+      while (attachments.moveToNext()) {
+        writer.addAttachment(new File(attachments.getString(0)));
+      }
+    }
+  }
+
+  @NonNull
+  private static ObservationWriter createWriter(@NonNull Format format, @NonNull OutputStream out)
+      throws IOException {
+    switch (format) {
+      case DARWIN_CORE_ARCHIVE:
+        return new DarwinCoreArchiveWriter(out);
+      case CSV:
+        return new CsvObservationWriter(out);
+      case GEOJSON:
+        return new GeoJsonObservationWriter(out);
+      default:
+        throw new IllegalArgumentException("Unknown format: " + format);
+    }
+  }
+
+}
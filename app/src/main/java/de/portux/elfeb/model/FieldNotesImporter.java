@@ -0,0 +1,342 @@
+package de.portux.elfeb.model;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import com.google.common.util.concurrent.ListenableFuture;
+import de.portux.elfeb.model.imports.CsvObservationReader;
+import de.portux.elfeb.model.imports.DarwinCoreObservationReader;
+import de.portux.elfeb.model.imports.GpxObservationReader;
+import de.portux.elfeb.model.imports.ImportRecord;
+import de.portux.elfeb.model.imports.ObservationReader;
+import de.portux.elfeb.support.Assert;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * The {@code FieldNotesImporter} reads observations from files of other tools into the
+ * {@link FieldNotes}.
+ * <p>
+ * Files are parsed incrementally and written in large batches. Each batch is a single transaction
+ * of the {@link BatchingWriteQueue}, whose rows are inserted through statements which are compiled
+ * once per batch. While one batch is written, the next one is already parsed. Tags are resolved
+ * through a {@link TagInternTable}, so each of them is only created once. Tags are only registered
+ * as saved once the batch which created them has been committed, as a batch that is rolled back
+ * and retried has to create them again.
+ * <p>
+ * After each batch the number of rows read so far is saved as checkpoint. If an import is
+ * interrupted, importing the same file again skips the rows up to the checkpoint. Observations
+ * that already exist (as identified by their time and suspicion) are skipped anyway, so rows of a
+ * batch which was committed but not checkpointed are not imported twice.
+ *
+ * @author Rico Bergmann
+ */
+public class FieldNotesImporter {
+
+  public enum Format {
+    CSV, GPX,
+
+    /**
+     * Either a Darwin Core Archive or its bare {@code occurrence.txt}.
+     */
+    DARWIN_CORE
+  }
+
+  /**
+   * Gets notified after each batch has been committed.
+   */
+  public interface ProgressListener {
+
+    /**
+     * @param imported the number of observations imported so far
+     * @param skipped the number of rows skipped so far, as they were incomplete or the
+     *     observation existed already
+     */
+    void onProgress(int imported, int skipped);
+  }
+
+  static final int BATCH_SIZE = 2_000;
+
+  private static final String CHECKPOINTS = "field_notes_import_checkpoints";
+
+  private static final String INSERT_OBSERVATION = "INSERT OR IGNORE INTO observations (time, "
+      + "suspicion, comment, determined, images_attached, recordings_attached, image_count, "
+      + "audio_count, pos_latitude, pos_longitude, geohash) VALUES (?, ?, ?, ?, 0, 0, 0, 0, ?, ?, ?)";
+
+  private static final String INSERT_TAG = "INSERT OR IGNORE INTO tags (tag) VALUES (?)";
+
+  private static final String INSERT_OBSERVATION_TAG =
+      "INSERT OR IGNORE INTO observation_tags (observation_id, tag) VALUES (?, ?)";
+
+  /**
+   * The rows of a single transaction.
+   */
+  private static class Batch {
+    final ImportRecord[] records = new ImportRecord[BATCH_SIZE];
+    int size;
+
+    /**
+     * The number of rows of the file that have been read after this batch has been filled.
+     */
+    long endPosition;
+
+    int imported;
+    int duplicates;
+
+    /**
+     * The tags which have been inserted by the batch.
+     */
+    final Set<String> insertedTags = new HashSet<>();
+
+    Batch() {
+      for (int i = 0; i < records.length; ++i) {
+        records[i] = new ImportRecord();
+      }
+    }
+  }
+
+  @NonNull
+  private final SupportSQLiteOpenHelper mOpenHelper;
+
+  @NonNull
+  private final BatchingWriteQueue mWriteQueue;
+
+  @NonNull
+  private final SharedPreferences mCheckpoints;
+
+  public FieldNotesImporter(@NonNull Context context) {
+    this(FieldNotesDatabase.getDatabase(context),
+        context.getSharedPreferences(CHECKPOINTS, Context.MODE_PRIVATE));
+  }
+
+  private FieldNotesImporter(@NonNull FieldNotesDatabase database,
+      @NonNull SharedPreferences checkpoints) {
+    this(database.getOpenHelper(), database.writeQueue(), checkpoints);
+  }
+
+  /**
+   * @param openHelper provides the database to read from
+   * @param writeQueue the queue all writes to the database go through
+   */
+  FieldNotesImporter(@NonNull SupportSQLiteOpenHelper openHelper,
+      @NonNull BatchingWriteQueue writeQueue, @NonNull SharedPreferences checkpoints) {
+    Assert.notNull(openHelper, "Open helper may not be null");
+    Assert.notNull(writeQueue, "Write queue may not be null");
+    Assert.notNull(checkpoints, "Checkpoints may not be null");
+    this.mOpenHelper = openHelper;
+    this.mWriteQueue = writeQueue;
+    this.mCheckpoints = checkpoints;
+  }
+
+  /**
+   * Imports all observations of a file, resuming a previous import of the same file if there is
+   * one.
+   *
+   * @param file the file to import
+   * @param format the format of the file
+   * @param listener gets notified about the progress. May be {@code null}.
+   * @return the number of observations that have been imported
+   */
+  @WorkerThread
+  public int importFrom(@NonNull File file, @NonNull Format format,
+      @Nullable ProgressListener listener) throws IOException {
+    Assert.notNull(file, "File may not be null");
+    Assert.notNull(format, "Format may not be null");
+
+    final String checkpointKey = checkpointKeyOf(file);
+    final long checkpoint = mCheckpoints.getLong(checkpointKey, 0);
+    final TagInternTable tags = loadTags();
+
+    int imported = 0;
+    int skipped = 0;
+    try (ObservationReader reader = createReader(file, format)) {
+      long position = 0;
+      ImportRecord scratch = new ImportRecord();
+      while (position < checkpoint && reader.read(scratch)) {
+        ++position;
+      }
+
+      Batch current = new Batch();
+      Batch other = new Batch();
+      ListenableFuture<Void> pendingWrite = null;
+      Batch pendingBatch = null;
+      while (true) {
+        // parse the next batch while the previous one is being written
+        current.size = 0;
+        while (current.size < BATCH_SIZE && reader.read(current.records[current.size])) {
+          ++position;
+          if (current.records[current.size].isComplete()) {
+            ++current.size;
+          } else {
+            ++skipped;
+          }
+        }
+        current.endPosition = position;
+
+        if (pendingWrite != null) {
+          await(pendingWrite);
+          for (String tag : pendingBatch.insertedTags) {
+            tags.addSaved(tag);
+          }
+          imported += pendingBatch.imported;
+          skipped += pendingBatch.duplicates;
+          mCheckpoints.edit().putLong(checkpointKey, pendingBatch.endPosition).apply();
+          if (listener != null) {
+            listener.onProgress(imported, skipped);
+          }
+        }
+        if (current.size == 0) {
+          break;
+        }
+
+        final Batch batch = current;
+        pendingWrite = mWriteQueue.submit(() -> write(batch, tags));
+        pendingBatch = batch;
+        current = other;
+        other = batch;
+      }
+    }
+
+    mCheckpoints.edit().remove(checkpointKey).apply();
+    return imported;
+  }
+
+  /**
+   * Inserts all observations of a batch, along with their tags. Runs on the writer thread.
+   */
+  private void write(@NonNull Batch batch, @NonNull TagInternTable tags) {
+    SupportSQLiteDatabase db = mOpenHelper.getWritableDatabase();
+    batch.imported = 0;
+    batch.duplicates = 0;
+    batch.insertedTags.clear();
+    try (SupportSQLiteStatement insertObservation = db.compileStatement(INSERT_OBSERVATION);
+        SupportSQLiteStatement insertTag = db.compileStatement(INSERT_TAG);
+        SupportSQLiteStatement insertObservationTag = db.compileStatement(INSERT_OBSERVATION_TAG)) {
+      for (int i = 0; i < batch.size; ++i) {
+        ImportRecord record = batch.records[i];
+        bindObservation(insertObservation, record);
+        long observationId = insertObservation.executeInsert();
+        if (observationId == -1) {
+          ++batch.duplicates;
+          continue;
+        }
+        ++batch.imported;
+
+        for (String content : record.getTags()) {
+          Tag tag = tags.intern(content);
+          if (tag == null) {
+            continue;
+          }
+          if (!tags.isSaved(tag) && batch.insertedTags.add(tag.getContent())) {
+            insertTag.bindString(1, tag.getContent());
+            insertTag.executeInsert();
+          }
+          insertObservationTag.bindLong(1, observationId);
+          insertObservationTag.bindString(2, tag.getContent());
+          insertObservationTag.executeInsert();
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not release statements", e);
+    }
+  }
+
+  private static void bindObservation(@NonNull SupportSQLiteStatement statement,
+      @NonNull ImportRecord record) {
+    statement.clearBindings();
+    statement.bindLong(1, record.getTime());
+    statement.bindString(2, record.getSuspicion());
+    if (record.getComment() != null) {
+      statement.bindString(3, record.getComment());
+    }
+    statement.bindLong(4, record.isDetermined() ? 1 : 0);
+    if (record.isLocationAttached()) {
+      statement.bindDouble(5, record.getLatitude());
+      statement.bindDouble(6, record.getLongitude());
+      statement.bindString(7,
+          GeoHash.encode(record.getLatitude(), record.getLongitude(), GeoHash.STORED_PRECISION));
+    }
+  }
+
+  @NonNull
+  private TagInternTable loadTags() {
+    TagInternTable tags = new TagInternTable();
+    try (Cursor savedTags = mOpenHelper.getReadableDatabase().query("SELECT tag FROM tags")) {
+      while (savedTags.moveToNext()) {
+        tags.addSaved(savedTags.getString(0));
+      }
+    }
+    return tags;
+  }
+
+  @NonNull
+  private static ObservationReader createReader(@NonNull File file, @NonNull Format format)
+      throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(file));
+    try {
+      switch (format) {
+        case CSV:
+          return new CsvObservationReader(in);
+        case GPX:
+          return new GpxObservationReader(in);
+        case DARWIN_CORE:
+          return new DarwinCoreObservationReader(
+              file.getName().endsWith(".zip") ? openOccurrences(in) : in);
+        default:
+          throw new IllegalArgumentException("Unknown format: " + format);
+      }
+    } catch (IOException | RuntimeException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Positions a Darwin Core Archive at the start of its {@code occurrence.txt}.
+   */
+  @NonNull
+  private static InputStream openOccurrences(@NonNull InputStream archive) throws IOException {
+    ZipInputStream zip = new ZipInputStream(archive);
+    ZipEntry entry;
+    while ((entry = zip.getNextEntry()) != null) {
+      if (entry.getName().endsWith("occurrence.txt")) {
+        return zip;
+      }
+    }
+    throw new IOException("Archive does not contain an occurrence.txt");
+  }
+
+  /**
+   * Identifies a file for the checkpoints. A modified file will not resume a previous import.
+   */
+  @NonNull
+  private static String checkpointKeyOf(@NonNull File file) {
+    return file.getAbsolutePath() + ':' + file.length() + ':' + file.lastModified();
+  }
+
+  private static void await(@NonNull ListenableFuture<Void> write) throws IOException {
+    try {
+      write.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Import has been interrupted", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Could not write observations", e.getCause());
+    }
+  }
+
+}
@@ -0,0 +1,437 @@
+package de.portux.elfeb.model;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import com.google.common.util.concurrent.ListenableFuture;
+import de.portux.elfeb.model.merge.ConflictPolicy;
+import de.portux.elfeb.model.merge.KeyOrder;
+import de.portux.elfeb.model.merge.ObservationVersion;
+import de.portux.elfeb.support.Assert;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The {@code FieldNotesMerger} merges the field notes of an other device into the local ones.
+ * <p>
+ * Both databases are scanned along their {@code (time, suspicion)} index in lockstep, like the two
+ * inputs of a sorted-merge join. Each observation is therefore visited exactly once and looked up
+ * without any further query. Observations which only exist in the other database are inserted.
+ * Observations which exist in both are resolved by a {@link ConflictPolicy}. Tags and attachments
+ * are always united, so nothing gets lost. The scans proceed in pages along the index, such that
+ * inserting rows behind the current position does not disturb them.
+ * <p>
+ * The other database is opened on a connection of its own instead of being {@code ATTACH}ed, as
+ * Android turns off the write-ahead log of a connection with attached databases. The whole merge
+ * is a single transaction of the {@link BatchingWriteQueue}.
+ *
+ * @author Rico Bergmann
+ */
+public class FieldNotesMerger {
+
+  /**
+   * The number of observations each merge did insert, update or leave alone.
+   */
+  public static class Result {
+    private int mInserted;
+    private int mUpdated;
+    private int mUnchanged;
+
+    public int getInserted() {
+      return mInserted;
+    }
+
+    public int getUpdated() {
+      return mUpdated;
+    }
+
+    /**
+     * The number of observations which have been identical in both databases or whose conflict
+     * has been resolved in favor of the local version.
+     */
+    public int getUnchanged() {
+      return mUnchanged;
+    }
+  }
+
+  /**
+   * The database being merged into the local one. It is only read.
+   */
+  interface OtherDatabase {
+
+    @NonNull
+    Cursor query(@NonNull String sql, @Nullable String[] arguments);
+  }
+
+  /**
+   * The oldest schema version of the other database that may be merged. Observations have their
+   * surrogate ids since then.
+   */
+  static final int MIN_SCHEMA_VERSION = 3;
+
+  static final int PAGE_SIZE = 1_000;
+
+  private static final char SEPARATOR = '\u001f';
+
+  /**
+   * Separates the path of an attachment from its type.
+   */
+  private static final char TYPE_SEPARATOR = '\u001e';
+
+  private static final String COLUMNS = "o.id, o.time, o.suspicion, o.comment, o.determined, "
+      + "o.pos_latitude, o.pos_longitude";
+
+  private static final String LOCAL_QUERY = "SELECT " + COLUMNS + " FROM observations o";
+
+  private static final String OTHER_QUERY = "SELECT " + COLUMNS + ", "
+      + "(SELECT group_concat(ot.tag, '" + SEPARATOR + "') FROM observation_tags ot "
+      + "WHERE ot.observation_id = o.id), "
+      + "(SELECT group_concat(a.file_path || '" + TYPE_SEPARATOR + "' || a.type, '" + SEPARATOR
+      + "') FROM attachments a WHERE a.observation_id = o.id) "
+      + "FROM observations o";
+
+  private static final String FIRST_PAGE = " ORDER BY o.time, o.suspicion LIMIT " + PAGE_SIZE;
+
+  private static final String NEXT_PAGE = " WHERE o.time >= ? AND (o.time > ? OR o.suspicion > ?)"
+      + FIRST_PAGE;
+
+  private static final String INSERT_OBSERVATION = "INSERT INTO observations (comment, "
+      + "determined, pos_latitude, pos_longitude, geohash, time, suspicion, images_attached, "
+      + "recordings_attached, image_count, audio_count) VALUES (?, ?, ?, ?, ?, ?, ?, 0, 0, 0, 0)";
+
+  private static final String UPDATE_OBSERVATION = "UPDATE observations SET comment = ?, "
+      + "determined = ?, pos_latitude = ?, pos_longitude = ?, geohash = ? WHERE id = ?";
+
+  private static final String INSERT_OBSERVATION_TAG =
+      "INSERT OR IGNORE INTO observation_tags (observation_id, tag) VALUES (?, ?)";
+
+  private static final String INSERT_ATTACHMENT =
+      "INSERT OR IGNORE INTO attachments (observation_id, file_path, type) VALUES (?, ?, ?)";
+
+  /**
+   * Adopts the parent of a tag unless the local tag has a parent already, or the parent is one of
+   * the tag's own sub-tags locally.
+   */
+  private static final String ADOPT_PARENT = "UPDATE tags SET parent = ? WHERE tag = ? "
+      + "AND parent IS NULL AND NOT EXISTS (SELECT 1 FROM tag_closure "
+      + "WHERE ancestor = ? AND descendant = ?)";
+
+  /**
+   * A single row of one of the scans.
+   */
+  private static class Row {
+    long id;
+    ObservationVersion version;
+    String tags;
+    String attachments;
+  }
+
+  /**
+   * Walks through the observations of a database in the order of their key, one page at a time.
+   */
+  private abstract static class Scan {
+    private final String mQuery;
+    private final List<Row> mPage = new ArrayList<>(PAGE_SIZE);
+    private int mPosition = 0;
+    private boolean mExhausted = false;
+
+    Scan(@NonNull String query) {
+      this.mQuery = query;
+    }
+
+    /**
+     * The row at the current position, or {@code null} if all rows have been visited.
+     */
+    @Nullable
+    Row current() {
+      if (mPosition == mPage.size() && !mExhausted) {
+        fetchPage();
+      }
+      return mPosition < mPage.size() ? mPage.get(mPosition) : null;
+    }
+
+    void advance() {
+      ++mPosition;
+    }
+
+    private void fetchPage() {
+      String[] after = null;
+      if (!mPage.isEmpty()) {
+        ObservationVersion last = mPage.get(mPage.size() - 1).version;
+        String time = Long.toString(last.getTime());
+        after = new String[]{time, time, last.getSuspicion()};
+      }
+      mPage.clear();
+      mPosition = 0;
+      try (Cursor rows = query(mQuery + (after == null ? FIRST_PAGE : NEXT_PAGE), after)) {
+        while (rows.moveToNext()) {
+          Row row = new Row();
+          row.id = rows.getLong(0);
+          row.version = new ObservationVersion(rows.getLong(1), //
+              rows.getString(2), //
+              rows.getString(3), //
+              rows.getInt(4) != 0, //
+              rows.isNull(5) ? null : rows.getDouble(5), //
+              rows.isNull(6) ? null : rows.getDouble(6));
+          if (rows.getColumnCount() > 7) {
+            row.tags = rows.getString(7);
+            row.attachments = rows.getString(8);
+          }
+          mPage.add(row);
+        }
+      }
+      mExhausted = mPage.size() < PAGE_SIZE;
+    }
+
+    @NonNull
+    abstract Cursor query(@NonNull String sql, @Nullable String[] arguments);
+  }
+
+  @NonNull
+  private final SupportSQLiteOpenHelper mOpenHelper;
+
+  @NonNull
+  private final BatchingWriteQueue mWriteQueue;
+
+  public FieldNotesMerger(@NonNull Context context) {
+    this(FieldNotesDatabase.getDatabase(context));
+  }
+
+  private FieldNotesMerger(@NonNull FieldNotesDatabase database) {
+    this(database.getOpenHelper(), database.writeQueue());
+  }
+
+  /**
+   * @param openHelper provides the local database
+   * @param writeQueue the queue all writes to the local database go through
+   */
+  FieldNotesMerger(@NonNull SupportSQLiteOpenHelper openHelper,
+      @NonNull BatchingWriteQueue writeQueue) {
+    Assert.notNull(openHelper, "Open helper may not be null");
+    Assert.notNull(writeQueue, "Write queue may not be null");
+    this.mOpenHelper = openHelper;
+    this.mWriteQueue = writeQueue;
+  }
+
+  /**
+   * Merges an other field notes database into the local one.
+   *
+   * @param otherDatabase the database file of the other device. It will only be read.
+   * @param policy resolves observations which differ between both databases
+   * @return what the merge did
+   * @throws IOException if the other database could not be read
+   */
+  @NonNull
+  @WorkerThread
+  public Result merge(@NonNull File otherDatabase, @NonNull ConflictPolicy policy)
+      throws IOException {
+    Assert.notNull(otherDatabase, "Other database may not be null");
+    Assert.notNull(policy, "Policy may not be null");
+
+    SQLiteDatabase other;
+    try {
+      other = SQLiteDatabase.openDatabase(otherDatabase.getPath(), null,
+          SQLiteDatabase.OPEN_READONLY);
+    } catch (SQLiteException e) {
+      throw new IOException("Could not open " + otherDatabase, e);
+    }
+    try {
+      if (other.getVersion() < MIN_SCHEMA_VERSION) {
+        throw new IOException(otherDatabase + " is too old to be merged. It has to be opened by "
+            + "the app once to be migrated.");
+      }
+      return merge(other::rawQuery, policy);
+    } finally {
+      other.close();
+    }
+  }
+
+  /**
+   * Merges an other database which has been opened already.
+   */
+  @NonNull
+  @WorkerThread
+  Result merge(@NonNull OtherDatabase other, @NonNull ConflictPolicy policy) throws IOException {
+    Result result = new Result();
+    await(mWriteQueue.submit(() -> merge(other, policy, result)));
+    return result;
+  }
+
+  /**
+   * Performs the merge. Runs on the writer thread.
+   */
+  private void merge(@NonNull OtherDatabase other, @NonNull ConflictPolicy policy,
+      @NonNull Result result) {
+    SupportSQLiteDatabase db = mOpenHelper.getWritableDatabase();
+    mergeTags(db, other);
+
+    Scan localScan = new Scan(LOCAL_QUERY) {
+      @NonNull
+      @Override
+      Cursor query(@NonNull String sql, @Nullable String[] arguments) {
+        return db.query(sql, arguments);
+      }
+    };
+    Scan otherScan = new Scan(OTHER_QUERY) {
+      @NonNull
+      @Override
+      Cursor query(@NonNull String sql, @Nullable String[] arguments) {
+        return other.query(sql, arguments);
+      }
+    };
+
+    try (SupportSQLiteStatement insert = db.compileStatement(INSERT_OBSERVATION);
+        SupportSQLiteStatement update = db.compileStatement(UPDATE_OBSERVATION);
+        SupportSQLiteStatement insertTag = db.compileStatement(INSERT_OBSERVATION_TAG);
+        SupportSQLiteStatement insertAttachment = db.compileStatement(INSERT_ATTACHMENT)) {
+      Row incoming;
+      while ((incoming = otherScan.current()) != null) {
+        ObservationVersion otherVersion = incoming.version;
+
+        // skip all local observations which the other database does not know of
+        Row local;
+        int order = 1;
+        while ((local = localScan.current()) != null
+            && (order = compare(local.version, otherVersion)) < 0) {
+          localScan.advance();
+        }
+
+        long observationId;
+        if (local != null && order == 0) {
+          observationId = local.id;
+          ObservationVersion resolved = local.version.equals(otherVersion)
+              ? local.version
+              : policy.resolve(local.version, otherVersion);
+          Assert.isTrue(compare(resolved, otherVersion) == 0,
+              "Conflict policy may not change the key of an observation");
+          if (resolved.equals(local.version)) {
+            ++result.mUnchanged;
+          } else {
+            bindVersion(update, resolved);
+            update.bindLong(6, observationId);
+            update.executeUpdateDelete();
+            ++result.mUpdated;
+          }
+          localScan.advance();
+        } else {
+          bindVersion(insert, otherVersion);
+          insert.bindLong(6, otherVersion.getTime());
+          insert.bindString(7, otherVersion.getSuspicion());
+          observationId = insert.executeInsert();
+          ++result.mInserted;
+        }
+
+        uniteTags(insertTag, observationId, incoming.tags);
+        uniteAttachments(insertAttachment, observationId, incoming.attachments);
+        otherScan.advance();
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not release statements", e);
+    }
+  }
+
+  /**
+   * Adds all tags of the other database which do not exist locally. Parents are only adopted if
+   * the local tag does not have one, so the local hierarchy is never changed.
+   */
+  private static void mergeTags(@NonNull SupportSQLiteDatabase db, @NonNull OtherDatabase other) {
+    List<String[]> parents = new ArrayList<>();
+    try (Cursor tags = other.query("SELECT tag, parent FROM tags", null)) {
+      while (tags.moveToNext()) {
+        String tag = tags.getString(0);
+        db.execSQL("INSERT OR IGNORE INTO tags (tag) VALUES (?)", new Object[]{tag});
+        if (!tags.isNull(1)) {
+          parents.add(new String[]{tag, tags.getString(1)});
+        }
+      }
+    }
+    for (String[] tagAndParent : parents) {
+      db.execSQL(ADOPT_PARENT,
+          new Object[]{tagAndParent[1], tagAndParent[0], tagAndParent[0], tagAndParent[1]});
+    }
+  }
+
+  private static void uniteTags(@NonNull SupportSQLiteStatement insertTag, long observationId,
+      @Nullable String tags) {
+    if (tags == null) {
+      return;
+    }
+    int start = 0;
+    while (start <= tags.length()) {
+      int end = tags.indexOf(SEPARATOR, start);
+      if (end == -1) {
+        end = tags.length();
+      }
+      insertTag.bindLong(1, observationId);
+      insertTag.bindString(2, tags.substring(start, end));
+      insertTag.executeInsert();
+      start = end + 1;
+    }
+  }
+
+  private static void uniteAttachments(@NonNull SupportSQLiteStatement insertAttachment,
+      long observationId, @Nullable String attachments) {
+    if (attachments == null) {
+      return;
+    }
+    int start = 0;
+    while (start <= attachments.length()) {
+      int end = attachments.indexOf(SEPARATOR, start);
+      if (end == -1) {
+        end = attachments.length();
+      }
+      int typeStart = attachments.lastIndexOf(TYPE_SEPARATOR, end - 1);
+      insertAttachment.bindLong(1, observationId);
+      insertAttachment.bindString(2, attachments.substring(start, typeStart));
+      insertAttachment.bindString(3, attachments.substring(typeStart + 1, end));
+      insertAttachment.executeInsert();
+      start = end + 1;
+    }
+  }
+
+  /**
+   * Binds the values of a version to the first five parameters of a statement.
+   */
+  private static void bindVersion(@NonNull SupportSQLiteStatement statement,
+      @NonNull ObservationVersion version) {
+    statement.clearBindings();
+    if (version.getComment() != null) {
+      statement.bindString(1, version.getComment());
+    }
+    statement.bindLong(2, version.isDetermined() ? 1 : 0);
+    if (version.isLocationAttached()) {
+      statement.bindDouble(3, version.getLatitude());
+      statement.bindDouble(4, version.getLongitude());
+      statement.bindString(5, GeoHash.encode(version.getLatitude(), version.getLongitude(),
+          GeoHash.STORED_PRECISION));
+    }
+  }
+
+  private static int compare(@NonNull ObservationVersion first,
+      @NonNull ObservationVersion second) {
+    return KeyOrder.compare(first.getTime(), first.getSuspicion(), second.getTime(),
+        second.getSuspicion());
+  }
+
+  private static void await(@NonNull ListenableFuture<Void> write) throws IOException {
+    try {
+      write.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Merge has been interrupted", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Could not merge observations", e.getCause());
+    }
+  }
+
+}
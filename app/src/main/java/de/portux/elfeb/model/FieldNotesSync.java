@@ -0,0 +1,643 @@
+package de.portux.elfeb.model;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import com.google.common.util.concurrent.ListenableFuture;
+import de.portux.elfeb.images.ContentStore;
+import de.portux.elfeb.model.Attachment.AttachmentType;
+import de.portux.elfeb.model.sync.SyncBatch;
+import de.portux.elfeb.model.sync.SyncClient;
+import de.portux.elfeb.model.sync.SyncedObservation;
+import de.portux.elfeb.model.sync.SyncedObservation.SyncedAttachment;
+import de.portux.elfeb.support.Assert;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The {@code FieldNotesSync} exchanges the changes of the {@link FieldNotes} with a sync server.
+ * <p>
+ * Only deltas are transferred. Local changes are taken from the {@link ChangeLogEntry change log}
+ * after the last sequence number the server has acknowledged. Multiple changes of the same
+ * observation are coalesced, such that each of them is sent only once per batch. Remote changes
+ * are requested after the last server sequence number that has been applied. Both sequence numbers
+ * are only advanced after a batch has been processed completely, so an interrupted sync simply
+ * repeats the last batch. Attached files are uploaded before the batch referring to them and are
+ * transferred in resumable chunks. The server knows them by the hash of their content, so files
+ * of the same name from different directories or devices never replace each other, and an
+ * interrupted upload is only ever resumed with the very same content.
+ * <p>
+ * Remote changes replace the local state of the respective observation. The change log entries
+ * caused by applying them are dropped right away, so they are not echoed back to the server.
+ * Attached files are only downloaded if their content is not stored on this device yet, and only
+ * the attachments which have actually been added or removed are written. Attachments which have
+ * been ingested already therefore keep referring to their stored content.
+ *
+ * @author Rico Bergmann
+ */
+public class FieldNotesSync {
+
+  /**
+   * The number of transferred observations.
+   */
+  public static class Result {
+    private final int mPushed;
+    private final int mPulled;
+
+    Result(int pushed, int pulled) {
+      this.mPushed = pushed;
+      this.mPulled = pulled;
+    }
+
+    public int getPushed() {
+      return mPushed;
+    }
+
+    public int getPulled() {
+      return mPulled;
+    }
+  }
+
+  /**
+   * The maximum number of change log entries, respectively remote observations, per batch.
+   */
+  static final int BATCH_SIZE = 500;
+
+  private static final String STATE = "field_notes_sync";
+  private static final String DEVICE_ID = "device_id";
+  private static final String PUSHED_SEQUENCE = "pushed_sequence";
+  private static final String PULLED_SEQUENCE = "pulled_sequence";
+
+  private static final char SEPARATOR = '\u001f';
+
+  private static final String CHANGES_QUERY = "SELECT seq, observation_id, time, suspicion, "
+      + "deleted FROM change_log WHERE seq > ? ORDER BY seq LIMIT " + BATCH_SIZE;
+
+  private static final String OBSERVATIONS_QUERY = "SELECT o.id, o.time, o.suspicion, o.comment, "
+      + "o.determined, o.pos_latitude, o.pos_longitude, "
+      + "(SELECT group_concat(ot.tag, '" + SEPARATOR + "') FROM observation_tags ot "
+      + "WHERE ot.observation_id = o.id) "
+      + "FROM observations o WHERE o.id IN ";
+
+  private static final String ATTACHMENTS_QUERY = "SELECT observation_id, file_path, type "
+      + "FROM attachments WHERE observation_id IN ";
+
+  private static final String ATTACHED_FILES_QUERY = "SELECT a.file_path FROM attachments a "
+      + "INNER JOIN observations o ON o.id = a.observation_id WHERE o.time = ? AND o.suspicion = ?";
+
+  /**
+   * Attaches stored content, the way the ingestion would once it has found the content.
+   */
+  private static final String INSERT_STORED_ATTACHMENT = "INSERT OR IGNORE INTO attachments "
+      + "(observation_id, file_path, type, content_hash, original_path, original_size, "
+      + "stored_size) SELECT ?, file_path, ?, hash, original_path, original_size, size "
+      + "FROM blobs WHERE hash = ?";
+
+  private static final String UPDATE_OBSERVATION = "UPDATE observations SET comment = ?, "
+      + "determined = ?, pos_latitude = ?, pos_longitude = ?, geohash = ? "
+      + "WHERE time = ? AND suspicion = ?";
+
+  private static final String INSERT_OBSERVATION = "INSERT INTO observations (comment, "
+      + "determined, pos_latitude, pos_longitude, geohash, time, suspicion, images_attached, "
+      + "recordings_attached, image_count, audio_count) VALUES (?, ?, ?, ?, ?, ?, ?, 0, 0, 0, 0)";
+
+  /**
+   * The local file a pulled attachment refers to.
+   */
+  private static final class LocalAttachment {
+    final File file;
+    final AttachmentType type;
+
+    /**
+     * The hash of the stored content the file belongs to, or {@code null} if the file is yet to be
+     * ingested or refers to its content through an existing attachment.
+     */
+    @Nullable
+    final String contentHash;
+
+    LocalAttachment(@NonNull File file, @NonNull AttachmentType type,
+        @Nullable String contentHash) {
+      this.file = file.getAbsoluteFile();
+      this.type = type;
+      this.contentHash = contentHash;
+    }
+  }
+
+  @NonNull
+  private final SupportSQLiteOpenHelper mOpenHelper;
+
+  @NonNull
+  private final BatchingWriteQueue mWriteQueue;
+
+  @NonNull
+  private final SharedPreferences mState;
+
+  @NonNull
+  private final SyncClient mClient;
+
+  /**
+   * Where files attached on other devices are stored.
+   */
+  @NonNull
+  private final File mAttachmentDirectory;
+
+  /**
+   * @param server the base URL of the sync server. Plain HTTP is only permitted for the station's
+   *     machine, see {@code res/xml/network_security_config.xml}.
+   */
+  public FieldNotesSync(@NonNull Context context, @NonNull URL server) {
+    this(FieldNotesDatabase.getDatabase(context),
+        context.getSharedPreferences(STATE, Context.MODE_PRIVATE), server,
+        PhotoStorage.getSyncedDirectory(context));
+  }
+
+  private FieldNotesSync(@NonNull FieldNotesDatabase database, @NonNull SharedPreferences state,
+      @NonNull URL server, @NonNull File attachmentDirectory) {
+    this(database.getOpenHelper(), database.writeQueue(), state, server, attachmentDirectory);
+  }
+
+  /**
+   * @param openHelper provides the database to read from
+   * @param writeQueue the queue all writes to the database go through
+   */
+  FieldNotesSync(@NonNull SupportSQLiteOpenHelper openHelper,
+      @NonNull BatchingWriteQueue writeQueue, @NonNull SharedPreferences state,
+      @NonNull URL server, @NonNull File attachmentDirectory) {
+    Assert.notNull(openHelper, "Open helper may not be null");
+    Assert.notNull(writeQueue, "Write queue may not be null");
+    Assert.notNull(state, "State may not be null");
+    Assert.notNull(server, "Server may not be null");
+    Assert.notNull(attachmentDirectory, "Attachment directory may not be null");
+    this.mOpenHelper = openHelper;
+    this.mWriteQueue = writeQueue;
+    this.mState = state;
+    this.mClient = new SyncClient(server, deviceIdOf(state));
+    this.mAttachmentDirectory = attachmentDirectory;
+  }
+
+  /**
+   * Pushes all local changes and pulls all remote ones.
+   */
+  @NonNull
+  @WorkerThread
+  public Result sync() throws IOException {
+    int pushed = push();
+    int pulled = pull();
+    return new Result(pushed, pulled);
+  }
+
+  /**
+   * Sends the local changes in batches.
+   *
+   * @return the number of observations that have been sent
+   */
+  private int push() throws IOException {
+    int pushed = 0;
+    long sequence = mState.getLong(PUSHED_SEQUENCE, 0);
+    while (true) {
+      Map<String, File> attachedFiles = new HashMap<>();
+      SyncBatch batch = collectChanges(sequence, attachedFiles);
+      if (batch == null) {
+        break;
+      }
+
+      for (Map.Entry<String, File> attachedFile : attachedFiles.entrySet()) {
+        mClient.upload(attachedFile.getKey(), attachedFile.getValue());
+      }
+      if (!batch.isEmpty()) {
+        mClient.push(batch);
+        pushed += batch.getObservations().size();
+      }
+
+      sequence = batch.getSequence();
+      mState.edit().putLong(PUSHED_SEQUENCE, sequence).apply();
+      final long acknowledged = sequence;
+      await(mWriteQueue.submit(() -> mOpenHelper.getWritableDatabase().execSQL(
+          "DELETE FROM change_log WHERE seq <= ?", new Object[]{acknowledged})));
+    }
+    return pushed;
+  }
+
+  /**
+   * Reads the next entries of the change log and turns them into a batch. Each observation is only
+   * contained once, in its current state.
+   *
+   * @param attachedFiles receives all files which are referred to by the batch, mapped by their
+   *     name on the server
+   * @return the batch or {@code null} if there are no more changes
+   */
+  @Nullable
+  private SyncBatch collectChanges(long sequence, @NonNull Map<String, File> attachedFiles)
+      throws IOException {
+    Map<String, ChangeLogEntry> changes = new LinkedHashMap<>();
+    long lastSequence = sequence;
+    try (Cursor entries = query(CHANGES_QUERY, new Object[]{sequence})) {
+      while (entries.moveToNext()) {
+        ChangeLogEntry entry = new ChangeLogEntry(entries.getLong(0), entries.getLong(1),
+            new Date(entries.getLong(2)), entries.getString(3), entries.getInt(4) != 0);
+        String key = entry.time.getTime() + ":" + entry.suspicion;
+        changes.remove(key);
+        changes.put(key, entry);
+        lastSequence = entry.sequence;
+      }
+    }
+    if (changes.isEmpty()) {
+      return null;
+    }
+
+    List<Long> changedIds = new ArrayList<>();
+    for (ChangeLogEntry entry : changes.values()) {
+      if (!entry.deleted) {
+        changedIds.add(entry.observationId);
+      }
+    }
+    Map<String, File> localFiles = new HashMap<>();
+    Map<Long, List<SyncedAttachment>> attachments = loadAttachments(changedIds, localFiles);
+
+    List<SyncedObservation> observations = new ArrayList<>(changes.size());
+    for (ChangeLogEntry entry : changes.values()) {
+      if (entry.deleted) {
+        observations.add(SyncedObservation.deleted(entry.time.getTime(), entry.suspicion));
+      }
+    }
+    if (!changedIds.isEmpty()) {
+      try (Cursor current = query(OBSERVATIONS_QUERY + placeholders(changedIds.size()),
+          changedIds.toArray())) {
+        // observations which are gone already will be deleted by a later entry
+        while (current.moveToNext()) {
+          List<SyncedAttachment> files = attachments.get(current.getLong(0));
+          if (files == null) {
+            files = Collections.emptyList();
+          }
+          for (SyncedAttachment file : files) {
+            attachedFiles.put(file.getName(), localFiles.get(file.getName()));
+          }
+          observations.add(SyncedObservation.updated(current.getLong(1), //
+              current.getString(2), //
+              current.getString(3), //
+              current.getInt(4) != 0, //
+              current.isNull(5) ? null : current.getDouble(5), //
+              current.isNull(6) ? null : current.getDouble(6), //
+              split(current.getString(7)), //
+              files));
+        }
+      }
+    }
+    return new SyncBatch(lastSequence, observations);
+  }
+
+  /**
+   * Loads the attachments of some observations. Each of them is named by the hash of the file
+   * which is uploaded, followed by its extension. This is not the content hash of the attachment,
+   * which belongs to the original rather than the working copy. Files which are gone cannot be
+   * transferred and are left out.
+   *
+   * @param localFiles receives the local file of each name
+   */
+  @NonNull
+  private Map<Long, List<SyncedAttachment>> loadAttachments(@NonNull List<Long> observationIds,
+      @NonNull Map<String, File> localFiles) throws IOException {
+    Map<Long, List<SyncedAttachment>> attachments = new HashMap<>();
+    if (observationIds.isEmpty()) {
+      return attachments;
+    }
+    try (Cursor cursor = query(ATTACHMENTS_QUERY + placeholders(observationIds.size()),
+        observationIds.toArray())) {
+      while (cursor.moveToNext()) {
+        List<SyncedAttachment> files = attachments.get(cursor.getLong(0));
+        if (files == null) {
+          files = new ArrayList<>();
+          attachments.put(cursor.getLong(0), files);
+        }
+        File file = new File(cursor.getString(1));
+        if (!file.isFile()) {
+          continue;
+        }
+        String name = syncedNameOf(file);
+        localFiles.put(name, file);
+        files.add(new SyncedAttachment(name, AttachmentType.valueOf(cursor.getString(2))));
+      }
+    }
+    return attachments;
+  }
+
+  /**
+   * Fetches and applies the remote changes in batches.
+   *
+   * @return the number of observations that have been received
+   */
+  private int pull() throws IOException {
+    int pulled = 0;
+    long sequence = mState.getLong(PULLED_SEQUENCE, 0);
+    while (true) {
+      SyncBatch batch = mClient.pull(sequence, BATCH_SIZE);
+      if (batch.isEmpty()) {
+        break;
+      }
+
+      List<List<LocalAttachment>> attachments = new ArrayList<>(batch.getObservations().size());
+      for (SyncedObservation observation : batch.getObservations()) {
+        attachments.add(observation.isDeleted()
+            ? Collections.<LocalAttachment>emptyList()
+            : fetchAttachments(observation));
+      }
+      await(mWriteQueue.submit(() -> apply(batch, attachments)));
+
+      pulled += batch.getObservations().size();
+      sequence = batch.getSequence();
+      mState.edit().putLong(PULLED_SEQUENCE, sequence).apply();
+    }
+    return pulled;
+  }
+
+  /**
+   * Determines the local files of the attachments of a pulled observation. Files are looked up in
+   * this order:
+   * <ol>
+   * <li>The stored content of the same hash, which is where files end up once they have been
+   * ingested.</li>
+   * <li>The file in the attachment directory, which has been downloaded but not ingested yet.</li>
+   * <li>The files attached to the local version of the observation. Files attached on this device
+   * are stored under the hash of their original rather than the one of their working copy, which
+   * the name refers to. Their names are therefore only determined once a file could not be found
+   * otherwise.</li>
+   * </ol>
+   * Only files which cannot be found at all are downloaded.
+   */
+  @NonNull
+  private List<LocalAttachment> fetchAttachments(@NonNull SyncedObservation observation)
+      throws IOException {
+    List<LocalAttachment> attachments = new ArrayList<>(observation.getAttachments().size());
+    Map<String, File> attachedFiles = null;
+    for (SyncedAttachment attachment : observation.getAttachments()) {
+      String hash = hashOf(attachment);
+      File stored = storedFileOf(hash);
+      if (stored != null) {
+        attachments.add(new LocalAttachment(stored, attachment.getType(), hash));
+        continue;
+      }
+
+      File target = localFileOf(attachment);
+      if (!target.isFile()) {
+        if (attachedFiles == null) {
+          attachedFiles = attachedFilesOf(observation);
+        }
+        File attached = attachedFiles.get(attachment.getName());
+        if (attached != null) {
+          target = attached;
+        } else {
+          mClient.download(attachment.getName(), target);
+        }
+      }
+      attachments.add(new LocalAttachment(target, attachment.getType(), null));
+    }
+    return attachments;
+  }
+
+  /**
+   * @return the file of the stored content or {@code null} if there is no such content (any more)
+   */
+  @Nullable
+  private File storedFileOf(@NonNull String hash) {
+    try (Cursor blob = query("SELECT file_path FROM blobs WHERE hash = ?", new Object[]{hash})) {
+      if (!blob.moveToFirst()) {
+        return null;
+      }
+      File file = new File(blob.getString(0));
+      return file.isFile() ? file : null;
+    }
+  }
+
+  /**
+   * @return the files attached to the local version of an observation, mapped by their name on the
+   *     server
+   */
+  @NonNull
+  private Map<String, File> attachedFilesOf(@NonNull SyncedObservation observation)
+      throws IOException {
+    Map<String, File> files = new HashMap<>();
+    try (Cursor attached = query(ATTACHED_FILES_QUERY,
+        new Object[]{observation.getTime(), observation.getSuspicion()})) {
+      while (attached.moveToNext()) {
+        File file = new File(attached.getString(0));
+        if (file.isFile()) {
+          files.put(syncedNameOf(file), file);
+        }
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Replaces the local state of all observations of a batch. Runs on the writer thread.
+   *
+   * @param attachments the local attachments of each observation of the batch
+   */
+  private void apply(@NonNull SyncBatch batch, @NonNull List<List<LocalAttachment>> attachments) {
+    SupportSQLiteDatabase db = mOpenHelper.getWritableDatabase();
+    long lastLocalChange = lastChangeSequence(db);
+    try (SupportSQLiteStatement update = db.compileStatement(UPDATE_OBSERVATION);
+        SupportSQLiteStatement insert = db.compileStatement(INSERT_OBSERVATION)) {
+      for (int i = 0; i < batch.getObservations().size(); ++i) {
+        SyncedObservation observation = batch.getObservations().get(i);
+        if (observation.isDeleted()) {
+          db.execSQL("DELETE FROM observations WHERE time = ? AND suspicion = ?",
+              new Object[]{observation.getTime(), observation.getSuspicion()});
+          continue;
+        }
+
+        bindObservation(update, observation);
+        long observationId;
+        if (update.executeUpdateDelete() > 0) {
+          observationId = idOf(db, observation);
+          db.execSQL("DELETE FROM observation_tags WHERE observation_id = ?",
+              new Object[]{observationId});
+        } else {
+          bindObservation(insert, observation);
+          observationId = insert.executeInsert();
+        }
+
+        for (String tag : observation.getTags()) {
+          db.execSQL("INSERT OR IGNORE INTO tags (tag) VALUES (?)", new Object[]{tag});
+          db.execSQL("INSERT OR IGNORE INTO observation_tags (observation_id, tag) VALUES (?, ?)",
+              new Object[]{observationId, tag});
+        }
+        replaceAttachments(db, observationId, attachments.get(i));
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not release statements", e);
+    }
+
+    // the remote changes are known to the server already
+    db.execSQL("DELETE FROM change_log WHERE seq > ?", new Object[]{lastLocalChange});
+  }
+
+  /**
+   * Replaces the attachments of an observation. Attachments which refer to the same file as before
+   * are left untouched, such that they keep their stored content.
+   */
+  private static void replaceAttachments(@NonNull SupportSQLiteDatabase db, long observationId,
+      @NonNull List<LocalAttachment> attachments) {
+    Map<String, LocalAttachment> added = new LinkedHashMap<>();
+    for (LocalAttachment attachment : attachments) {
+      added.put(attachment.file.getPath(), attachment);
+    }
+    List<String> removed = new ArrayList<>();
+    try (Cursor current = db.query("SELECT file_path FROM attachments WHERE observation_id = ?",
+        new Object[]{observationId})) {
+      while (current.moveToNext()) {
+        String path = current.getString(0);
+        if (added.remove(new File(path).getAbsolutePath()) == null) {
+          removed.add(path);
+        }
+      }
+    }
+
+    for (String path : removed) {
+      db.execSQL("DELETE FROM attachments WHERE observation_id = ? AND file_path = ?",
+          new Object[]{observationId, path});
+    }
+    for (LocalAttachment attachment : added.values()) {
+      if (attachment.contentHash != null) {
+        db.execSQL(INSERT_STORED_ATTACHMENT, new Object[]{observationId,
+            attachment.type.name(), attachment.contentHash});
+      } else {
+        // the ingestion picks the file up from here
+        db.execSQL("INSERT OR IGNORE INTO attachments (observation_id, file_path, type) "
+                + "VALUES (?, ?, ?)",
+            new Object[]{observationId, attachment.file.getPath(), attachment.type.name()});
+      }
+    }
+  }
+
+  @NonNull
+  private Cursor query(@NonNull String sql, @NonNull Object[] args) {
+    return mOpenHelper.getReadableDatabase().query(sql, args);
+  }
+
+  private static void bindObservation(@NonNull SupportSQLiteStatement statement,
+      @NonNull SyncedObservation observation) {
+    statement.clearBindings();
+    if (observation.getComment() != null) {
+      statement.bindString(1, observation.getComment());
+    }
+    statement.bindLong(2, observation.isDetermined() ? 1 : 0);
+    if (observation.isLocationAttached()) {
+      statement.bindDouble(3, observation.getLatitude());
+      statement.bindDouble(4, observation.getLongitude());
+      statement.bindString(5, GeoHash.encode(observation.getLatitude(),
+          observation.getLongitude(), GeoHash.STORED_PRECISION));
+    }
+    statement.bindLong(6, observation.getTime());
+    statement.bindString(7, observation.getSuspicion());
+  }
+
+  private static long idOf(@NonNull SupportSQLiteDatabase db,
+      @NonNull SyncedObservation observation) {
+    try (Cursor id = db.query("SELECT id FROM observations WHERE time = ? AND suspicion = ?",
+        new Object[]{observation.getTime(), observation.getSuspicion()})) {
+      Assert.isTrue(id.moveToFirst(), "Observation has vanished: " + observation);
+      return id.getLong(0);
+    }
+  }
+
+  private static long lastChangeSequence(@NonNull SupportSQLiteDatabase db) {
+    try (Cursor sequence = db.query("SELECT MAX(seq) FROM change_log")) {
+      return sequence.moveToFirst() && !sequence.isNull(0) ? sequence.getLong(0) : 0;
+    }
+  }
+
+  @NonNull
+  private File localFileOf(@NonNull SyncedAttachment attachment) {
+    return new File(mAttachmentDirectory, attachment.getName());
+  }
+
+  /**
+   * Names a file by the hash of its content, followed by its extension. This is how the server
+   * knows it.
+   */
+  @NonNull
+  private static String syncedNameOf(@NonNull File file) throws IOException {
+    return ContentStore.hash(file) + extensionOf(file);
+  }
+
+  /**
+   * @return the hash part of the name of an attachment
+   */
+  @NonNull
+  private static String hashOf(@NonNull SyncedAttachment attachment) {
+    String name = attachment.getName();
+    int extension = name.indexOf('.');
+    return extension >= 0 ? name.substring(0, extension) : name;
+  }
+
+  @NonNull
+  private static String extensionOf(@NonNull File file) {
+    String name = file.getName();
+    int extension = name.lastIndexOf('.');
+    return extension > 0 ? name.substring(extension) : "";
+  }
+
+  @NonNull
+  private static String deviceIdOf(@NonNull SharedPreferences state) {
+    String deviceId = state.getString(DEVICE_ID, null);
+    if (deviceId == null) {
+      deviceId = UUID.randomUUID().toString();
+      state.edit().putString(DEVICE_ID, deviceId).apply();
+    }
+    return deviceId;
+  }
+
+  @NonNull
+  private static List<String> split(@Nullable String joined) {
+    if (joined == null) {
+      return Collections.emptyList();
+    }
+    List<String> parts = new ArrayList<>();
+    int start = 0;
+    int end;
+    while ((end = joined.indexOf(SEPARATOR, start)) != -1) {
+      parts.add(joined.substring(start, end));
+      start = end + 1;
+    }
+    parts.add(joined.substring(start));
+    return parts;
+  }
+
+  @NonNull
+  private static String placeholders(int count) {
+    StringBuilder placeholders = new StringBuilder(2 * count + 1).append('(');
+    for (int i = 0; i < count; ++i) {
+      placeholders.append(i == 0 ? "?" : ", ?");
+    }
+    return placeholders.append(')').toString();
+  }
+
+  private static void await(@NonNull ListenableFuture<Void> write) throws IOException {
+    try {
+      write.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Sync has been interrupted", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Could not write changes", e.getCause());
+    }
+  }
+
+}
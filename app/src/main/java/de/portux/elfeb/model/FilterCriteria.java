@@ -4,6 +4,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import de.portux.elfeb.support.Assert;
 import de.portux.elfeb.support.Constraint;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Objects;
 import java.util.Set;
@@ -13,6 +14,7 @@ public class FilterCriteria {
   private final Date from;
   private final Date to;
   private final Set<Tag> tags;
+  private final boolean subTagsIncluded;
 
   @NonNull
   public static CriteriaBuilder construct() {
@@ -29,12 +31,14 @@ public class FilterCriteria {
     }
   }
 
-  private FilterCriteria(@Nullable Date from, @Nullable Date to, @NonNull Set<Tag> tags) {
+  private FilterCriteria(@Nullable Date from, @Nullable Date to, @NonNull Set<Tag> tags,
+      boolean subTagsIncluded) {
     Assert.noNullElements(tags, "No tag may be null");
     assertValidTimeSpan(from, to);
     this.from = from;
     this.to = to;
     this.tags = tags;
+    this.subTagsIncluded = subTagsIncluded;
   }
 
   @Nullable
@@ -64,6 +68,14 @@ public class FilterCriteria {
     return !tags.isEmpty();
   }
 
+  /**
+   * Whether observations that are only tagged with a sub-tag of one of the {@link #getTags() tags}
+   * match as well.
+   */
+  public boolean isSubTagsIncluded() {
+    return subTagsIncluded;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -73,7 +85,8 @@ public class FilterCriteria {
       return false;
     }
     FilterCriteria that = (FilterCriteria) o;
-    return Objects.equals(from, that.from) &&
+    return subTagsIncluded == that.subTagsIncluded &&
+        Objects.equals(from, that.from) &&
         Objects.equals(to, that.to) &&
         Objects.equals(tags, that.tags);
   }
@@ -81,7 +94,7 @@ public class FilterCriteria {
   @Override
   public int hashCode() {
 
-    return Objects.hash(from, to, tags);
+    return Objects.hash(from, to, tags, subTagsIncluded);
   }
 
   @Override
@@ -90,13 +103,15 @@ public class FilterCriteria {
         "from=" + from +
         ", to=" + to +
         ", tags=" + tags +
+        ", subTagsIncluded=" + subTagsIncluded +
         '}';
   }
 
   public static class CriteriaBuilder {
 
     private Date from, to;
-    private Set<Tag> tags;
+    private Set<Tag> tags = Collections.emptySet();
+    private boolean subTagsIncluded = true;
 
     private CriteriaBuilder() {}
 
@@ -121,9 +136,15 @@ public class FilterCriteria {
       return this;
     }
 
+    @NonNull
+    public CriteriaBuilder ignoringSubTags() {
+      this.subTagsIncluded = false;
+      return this;
+    }
+
     @NonNull
     public FilterCriteria done() {
-      return new FilterCriteria(from, to, tags);
+      return new FilterCriteria(from, to, tags, subTagsIncluded);
     }
 
   }
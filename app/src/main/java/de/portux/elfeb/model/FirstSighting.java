@@ -0,0 +1,98 @@
+package de.portux.elfeb.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import java.util.Date;
+
+/**
+ * A {@code FirstSighting} tells when some suspicion or tag has been noted for the first time,
+ * either ever or within a calendar year (of the local time zone).
+ * <p>
+ * The first sightings form an index which is maintained by triggers on the {@code observations}
+ * and {@code observation_tags} tables. Looking up the first sighting of a subject therefore is a
+ * single primary key lookup, and the life list as well as each year list are read without touching
+ * the observations at all.
+ *
+ * @author Rico Bergmann
+ */
+@Entity(tableName = "first_sightings", //
+    primaryKeys = {"kind", "subject", "year"}, //
+    indices = { //
+        @Index({"kind", "year", "time"})
+    }
+)
+public class FirstSighting {
+
+  public enum Kind {
+    SUSPICION, TAG
+  }
+
+  /**
+   * The year of first sightings that span all years.
+   */
+  public static final int ALL_TIME = 0;
+
+  @NonNull
+  @ColumnInfo(name = "kind")
+  private final String mKind;
+
+  @NonNull
+  @ColumnInfo(name = "subject")
+  private final String mSubject;
+
+  @ColumnInfo(name = "year")
+  private final int mYear;
+
+  @NonNull
+  @ColumnInfo(name = "time")
+  private final Date mTime;
+
+  public FirstSighting(@NonNull String kind, @NonNull String subject, int year,
+      @NonNull Date time) {
+    this.mKind = kind;
+    this.mSubject = subject;
+    this.mYear = year;
+    this.mTime = time;
+  }
+
+  @NonNull
+  public Kind getKind() {
+    return Kind.valueOf(mKind);
+  }
+
+  /**
+   * The suspicion or tag which has been sighted.
+   */
+  @NonNull
+  public String getSubject() {
+    return mSubject;
+  }
+
+  /**
+   * The year the sighting has been the first within, or {@link #ALL_TIME}.
+   */
+  public int getYear() {
+    return mYear;
+  }
+
+  /**
+   * The time of the first observation of the subject.
+   */
+  @NonNull
+  public Date getTime() {
+    return mTime;
+  }
+
+  @Override
+  public String toString() {
+    return this.getClass().getSimpleName() + '{' +
+        "mKind=" + mKind +
+        ", mSubject='" + mSubject + '\'' +
+        ", mYear=" + mYear +
+        ", mTime=" + mTime +
+        '}';
+  }
+
+}
@@ -0,0 +1,125 @@
+package de.portux.elfeb.model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Folds the case of the text in the {@link ObservationFts full-text index} and of the queries on
+ * it.
+ * <p>
+ * The index uses SQLite's {@code simple} tokenizer, which only folds ASCII letters, such that a
+ * lowercase umlaut would not find its uppercase form. The {@code unicode61} tokenizer folds all
+ * letters, but it needs SQLite 3.7.13, which Android ships from API 21 on only. Room creates the
+ * index the same way on every device, so it cannot pick the tokenizer per platform. Instead, the
+ * uppercase letters of the Latin-1 Supplement and Latin Extended-A blocks are replaced by their
+ * lowercase forms in the index, and queries are folded the very same way. This covers the European
+ * languages field notes are usually written in. Letters beyond these blocks are matched by their
+ * exact case.
+ *
+ * @author Rico Bergmann
+ */
+final class FullTextFolding {
+
+  private static final char FIRST_FOLDED = '\u00C0';
+  private static final char LAST_FOLDED = '\u017F';
+
+  /**
+   * The number of letters folded by a single statement. Each letter adds a nested call of {@code
+   * replace()}, and SQLite's parser only allows for about 30 levels of nesting.
+   */
+  private static final int LETTERS_PER_STATEMENT = 16;
+
+  private FullTextFolding() {}
+
+  /**
+   * Folds a text in Java, which is how queries are folded.
+   */
+  @NonNull
+  static String fold(@NonNull String text) {
+    char[] folded = null;
+    for (int i = 0; i < text.length(); ++i) {
+      char current = text.charAt(i);
+      if (isFolded(current)) {
+        if (folded == null) {
+          folded = text.toCharArray();
+        }
+        folded[i] = Character.toLowerCase(current);
+      }
+    }
+    return folded != null ? new String(folded) : text;
+  }
+
+  /**
+   * Creates the statements which fold some columns of the index in SQL, the same way as {@link
+   * #fold(String)} does. A row is only rewritten by a statement if it contains any of the letters
+   * the statement folds.
+   *
+   * @param condition the rows to fold, such as {@code rowid = NEW.id}, or {@code null} to fold all
+   *     rows
+   * @param columns the columns to fold
+   */
+  @NonNull
+  static List<String> foldStatements(@Nullable String condition, @NonNull String... columns) {
+    List<Character> letters = new ArrayList<>();
+    for (char current = FIRST_FOLDED; current <= LAST_FOLDED; ++current) {
+      if (isFolded(current)) {
+        letters.add(current);
+      }
+    }
+
+    List<String> statements = new ArrayList<>();
+    for (int start = 0; start < letters.size(); start += LETTERS_PER_STATEMENT) {
+      List<Character> chunk =
+          letters.subList(start, Math.min(start + LETTERS_PER_STATEMENT, letters.size()));
+      StringBuilder characterClass = new StringBuilder(chunk.size());
+      for (char letter : chunk) {
+        characterClass.append(letter);
+      }
+
+      StringBuilder statement = new StringBuilder("UPDATE observations_fts SET ");
+      StringBuilder filter = new StringBuilder();
+      for (int i = 0; i < columns.length; ++i) {
+        statement.append(i > 0 ? ", " : "").append(columns[i]).append(" = ")
+            .append(replaceAll(columns[i], chunk));
+        filter.append(i > 0 ? " OR " : "").append(columns[i]).append(" GLOB '*[")
+            .append(characterClass).append("]*'");
+      }
+      statement.append(" WHERE ");
+      if (condition != null) {
+        statement.append(condition).append(" AND ");
+      }
+      statement.append('(').append(filter).append(')');
+      statements.add(statement.toString());
+    }
+    return statements;
+  }
+
+  /**
+   * Joins the {@link #foldStatements(String, String...) folding statements}, such that they may be
+   * part of a trigger.
+   */
+  @NonNull
+  static String foldTriggerStatements(@NonNull String condition, @NonNull String... columns) {
+    StringBuilder statements = new StringBuilder();
+    for (String statement : foldStatements(condition, columns)) {
+      statements.append(statement).append("; ");
+    }
+    return statements.toString();
+  }
+
+  private static String replaceAll(String column, List<Character> letters) {
+    StringBuilder expression = new StringBuilder(column);
+    for (char letter : letters) {
+      expression.insert(0, "replace(").append(", '").append(letter).append("', '")
+          .append(Character.toLowerCase(letter)).append("')");
+    }
+    return expression.toString();
+  }
+
+  private static boolean isFolded(char c) {
+    return c >= FIRST_FOLDED && c <= LAST_FOLDED && Character.isUpperCase(c);
+  }
+
+}
@@ -0,0 +1,227 @@
+package de.portux.elfeb.model;
+
+import androidx.annotation.NonNull;
+import de.portux.elfeb.support.Assert;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Encodes positions as geohashes.
+ * <p>
+ * A geohash interleaves the bits of the longitude and latitude and writes them as base-32 string.
+ * Positions that are close to each other therefore usually share a common prefix, and all
+ * positions within a geohash cell share the cell's hash as prefix. This enables answering spatial
+ * queries through plain range predicates on an ordinary B-tree index.
+ *
+ * @author Rico Bergmann
+ */
+class GeoHash {
+
+  /**
+   * The precision of the hashes which are stored along with the observations. 12 characters
+   * correspond to cells of less than 4 by 2 centimeters.
+   */
+  static final int STORED_PRECISION = 12;
+
+  /**
+   * The maximum number of cells to cover a bounding box with.
+   */
+  static final int MAX_COVERING_CELLS = 16;
+
+  private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+  /**
+   * Sorts after every geohash and may therefore serve as exclusive upper bound.
+   */
+  private static final String UPPER_BOUND = "{";
+
+  /**
+   * A range {@code [lowerBound, upperBound)} of geohashes.
+   */
+  static class Range {
+    @NonNull
+    final String lowerBound;
+    @NonNull
+    final String upperBound;
+
+    Range(@NonNull String lowerBound, @NonNull String upperBound) {
+      this.lowerBound = lowerBound;
+      this.upperBound = upperBound;
+    }
+
+    @Override
+    public String toString() {
+      return "[" + lowerBound + ", " + upperBound + ")";
+    }
+  }
+
+  private GeoHash() {}
+
+  /**
+   * Calculates the geohash of a position.
+   *
+   * @param latitude the latitude. Has to be within {@code [-90, 90]}.
+   * @param longitude the longitude. Has to be within {@code [-180, 180]}.
+   * @param precision the number of characters of the hash
+   * @return the hash
+   */
+  @NonNull
+  static String encode(double latitude, double longitude, int precision) {
+    Assert.isTrue(latitude >= -90 && latitude <= 90, "Invalid latitude: " + latitude);
+    Assert.isTrue(longitude >= -180 && longitude <= 180, "Invalid longitude: " + longitude);
+    Assert.isTrue(precision > 0 && precision <= STORED_PRECISION, "Invalid precision: " + precision);
+
+    double minLat = -90, maxLat = 90;
+    double minLon = -180, maxLon = 180;
+    boolean evenBit = true;
+    int bit = 0;
+    int currentChar = 0;
+    StringBuilder hash = new StringBuilder(precision);
+
+    while (hash.length() < precision) {
+      if (evenBit) {
+        double mid = (minLon + maxLon) / 2;
+        if (longitude >= mid) {
+          currentChar = (currentChar << 1) | 1;
+          minLon = mid;
+        } else {
+          currentChar <<= 1;
+          maxLon = mid;
+        }
+      } else {
+        double mid = (minLat + maxLat) / 2;
+        if (latitude >= mid) {
+          currentChar = (currentChar << 1) | 1;
+          minLat = mid;
+        } else {
+          currentChar <<= 1;
+          maxLat = mid;
+        }
+      }
+      evenBit = !evenBit;
+
+      if (++bit == 5) {
+        hash.append(BASE32.charAt(currentChar));
+        bit = 0;
+        currentChar = 0;
+      }
+    }
+    return hash.toString();
+  }
+
+  /**
+   * The height of a geohash cell in degrees.
+   */
+  static double cellHeight(int precision) {
+    int latBits = (5 * precision) / 2;
+    return 180.0 / (1L << latBits);
+  }
+
+  /**
+   * The width of a geohash cell in degrees.
+   */
+  static double cellWidth(int precision) {
+    int lonBits = (5 * precision + 1) / 2;
+    return 360.0 / (1L << lonBits);
+  }
+
+  /**
+   * Determines the geohash ranges which together contain all positions within a bounding box. The
+   * ranges may contain further positions outside the box, so results still have to be checked
+   * against the exact bounds.
+   * <p>
+   * The finest precision for which at most {@link #MAX_COVERING_CELLS} cells are required is used.
+   * Cells which are adjacent in the order of their hashes are merged into a single range.
+   *
+   * @return the ranges, sorted by their lower bound
+   */
+  @NonNull
+  static List<Range> cover(double minLatitude, double minLongitude, double maxLatitude,
+      double maxLongitude) {
+    Assert.isTrue(minLatitude <= maxLatitude, "Latitudes are swapped");
+    Assert.isTrue(minLongitude <= maxLongitude, "Longitudes are swapped");
+    minLatitude = clamp(minLatitude, -90, 90);
+    maxLatitude = clamp(maxLatitude, -90, 90);
+    minLongitude = clamp(minLongitude, -180, 180);
+    maxLongitude = clamp(maxLongitude, -180, 180);
+
+    int precision = STORED_PRECISION;
+    while (precision > 1
+        && cellCount(minLatitude, minLongitude, maxLatitude, maxLongitude, precision)
+        > MAX_COVERING_CELLS) {
+      --precision;
+    }
+    if (cellCount(minLatitude, minLongitude, maxLatitude, maxLongitude, precision)
+        > MAX_COVERING_CELLS) {
+      // the box spans (nearly) the whole world
+      return Collections.singletonList(new Range("", UPPER_BOUND));
+    }
+
+    final double height = cellHeight(precision);
+    final double width = cellWidth(precision);
+    TreeSet<String> cells = new TreeSet<>();
+    for (long latIdx = cellIndex(minLatitude, -90, height, 180);
+        latIdx <= cellIndex(maxLatitude, -90, height, 180); ++latIdx) {
+      for (long lonIdx = cellIndex(minLongitude, -180, width, 360);
+          lonIdx <= cellIndex(maxLongitude, -180, width, 360); ++lonIdx) {
+        cells.add(encode(-90 + (latIdx + 0.5) * height, -180 + (lonIdx + 0.5) * width, precision));
+      }
+    }
+
+    List<Range> ranges = new ArrayList<>(cells.size());
+    String lowerBound = null;
+    String upperBound = null;
+    for (String cell : cells) {
+      if (lowerBound != null && cell.equals(upperBound)) {
+        upperBound = successor(cell);
+        continue;
+      }
+      if (lowerBound != null) {
+        ranges.add(new Range(lowerBound, upperBound));
+      }
+      lowerBound = cell;
+      upperBound = successor(cell);
+    }
+    if (lowerBound != null) {
+      ranges.add(new Range(lowerBound, upperBound));
+    }
+    return ranges;
+  }
+
+  /**
+   * Determines the smallest string which sorts after all hashes with the given prefix.
+   */
+  @NonNull
+  static String successor(@NonNull String prefix) {
+    char[] chars = prefix.toCharArray();
+    for (int i = chars.length - 1; i >= 0; --i) {
+      int idx = BASE32.indexOf(chars[i]);
+      if (idx < BASE32.length() - 1) {
+        chars[i] = BASE32.charAt(idx + 1);
+        return new String(chars, 0, i + 1);
+      }
+    }
+    return UPPER_BOUND;
+  }
+
+  private static long cellCount(double minLat, double minLon, double maxLat, double maxLon,
+      int precision) {
+    final double height = cellHeight(precision);
+    final double width = cellWidth(precision);
+    long rows = cellIndex(maxLat, -90, height, 180) - cellIndex(minLat, -90, height, 180) + 1;
+    long columns = cellIndex(maxLon, -180, width, 360) - cellIndex(minLon, -180, width, 360) + 1;
+    return rows * columns;
+  }
+
+  private static long cellIndex(double value, double origin, double cellSize, double range) {
+    long maxIdx = Math.round(range / cellSize) - 1;
+    return Math.min((long) Math.floor((value - origin) / cellSize), maxIdx);
+  }
+
+  private static double clamp(double value, double min, double max) {
+    return Math.max(min, Math.min(max, value));
+  }
+
+}
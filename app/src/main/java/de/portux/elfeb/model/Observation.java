@@ -6,6 +6,8 @@ import androidx.room.ColumnInfo;
 import androidx.room.Entity;
 
 import androidx.room.Ignore;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import de.portux.elfeb.model.Attachment.AttachmentType;
@@ -25,12 +27,27 @@ import javax.annotation.Nonnull;
  * {@code Observations} are noted for either known species in order to keep track of them, or for
  * unknown species in order to identify the actual species. The latter is the more likely use-case.
  * Therefore
+ * <p>
+ * Each {@code Observation} is still uniquely identified by its time and suspicion. However
+ * internally a surrogate id is used, such that related entities do not have to repeat the whole
+ * key and the suspicion may be changed without touching them. The id will be {@code 0} as long as
+ * the observation has not been saved.
  *
  * @author Rico Bergmann
  */
-@Entity(tableName = "observations", primaryKeys = {"time", "suspicion"})
+@Entity(tableName = "observations", //
+    indices = { //
+        @Index(value = {"time", "suspicion"}, unique = true),
+        @Index({"suspicion", "time"}),
+        @Index("geohash")
+    }
+)
 public class Observation implements Serializable {
 
+  @PrimaryKey(autoGenerate = true)
+  @ColumnInfo(name = "id")
+  private long mId;
+
   @NonNull
   @ColumnInfo(name = "time")
   private Date mTime;
@@ -52,6 +69,19 @@ public class Observation implements Serializable {
   @ColumnInfo(name = "recordings_attached")
   private boolean mRecordingAttached;
 
+  /**
+   * The number of attached images. It is maintained by the database and will only be up to date
+   * for observations which have been read from it.
+   */
+  @ColumnInfo(name = "image_count")
+  private int mImageCount;
+
+  /**
+   * The number of attached recordings. See {@link #mImageCount}.
+   */
+  @ColumnInfo(name = "audio_count")
+  private int mAudioCount;
+
   @Nullable
   @ColumnInfo(name = "pos_latitude")
   private Double mLocationLatitude;
@@ -60,6 +90,13 @@ public class Observation implements Serializable {
   @ColumnInfo(name = "pos_longitude")
   private Double mLocationLongitude;
 
+  /**
+   * The {@link GeoHash} of the location. It is stored for spatial queries only.
+   */
+  @Nullable
+  @ColumnInfo(name = "geohash")
+  private String mGeohash;
+
   @Ignore
   private Set<Attachment> mAttachments;
 
@@ -99,6 +136,7 @@ public class Observation implements Serializable {
     this.mTags = tags;
     this.mLocationLatitude = latitude;
     this.mLocationLongitude = longitude;
+    updateGeohash();
 
     for (Attachment attachment : attachments) {
       if (attachment.getType() == AttachmentType.IMAGE && !imageAttached) {
@@ -114,6 +152,14 @@ public class Observation implements Serializable {
     this.mRecordingAttached = recordingAttached;
   }
 
+  public long getId() {
+    return mId;
+  }
+
+  boolean isSaved() {
+    return mId != 0;
+  }
+
   @NonNull
   public Date getTime() {
     return mTime;
@@ -147,6 +193,11 @@ public class Observation implements Serializable {
     return GPSPosition.of(mLocationLatitude, mLocationLongitude);
   }
 
+  @Nullable
+  protected String getGeohash() {
+    return mGeohash;
+  }
+
   public boolean isLocationAttached() {
     return mLocationLatitude != null && mLocationLongitude != null;
   }
@@ -167,6 +218,14 @@ public class Observation implements Serializable {
     return mRecordingAttached;
   }
 
+  public int getImageCount() {
+    return mImageCount;
+  }
+
+  public int getAudioCount() {
+    return mAudioCount;
+  }
+
   public Set<Tag> getTags() {
     return Collections.unmodifiableSet(mTags);
   }
@@ -187,6 +246,10 @@ public class Observation implements Serializable {
     mLocationLongitude = longitude;
   }
 
+  protected void setGeohash(String geohash) {
+    mGeohash = geohash;
+  }
+
   protected void setDetermined(boolean determined) {
     this.mDetermined = determined;
   }
@@ -199,6 +262,14 @@ public class Observation implements Serializable {
     this.mRecordingAttached = recordingAttached;
   }
 
+  protected void setImageCount(int imageCount) {
+    this.mImageCount = imageCount;
+  }
+
+  protected void setAudioCount(int audioCount) {
+    this.mAudioCount = audioCount;
+  }
+
   protected void setAttachments(Set<Attachment> attachments) {
     this.mAttachments = attachments;
 
@@ -226,6 +297,13 @@ public class Observation implements Serializable {
       mLocationLatitude = location.latitude;
       mLocationLongitude = location.longitude;
     }
+    updateGeohash();
+  }
+
+  private void updateGeohash() {
+    mGeohash = isLocationAttached() //
+        ? GeoHash.encode(mLocationLatitude, mLocationLongitude, GeoHash.STORED_PRECISION) //
+        : null;
   }
 
   public void attach(Attachment attachment) {
@@ -272,6 +350,10 @@ public class Observation implements Serializable {
     setDetermined(true);
   }
 
+  protected void setId(long id) {
+    this.mId = id;
+  }
+
   protected void setTime(@NonNull Date time) {
     this.mTime = time;
   }
@@ -315,7 +397,8 @@ public class Observation implements Serializable {
   @Override
   public String toString() {
     return "Observation{" +
-        "mTime=" + mTime +
+        "mId=" + mId +
+        ", mTime=" + mTime +
         ", mSuspicion='" + mSuspicion + '\'' +
         ", mComment='" + mComment + '\'' +
         ", mAttachments=" + mAttachments +
@@ -3,16 +3,19 @@ package de.portux.elfeb.model;
 import android.util.Log;
 import androidx.lifecycle.LiveData;
 import androidx.paging.DataSource;
-import androidx.paging.PagedList.Callback;
 import androidx.room.Dao;
 import androidx.room.Delete;
 import androidx.room.Insert;
+import androidx.room.InvalidationTracker;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
-import androidx.annotation.NonNull;
+import androidx.room.RawQuery;
+import androidx.room.Transaction;
+import androidx.sqlite.db.SupportSQLiteQuery;
 import de.portux.elfeb.support.Internal;
 import de.portux.elfeb.support.Internal.Scope;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
@@ -24,121 +27,328 @@ interface ObservationDao {
 
   String TAG = ObservationDao.class.getSimpleName();
 
-  @Query("SELECT * FROM observations ORDER BY time DESC")
-  DataSource.Factory<Integer, Observation> getAllObservations();
+  /**
+   * Pages through all observations, most recent first. Pages are loaded through the keyset
+   * queries below.
+   *
+   * @see ObservationKeysetDataSource
+   */
+  default DataSource.Factory<ObservationKeysetDataSource.Key, Observation> getAllObservations(
+      InvalidationTracker invalidationTracker) {
+    return new ObservationKeysetDataSource.Factory(this, invalidationTracker);
+  }
 
-  @Query("SELECT * FROM attachments WHERE observation_time = :observationTime AND observation_suspicion = :observationSuspicion")
-  LiveData<List<Attachment>> getAttachmentsForObservation(Date observationTime,
-      String observationSuspicion);
+  @Internal(scope = Scope.PRIVATE)
+  @Query("SELECT * FROM observations ORDER BY time DESC, suspicion DESC LIMIT :count")
+  List<Observation> getMostRecentObservations(int count);
 
-  @Query("SELECT * FROM attachments ORDER BY observation_time, observation_suspicion")
-  LiveData<List<Attachment>> getAllAttachments();
+  /*
+   * The keyset queries below restrict the time on its own first, such that SQLite may seek to the
+   * key through the (time, suspicion) index. The second condition only filters observations which
+   * have been noted at the very same time as the key.
+   */
 
   @Internal(scope = Scope.PRIVATE)
-  @Query("SELECT * FROM attachments WHERE observation_time = :observationTime AND observation_suspicion = :observationSuspicion")
-  List<Attachment> getRawAttachmentsForObservation(Date observationTime, String observationSuspicion);
+  @Query("SELECT * FROM observations WHERE time <= :time "
+      + "AND (time < :time OR suspicion <= :suspicion) "
+      + "ORDER BY time DESC, suspicion DESC LIMIT :count")
+  List<Observation> getObservationsStartingAt(Date time, String suspicion, int count);
 
-  @Query("SELECT COUNT(*) FROM attachments WHERE observation_time = :observationTime AND observation_suspicion = :observationSuspicion")
-  int countAttachmentsForObservation(Date observationTime, String observationSuspicion);
+  @Internal(scope = Scope.PRIVATE)
+  @Query("SELECT * FROM observations WHERE time <= :time "
+      + "AND (time < :time OR suspicion < :suspicion) "
+      + "ORDER BY time DESC, suspicion DESC LIMIT :count")
+  List<Observation> getObservationsOlderThan(Date time, String suspicion, int count);
+
+  /**
+   * Provides the observations which follow a key, in ascending order.
+   */
+  @Internal(scope = Scope.PRIVATE)
+  @Query("SELECT * FROM observations WHERE time >= :time "
+      + "AND (time > :time OR suspicion > :suspicion) "
+      + "ORDER BY time ASC, suspicion ASC LIMIT :count")
+  List<Observation> getObservationsNewerThan(Date time, String suspicion, int count);
 
-  @Query("SELECT COUNT(*) FROM attachments WHERE observation_time = :observationTime AND observation_suspicion = :observationSuspicion AND type = :attachmentType")
-  int countAttachmentsForObservation(Date observationTime, String observationSuspicion, String attachmentType);
+  @Query("SELECT * FROM observations WHERE time = :time AND suspicion = :suspicion")
+  LiveData<Observation> getObservation(Date time, String suspicion);
 
-  @Query("SELECT tag FROM observation_tags WHERE observation_time = :observationTime AND observation_suspicion = :observationSuspicion")
-  LiveData<List<Tag>> getTagsForObservation(Date observationTime, String observationSuspicion);
+  @Query("SELECT * FROM observations WHERE id = :observationId")
+  LiveData<Observation> getObservation(long observationId);
 
   @Internal(scope = Scope.PRIVATE)
-  @Query("SELECT * FROM observation_tags WHERE observation_time = :observationTime AND observation_suspicion = :observationSuspicion")
-  List<ObservationTag> getObservationTagsForObservation(Date observationTime, String observationSuspicion);
+  @RawQuery(observedEntities = {Observation.class, ObservationTag.class, TagClosure.class})
+  DataSource.Factory<Integer, Observation> getObservationsMatching(SupportSQLiteQuery query);
+
+  /**
+   * Searches the full-text index. Observations whose suspicion matches are ranked first, followed
+   * by those matching by tag and finally by comment. Within each group observations with more hits
+   * come first.
+   * <p>
+   * {@code offsets()} lists the hits ordered by column, so its first character is the index of the
+   * most important matching column and the number of its spaces is proportional to the number of
+   * hits.
+   *
+   * @param query the full-text query, as created by {@link ObservationQueries#fullText(String)}
+   */
+  @Query("SELECT o.* FROM observations o INNER JOIN ("
+      + "SELECT rowid, offsets(observations_fts) AS hits FROM observations_fts "
+      + "WHERE observations_fts MATCH :query) m ON m.rowid = o.id "
+      + "ORDER BY substr(m.hits, 1, 1), length(m.hits) - length(replace(m.hits, ' ', '')) DESC, "
+      + "o.time DESC")
+  DataSource.Factory<Integer, Observation> searchObservations(String query);
+
+  @Query("SELECT * FROM attachments WHERE observation_id = :observationId")
+  LiveData<List<Attachment>> getAttachmentsForObservation(long observationId);
+
+  /**
+   * Fetches the attachments of several observations at once.
+   *
+   * @see ObservationInflater
+   */
+  @Internal(scope = Scope.PRIVATE)
+  @Query("SELECT * FROM attachments WHERE observation_id IN (:observationIds)")
+  List<Attachment> getAttachmentsForObservations(List<Long> observationIds);
 
-  @Insert(onConflict = OnConflictStrategy.REPLACE)
-  void insertObservation(Observation observation);
+  @Query("SELECT * FROM attachments ORDER BY observation_id")
+  LiveData<List<Attachment>> getAllAttachments();
 
-  @Insert(onConflict = OnConflictStrategy.FAIL)
+  @Internal(scope = Scope.PRIVATE)
+  @Query("SELECT * FROM attachments WHERE observation_id = :observationId")
+  List<Attachment> getRawAttachmentsForObservation(long observationId);
+
+  @Query("SELECT t.* FROM tags t INNER JOIN observation_tags ot ON ot.tag = t.tag WHERE ot.observation_id = :observationId")
+  LiveData<List<Tag>> getTagsForObservation(long observationId);
+
+  /**
+   * Fetches the tags of several observations at once.
+   *
+   * @see ObservationInflater
+   */
+  @Internal(scope = Scope.PRIVATE)
+  @Query("SELECT ot.observation_id, t.* FROM observation_tags ot INNER JOIN tags t ON t.tag = ot.tag "
+      + "WHERE ot.observation_id IN (:observationIds)")
+  List<TagOfObservation> getTagsForObservations(List<Long> observationIds);
+
+  @Internal(scope = Scope.PRIVATE)
+  @Query("SELECT * FROM observation_tags WHERE observation_id = :observationId")
+  List<ObservationTag> getObservationTagsForObservation(long observationId);
+
+  @Insert
+  long insertObservation(Observation observation);
+
+  @Insert
+  List<Long> insertObservations(Collection<Observation> observations);
+
+  /**
+   * Updates all attributes of an observation which are not maintained by the database itself.
+   * Especially the attachment counters and flags are left alone, as they are kept up to date by
+   * triggers on the {@code attachments} table.
+   */
+  @Query("UPDATE observations SET time = :time, suspicion = :suspicion, comment = :comment, "
+      + "determined = :determined, pos_latitude = :latitude, pos_longitude = :longitude, "
+      + "geohash = :geohash WHERE id = :observationId")
+  void updateObservation(long observationId, Date time, String suspicion, String comment,
+      boolean determined, Double latitude, Double longitude, String geohash);
+
+  @Insert(onConflict = OnConflictStrategy.IGNORE)
   void insertAttachments(Attachment... attachments);
 
+  @Insert(onConflict = OnConflictStrategy.IGNORE)
+  void insertAttachments(Collection<Attachment> attachments);
+
   @Insert(onConflict = OnConflictStrategy.IGNORE)
   void insertTags(Tag... tags);
 
   @Insert(onConflict = OnConflictStrategy.IGNORE)
-  void insertObservationTags(ObservationTag... observationTags);
+  void insertTags(Collection<Tag> tags);
 
-  @Query("UPDATE observations SET suspicion = :newSuspicion WHERE time = :observationTime AND suspicion = :oldSuspicion")
-  void updateObservationSuspicion(Date observationTime, String oldSuspicion, String newSuspicion);
+  @Insert(onConflict = OnConflictStrategy.IGNORE)
+  void insertObservationTags(ObservationTag... observationTags);
 
-  @Query("UPDATE observations SET images_attached = :imagesAttached WHERE time = :observationTime AND suspicion = :observationSuspicion")
-  void updateObservationImagesAttached(Date observationTime, String observationSuspicion, boolean imagesAttached);
+  @Insert(onConflict = OnConflictStrategy.IGNORE)
+  void insertObservationTags(Collection<ObservationTag> observationTags);
 
-  @Query("UPDATE observations SET recordings_attached = :recordingsAttached WHERE time = :observationTime AND suspicion = :observationSuspicion")
-  void updateObservationRecordingsAttached(Date observationTime, String observationSuspicion, boolean recordingsAttached);
+  @Query("UPDATE observations SET suspicion = :newSuspicion WHERE id = :observationId")
+  void updateObservationSuspicion(long observationId, String newSuspicion);
 
   @Delete
   void deleteObservationTags(ObservationTag... observationTags);
 
+  @Delete
+  void deleteObservationTags(Collection<ObservationTag> observationTags);
+
+  @Internal(scope = Scope.PRIVATE)
+  @Query("DELETE FROM observation_tags WHERE observation_id IN (:observationIds) AND tag IN (:tags)")
+  void deleteTagsOfObservations(List<Long> observationIds, List<String> tags);
+
   @Delete
   void deleteAttachments(Attachment... attachments);
 
-  default void updateSuspicion(String oldSuspicion, Observation updatedObservation) {
-    updateObservationSuspicion(updatedObservation.getTime(), oldSuspicion, updatedObservation.getSuspicion());
-  }
+  @Query("UPDATE blobs SET original_accessed = :time "
+      + "WHERE hash = :contentHash AND original_path IS NOT NULL")
+  void touchOriginal(String contentHash, Date time);
+
+  @Internal(scope = Scope.PRIVATE)
+  @RawQuery
+  int countObservationsMatching(SupportSQLiteQuery query);
 
-  default void updateTags(Observation observation, ObservationTag... newTags) {
-    ObservationTag[] obsTagsArr = {};
-    deleteObservationTags(getObservationTagsForObservation(observation.getTime(), observation.getSuspicion()).toArray(obsTagsArr));
-    insertObservationTags(newTags);
+  default DataSource.Factory<Integer, Observation> getObservations(FilterCriteria criteria) {
+    return getObservationsMatching(ObservationQueries.filteredBy(criteria));
   }
 
-  default void insertObservationWithTagsAndAttachments(Observation observation) {
-    insertObservation(observation);
-    insertTags(observation.getTags().toArray(new Tag[]{}));
-    insertAttachments(observation.getAttachments().toArray(new Attachment[]{}));
+  default DataSource.Factory<Integer, Observation> getObservationsWithin(GPSPosition southWest,
+      GPSPosition northEast) {
+    return getObservationsMatching(ObservationQueries.within(southWest, northEast));
+  }
 
-    List<ObservationTag> observationTags = new ArrayList<>(observation.getTags().size());
-    for (Tag tag : observation.getTags()) {
-      observationTags.add(ObservationTag.create(observation, tag));
-    }
-    insertObservationTags(observationTags.toArray(new ObservationTag[]{}));
+  default DataSource.Factory<Integer, Observation> getObservationsNear(GPSPosition center,
+      double radiusInMeters) {
+    return getObservationsMatching(ObservationQueries.near(center, radiusInMeters, 0));
   }
 
-  class ObservationInitializationCallback extends Callback {
+  /**
+   * Provides the {@code count} observations which are closest to some position.
+   * <p>
+   * The search area is expanded until it contains enough observations. Afterwards it is widened
+   * to the square's circumcircle, which is guaranteed to contain the nearest observations.
+   * As the factory is invoked on a background thread, the counting does not block the UI.
+   */
+  default DataSource.Factory<Integer, Observation> getNearestObservations(GPSPosition center,
+      int count) {
+    final double initialHalfSide = 500;
+    final double maxHalfSide = 20_000_000;
+    return new DataSource.Factory<Integer, Observation>() {
+      @Override
+      public DataSource<Integer, Observation> create() {
+        for (double halfSide = initialHalfSide; halfSide <= maxHalfSide; halfSide *= 4) {
+          if (countObservationsMatching(ObservationQueries.countAround(center, halfSide)) >= count) {
+            return getObservationsMatching(ObservationQueries.near(center, halfSide * Math.sqrt(2), count)).create();
+          }
+        }
+        return getObservationsMatching(ObservationQueries.nearest(center, count)).create();
+      }
+    };
+  }
 
-    @NonNull
-    private final ObservationDao mDao;
+  default void updateObservations(Collection<Observation> observations) {
+    for (Observation observation : observations) {
+      updateObservation(observation.getId(), observation.getTime(), observation.getSuspicion(),
+          observation.getComment(), observation.isDetermined(), observation.getLocationLatitude(),
+          observation.getLocationLongitude(), observation.getGeohash());
+    }
+  }
 
-    @NonNull
-    private final List<Observation> mObservations;
+  default void updateSuspicion(String oldSuspicion, Observation updatedObservation) {
+    updateObservationSuspicion(updatedObservation.getId(), updatedObservation.getSuspicion());
+  }
 
-    private ObservationInitializationCallback(@NonNull ObservationDao dao,
-        @NonNull List<Observation> observations) {
-      this.mDao = dao;
-      this.mObservations = observations;
+  /**
+   * Replaces the tags of an observation. Only the tags which were actually added or removed are
+   * written, such that the other rows and their index entries stay untouched.
+   */
+  @Transaction
+  default void updateTags(Observation observation, Collection<ObservationTag> newTags) {
+    TagDelta delta = TagDelta.between(getObservationTagsForObservation(observation.getId()), newTags);
+    if (!delta.getRemoved().isEmpty()) {
+      deleteObservationTags(delta.getRemoved());
+    }
+    if (!delta.getAdded().isEmpty()) {
+      insertObservationTags(delta.getAdded());
     }
+  }
 
-    @Override
-    public void onChanged(int position, int count) {
-      //inflateObservationsIfNecessary(position, count);
+  /**
+   * Assigns a number of tags to a number of observations at once. Assignments which already exist
+   * are left untouched. All rows are inserted through the same compiled statement.
+   */
+  @Transaction
+  default void tagObservations(Collection<Long> observationIds, Collection<String> tags) {
+    List<ObservationTag> observationTags = new ArrayList<>(observationIds.size() * tags.size());
+    for (long observationId : observationIds) {
+      for (String tag : tags) {
+        observationTags.add(new ObservationTag(observationId, tag));
+      }
     }
+    insertObservationTags(observationTags);
+  }
 
-    @Override
-    public void onInserted(int position, int count) {
-      //inflateObservationsIfNecessary(position, count);
+  /**
+   * Removes a number of tags from a number of observations at once. The ids are bound in chunks to
+   * stay within SQLite's limit of parameters per statement.
+   */
+  @Transaction
+  default void untagObservations(List<Long> observationIds, List<String> tags) {
+    int chunkSize = Math.max(1, ObservationInflater.MAX_IDS_PER_QUERY - tags.size());
+    for (int start = 0; start < observationIds.size(); start += chunkSize) {
+      deleteTagsOfObservations(
+          observationIds.subList(start, Math.min(start + chunkSize, observationIds.size())), tags);
     }
+  }
 
-    @Override
-    public void onRemoved(int position, int count) {
+  /**
+   * Saves an observation along with all of its tags and attachments in a single transaction.
+   */
+  @Transaction
+  default void insertObservationWithTagsAndAttachments(Observation observation) {
+    insertObservationGraphs(Collections.singletonList(observation));
+  }
 
+  /**
+   * Saves a number of observations along with all of their tags and attachments in a single
+   * transaction. Observations which have been saved before are updated instead. All new
+   * observations will be assigned their id.
+   * <p>
+   * Each kind of entity is written through one insert statement, which is compiled once and then
+   * re-bound for each row.
+   */
+  @Transaction
+  default void insertObservationGraphs(List<Observation> observations) {
+    int tagCount = 0;
+    int attachmentCount = 0;
+    List<Observation> newObservations = new ArrayList<>(observations.size());
+    List<Observation> savedObservations = new ArrayList<>();
+    for (Observation observation : observations) {
+      tagCount += observation.getTags().size();
+      attachmentCount += observation.getAttachments().size();
+      if (observation.isSaved()) {
+        savedObservations.add(observation);
+      } else {
+        newObservations.add(observation);
+      }
     }
 
-    /*private void inflateObservationsIfNecessary(int position, int count) {
-      for (int currPos = position; currPos < position + count; ++currPos) {
-        Observation obs = mObservations.get(currPos);
-        if (!obs.isCompletelyInflated()) {
-          obs.attachAttachments(
-              new HashSet<>(mDao.getAttachmentsForObservation(obs.getTime(), obs.getSuspicion())));
-          obs.attachTags(new HashSet<>(mDao.getTagsForObservation(obs.getTime(), obs.getSuspicion())));
-        }
+    if (!savedObservations.isEmpty()) {
+      updateObservations(savedObservations);
+    }
+    if (!newObservations.isEmpty()) {
+      List<Long> ids = insertObservations(newObservations);
+      for (int i = 0; i < ids.size(); ++i) {
+        newObservations.get(i).setId(ids.get(i));
+      }
+    }
+
+    Set<Tag> tags = new HashSet<>(tagCount);
+    List<Attachment> attachments = new ArrayList<>(attachmentCount);
+    List<ObservationTag> observationTags = new ArrayList<>(tagCount);
+    for (Observation observation : observations) {
+      for (Attachment attachment : observation.getAttachments()) {
+        attachments.add(attachment.getObservationId() == observation.getId() //
+            ? attachment //
+            : attachment.reassignTo(observation));
       }
-    }*/
+      for (Tag tag : observation.getTags()) {
+        tags.add(tag);
+        observationTags.add(ObservationTag.create(observation, tag));
+      }
+    }
+
+    if (!tags.isEmpty()) {
+      insertTags(tags);
+      insertObservationTags(observationTags);
+    }
+    if (!attachments.isEmpty()) {
+      insertAttachments(attachments);
+    }
   }
 
 }
@@ -0,0 +1,47 @@
+package de.portux.elfeb.model;
+
+import androidx.annotation.Nullable;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+import androidx.room.PrimaryKey;
+
+/**
+ * Full-text index over the {@link Observation Observations}. Each entry shares its {@code rowid}
+ * with the observation it belongs to and contains its suspicion, comment and the names of all of
+ * its tags.
+ * <p>
+ * The index is maintained by triggers on the {@code observations} and {@code observation_tags}
+ * tables and should never be written directly. Its text is {@link FullTextFolding case-folded}.
+ *
+ * @author Rico Bergmann
+ */
+@Fts4
+@Entity(tableName = "observations_fts")
+class ObservationFts {
+
+  @PrimaryKey
+  @ColumnInfo(name = "rowid")
+  public final long rowid;
+
+  @Nullable
+  @ColumnInfo(name = "suspicion")
+  public final String suspicion;
+
+  @Nullable
+  @ColumnInfo(name = "tags")
+  public final String tags;
+
+  @Nullable
+  @ColumnInfo(name = "comment")
+  public final String comment;
+
+  ObservationFts(long rowid, @Nullable String suspicion, @Nullable String tags,
+      @Nullable String comment) {
+    this.rowid = rowid;
+    this.suspicion = suspicion;
+    this.tags = tags;
+    this.comment = comment;
+  }
+
+}
@@ -0,0 +1,86 @@
+package de.portux.elfeb.model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import androidx.arch.core.util.Function;
+import de.portux.elfeb.support.Assert;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The {@code ObservationInflater} attaches the tags and attachments to a whole page of
+ * observations at once.
+ * <p>
+ * Instead of querying the tags and attachments of each observation on its own, the ids of all
+ * observations are collected and the related entities are fetched through a single {@code IN}
+ * query per kind. A page therefore costs two additional queries, no matter how many observations
+ * it contains. Afterwards all observations are {@link Observation#isCompletelyInflated()
+ * completely inflated}.
+ * <p>
+ * It is meant to be applied to the pages of a {@link androidx.paging.DataSource.Factory} through
+ * {@code mapByPage}, which runs on the background thread that loads the page.
+ *
+ * @author Rico Bergmann
+ */
+class ObservationInflater implements Function<List<Observation>, List<Observation>> {
+
+  /**
+   * The maximum number of ids to bind to a single query. SQLite limits the number of parameters
+   * per statement to 999, so larger pages are fetched in chunks.
+   */
+  static final int MAX_IDS_PER_QUERY = 500;
+
+  @NonNull
+  private final ObservationDao mDao;
+
+  ObservationInflater(@NonNull ObservationDao dao) {
+    Assert.notNull(dao, "DAO may not be null");
+    this.mDao = dao;
+  }
+
+  @Override
+  public List<Observation> apply(List<Observation> page) {
+    inflate(page);
+    return page;
+  }
+
+  /**
+   * Attaches the tags and attachments to all observations which are not completely inflated yet.
+   */
+  @WorkerThread
+  void inflate(@NonNull List<Observation> observations) {
+    Map<Long, Set<Attachment>> attachments = new HashMap<>();
+    Map<Long, Set<Tag>> tags = new HashMap<>();
+    List<Long> ids = new ArrayList<>(observations.size());
+    for (Observation observation : observations) {
+      if (observation.isCompletelyInflated() || attachments.containsKey(observation.getId())) {
+        continue;
+      }
+      attachments.put(observation.getId(), new HashSet<>());
+      tags.put(observation.getId(), new HashSet<>());
+      ids.add(observation.getId());
+    }
+
+    for (int start = 0; start < ids.size(); start += MAX_IDS_PER_QUERY) {
+      List<Long> chunk = ids.subList(start, Math.min(start + MAX_IDS_PER_QUERY, ids.size()));
+      for (Attachment attachment : mDao.getAttachmentsForObservations(chunk)) {
+        attachments.get(attachment.getObservationId()).add(attachment);
+      }
+      for (TagOfObservation tagOfObservation : mDao.getTagsForObservations(chunk)) {
+        tags.get(tagOfObservation.observationId).add(tagOfObservation.tag);
+      }
+    }
+
+    for (Observation observation : observations) {
+      if (!observation.isCompletelyInflated()) {
+        observation.attachAttachments(attachments.get(observation.getId()));
+        observation.attachTags(tags.get(observation.getId()));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,153 @@
+package de.portux.elfeb.model;
+
+import androidx.annotation.NonNull;
+import androidx.paging.DataSource;
+import androidx.paging.ItemKeyedDataSource;
+import androidx.room.InvalidationTracker;
+import de.portux.elfeb.support.Assert;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Pages through all observations, most recent first.
+ * <p>
+ * Instead of skipping the previous rows through an {@code OFFSET}, each page continues right after
+ * the {@link Key} of the last observation that has been loaded (keyset pagination). As the key
+ * corresponds to the unique {@code (time, suspicion)} index, every page is a seek on that index
+ * followed by a short scan. Loading a page therefore takes the same time, no matter how far the
+ * user has scrolled.
+ * <p>
+ * The data source invalidates itself as soon as the observations or their tags change.
+ *
+ * @author Rico Bergmann
+ */
+class ObservationKeysetDataSource extends
+    ItemKeyedDataSource<ObservationKeysetDataSource.Key, Observation> {
+
+  /**
+   * Uniquely identifies an observation, as well as its position in the list.
+   */
+  static class Key {
+    @NonNull
+    final Date time;
+    @NonNull
+    final String suspicion;
+
+    Key(@NonNull Date time, @NonNull String suspicion) {
+      this.time = time;
+      this.suspicion = suspicion;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key key = (Key) o;
+      return time.equals(key.time) &&
+          suspicion.equals(key.suspicion);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(time, suspicion);
+    }
+  }
+
+  /**
+   * Creates a new data source each time the previous one has been invalidated.
+   */
+  static class Factory extends DataSource.Factory<Key, Observation> {
+
+    @NonNull
+    private final ObservationDao mDao;
+
+    @NonNull
+    private final InvalidationTracker mInvalidationTracker;
+
+    Factory(@NonNull ObservationDao dao, @NonNull InvalidationTracker invalidationTracker) {
+      Assert.notNull(dao, "DAO may not be null");
+      Assert.notNull(invalidationTracker, "Invalidation tracker may not be null");
+      this.mDao = dao;
+      this.mInvalidationTracker = invalidationTracker;
+    }
+
+    @Override
+    public DataSource<Key, Observation> create() {
+      return new ObservationKeysetDataSource(mDao, mInvalidationTracker);
+    }
+  }
+
+  @NonNull
+  private final ObservationDao mDao;
+
+  @NonNull
+  private final InvalidationTracker mInvalidationTracker;
+
+  @NonNull
+  private final InvalidationTracker.Observer mObserver;
+
+  private ObservationKeysetDataSource(@NonNull ObservationDao dao,
+      @NonNull InvalidationTracker invalidationTracker) {
+    this.mDao = dao;
+    this.mInvalidationTracker = invalidationTracker;
+    this.mObserver = new InvalidationTracker.Observer("observations", "observation_tags") {
+      @Override
+      public void onInvalidated(@NonNull Set<String> tables) {
+        invalidate();
+      }
+    };
+    invalidationTracker.addObserver(mObserver);
+  }
+
+  /**
+   * Also unregisters from the tracker, which would otherwise keep this data source alive. The pager
+   * only ever discards a data source after it has been invalidated.
+   */
+  @Override
+  public void invalidate() {
+    super.invalidate();
+    mInvalidationTracker.removeObserver(mObserver);
+  }
+
+  @Override
+  public void loadInitial(@NonNull LoadInitialParams<Key> params,
+      @NonNull LoadInitialCallback<Observation> callback) {
+    Key key = params.requestedInitialKey;
+    callback.onResult(key == null //
+        ? mDao.getMostRecentObservations(params.requestedLoadSize) //
+        : mDao.getObservationsStartingAt(key.time, key.suspicion, params.requestedLoadSize));
+  }
+
+  @Override
+  public void loadAfter(@NonNull LoadParams<Key> params,
+      @NonNull LoadCallback<Observation> callback) {
+    Key key = params.key;
+    callback.onResult(mDao.getObservationsOlderThan(key.time, key.suspicion, params.requestedLoadSize));
+  }
+
+  @Override
+  public void loadBefore(@NonNull LoadParams<Key> params,
+      @NonNull LoadCallback<Observation> callback) {
+    Key key = params.key;
+    List<Observation> newerObservations = mDao.getObservationsNewerThan(key.time, key.suspicion,
+        params.requestedLoadSize);
+
+    // the observations are fetched from the oldest one onwards, but have to be in list order
+    Collections.reverse(newerObservations);
+    callback.onResult(newerObservations);
+  }
+
+  @NonNull
+  @Override
+  public Key getKey(@NonNull Observation item) {
+    return new Key(item.getTime(), item.getSuspicion());
+  }
+
+}
@@ -0,0 +1,264 @@
+package de.portux.elfeb.model;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SimpleSQLiteQuery;
+import androidx.sqlite.db.SupportSQLiteQuery;
+import de.portux.elfeb.support.Assert;
+import de.portux.elfeb.support.DefaultTypeConverters;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Translates {@link FilterCriteria} into queries on the {@code observations} table.
+ * <p>
+ * Time bounds become range predicates on {@code observations.time}, which is the leading column of
+ * the unique {@code (time, suspicion)} index and may therefore be answered through it. Tags are
+ * matched by a semi-join against the {@code observation_tags.tag} index, such that only
+ * observations which carry at least one of the requested tags are visited at all. Sub-tags are
+ * resolved through the {@link TagClosure} table within the same query.
+ * <p>
+ * Spatial queries are answered through range predicates on the {@link GeoHash} index, which are
+ * then refined using the exact coordinates. Distances are approximated by an equirectangular
+ * projection around the query's center, which is sufficiently accurate for the distances field
+ * notes are usually concerned with. Bounding boxes crossing the antimeridian are not supported.
+ *
+ * @author Rico Bergmann
+ */
+class ObservationQueries {
+
+  /**
+   * The length of one degree of latitude.
+   */
+  private static final double METERS_PER_DEGREE = 111_320;
+
+  /**
+   * The squared equirectangular distance in degrees. See {@link #appendSquaredDistanceArgs} for its
+   * parameters.
+   */
+  private static final String SQUARED_DISTANCE = "((pos_latitude - ?) * (pos_latitude - ?) "
+      + "+ (pos_longitude - ?) * (pos_longitude - ?) * ?)";
+
+  /**
+   * Prevents divisions by zero close to the poles.
+   */
+  private static final double MIN_LONGITUDE_SCALE = 0.01;
+
+  private ObservationQueries() {}
+
+  /**
+   * Builds the query for all observations that match some criteria, most recent first.
+   *
+   * @param criteria the criteria. May not be {@code null}.
+   * @return the query
+   */
+  @NonNull
+  static SupportSQLiteQuery filteredBy(@NonNull FilterCriteria criteria) {
+    Assert.notNull(criteria, "Criteria may not be null");
+    StringBuilder sql = new StringBuilder("SELECT o.* FROM observations o");
+    List<Object> args = new ArrayList<>();
+
+    List<String> conditions = new ArrayList<>(3);
+    appendTimeBounds(criteria, "o.time", conditions, args);
+
+    if (criteria.containsTags()) {
+      final String requestedTags = placeholders(criteria.getTags().size());
+      if (criteria.isSubTagsIncluded()) {
+        conditions.add("o.id IN (SELECT ot.observation_id FROM observation_tags ot "
+            + "WHERE ot.tag IN (SELECT c.descendant FROM tag_closure c "
+            + "WHERE c.ancestor IN (" + requestedTags + ")))");
+      } else {
+        conditions.add("o.id IN (SELECT ot.observation_id FROM observation_tags ot "
+            + "WHERE ot.tag IN (" + requestedTags + "))");
+      }
+      for (Tag tag : criteria.getTags()) {
+        args.add(tag.getContent());
+      }
+    }
+
+    if (!conditions.isEmpty()) {
+      sql.append(" WHERE ").append(join(conditions));
+    }
+
+    sql.append(" ORDER BY o.time DESC");
+    return new SimpleSQLiteQuery(sql.toString(), args.toArray());
+  }
+
+  /**
+   * Builds the query for all observations within a bounding box, most recent first.
+   */
+  @NonNull
+  static SupportSQLiteQuery within(@NonNull GPSPosition southWest,
+      @NonNull GPSPosition northEast) {
+    Assert.notNull(southWest, "South-west corner may not be null");
+    Assert.notNull(northEast, "North-east corner may not be null");
+    List<Object> args = new ArrayList<>();
+    String boundingBox = boundingBox(southWest.latitude, southWest.longitude, northEast.latitude,
+        northEast.longitude, args);
+    return new SimpleSQLiteQuery("SELECT * FROM observations WHERE " + boundingBox
+        + " ORDER BY time DESC", args.toArray());
+  }
+
+  /**
+   * Builds the query for all observations within some distance, nearest first.
+   *
+   * @param center the position to measure the distance to
+   * @param radiusInMeters the maximum distance
+   * @param limit the maximum number of observations to include. May be {@code 0} to include all.
+   */
+  @NonNull
+  static SupportSQLiteQuery near(@NonNull GPSPosition center, double radiusInMeters, int limit) {
+    Assert.notNull(center, "Center may not be null");
+    Assert.isTrue(radiusInMeters >= 0, "Radius may not be negative");
+    final double longitudeScale = longitudeScale(center.latitude);
+    final double radius = radiusInMeters / METERS_PER_DEGREE;
+    List<Object> args = new ArrayList<>();
+    String boundingBox = boundingBox(center.latitude - radius,
+        center.longitude - radius / longitudeScale, center.latitude + radius,
+        center.longitude + radius / longitudeScale, args);
+
+    StringBuilder sql = new StringBuilder("SELECT * FROM observations WHERE ") //
+        .append(boundingBox) //
+        .append(" AND ").append(SQUARED_DISTANCE).append(" <= ?") //
+        .append(" ORDER BY ").append(SQUARED_DISTANCE).append(", time DESC");
+    appendSquaredDistanceArgs(center, longitudeScale, args);
+    args.add(radius * radius);
+    appendSquaredDistanceArgs(center, longitudeScale, args);
+    if (limit > 0) {
+      sql.append(" LIMIT ?");
+      args.add(limit);
+    }
+    return new SimpleSQLiteQuery(sql.toString(), args.toArray());
+  }
+
+  /**
+   * Builds the query for all located observations, nearest first.
+   */
+  @NonNull
+  static SupportSQLiteQuery nearest(@NonNull GPSPosition center, int limit) {
+    Assert.notNull(center, "Center may not be null");
+    final double longitudeScale = longitudeScale(center.latitude);
+    List<Object> args = new ArrayList<>();
+    appendSquaredDistanceArgs(center, longitudeScale, args);
+    args.add(limit);
+    return new SimpleSQLiteQuery("SELECT * FROM observations WHERE geohash IS NOT NULL "
+        + "ORDER BY " + SQUARED_DISTANCE + ", time DESC LIMIT ?",
+        args.toArray());
+  }
+
+  /**
+   * Builds the query counting the observations within a square around some position.
+   *
+   * @param center the center of the square
+   * @param halfSideInMeters half of the square's side length
+   */
+  @NonNull
+  static SupportSQLiteQuery countAround(@NonNull GPSPosition center, double halfSideInMeters) {
+    Assert.notNull(center, "Center may not be null");
+    final double longitudeScale = longitudeScale(center.latitude);
+    final double halfSide = halfSideInMeters / METERS_PER_DEGREE;
+    List<Object> args = new ArrayList<>();
+    String boundingBox = boundingBox(center.latitude - halfSide,
+        center.longitude - halfSide / longitudeScale, center.latitude + halfSide,
+        center.longitude + halfSide / longitudeScale, args);
+    return new SimpleSQLiteQuery("SELECT COUNT(*) FROM observations WHERE " + boundingBox,
+        args.toArray());
+  }
+
+  private static String boundingBox(double minLatitude, double minLongitude, double maxLatitude,
+      double maxLongitude, List<Object> args) {
+    StringBuilder condition = new StringBuilder("(");
+    for (GeoHash.Range range : GeoHash.cover(minLatitude, minLongitude, maxLatitude,
+        maxLongitude)) {
+      if (condition.length() > 1) {
+        condition.append(" OR ");
+      }
+      condition.append("(geohash >= ? AND geohash < ?)");
+      args.add(range.lowerBound);
+      args.add(range.upperBound);
+    }
+    condition.append(") AND pos_latitude BETWEEN ? AND ? AND pos_longitude BETWEEN ? AND ?");
+    args.add(minLatitude);
+    args.add(maxLatitude);
+    args.add(minLongitude);
+    args.add(maxLongitude);
+    return condition.toString();
+  }
+
+  private static void appendSquaredDistanceArgs(GPSPosition center, double longitudeScale,
+      List<Object> args) {
+    args.add(center.latitude);
+    args.add(center.latitude);
+    args.add(center.longitude);
+    args.add(center.longitude);
+    args.add(longitudeScale * longitudeScale);
+  }
+
+  private static double longitudeScale(double latitude) {
+    return Math.max(Math.cos(Math.toRadians(latitude)), MIN_LONGITUDE_SCALE);
+  }
+
+  /**
+   * Turns some user input into a full-text query which matches all observations that contain a
+   * word starting with each of the input's words. Operators of the full-text query syntax are
+   * discarded, and the words are {@link FullTextFolding folded} like the index.
+   *
+   * @param input the input. May not be {@code null}.
+   * @return the query. Will be empty if the input did not contain any word.
+   */
+  @NonNull
+  static String fullText(@NonNull String input) {
+    Assert.notNull(input, "Search input may not be null");
+    StringBuilder query = new StringBuilder(input.length() + 8);
+    boolean inWord = false;
+    for (int i = 0; i < input.length(); ++i) {
+      char current = input.charAt(i);
+      if (Character.isLetterOrDigit(current)) {
+        if (!inWord && query.length() > 0) {
+          query.append(' ');
+        }
+        query.append(current);
+        inWord = true;
+      } else if (inWord) {
+        query.append('*');
+        inWord = false;
+      }
+    }
+    if (inWord) {
+      query.append('*');
+    }
+    return FullTextFolding.fold(query.toString());
+  }
+
+  private static void appendTimeBounds(FilterCriteria criteria, String column,
+      List<String> conditions, List<Object> args) {
+    if (criteria.isStartDateSpecified()) {
+      conditions.add(column + " >= ?");
+      args.add(DefaultTypeConverters.dateToTimestamp(criteria.getFrom()));
+    }
+    if (criteria.isEndDateSpecified()) {
+      conditions.add(column + " <= ?");
+      args.add(DefaultTypeConverters.dateToTimestamp(criteria.getTo()));
+    }
+  }
+
+  @NonNull
+  static String placeholders(int count) {
+    StringBuilder placeholders = new StringBuilder(2 * count);
+    for (int i = 0; i < count; ++i) {
+      placeholders.append(i == 0 ? "?" : ", ?");
+    }
+    return placeholders.toString();
+  }
+
+  private static String join(List<String> conditions) {
+    StringBuilder joined = new StringBuilder();
+    for (String condition : conditions) {
+      if (joined.length() > 0) {
+        joined.append(" AND ");
+      }
+      joined.append(condition);
+    }
+    return joined.toString();
+  }
+
+}
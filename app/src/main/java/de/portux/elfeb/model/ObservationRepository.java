@@ -1,39 +1,70 @@
 package de.portux.elfeb.model;
 
 import android.app.Application;
-import android.util.Pair;
 import androidx.lifecycle.LiveData;
 import androidx.paging.DataSource;
 import androidx.paging.LivePagedListBuilder;
 import androidx.paging.PagedList;
-import android.os.AsyncTask;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import de.portux.elfeb.images.PhotoIngestion;
 import de.portux.elfeb.model.Attachment.AttachmentType;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 
 public class ObservationRepository implements FieldNotes {
 
+  private static final int PAGE_SIZE = 15;
+
+  /**
+   * The maximum number of observations whose tags or attachments are cached.
+   */
+  private static final int CACHE_CAPACITY = 64;
+
+  private FieldNotesDatabase mDatabase;
   private ObservationDao mObservationDao;
+  private StatisticsDao mStatisticsDao;
+  private BatchingWriteQueue mWriteQueue;
+  private ObservationInflater mInflater;
   private LiveData<PagedList<Observation>> mObservations;
-  private Map<Observation, LiveData<List<Tag>>> mObservationTags;
-  private Map<Observation, LiveData<List<Attachment>>> mObservationAttachments;
+  private WeakLruCache<Long, LiveData<List<Tag>>> mObservationTags;
+  private WeakLruCache<Long, LiveData<List<Attachment>>> mObservationAttachments;
+  private PhotoIngestion mPhotoIngestion;
 
   public ObservationRepository(Application app) {
     FieldNotesDatabase db = FieldNotesDatabase.getDatabase(app);
+    this.mDatabase = db;
     this.mObservationDao = db.observationDao();
-    final DataSource.Factory<Integer, Observation> observationsFactory = mObservationDao.getAllObservations();
-    this.mObservations = new LivePagedListBuilder<>(observationsFactory, 15).build();
-    this.mObservationTags = new HashMap<>();
-    this.mObservationAttachments = new HashMap<>();
+    this.mStatisticsDao = db.statisticsDao();
+    this.mWriteQueue = db.writeQueue();
+    this.mInflater = new ObservationInflater(mObservationDao);
+    this.mObservations = buildPagedList(mObservationDao.getAllObservations(db.getInvalidationTracker()));
+    this.mObservationTags = new WeakLruCache<>(CACHE_CAPACITY);
+    this.mObservationAttachments = new WeakLruCache<>(CACHE_CAPACITY);
+    this.mPhotoIngestion = PhotoStorage.getIngestion(app);
+    PhotoStorage.reconcileIfDue(app);
+  }
+
+  @Override
+  public ListenableFuture<Void> writeDown(Observation obs) {
+    invalidateCachesFor(obs);
+    List<Attachment> attachments = new ArrayList<>(obs.getAttachments());
+    ListenableFuture<Void> write =
+        mWriteQueue.submit(() -> mObservationDao.insertObservationWithTagsAndAttachments(obs));
+    ingestAfter(write, attachments);
+    return write;
   }
 
   @Override
-  public void writeDown(Observation obs) {
-    new insertAsyncTask(mObservationDao).execute(obs);
+  public ListenableFuture<Void> writeDown(List<Observation> observations) {
+    List<Observation> observationsToSave = new ArrayList<>(observations);
+    for (Observation observation : observationsToSave) {
+      invalidateCachesFor(observation);
+    }
+    return mWriteQueue.submit(() -> mObservationDao.insertObservationGraphs(observationsToSave));
   }
 
   @Override
@@ -41,13 +72,18 @@ public class ObservationRepository implements FieldNotes {
     return mObservations;
   }
 
+  @Override
+  public LiveData<Observation> getObservation(Date time, String suspicion) {
+    return mObservationDao.getObservation(time, suspicion);
+  }
+
+  @Override
+  public LiveData<Observation> getObservation(long observationId) {
+    return mObservationDao.getObservation(observationId);
+  }
+
   public LiveData<List<Tag>> getTagsFor(Observation observation) {
-    if (!mObservationTags.containsKey(observation)) {
-      LiveData<List<Tag>> tags = mObservationDao.getTagsForObservation(observation.getTime(), observation.getSuspicion());
-      mObservationTags.put(observation, tags);
-      return tags;
-    }
-    return mObservationTags.get(observation);
+    return mObservationTags.get(observation.getId(), mObservationDao::getTagsForObservation);
   }
 
   @Override
@@ -57,219 +93,196 @@ public class ObservationRepository implements FieldNotes {
 
   @Override
   public LiveData<List<Attachment>> getAttachmentsFor(Observation observation) {
-    if (!mObservationAttachments.containsKey(observation)) {
-      LiveData<List<Attachment>> attachments = mObservationDao.getAttachmentsForObservation(observation.getTime(), observation.getSuspicion());
-      mObservationAttachments.put(observation, attachments);
-      return attachments;
-    }
-    return mObservationAttachments.get(observation);
+    return mObservationAttachments.get(observation.getId(), mObservationDao::getAttachmentsForObservation);
   }
 
   @Override
-  public void tagObservation(Observation observation, Tag tag) {
+  public ListenableFuture<Void> tagObservation(Observation observation, Tag tag) {
     ObservationTag observationTag = ObservationTag.create(observation, tag);
-    new tagObservationAsyncTask(mObservationDao).execute(observationTag);
+    mObservationTags.invalidate(observation.getId());
+    return mWriteQueue.submit(() -> mObservationDao.insertObservationTags(observationTag));
   }
 
   @Override
-  public void addAttachment(Attachment attachment) {
-    new addAttachmentAsyncTask(mObservationDao).execute(attachment);
-    switch (attachment.getType()) {
-      case IMAGE:
-        new updateImagesAttachedAsyncTask(mObservationDao, attachment.getObservationTime(), attachment.getObservationSuspicion()).execute(true);
-        break;
-      case AUDIO:
-        new updateRecordingsAttachedAsyncTask(mObservationDao, attachment.getObservationTime(), attachment.getObservationSuspicion()).execute(true);
-        break;
-    }
+  public ListenableFuture<Void> addAttachment(Attachment attachment) {
+    mObservationAttachments.invalidate(attachment.getObservationId());
+    ListenableFuture<Void> write =
+        mWriteQueue.submit(() -> mObservationDao.insertAttachments(attachment));
+    ingestAfter(write, Collections.singletonList(attachment));
+    return write;
   }
 
   @Override
-  public void removeAttachment(Attachment attachment) {
-    new deleteAttachmentsAndUpdateFlagsAsyncTask(mObservationDao).execute(attachment);
+  public ListenableFuture<Void> recordOriginalOpened(Attachment attachment) {
+    return mWriteQueue.submit(
+        () -> mObservationDao.touchOriginal(attachment.getContentHash(), new Date()));
   }
 
   @Override
-  public void updateSuspicion(String oldSuspicion, Observation updatedObservation) {
-    new updateSuspicionAsyncTask(mObservationDao, oldSuspicion).execute(updatedObservation);
+  public ListenableFuture<Void> removeAttachment(Attachment attachment) {
+    mObservationAttachments.invalidate(attachment.getObservationId());
+    ListenableFuture<Void> write =
+        mWriteQueue.submit(() -> mObservationDao.deleteAttachments(attachment));
+    // the stored content may not be referenced anymore
+    write.addListener(mPhotoIngestion::collectGarbage, MoreExecutors.directExecutor());
+    return write;
   }
 
   @Override
-  public void updateTags(Observation observation, List<Tag> tags) {
+  public ListenableFuture<Void> updateSuspicion(String oldSuspicion, Observation updatedObservation) {
+    return mWriteQueue.submit(() -> mObservationDao.updateSuspicion(oldSuspicion, updatedObservation));
+  }
+
+  @Override
+  public ListenableFuture<Void> updateTags(Observation observation, List<Tag> tags) {
     List<ObservationTag> observationTags = new ArrayList<>(tags.size());
     for (Tag tag : tags) {
       observationTags.add(ObservationTag.create(observation, tag));
     }
-    new updateTagsAsyncTask(mObservationDao, observation).execute(observationTags.toArray(new ObservationTag[]{}));
+    mObservationTags.invalidate(observation.getId());
+    return mWriteQueue.submit(() -> mObservationDao.updateTags(observation, observationTags));
   }
 
   @Override
-  public LiveData<PagedList<Observation>> getObservations(FilterCriteria criteria) {
-    throw new UnsupportedOperationException();
-  }
-
-  private static class insertAsyncTask extends AsyncTask<Observation, Void, Void> {
-    private ObservationDao mAsyncTaskDao;
-
-    insertAsyncTask(ObservationDao dao) {
-      this.mAsyncTaskDao = dao;
-    }
-
-    @Override
-    protected Void doInBackground(final Observation... observations) {
-      mAsyncTaskDao.insertObservationWithTagsAndAttachments(observations[0]);
-      return null;
+  public ListenableFuture<Void> tagObservations(List<Observation> observations, List<Tag> tags) {
+    List<Long> observationIds = idsOf(observations);
+    List<String> tagContents = contentsOf(tags);
+    for (long observationId : observationIds) {
+      mObservationTags.invalidate(observationId);
     }
+    return mWriteQueue.submit(() -> mObservationDao.tagObservations(observationIds, tagContents));
   }
 
-  private static class tagObservationAsyncTask extends AsyncTask<ObservationTag, Void, Void> {
-    private ObservationDao mAsyncTaskDao;
-
-    tagObservationAsyncTask(ObservationDao asyncTaskDao) {
-      this.mAsyncTaskDao = asyncTaskDao;
-    }
-
-    @Override
-    protected Void doInBackground(ObservationTag... observationTags) {
-      mAsyncTaskDao.insertObservationTags(observationTags);
-      return null;
+  @Override
+  public ListenableFuture<Void> untagObservations(List<Observation> observations, List<Tag> tags) {
+    List<Long> observationIds = idsOf(observations);
+    List<String> tagContents = contentsOf(tags);
+    for (long observationId : observationIds) {
+      mObservationTags.invalidate(observationId);
     }
+    return mWriteQueue.submit(() -> mObservationDao.untagObservations(observationIds, tagContents));
   }
 
-  private static class addAttachmentAsyncTask extends AsyncTask<Attachment, Void, Void> {
-    private ObservationDao mAsyncTaskDao;
-
-    addAttachmentAsyncTask(ObservationDao asyncTaskDao) {
-      this.mAsyncTaskDao = asyncTaskDao;
-    }
-
-    @Override
-    protected Void doInBackground(Attachment... attachments) {
-      mAsyncTaskDao.insertAttachments(attachments);
-      return null;
-    }
+  @Override
+  public LiveData<PagedList<Observation>> getObservations(FilterCriteria criteria) {
+    return buildPagedList(mObservationDao.getObservations(criteria));
   }
 
-  private static class deleteAttachmentsAndUpdateFlagsAsyncTask extends  AsyncTask<Attachment, Void, Void> {
-    private ObservationDao mAsyncTaskDao;
-
-    deleteAttachmentsAndUpdateFlagsAsyncTask(ObservationDao dao) {
-      mAsyncTaskDao = dao;
-    }
-
-    @Override
-    protected Void doInBackground(Attachment... attachments) {
-      Map<Pair<Date, String>, Integer> remainingImageAttachments = new HashMap<>();
-      Map<Pair<Date, String>, Integer> remainingAudioAttachments = new HashMap<>();
+  @Override
+  public LiveData<PagedList<Observation>> getObservationsWithin(GPSPosition southWest,
+      GPSPosition northEast) {
+    return buildPagedList(mObservationDao.getObservationsWithin(southWest, northEast));
+  }
 
-      // calculate how many attachments of each type are currently linked to the observations
-      for (Attachment attachment : attachments) {
-        Pair<Date, String> currentKey = Pair.create(attachment.getObservationTime(), attachment.getObservationSuspicion());
-
-        switch (attachment.getType()) {
-          case IMAGE:
-            Integer currentImageEntry = remainingImageAttachments.get(currentKey);
-            int currentImageCount = currentImageEntry != null //
-                ? currentImageEntry //
-                : mAsyncTaskDao.countAttachmentsForObservation(attachment.getObservationTime(), attachment.getObservationSuspicion(), AttachmentType.IMAGE.name());
-            remainingImageAttachments.put(currentKey, --currentImageCount);
-            break;
-          case AUDIO:
-            Integer currentAudioEntry = remainingAudioAttachments.get(currentKey);
-            int currentAudioCount = currentAudioEntry != null //
-                ? currentAudioEntry //
-                : mAsyncTaskDao.countAttachmentsForObservation(attachment.getObservationTime(), attachment.getObservationSuspicion(), AttachmentType.AUDIO.name());
-            remainingAudioAttachments.put(currentKey, --currentAudioCount);
-            break;
-        }
-      }
+  @Override
+  public LiveData<PagedList<Observation>> getObservationsNear(GPSPosition center,
+      double radiusInMeters) {
+    return buildPagedList(mObservationDao.getObservationsNear(center, radiusInMeters));
+  }
 
-      // delete the given attachments
-      mAsyncTaskDao.deleteAttachments(attachments);
+  @Override
+  public LiveData<PagedList<Observation>> getNearestObservations(GPSPosition center, int count) {
+    return buildPagedList(mObservationDao.getNearestObservations(center, count));
+  }
 
-      // update the imagesAttached and recordingsAttached flags in the corresponding observation
-      for (Entry<Pair<Date, String>, Integer> attachmentEntries : remainingImageAttachments.entrySet()) {
-        if (attachmentEntries.getValue() == 0) {
-          mAsyncTaskDao.updateObservationImagesAttached(attachmentEntries.getKey().first, attachmentEntries.getKey().second, false);
-        }
-      }
-      for (Entry<Pair<Date, String>, Integer> attachmentEntries : remainingAudioAttachments.entrySet()) {
-        if (attachmentEntries.getValue() == 0) {
-          mAsyncTaskDao.updateObservationRecordingsAttached(attachmentEntries.getKey().first, attachmentEntries.getKey().second, false);
-        }
-      }
-      return null;
+  @Override
+  public LiveData<PagedList<Observation>> search(String query) {
+    final String fullTextQuery = ObservationQueries.fullText(query);
+    if (fullTextQuery.isEmpty()) {
+      return mObservations;
     }
+    return buildPagedList(mObservationDao.searchObservations(fullTextQuery));
   }
 
-  private static class updateSuspicionAsyncTask extends AsyncTask<Observation, Void, Void> {
-    private ObservationDao mAsyncTaskDao;
-    private String mOldSuspicion;
+  @Override
+  public LiveData<List<StatisticsEntry>> getSuspicionStatistics(StatisticsEntry.Period period) {
+    return mStatisticsDao.getSuspicionStatistics(period.name());
+  }
 
-    updateSuspicionAsyncTask(ObservationDao dao, String oldSuspicion) {
-      this.mAsyncTaskDao = dao;
-      this.mOldSuspicion = oldSuspicion;
-    }
+  @Override
+  public LiveData<List<StatisticsEntry>> getTagStatistics(StatisticsEntry.Period period) {
+    return mStatisticsDao.getTagStatistics(period.name());
+  }
 
-    @Override
-    protected Void doInBackground(Observation... observations) {
-      Observation observation = observations[0];
-      mAsyncTaskDao.updateSuspicion(mOldSuspicion, observation);
-      return null;
-    }
+  @Override
+  public LiveData<List<FirstSighting>> getFirstSightings(FirstSighting.Kind kind, int year) {
+    return mStatisticsDao.getFirstSightings(kind.name(), year);
   }
 
-  private static class updateTagsAsyncTask extends AsyncTask<ObservationTag, Void, Void> {
-    private ObservationDao mAsyncTaskDao;
-    private Observation mObservation;
+  @Override
+  public LiveData<FirstSighting> getFirstSighting(FirstSighting.Kind kind, String subject,
+      int year) {
+    return mStatisticsDao.getFirstSighting(kind.name(), subject, year);
+  }
 
-    updateTagsAsyncTask(ObservationDao asyncTaskDao, Observation observation) {
-      mAsyncTaskDao = asyncTaskDao;
-      mObservation = observation;
-    }
+  @Override
+  public ListenableFuture<Void> rebuildStatistics() {
+    return mWriteQueue.submit(() -> {
+      SupportSQLiteDatabase db = mDatabase.getOpenHelper().getWritableDatabase();
+      FieldNotesDatabase.rebuildStatistics(db);
+      FieldNotesDatabase.rebuildFirstSightings(db);
+    });
+  }
 
-    @Override
-    protected Void doInBackground(ObservationTag... observationTags) {
-      mAsyncTaskDao.updateTags(mObservation, observationTags);
-      return null;
-    }
+  /**
+   * The cache of the tags per observation. Exposed for its hit and miss counters.
+   */
+  WeakLruCache<Long, LiveData<List<Tag>>> getTagsCache() {
+    return mObservationTags;
   }
 
-  private static class updateImagesAttachedAsyncTask extends AsyncTask<Boolean, Void, Void> {
-    private ObservationDao mAsyncTaskDao;
-    private Date mObservationTime;
-    private String mObservationSuspicion;
+  /**
+   * The cache of the attachments per observation. Exposed for its hit and miss counters.
+   */
+  WeakLruCache<Long, LiveData<List<Attachment>>> getAttachmentsCache() {
+    return mObservationAttachments;
+  }
 
-    updateImagesAttachedAsyncTask(ObservationDao dao, Date observationTime, String observationSuspicion) {
-      this.mAsyncTaskDao = dao;
-      this.mObservationTime = observationTime;
-      this.mObservationSuspicion = observationSuspicion;
+  private List<Long> idsOf(List<Observation> observations) {
+    List<Long> observationIds = new ArrayList<>(observations.size());
+    for (Observation observation : observations) {
+      observationIds.add(observation.getId());
     }
+    return observationIds;
+  }
 
-    @Override
-    protected Void doInBackground(Boolean... booleans) {
-      mAsyncTaskDao.updateObservationImagesAttached(mObservationTime, mObservationSuspicion, booleans[0]);
-      return null;
+  private static List<String> contentsOf(List<Tag> tags) {
+    List<String> contents = new ArrayList<>(tags.size());
+    for (Tag tag : tags) {
+      contents.add(tag.getContent());
     }
+    return contents;
   }
 
-  private static class updateRecordingsAttachedAsyncTask extends AsyncTask<Boolean, Void, Void> {
-    private ObservationDao mAsyncTaskDao;
-    private Date mObservationTime;
-    private String mObservationSuspicion;
+  /**
+   * Submits the images among some attachments to the {@link PhotoIngestion} once they have been
+   * written. Ingestion would skip them otherwise, as they would not be known yet.
+   */
+  private void ingestAfter(ListenableFuture<Void> write, List<Attachment> attachments) {
+    write.addListener(() -> {
+      for (Attachment attachment : attachments) {
+        if (attachment.getType() == AttachmentType.IMAGE) {
+          mPhotoIngestion.submit(attachment.getPath());
+        }
+      }
+    }, MoreExecutors.directExecutor());
+  }
 
-    updateRecordingsAttachedAsyncTask(ObservationDao dao, Date observationTime, String observationSuspicion) {
-      this.mAsyncTaskDao = dao;
-      this.mObservationTime = observationTime;
-      this.mObservationSuspicion = observationSuspicion;
-    }
+  private void invalidateCachesFor(Observation observation) {
+    mObservationTags.invalidate(observation.getId());
+    mObservationAttachments.invalidate(observation.getId());
+  }
 
-    @Override
-    protected Void doInBackground(Boolean... booleans) {
-      mAsyncTaskDao.updateObservationRecordingsAttached(mObservationTime, mObservationSuspicion,
-          booleans[0]);
-      return null;
-    }
+  /**
+   * Pages through the observations of a factory. Each page is inflated with its tags and
+   * attachments while it is loaded, so the observations may be displayed without further queries.
+   * Pages are loaded on the database's reader pool rather than on the shared IO executor.
+   */
+  private <K> LiveData<PagedList<Observation>> buildPagedList(
+      DataSource.Factory<K, Observation> observationsFactory) {
+    return new LivePagedListBuilder<>(observationsFactory.mapByPage(mInflater), PAGE_SIZE) //
+        .setFetchExecutor(mDatabase.getQueryExecutor()) //
+        .build();
   }
 
 }
@@ -0,0 +1,55 @@
+package de.portux.elfeb.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+
+/**
+ * The {@code ObservationRollup} counts the observations per suspicion within each day and month
+ * (of the local time zone), separately for determined and undetermined ones.
+ * <p>
+ * Statistics are read from these counters instead of aggregating all observations. The table is
+ * maintained by triggers on the {@code observations} table and should never be written directly.
+ * Rows whose count drops to zero are removed, so the table only contains non-empty buckets.
+ *
+ * @author Rico Bergmann
+ * @see TagRollup
+ */
+@Entity(tableName = "observation_rollups", //
+    primaryKeys = {"period", "bucket", "suspicion", "determined"})
+class ObservationRollup {
+
+  /**
+   * The name of a {@link StatisticsEntry.Period}.
+   */
+  @NonNull
+  @ColumnInfo(name = "period")
+  public final String period;
+
+  /**
+   * The day ({@code yyyy-MM-dd}) or month ({@code yyyy-MM}).
+   */
+  @NonNull
+  @ColumnInfo(name = "bucket")
+  public final String bucket;
+
+  @NonNull
+  @ColumnInfo(name = "suspicion")
+  public final String suspicion;
+
+  @ColumnInfo(name = "determined")
+  public final boolean determined;
+
+  @ColumnInfo(name = "count")
+  public final int count;
+
+  ObservationRollup(@NonNull String period, @NonNull String bucket, @NonNull String suspicion,
+      boolean determined, int count) {
+    this.period = period;
+    this.bucket = bucket;
+    this.suspicion = suspicion;
+    this.determined = determined;
+    this.count = count;
+  }
+
+}
@@ -4,40 +4,37 @@ import androidx.room.ColumnInfo;
 import androidx.room.Entity;
 import androidx.room.ForeignKey;
 import androidx.annotation.NonNull;
-import java.util.Date;
+import androidx.room.Index;
+import java.util.Objects;
 
 @Entity(tableName = "observation_tags", //
-    primaryKeys = {"observation_time", "observation_suspicion", "tag"}, //
+    primaryKeys = {"observation_id", "tag"}, //
     foreignKeys = { //
         @ForeignKey( //
-            parentColumns = {"time", "suspicion"}, //
-            childColumns = {"observation_time", "observation_suspicion"}, //
+            parentColumns = "id", //
+            childColumns = "observation_id", //
             entity = Observation.class, //
-            onUpdate = ForeignKey.CASCADE, //
             onDelete = ForeignKey.CASCADE), //
-        @ForeignKey(parentColumns = "tag", childColumns = "tag", entity = Tag.class)})
+        @ForeignKey(parentColumns = "tag", childColumns = "tag", entity = Tag.class)}, //
+    indices = { //
+        @Index({"tag", "observation_id"})
+    }
+)
 public class ObservationTag {
 
-  @NonNull
-  @ColumnInfo(name = "observation_time")
-  public final Date observationTime;
-
-  @NonNull
-  @ColumnInfo(name = "observation_suspicion")
-  public final String observationSuspicion;
+  @ColumnInfo(name = "observation_id")
+  public final long observationId;
 
   @NonNull
-  @ColumnInfo(name = "tag", index = true)
+  @ColumnInfo(name = "tag")
   public final String tag;
 
   public static ObservationTag create(Observation observation, Tag tag) {
-    return new ObservationTag(observation.getTime(), observation.getSuspicion(), tag.getContent());
+    return new ObservationTag(observation.getId(), tag.getContent());
   }
 
-  public ObservationTag(@NonNull Date observationTime,
-      @NonNull String observationSuspicion, @NonNull String tag) {
-    this.observationTime = observationTime;
-    this.observationSuspicion = observationSuspicion;
+  public ObservationTag(long observationId, @NonNull String tag) {
+    this.observationId = observationId;
     this.tag = tag;
   }
 
@@ -45,4 +42,30 @@ public class ObservationTag {
     return tag;
   }
 
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    ObservationTag that = (ObservationTag) o;
+    return observationId == that.observationId &&
+        tag.equals(that.tag);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(observationId, tag);
+  }
+
+  @Override
+  public String toString() {
+    return this.getClass().getSimpleName() + '{' +
+        "observationId=" + observationId +
+        ", tag='" + tag + '\'' +
+        '}';
+  }
+
 }
@@ -0,0 +1,230 @@
+package de.portux.elfeb.model;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Environment;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.portux.elfeb.images.AttachmentReconciler;
+import de.portux.elfeb.images.BitmapPhotoCodec;
+import de.portux.elfeb.images.PhotoIngestion;
+import de.portux.elfeb.images.PhotoIngestion.OriginalPolicy;
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provides the app-wide {@link PhotoIngestion} for image attachments, together with its settings,
+ * and the {@link AttachmentReconciler} which keeps the attachments and the owned files in sync.
+ * Both share a single background thread.
+ * <p>
+ * The storage budget and the handling of the originals are configured per device, as they depend
+ * on its free space rather than on the field notes.
+ *
+ * @author Rico Bergmann
+ */
+public class PhotoStorage {
+
+  private static final String SETTINGS = "photo_storage";
+  private static final String STORAGE_BUDGET = "storage_budget";
+  private static final String ORIGINAL_POLICY = "original_policy";
+  private static final String RECONCILER_POSITION = "reconciler_position";
+  private static final String RECONCILER_COMPLETED = "reconciler_completed";
+
+  private static final long DEFAULT_STORAGE_BUDGET = 512L * 1024 * 1024;
+
+  /**
+   * The maximum width and height of the working copies. This still leaves room for zooming in on
+   * a full HD screen.
+   */
+  private static final int MAX_DIMENSION = 2048;
+
+  /**
+   * The maximum number of images waiting to be ingested. Further images are picked up by a sweep
+   * over the attachments later on.
+   */
+  private static final int QUEUE_CAPACITY = 32;
+
+  /**
+   * How often the attachments are reconciled with the files on disk.
+   */
+  private static final long RECONCILE_INTERVAL = TimeUnit.DAYS.toMillis(1);
+
+  private static volatile PhotoIngestion INSTANCE;
+
+  private static volatile AttachmentReconciler RECONCILER;
+
+  private static Executor sExecutor;
+
+  /**
+   * Provides the ingestion. Once it is created, all images which have not been ingested yet are
+   * scheduled.
+   */
+  @NonNull
+  public static PhotoIngestion getIngestion(@NonNull Context context) {
+    if (INSTANCE == null) {
+      synchronized (PhotoStorage.class) {
+        if (INSTANCE == null) {
+          Context app = context.getApplicationContext();
+          SharedPreferences settings = settingsOf(app);
+          PhotoIngestion ingestion = new PhotoIngestion(new BitmapPhotoCodec(),
+              new AttachmentCatalog(FieldNotesDatabase.getDatabase(app)),
+              Arrays.asList(getCaptureDirectory(app), getSyncedDirectory(app)),
+              directoryOf(app, "photos"), directoryOf(app, "originals"),
+              MAX_DIMENSION, QUEUE_CAPACITY,
+              settings.getLong(STORAGE_BUDGET, DEFAULT_STORAGE_BUDGET),
+              OriginalPolicy.valueOf(
+                  settings.getString(ORIGINAL_POLICY, OriginalPolicy.ARCHIVE.name())),
+              getExecutor());
+          ingestion.submitPending();
+          INSTANCE = ingestion;
+        }
+      }
+    }
+    return INSTANCE;
+  }
+
+  /**
+   * Provides the reconciler, which covers all directories the attachments of the app are stored
+   * in.
+   */
+  @NonNull
+  public static AttachmentReconciler getReconciler(@NonNull Context context) {
+    if (RECONCILER == null) {
+      synchronized (PhotoStorage.class) {
+        if (RECONCILER == null) {
+          Context app = context.getApplicationContext();
+          RECONCILER = new AttachmentReconciler(
+              new AttachmentCatalog(FieldNotesDatabase.getDatabase(app)),
+              new SettingsCheckpoint(settingsOf(app)),
+              Arrays.asList(getCaptureDirectory(app), getSyncedDirectory(app),
+                  directoryOf(app, "photos"), directoryOf(app, "originals")),
+              directoryOf(app, "quarantine"), getExecutor());
+        }
+      }
+    }
+    return RECONCILER;
+  }
+
+  /**
+   * Starts reconciling the attachments, if they have not been reconciled for a while or the last
+   * pass has been interrupted. Nothing happens while the external storage is not available, as
+   * all attachments would seem to be missing otherwise.
+   */
+  public static void reconcileIfDue(@NonNull Context context) {
+    if (Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) {
+      getReconciler(context).reconcileIfDue(RECONCILE_INTERVAL);
+    }
+  }
+
+  /**
+   * The directory the photos which are taken by the app are saved to. Their originals belong to
+   * the app and may therefore be archived or deleted once they have been ingested.
+   */
+  @NonNull
+  public static File getCaptureDirectory(@NonNull Context context) {
+    return directoryOf(context, Environment.DIRECTORY_PICTURES);
+  }
+
+  /**
+   * The directory the files attached on other devices are downloaded to by the sync. Like the
+   * photos taken by the app, they are ingested into the store.
+   */
+  @NonNull
+  public static File getSyncedDirectory(@NonNull Context context) {
+    return directoryOf(context, "synced");
+  }
+
+  /**
+   * Provides a directory on the external storage, which is used as long as it is available. The
+   * internal storage serves as fallback.
+   */
+  private static File directoryOf(Context context, String type) {
+    File directory = context.getExternalFilesDir(type);
+    return directory != null ? directory : new File(context.getFilesDir(), type);
+  }
+
+  /**
+   * Changes the maximum total size of the archived originals on this device.
+   *
+   * @param storageBudget the budget in bytes
+   */
+  public static void setStorageBudget(@NonNull Context context, long storageBudget) {
+    getIngestion(context).setStorageBudget(storageBudget);
+    settingsOf(context).edit().putLong(STORAGE_BUDGET, storageBudget).apply();
+  }
+
+  /**
+   * Changes what happens to the originals of the photos taken on this device.
+   */
+  public static void setOriginalPolicy(@NonNull Context context,
+      @NonNull OriginalPolicy originalPolicy) {
+    getIngestion(context).setOriginalPolicy(originalPolicy);
+    settingsOf(context).edit().putString(ORIGINAL_POLICY, originalPolicy.name()).apply();
+  }
+
+  private static SharedPreferences settingsOf(Context context) {
+    return context.getSharedPreferences(SETTINGS, Context.MODE_PRIVATE);
+  }
+
+  /**
+   * Images are ingested one at a time on a single low priority thread, so ingestion never competes
+   * with loading the thumbnails which are currently displayed. The reconciler runs on the same
+   * thread, such that it never observes an image halfway through its ingestion.
+   */
+  private static synchronized Executor getExecutor() {
+    if (sExecutor == null) {
+      sExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread storage = new Thread(runnable, "PhotoStorage");
+        storage.setDaemon(true);
+        storage.setPriority(Thread.MIN_PRIORITY);
+        return storage;
+      });
+    }
+    return sExecutor;
+  }
+
+  /**
+   * Keeps the progress of the reconciler together with the other settings of the device.
+   */
+  private static class SettingsCheckpoint implements AttachmentReconciler.Checkpoint {
+
+    private final SharedPreferences mSettings;
+
+    SettingsCheckpoint(SharedPreferences settings) {
+      this.mSettings = settings;
+    }
+
+    @Nullable
+    @Override
+    public File getPosition() {
+      String position = mSettings.getString(RECONCILER_POSITION, null);
+      return position != null ? new File(position) : null;
+    }
+
+    @Override
+    public void savePosition(@NonNull File position) {
+      mSettings.edit().putString(RECONCILER_POSITION, position.getPath()).apply();
+    }
+
+    @Override
+    public long getCompletedAt() {
+      return mSettings.getLong(RECONCILER_COMPLETED, 0);
+    }
+
+    @Override
+    public void saveCompleted(long completedAt) {
+      mSettings.edit() //
+          .remove(RECONCILER_POSITION) //
+          .putLong(RECONCILER_COMPLETED, completedAt) //
+          .apply();
+    }
+  }
+
+  private PhotoStorage() {
+    ;
+  }
+
+}
@@ -0,0 +1,35 @@
+package de.portux.elfeb.model;
+
+import androidx.lifecycle.LiveData;
+import androidx.room.Dao;
+import androidx.room.Query;
+import java.util.List;
+
+/**
+ * Reads the {@link ObservationRollup} and {@link TagRollup} tables. Each query only touches the
+ * buckets of a single period, so its cost depends on the number of buckets rather than the number
+ * of observations. The same holds for the {@link FirstSighting} index.
+ */
+@Dao
+interface StatisticsDao {
+
+  @Query("SELECT bucket, suspicion AS subject, SUM(count) AS count, "
+      + "SUM(CASE WHEN determined THEN 0 ELSE count END) AS undetermined_count "
+      + "FROM observation_rollups WHERE period = :period "
+      + "GROUP BY bucket, suspicion ORDER BY bucket DESC, count DESC")
+  LiveData<List<StatisticsEntry>> getSuspicionStatistics(String period);
+
+  @Query("SELECT bucket, tag AS subject, SUM(count) AS count, "
+      + "SUM(CASE WHEN determined THEN 0 ELSE count END) AS undetermined_count "
+      + "FROM tag_rollups WHERE period = :period "
+      + "GROUP BY bucket, tag ORDER BY bucket DESC, count DESC")
+  LiveData<List<StatisticsEntry>> getTagStatistics(String period);
+
+  @Query("SELECT * FROM first_sightings WHERE kind = :kind AND year = :year ORDER BY time")
+  LiveData<List<FirstSighting>> getFirstSightings(String kind, int year);
+
+  @Query("SELECT * FROM first_sightings WHERE kind = :kind AND subject = :subject "
+      + "AND year = :year")
+  LiveData<FirstSighting> getFirstSighting(String kind, String subject, int year);
+
+}
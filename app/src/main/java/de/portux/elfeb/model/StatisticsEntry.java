@@ -0,0 +1,80 @@
+package de.portux.elfeb.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+
+/**
+ * The number of observations of some suspicion or with some tag within a day or month.
+ *
+ * @author Rico Bergmann
+ */
+public class StatisticsEntry {
+
+  /**
+   * The size of the buckets the observations are counted in. Buckets are based on the local time
+   * zone.
+   */
+  public enum Period {
+    DAY, MONTH
+  }
+
+  @NonNull
+  @ColumnInfo(name = "bucket")
+  private final String mBucket;
+
+  @NonNull
+  @ColumnInfo(name = "subject")
+  private final String mSubject;
+
+  @ColumnInfo(name = "count")
+  private final int mCount;
+
+  @ColumnInfo(name = "undetermined_count")
+  private final int mUndeterminedCount;
+
+  public StatisticsEntry(@NonNull String bucket, @NonNull String subject, int count,
+      int undeterminedCount) {
+    this.mBucket = bucket;
+    this.mSubject = subject;
+    this.mCount = count;
+    this.mUndeterminedCount = undeterminedCount;
+  }
+
+  /**
+   * The day ({@code yyyy-MM-dd}) or month ({@code yyyy-MM}) of the observations.
+   */
+  @NonNull
+  public String getBucket() {
+    return mBucket;
+  }
+
+  /**
+   * The suspicion or tag of the observations.
+   */
+  @NonNull
+  public String getSubject() {
+    return mSubject;
+  }
+
+  public int getCount() {
+    return mCount;
+  }
+
+  /**
+   * The number of observations which have not been determined yet.
+   */
+  public int getUndeterminedCount() {
+    return mUndeterminedCount;
+  }
+
+  @Override
+  public String toString() {
+    return this.getClass().getSimpleName() + '{' +
+        "mBucket='" + mBucket + '\'' +
+        ", mSubject='" + mSubject + '\'' +
+        ", mCount=" + mCount +
+        ", mUndeterminedCount=" + mUndeterminedCount +
+        '}';
+  }
+
+}
@@ -2,7 +2,9 @@ package de.portux.elfeb.model;
 
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.ForeignKey;
 import androidx.room.Ignore;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -22,10 +24,22 @@ import java.util.Objects;
  * </ul>
  * To relate tags to each other, a {@code Tag} may be assigned mParent. This relationship will than
  * be respected in filters and the like.
+ * <p>
+ * Only the name of the parent is persisted. All transitive ancestor/descendant relations are kept
+ * in the {@link TagClosure} table, which is maintained by the database itself.
  *
  * @author Rico Bergmann
  */
-@Entity(tableName = "tags")
+@Entity(tableName = "tags", //
+    foreignKeys = @ForeignKey( //
+        entity = Tag.class, //
+        parentColumns = "tag", //
+        childColumns = "parent", //
+        onDelete = ForeignKey.SET_NULL), //
+    indices = { //
+        @Index("parent")
+    }
+)
 public class Tag implements Serializable {
 
   /**
@@ -40,6 +54,10 @@ public class Tag implements Serializable {
   @Size(min = MIN_CONTENT_LENGTH)
   private String mContent;
 
+  @Nullable
+  @ColumnInfo(name = "parent")
+  private String mParentContent;
+
   @Nullable
   @Ignore
   private Tag mParent;
@@ -76,6 +94,7 @@ public class Tag implements Serializable {
     }
     this.mContent = content;
     this.mParent = parent;
+    this.mParentContent = parent != null ? parent.getContent() : null;
   }
 
   /**
@@ -95,13 +114,33 @@ public class Tag implements Serializable {
    * If such a tag exists, each {@link Observation} which is tagged with {@code this} should be
    * treated as (implicitly) also tagged with {@code mParent}.
    *
-   * @return the mParent. May be {@code null} if {@code this} is a top-level tag.
+   * @return the mParent. May be {@code null} if {@code this} is a top-level tag or if {@code this}
+   *     was loaded from the database. In the latter case only {@link #getParentContent()} is
+   *     available.
    */
   @Nullable
   public Tag getParent() {
     return mParent;
   }
 
+  /**
+   * The name of the {@code Tag} {@code this} is a sub-tag of.
+   *
+   * @return the name. May be {@code null} if {@code this} is a top-level tag.
+   */
+  @Nullable
+  public String getParentContent() {
+    return mParentContent;
+  }
+
+  public boolean isTopLevel() {
+    return mParentContent == null;
+  }
+
+  void setParentContent(@Nullable String parentContent) {
+    this.mParentContent = parentContent;
+  }
+
   /**
    * Creates a new {@code Tag} with {@code this} as mParent.
    * @param content the name of the new tag
@@ -122,19 +161,19 @@ public class Tag implements Serializable {
     }
     Tag tag = (Tag) o;
     return Objects.equals(mContent, tag.mContent) &&
-        Objects.equals(mParent, tag.mParent);
+        Objects.equals(mParentContent, tag.mParentContent);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(mContent, mParent);
+    return Objects.hash(mContent, mParentContent);
   }
 
   @Override
   public String toString() {
     return "Tag{" +
         "mContent='" + mContent + '\'' +
-        ", mParent=" + mParent +
+        ", mParent='" + mParentContent + '\'' +
         '}';
   }
 }
@@ -0,0 +1,56 @@
+package de.portux.elfeb.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+
+/**
+ * The {@code TagClosure} contains one entry for each pair of {@link Tag Tags} where one tag is an
+ * (indirect) parent of the other. Each tag is also considered its own ancestor with depth {@code
+ * 0}.
+ * <p>
+ * This enables looking up all sub-tags of some tag with a single index lookup instead of walking
+ * the tag tree. The table is maintained by triggers on the {@code tags} table and should never be
+ * written directly.
+ *
+ * @author Rico Bergmann
+ */
+@Entity(tableName = "tag_closure", //
+    primaryKeys = {"ancestor", "descendant"}, //
+    foreignKeys = { //
+        @ForeignKey( //
+            entity = Tag.class, //
+            parentColumns = "tag", //
+            childColumns = "ancestor", //
+            onDelete = ForeignKey.CASCADE), //
+        @ForeignKey( //
+            entity = Tag.class, //
+            parentColumns = "tag", //
+            childColumns = "descendant", //
+            onDelete = ForeignKey.CASCADE)}, //
+    indices = { //
+        @Index({"descendant", "ancestor"})
+    }
+)
+class TagClosure {
+
+  @NonNull
+  @ColumnInfo(name = "ancestor")
+  public final String ancestor;
+
+  @NonNull
+  @ColumnInfo(name = "descendant")
+  public final String descendant;
+
+  @ColumnInfo(name = "depth")
+  public final int depth;
+
+  TagClosure(@NonNull String ancestor, @NonNull String descendant, int depth) {
+    this.ancestor = ancestor;
+    this.descendant = descendant;
+    this.depth = depth;
+  }
+
+}
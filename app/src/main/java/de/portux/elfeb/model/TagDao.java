@@ -13,9 +13,29 @@ interface TagDao {
   @Query("SELECT * FROM tags ORDER BY tag COLLATE 'NOCASE' ASC")
   LiveData<List<Tag>> getAllTags();
 
+  @Query("SELECT * FROM tags WHERE parent IS NULL ORDER BY tag COLLATE 'NOCASE' ASC")
+  LiveData<List<Tag>> getTopLevelTags();
+
+  @Query("SELECT t.* FROM tags t INNER JOIN tag_closure c ON c.descendant = t.tag "
+      + "WHERE c.ancestor = :tag AND c.depth > 0 ORDER BY c.depth, t.tag COLLATE 'NOCASE' ASC")
+  LiveData<List<Tag>> getSubTags(String tag);
+
+  @Query("SELECT t.* FROM tags t INNER JOIN tag_closure c ON c.ancestor = t.tag "
+      + "WHERE c.descendant = :tag AND c.depth > 0 ORDER BY c.depth DESC")
+  List<Tag> getAncestors(String tag);
+
+  @Query("SELECT descendant FROM tag_closure WHERE ancestor IN (:tags)")
+  List<String> getSelfAndDescendants(List<String> tags);
+
+  /**
+   * Inserts new tags. Parents have to be inserted before (or along with) their sub-tags.
+   */
   @Insert(onConflict = OnConflictStrategy.IGNORE)
   void insert(Tag... tags);
 
+  @Query("UPDATE tags SET parent = :parent WHERE tag = :tag")
+  void updateParent(String tag, String parent);
+
   @Query("DELETE FROM tags")
   void deleteAll();
 
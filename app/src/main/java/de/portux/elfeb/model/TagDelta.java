@@ -0,0 +1,80 @@
+package de.portux.elfeb.model;
+
+import androidx.annotation.NonNull;
+import de.portux.elfeb.support.Assert;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The {@code TagDelta} describes how the tags of observations change. Applying it only touches the
+ * {@link ObservationTag} rows which are actually added or removed, instead of rewriting all of
+ * them.
+ *
+ * @author Rico Bergmann
+ */
+class TagDelta {
+
+  @NonNull
+  private final List<ObservationTag> mAdded;
+
+  @NonNull
+  private final List<ObservationTag> mRemoved;
+
+  /**
+   * Determines the delta between the current and the updated tags.
+   *
+   * @param current the tags as they are currently persisted
+   * @param updated the tags as they should be persisted
+   */
+  @NonNull
+  static TagDelta between(@NonNull Collection<ObservationTag> current,
+      @NonNull Collection<ObservationTag> updated) {
+    Assert.notNull(current, "Current tags may not be null");
+    Assert.notNull(updated, "Updated tags may not be null");
+    Set<ObservationTag> remaining = new HashSet<>(current);
+    List<ObservationTag> added = new ArrayList<>();
+    for (ObservationTag tag : new HashSet<>(updated)) {
+      if (!remaining.remove(tag)) {
+        added.add(tag);
+      }
+    }
+    return new TagDelta(added, new ArrayList<>(remaining));
+  }
+
+  private TagDelta(@NonNull List<ObservationTag> added, @NonNull List<ObservationTag> removed) {
+    this.mAdded = added;
+    this.mRemoved = removed;
+  }
+
+  /**
+   * The tags which have to be inserted.
+   */
+  @NonNull
+  List<ObservationTag> getAdded() {
+    return Collections.unmodifiableList(mAdded);
+  }
+
+  /**
+   * The tags which have to be deleted.
+   */
+  @NonNull
+  List<ObservationTag> getRemoved() {
+    return Collections.unmodifiableList(mRemoved);
+  }
+
+  /**
+   * The number of rows which have to be written in order to apply {@code this} delta.
+   */
+  int size() {
+    return mAdded.size() + mRemoved.size();
+  }
+
+  boolean isEmpty() {
+    return size() == 0;
+  }
+
+}
@@ -0,0 +1,70 @@
+package de.portux.elfeb.model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps tag names to a single, canonical {@link Tag} instance each.
+ * <p>
+ * Imports repeat the same few tags over and over again. Resolving them through this table keeps
+ * just one instance per tag in memory, and tells which tags still have to be saved, such that
+ * each of them is only inserted once.
+ *
+ * @author Rico Bergmann
+ */
+class TagInternTable {
+
+  private final Map<String, Tag> mTags = new HashMap<>();
+
+  private final Set<String> mSaved = new HashSet<>();
+
+  /**
+   * Registers a tag which has already been saved. Tags inserted by a transaction may only be
+   * registered once it has been committed, as they would never be inserted again otherwise.
+   */
+  void addSaved(@NonNull String content) {
+    Tag tag = intern(content);
+    if (tag != null) {
+      mSaved.add(tag.getContent());
+    }
+  }
+
+  /**
+   * Provides the canonical instance of a tag.
+   *
+   * @param content the name of the tag
+   * @return the tag. Will be {@code null} if the name is not a valid tag name.
+   */
+  @Nullable
+  Tag intern(@NonNull String content) {
+    Tag tag = mTags.get(content);
+    if (tag == null) {
+      try {
+        tag = Tag.generateFor(content);
+      } catch (IllegalArgumentException e) {
+        return null;
+      }
+      mTags.put(content, tag);
+    }
+    return tag;
+  }
+
+  /**
+   * Checks whether a tag has been saved, i.e. whether it does not have to be inserted.
+   */
+  boolean isSaved(@NonNull Tag tag) {
+    return mSaved.contains(tag.getContent());
+  }
+
+  /**
+   * The number of distinct tags known.
+   */
+  int size() {
+    return mTags.size();
+  }
+
+}
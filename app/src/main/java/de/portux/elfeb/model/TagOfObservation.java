@@ -0,0 +1,27 @@
+package de.portux.elfeb.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Embedded;
+
+/**
+ * Result row of a query which fetches the tags of several observations at once. It pairs a
+ * {@link Tag} with the id of the {@link Observation} it has been assigned to.
+ *
+ * @author Rico Bergmann
+ */
+class TagOfObservation {
+
+  @ColumnInfo(name = "observation_id")
+  final long observationId;
+
+  @NonNull
+  @Embedded
+  final Tag tag;
+
+  TagOfObservation(long observationId, @NonNull Tag tag) {
+    this.observationId = observationId;
+    this.tag = tag;
+  }
+
+}
@@ -1,19 +1,23 @@
 package de.portux.elfeb.model;
 
 import android.app.Application;
-import android.os.AsyncTask;
 import androidx.lifecycle.LiveData;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 
 public class TagRepository {
 
   private final TagDao mTagDao;
+  private final BatchingWriteQueue mWriteQueue;
 
   private LiveData<List<Tag>> mTags;
 
   public TagRepository(Application app) {
     FieldNotesDatabase db = FieldNotesDatabase.getDatabase(app);
     this.mTagDao = db.tagDao();
+    this.mWriteQueue = db.writeQueue();
   }
 
   public LiveData<List<Tag>> getTags() {
@@ -23,22 +27,20 @@ public class TagRepository {
     return mTags;
   }
 
-  public void insert(Tag tag) {
-    new insertAsyncTask(mTagDao).execute(tag);
+  public LiveData<List<Tag>> getSubTags(Tag tag) {
+    return mTagDao.getSubTags(tag.getContent());
   }
 
-  private static class insertAsyncTask extends AsyncTask<Tag, Void, Void> {
-    private TagDao mAsyncTaskDao;
-
-    insertAsyncTask(TagDao asyncTaskDao) {
-      mAsyncTaskDao = asyncTaskDao;
-    }
-
-    @Override
-    protected Void doInBackground(Tag... tags) {
-      mAsyncTaskDao.insert(tags);
-      return null;
+  /**
+   * Saves a tag. All of its parents which are not yet known will be saved as well.
+   */
+  public ListenableFuture<Void> insert(Tag tag) {
+    Deque<Tag> tagWithParents = new ArrayDeque<>();
+    for (Tag current = tag; current != null; current = current.getParent()) {
+      tagWithParents.addFirst(current);
     }
+    Tag[] tags = tagWithParents.toArray(new Tag[0]);
+    return mWriteQueue.submit(() -> mTagDao.insert(tags));
   }
 
 }
@@ -0,0 +1,45 @@
+package de.portux.elfeb.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+
+/**
+ * The {@code TagRollup} counts the observations per tag within each day and month, separately for
+ * determined and undetermined ones. It is the counterpart of the {@link ObservationRollup} and is
+ * maintained by triggers on the {@code observations} and {@code observation_tags} tables.
+ *
+ * @author Rico Bergmann
+ */
+@Entity(tableName = "tag_rollups", //
+    primaryKeys = {"period", "bucket", "tag", "determined"})
+class TagRollup {
+
+  @NonNull
+  @ColumnInfo(name = "period")
+  public final String period;
+
+  @NonNull
+  @ColumnInfo(name = "bucket")
+  public final String bucket;
+
+  @NonNull
+  @ColumnInfo(name = "tag")
+  public final String tag;
+
+  @ColumnInfo(name = "determined")
+  public final boolean determined;
+
+  @ColumnInfo(name = "count")
+  public final int count;
+
+  TagRollup(@NonNull String period, @NonNull String bucket, @NonNull String tag,
+      boolean determined, int count) {
+    this.period = period;
+    this.bucket = bucket;
+    this.tag = tag;
+    this.determined = determined;
+    this.count = count;
+  }
+
+}
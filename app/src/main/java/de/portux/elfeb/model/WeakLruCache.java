@@ -0,0 +1,127 @@
+package de.portux.elfeb.model;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.portux.elfeb.support.Assert;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-limited cache which only keeps weak references to its values.
+ * <p>
+ * If the cache is full, the least recently used entry is evicted. In addition, values which are no
+ * longer referenced anywhere else may be garbage collected at any time. The cache will therefore
+ * never keep values alive on its own, nor grow beyond its capacity.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ * @author Rico Bergmann
+ */
+class WeakLruCache<K, V> {
+
+  /**
+   * Creates the value for a key which is not cached (anymore).
+   */
+  interface Loader<K, V> {
+    @NonNull
+    V load(@NonNull K key);
+  }
+
+  private final int mCapacity;
+
+  @GuardedBy("this")
+  private final LinkedHashMap<K, WeakReference<V>> mEntries;
+
+  @GuardedBy("this")
+  private long mHitCount = 0;
+
+  @GuardedBy("this")
+  private long mMissCount = 0;
+
+  /**
+   * @param capacity the maximum number of entries
+   */
+  WeakLruCache(int capacity) {
+    Assert.isTrue(capacity > 0, "Capacity must be positive");
+    this.mCapacity = capacity;
+    this.mEntries = new LinkedHashMap<K, WeakReference<V>>(capacity, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, WeakReference<V>> eldest) {
+        return size() > mCapacity;
+      }
+    };
+  }
+
+  /**
+   * Provides the cached value for a key, creating it if necessary.
+   *
+   * @param key the key
+   * @param loader creates the value if it is not cached or has been garbage collected
+   * @return the value
+   */
+  @NonNull
+  synchronized V get(@NonNull K key, @NonNull Loader<K, V> loader) {
+    Assert.notNull(key, "Key may not be null");
+    WeakReference<V> reference = mEntries.get(key);
+    V value = reference != null ? reference.get() : null;
+    if (value != null) {
+      ++mHitCount;
+      return value;
+    }
+    ++mMissCount;
+    value = loader.load(key);
+    mEntries.put(key, new WeakReference<>(value));
+    return value;
+  }
+
+  /**
+   * Provides the cached value for a key without creating it.
+   */
+  @Nullable
+  synchronized V getIfPresent(@NonNull K key) {
+    WeakReference<V> reference = mEntries.get(key);
+    return reference != null ? reference.get() : null;
+  }
+
+  /**
+   * Drops the value for a key, such that it will be re-created on its next access.
+   */
+  synchronized void invalidate(@NonNull K key) {
+    mEntries.remove(key);
+  }
+
+  /**
+   * Drops all values.
+   */
+  synchronized void invalidateAll() {
+    mEntries.clear();
+  }
+
+  /**
+   * The number of entries, including those whose value has been garbage collected already.
+   */
+  synchronized int size() {
+    return mEntries.size();
+  }
+
+  int getCapacity() {
+    return mCapacity;
+  }
+
+  /**
+   * The number of lookups which could be answered from the cache.
+   */
+  synchronized long getHitCount() {
+    return mHitCount;
+  }
+
+  /**
+   * The number of lookups which required the value to be created.
+   */
+  synchronized long getMissCount() {
+    return mMissCount;
+  }
+
+}
@@ -0,0 +1,98 @@
+package de.portux.elfeb.model.export;
+
+import androidx.annotation.NonNull;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Writes observations as comma-separated values according to RFC 4180. Multiple tags or
+ * attachments are separated by {@code |} within their field.
+ *
+ * @author Rico Bergmann
+ */
+public class CsvObservationWriter extends TextObservationWriter {
+
+  private static final String HEADER =
+      "id,time,suspicion,comment,determined,latitude,longitude,tags,attachments";
+
+  public CsvObservationWriter(@NonNull OutputStream out) throws IOException {
+    super(out);
+    mOut.write(HEADER);
+    mOut.write("\r\n");
+  }
+
+  @Override
+  public void write(@NonNull ObservationRecord record) throws IOException {
+    mOut.write(Long.toString(record.getId()));
+    mOut.write(',');
+    mOut.write(formatTime(record.getTime()));
+    mOut.write(',');
+    writeField(record.getSuspicion());
+    mOut.write(',');
+    writeField(record.getComment());
+    mOut.write(',');
+    mOut.write(record.isDetermined() ? "true" : "false");
+    mOut.write(',');
+    if (record.isLocationAttached()) {
+      mOut.write(Double.toString(record.getLatitude()));
+      mOut.write(',');
+      mOut.write(Double.toString(record.getLongitude()));
+    } else {
+      mOut.write(',');
+    }
+    mOut.write(',');
+    writeField(join(record.getTags()));
+    mOut.write(',');
+    writeField(join(record.getAttachments()));
+    mOut.write("\r\n");
+  }
+
+  @Override
+  public void close() throws IOException {
+    mOut.close();
+  }
+
+  /**
+   * Writes a field, quoting it if necessary.
+   */
+  private void writeField(@NonNull String value) throws IOException {
+    boolean quotingNecessary = false;
+    for (int i = 0; i < value.length() && !quotingNecessary; ++i) {
+      char c = value.charAt(i);
+      quotingNecessary = c == ',' || c == '"' || c == '\r' || c == '\n';
+    }
+    if (!quotingNecessary) {
+      mOut.write(value);
+      return;
+    }
+
+    mOut.write('"');
+    for (int i = 0; i < value.length(); ++i) {
+      char c = value.charAt(i);
+      if (c == '"') {
+        mOut.write('"');
+      }
+      mOut.write(c);
+    }
+    mOut.write('"');
+  }
+
+  @NonNull
+  private static String join(@NonNull List<String> values) {
+    if (values.isEmpty()) {
+      return "";
+    } else if (values.size() == 1) {
+      return values.get(0);
+    }
+    StringBuilder joined = new StringBuilder();
+    for (String value : values) {
+      if (joined.length() > 0) {
+        joined.append('|');
+      }
+      joined.append(value);
+    }
+    return joined.toString();
+  }
+
+}
@@ -0,0 +1,219 @@
+package de.portux.elfeb.model.export;
+
+import androidx.annotation.NonNull;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes observations as Darwin Core Archive. This is a zip file which contains the observations
+ * as tab-separated {@code occurrence.txt}, along with a {@code meta.xml} describing its columns.
+ * The attached files may be added to the archive in a {@code media} folder.
+ * <p>
+ * As zip entries have to be written one after another, all observations have to be written before
+ * the first attachment is added.
+ * <p>
+ * Each attached file is stored once under an entry name of its own, even if it is shared by
+ * several observations or has the same name as a file in another directory. The writer therefore
+ * remembers the entry name assigned to the path of each attached file.
+ *
+ * @author Rico Bergmann
+ */
+public class DarwinCoreArchiveWriter extends TextObservationWriter {
+
+  private static final String DWC = "http://rs.tdwg.org/dwc/terms/";
+
+  private static final String OCCURRENCE_FILE = "occurrence.txt";
+
+  private static final String MEDIA_FOLDER = "media/";
+
+  /**
+   * The Darwin Core terms of the columns of the {@code occurrence.txt}, in order.
+   */
+  private static final String[] TERMS = {"occurrenceID", "basisOfRecord", "eventDate",
+      "scientificName", "identificationVerificationStatus", "occurrenceRemarks", "decimalLatitude",
+      "decimalLongitude", "geodeticDatum", "dynamicProperties", "associatedMedia"};
+
+  @NonNull
+  private final ZipOutputStream mZip;
+
+  private boolean mOccurrencesOpen;
+
+  private final byte[] mCopyBuffer = new byte[BUFFER_SIZE];
+
+  /**
+   * The entry names assigned to the paths of the attached files.
+   */
+  private final Map<String, String> mEntryNames = new HashMap<>();
+
+  private final Set<String> mUsedEntryNames = new HashSet<>();
+
+  private final Set<String> mAddedPaths = new HashSet<>();
+
+  public DarwinCoreArchiveWriter(@NonNull OutputStream out) throws IOException {
+    this(new ZipOutputStream(new BufferedOutputStream(out, BUFFER_SIZE)));
+  }
+
+  private DarwinCoreArchiveWriter(@NonNull ZipOutputStream zip) throws IOException {
+    super(zip);
+    this.mZip = zip;
+
+    mZip.putNextEntry(new ZipEntry(OCCURRENCE_FILE));
+    mOccurrencesOpen = true;
+    for (int i = 0; i < TERMS.length; ++i) {
+      if (i > 0) {
+        mOut.write('\t');
+      }
+      mOut.write(TERMS[i]);
+    }
+    mOut.write('\n');
+  }
+
+  @Override
+  public void write(@NonNull ObservationRecord record) throws IOException {
+    if (!mOccurrencesOpen) {
+      throw new IllegalStateException("Observations have to be written before the attachments");
+    }
+
+    mOut.write(Long.toString(record.getId()));
+    mOut.write("\tHumanObservation\t");
+    mOut.write(formatTime(record.getTime()));
+    mOut.write('\t');
+    writeField(record.getSuspicion());
+    mOut.write('\t');
+    mOut.write(record.isDetermined() ? "verified" : "unverified");
+    mOut.write('\t');
+    writeField(record.getComment());
+    mOut.write('\t');
+    if (record.isLocationAttached()) {
+      mOut.write(Double.toString(record.getLatitude()));
+      mOut.write('\t');
+      mOut.write(Double.toString(record.getLongitude()));
+      mOut.write("\tWGS84");
+    } else {
+      mOut.write("\t\t");
+    }
+    mOut.write('\t');
+    if (!record.getTags().isEmpty()) {
+      mOut.write("{\"tags\":[");
+      List<String> tags = record.getTags();
+      for (int i = 0; i < tags.size(); ++i) {
+        if (i > 0) {
+          mOut.write(',');
+        }
+        writeJsonString(tags.get(i));
+      }
+      mOut.write("]}");
+    }
+    mOut.write('\t');
+    List<String> attachments = record.getAttachments();
+    for (int i = 0; i < attachments.size(); ++i) {
+      if (i > 0) {
+        mOut.write(" | ");
+      }
+      writeField(entryNameOf(attachments.get(i)));
+    }
+    mOut.write('\n');
+  }
+
+  /**
+   * Copies an attached file into the archive.
+   *
+   * @param file the file. It is stored under the entry name referenced by the observations it is
+   *     attached to.
+   * @return whether the file has been added. This will not be the case if it does not exist or
+   *     has been added before.
+   */
+  public boolean addAttachment(@NonNull File file) throws IOException {
+    if (!file.isFile() || !mAddedPaths.add(file.getPath())) {
+      return false;
+    }
+    closeOccurrences();
+
+    mZip.putNextEntry(new ZipEntry(entryNameOf(file.getPath())));
+    try (InputStream in = new FileInputStream(file)) {
+      int read;
+      while ((read = in.read(mCopyBuffer)) >= 0) {
+        mZip.write(mCopyBuffer, 0, read);
+      }
+    }
+    mZip.closeEntry();
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    closeOccurrences();
+    mZip.putNextEntry(new ZipEntry("meta.xml"));
+    writeMetaXml();
+    mOut.flush();
+    mZip.closeEntry();
+    mZip.close();
+  }
+
+  private void closeOccurrences() throws IOException {
+    if (mOccurrencesOpen) {
+      mOut.flush();
+      mZip.closeEntry();
+      mOccurrencesOpen = false;
+    }
+  }
+
+  private void writeMetaXml() throws IOException {
+    mOut.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    mOut.write("<archive xmlns=\"http://rs.tdwg.org/dwc/text/\">\n");
+    mOut.write("  <core encoding=\"UTF-8\" fieldsTerminatedBy=\"\\t\" linesTerminatedBy=\"\\n\" "
+        + "fieldsEnclosedBy=\"\" ignoreHeaderLines=\"1\" rowType=\"" + DWC + "Occurrence\">\n");
+    mOut.write("    <files>\n      <location>" + OCCURRENCE_FILE + "</location>\n    </files>\n");
+    mOut.write("    <id index=\"0\"/>\n");
+    for (int i = 0; i < TERMS.length; ++i) {
+      mOut.write("    <field index=\"" + i + "\" term=\"" + DWC + TERMS[i] + "\"/>\n");
+    }
+    mOut.write("  </core>\n</archive>\n");
+  }
+
+  /**
+   * Writes a field. As the archive does not enclose its fields, tabs and line breaks are replaced
+   * by spaces.
+   */
+  private void writeField(@NonNull String value) throws IOException {
+    for (int i = 0; i < value.length(); ++i) {
+      char c = value.charAt(i);
+      mOut.write(c == '\t' || c == '\n' || c == '\r' ? ' ' : c);
+    }
+  }
+
+  /**
+   * Provides the name of the entry a file is stored under. It is derived from the name of the file.
+   * If that has already been assigned to another file, a counter is appended to it.
+   */
+  @NonNull
+  private String entryNameOf(@NonNull String path) {
+    String entryName = mEntryNames.get(path);
+    if (entryName == null) {
+      String name = new File(path).getName();
+      int extensionStart = name.lastIndexOf('.');
+      if (extensionStart <= 0) {
+        extensionStart = name.length();
+      }
+      entryName = MEDIA_FOLDER + name;
+      for (int i = 2; !mUsedEntryNames.add(entryName); ++i) {
+        entryName = MEDIA_FOLDER + name.substring(0, extensionStart) + "-" + i
+            + name.substring(extensionStart);
+      }
+      mEntryNames.put(path, entryName);
+    }
+    return entryName;
+  }
+
+}
@@ -0,0 +1,76 @@
+package de.portux.elfeb.model.export;
+
+import androidx.annotation.NonNull;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Writes observations as GeoJSON {@code FeatureCollection}. Each observation becomes a
+ * {@code Feature} whose geometry is its location, or {@code null} if it has not been located.
+ *
+ * @author Rico Bergmann
+ */
+public class GeoJsonObservationWriter extends TextObservationWriter {
+
+  private boolean mFirstFeature = true;
+
+  public GeoJsonObservationWriter(@NonNull OutputStream out) throws IOException {
+    super(out);
+    mOut.write("{\"type\":\"FeatureCollection\",\"features\":[");
+  }
+
+  @Override
+  public void write(@NonNull ObservationRecord record) throws IOException {
+    if (!mFirstFeature) {
+      mOut.write(',');
+    }
+    mFirstFeature = false;
+
+    mOut.write("\n{\"type\":\"Feature\",\"id\":");
+    mOut.write(Long.toString(record.getId()));
+    mOut.write(",\"geometry\":");
+    if (record.isLocationAttached()) {
+      // GeoJSON positions are given as longitude first
+      mOut.write("{\"type\":\"Point\",\"coordinates\":[");
+      mOut.write(Double.toString(record.getLongitude()));
+      mOut.write(',');
+      mOut.write(Double.toString(record.getLatitude()));
+      mOut.write("]}");
+    } else {
+      mOut.write("null");
+    }
+
+    mOut.write(",\"properties\":{\"time\":");
+    writeJsonString(formatTime(record.getTime()));
+    mOut.write(",\"suspicion\":");
+    writeJsonString(record.getSuspicion());
+    mOut.write(",\"comment\":");
+    writeJsonString(record.getComment());
+    mOut.write(",\"determined\":");
+    mOut.write(record.isDetermined() ? "true" : "false");
+    mOut.write(",\"tags\":");
+    writeJsonArray(record.getTags());
+    mOut.write(",\"attachments\":");
+    writeJsonArray(record.getAttachments());
+    mOut.write("}}");
+  }
+
+  @Override
+  public void close() throws IOException {
+    mOut.write("\n]}\n");
+    mOut.close();
+  }
+
+  private void writeJsonArray(@NonNull List<String> values) throws IOException {
+    mOut.write('[');
+    for (int i = 0; i < values.size(); ++i) {
+      if (i > 0) {
+        mOut.write(',');
+      }
+      writeJsonString(values.get(i));
+    }
+    mOut.write(']');
+  }
+
+}
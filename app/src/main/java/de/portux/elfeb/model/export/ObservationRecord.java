@@ -0,0 +1,114 @@
+package de.portux.elfeb.model.export;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A flat, mutable view on a single observation as it is exported.
+ * <p>
+ * The same instance is re-filled for each row of the export, such that the memory required does
+ * not depend on the number of observations.
+ *
+ * @author Rico Bergmann
+ */
+public class ObservationRecord {
+
+  private long mId;
+  private long mTime;
+  private String mSuspicion;
+  private String mComment;
+  private boolean mDetermined;
+  private Double mLatitude;
+  private Double mLongitude;
+  private final List<String> mTags = new ArrayList<>();
+  private final List<String> mAttachments = new ArrayList<>();
+
+  /**
+   * Replaces the contents of {@code this} record.
+   *
+   * @param tags the tags, separated by {@code separator}. May be {@code null} if there are none.
+   * @param attachments the names of the attached files, separated by {@code separator}. May be
+   *     {@code null} if there are none.
+   * @param separator separates the individual tags and attachments
+   */
+  public void fill(long id, long time, @NonNull String suspicion, @Nullable String comment,
+      boolean determined, @Nullable Double latitude, @Nullable Double longitude,
+      @Nullable String tags, @Nullable String attachments, char separator) {
+    this.mId = id;
+    this.mTime = time;
+    this.mSuspicion = suspicion;
+    this.mComment = comment;
+    this.mDetermined = determined;
+    this.mLatitude = latitude;
+    this.mLongitude = longitude;
+    split(tags, separator, mTags);
+    split(attachments, separator, mAttachments);
+  }
+
+  public long getId() {
+    return mId;
+  }
+
+  /**
+   * The time of the observation in milliseconds since the epoch.
+   */
+  public long getTime() {
+    return mTime;
+  }
+
+  @NonNull
+  public String getSuspicion() {
+    return mSuspicion;
+  }
+
+  @NonNull
+  public String getComment() {
+    return mComment == null ? "" : mComment;
+  }
+
+  public boolean isDetermined() {
+    return mDetermined;
+  }
+
+  public boolean isLocationAttached() {
+    return mLatitude != null && mLongitude != null;
+  }
+
+  @Nullable
+  public Double getLatitude() {
+    return mLatitude;
+  }
+
+  @Nullable
+  public Double getLongitude() {
+    return mLongitude;
+  }
+
+  @NonNull
+  public List<String> getTags() {
+    return Collections.unmodifiableList(mTags);
+  }
+
+  @NonNull
+  public List<String> getAttachments() {
+    return Collections.unmodifiableList(mAttachments);
+  }
+
+  private static void split(@Nullable String joined, char separator, List<String> target) {
+    target.clear();
+    if (joined == null || joined.isEmpty()) {
+      return;
+    }
+    int start = 0;
+    int end;
+    while ((end = joined.indexOf(separator, start)) >= 0) {
+      target.add(joined.substring(start, end));
+      start = end + 1;
+    }
+    target.add(joined.substring(start));
+  }
+
+}
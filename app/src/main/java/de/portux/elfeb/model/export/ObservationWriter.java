@@ -0,0 +1,19 @@
+package de.portux.elfeb.model.export;
+
+import androidx.annotation.NonNull;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes observations in some export format, one after another.
+ * <p>
+ * Implementations may not keep the records around, as the same instance will be re-filled for the
+ * next observation. Closing the writer completes the document and closes the underlying channel.
+ *
+ * @author Rico Bergmann
+ */
+public interface ObservationWriter extends Closeable {
+
+  void write(@NonNull ObservationRecord record) throws IOException;
+
+}
@@ -0,0 +1,82 @@
+package de.portux.elfeb.model.export;
+
+import androidx.annotation.NonNull;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Base class for the writers of text-based formats. It provides a buffered UTF-8 writer and the
+ * formatting shared by all formats.
+ *
+ * @author Rico Bergmann
+ */
+abstract class TextObservationWriter implements ObservationWriter {
+
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  @NonNull
+  final Writer mOut;
+
+  private final SimpleDateFormat mTimeFormat;
+
+  private final Date mTimeBuffer = new Date();
+
+  TextObservationWriter(@NonNull OutputStream out) {
+    this.mOut = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+    this.mTimeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+    this.mTimeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+  }
+
+  /**
+   * Formats a timestamp according to ISO 8601, in UTC. The milliseconds are kept, such that an
+   * export can be imported again without the observations turning into different ones.
+   */
+  @NonNull
+  String formatTime(long time) {
+    mTimeBuffer.setTime(time);
+    return mTimeFormat.format(mTimeBuffer);
+  }
+
+  /**
+   * Writes a string as JSON string literal, including the quotes.
+   */
+  void writeJsonString(@NonNull String value) throws IOException {
+    mOut.write('"');
+    for (int i = 0; i < value.length(); ++i) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          mOut.write("\\\"");
+          break;
+        case '\\':
+          mOut.write("\\\\");
+          break;
+        case '\n':
+          mOut.write("\\n");
+          break;
+        case '\r':
+          mOut.write("\\r");
+          break;
+        case '\t':
+          mOut.write("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            mOut.write(String.format(Locale.US, "\\u%04x", (int) c));
+          } else {
+            mOut.write(c);
+          }
+      }
+    }
+    mOut.write('"');
+  }
+
+}
@@ -0,0 +1,55 @@
+package de.portux.elfeb.model.imports;
+
+import androidx.annotation.NonNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * Reads observations from comma-separated values, as written by the CSV export.
+ * <p>
+ * The columns are identified by the names in the first row: {@code time}, {@code suspicion},
+ * {@code comment}, {@code determined}, {@code latitude}, {@code longitude} and {@code tags}, where
+ * multiple tags are separated by {@code |}. Other columns are ignored.
+ *
+ * @author Rico Bergmann
+ */
+public class CsvObservationReader extends DelimitedObservationReader {
+
+  private final Timestamps mTimestamps = new Timestamps();
+
+  public CsvObservationReader(@NonNull InputStream in) throws IOException {
+    super(in, ',', true);
+  }
+
+  @Override
+  void applyField(@NonNull String column, @NonNull String value, @NonNull ImportRecord record) {
+    switch (column.trim().toLowerCase(Locale.US)) {
+      case "time":
+        Long time = mTimestamps.parse(value);
+        if (time != null) {
+          record.setTime(time);
+        }
+        break;
+      case "suspicion":
+        record.setSuspicion(value.trim());
+        break;
+      case "comment":
+        record.setComment(value);
+        break;
+      case "determined":
+        record.setDetermined(Boolean.parseBoolean(value.trim()) || value.trim().equals("1"));
+        break;
+      case "latitude":
+        record.setLatitude(parseDouble(value));
+        break;
+      case "longitude":
+        record.setLongitude(parseDouble(value));
+        break;
+      case "tags":
+        record.addTags(value, '|');
+        break;
+    }
+  }
+
+}
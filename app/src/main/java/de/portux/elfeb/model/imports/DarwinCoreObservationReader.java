@@ -0,0 +1,96 @@
+package de.portux.elfeb.model.imports;
+
+import androidx.annotation.NonNull;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads observations from the tab-separated {@code occurrence.txt} core of a Darwin Core Archive.
+ * <p>
+ * The columns are identified by their Darwin Core term in the first row. The
+ * {@code scientificName} becomes the suspicion and the {@code occurrenceRemarks} the comment. Tags
+ * are taken from a {@code tags} array in the {@code dynamicProperties}, as written by the export.
+ *
+ * @author Rico Bergmann
+ */
+public class DarwinCoreObservationReader extends DelimitedObservationReader {
+
+  private final Timestamps mTimestamps = new Timestamps();
+
+  public DarwinCoreObservationReader(@NonNull InputStream in) throws IOException {
+    super(in, '\t', false);
+  }
+
+  @Override
+  void applyField(@NonNull String column, @NonNull String value, @NonNull ImportRecord record) {
+    // terms may be given by their full URI
+    String term = column.substring(column.lastIndexOf('/') + 1).trim();
+    switch (term) {
+      case "eventDate":
+        Long time = mTimestamps.parse(value);
+        if (time != null) {
+          record.setTime(time);
+        }
+        break;
+      case "scientificName":
+        record.setSuspicion(value.trim());
+        break;
+      case "occurrenceRemarks":
+        record.setComment(value);
+        break;
+      case "identificationVerificationStatus":
+        record.setDetermined(value.trim().equalsIgnoreCase("verified"));
+        break;
+      case "decimalLatitude":
+        record.setLatitude(parseDouble(value));
+        break;
+      case "decimalLongitude":
+        record.setLongitude(parseDouble(value));
+        break;
+      case "dynamicProperties":
+        addTagsFromProperties(value, record);
+        break;
+    }
+  }
+
+  /**
+   * Extracts the strings of the {@code "tags"} array from a JSON object. Only the subset of JSON
+   * written by the export is supported: the array may only contain strings.
+   */
+  private static void addTagsFromProperties(@NonNull String properties,
+      @NonNull ImportRecord record) {
+    int key = properties.indexOf("\"tags\"");
+    int start = key < 0 ? -1 : properties.indexOf('[', key);
+    if (start < 0) {
+      return;
+    }
+
+    StringBuilder tag = new StringBuilder();
+    boolean inString = false;
+    for (int i = start + 1; i < properties.length(); ++i) {
+      char c = properties.charAt(i);
+      if (!inString) {
+        if (c == ']') {
+          return;
+        } else if (c == '"') {
+          inString = true;
+          tag.setLength(0);
+        }
+      } else if (c == '\\' && i + 1 < properties.length()) {
+        char escaped = properties.charAt(++i);
+        if (escaped == 'u' && i + 4 < properties.length()) {
+          tag.append((char) Integer.parseInt(properties.substring(i + 1, i + 5), 16));
+          i += 4;
+        } else {
+          tag.append(escaped == 'n' ? '\n' : escaped == 't' ? '\t' : escaped == 'r' ? '\r' : escaped);
+        }
+      } else if (c == '"') {
+        inString = false;
+        record.addTag(tag.toString());
+      } else {
+        tag.append(c);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,179 @@
+package de.portux.elfeb.model.imports;
+
+import androidx.annotation.NonNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base class for readers of delimiter-separated text files whose first row names the columns.
+ * <p>
+ * The file is parsed from a fixed-size buffer, one row at a time. Fields may optionally be
+ * enclosed in double quotes, in which case they may contain delimiters and line breaks, and quotes
+ * are escaped by doubling them.
+ *
+ * @author Rico Bergmann
+ */
+abstract class DelimitedObservationReader implements ObservationReader {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  @NonNull
+  private final Reader mIn;
+
+  private final char mDelimiter;
+
+  private final boolean mQuotingSupported;
+
+  private final char[] mBuffer = new char[BUFFER_SIZE];
+  private int mBufferPosition = 0;
+  private int mBufferLimit = 0;
+
+  private final StringBuilder mField = new StringBuilder();
+  private final List<String> mRow = new ArrayList<>();
+
+  @NonNull
+  private final String[] mColumns;
+
+  DelimitedObservationReader(@NonNull InputStream in, char delimiter, boolean quotingSupported)
+      throws IOException {
+    this.mIn = new InputStreamReader(in, StandardCharsets.UTF_8);
+    this.mDelimiter = delimiter;
+    this.mQuotingSupported = quotingSupported;
+
+    if (!readRow()) {
+      mColumns = new String[0];
+      return;
+    }
+    mColumns = mRow.toArray(new String[0]);
+    if (mColumns.length > 0 && !mColumns[0].isEmpty() && mColumns[0].charAt(0) == '\uFEFF') {
+      // skip the byte order mark
+      mColumns[0] = mColumns[0].substring(1);
+    }
+  }
+
+  @Override
+  public boolean read(@NonNull ImportRecord record) throws IOException {
+    if (!readRow()) {
+      return false;
+    }
+    record.clear();
+    for (int i = 0; i < mRow.size() && i < mColumns.length; ++i) {
+      String value = mRow.get(i);
+      if (!value.isEmpty()) {
+        applyField(mColumns[i], value, record);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Stores the value of a column in the record.
+   *
+   * @param column the name of the column, as given in the first row
+   * @param value the value. Will never be empty.
+   */
+  abstract void applyField(@NonNull String column, @NonNull String value,
+      @NonNull ImportRecord record);
+
+  @Override
+  public void close() throws IOException {
+    mIn.close();
+  }
+
+  /**
+   * Reads the next non-empty row into {@link #mRow}.
+   *
+   * @return whether there was another row
+   */
+  private boolean readRow() throws IOException {
+    mRow.clear();
+    mField.setLength(0);
+    boolean quoted = false;
+    boolean rowStarted = false;
+
+    int c;
+    while ((c = nextChar()) >= 0) {
+      if (quoted) {
+        if (c == '"') {
+          if (peekChar() == '"') {
+            nextChar();
+            mField.append('"');
+          } else {
+            quoted = false;
+          }
+        } else {
+          mField.append((char) c);
+        }
+      } else if (c == '"' && mQuotingSupported && mField.length() == 0) {
+        quoted = true;
+        rowStarted = true;
+      } else if (c == mDelimiter) {
+        mRow.add(mField.toString());
+        mField.setLength(0);
+        rowStarted = true;
+      } else if (c == '\n' || c == '\r') {
+        if (c == '\r' && peekChar() == '\n') {
+          nextChar();
+        }
+        if (rowStarted || mField.length() > 0) {
+          break;
+        }
+      } else {
+        mField.append((char) c);
+        rowStarted = true;
+      }
+    }
+
+    if (!rowStarted && mField.length() == 0) {
+      return false;
+    }
+    mRow.add(mField.toString());
+    return true;
+  }
+
+  private int nextChar() throws IOException {
+    if (mBufferPosition == mBufferLimit && !fillBuffer()) {
+      return -1;
+    }
+    return mBuffer[mBufferPosition++];
+  }
+
+  private int peekChar() throws IOException {
+    if (mBufferPosition == mBufferLimit && !fillBuffer()) {
+      return -1;
+    }
+    return mBuffer[mBufferPosition];
+  }
+
+  private boolean fillBuffer() throws IOException {
+    int read;
+    do {
+      read = mIn.read(mBuffer, 0, mBuffer.length);
+    } while (read == 0);
+    if (read < 0) {
+      return false;
+    }
+    mBufferPosition = 0;
+    mBufferLimit = read;
+    return true;
+  }
+
+  /**
+   * Parses a decimal number.
+   *
+   * @return the number. Will be {@code null} if the value is not a number.
+   */
+  static Double parseDouble(@NonNull String value) {
+    try {
+      return Double.valueOf(value.trim());
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+}
@@ -0,0 +1,109 @@
+package de.portux.elfeb.model.imports;
+
+import androidx.annotation.NonNull;
+import java.io.IOException;
+import java.io.InputStream;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+/**
+ * Reads observations from the waypoints of a GPX file.
+ * <p>
+ * The {@code name} of each waypoint becomes the suspicion, its {@code desc} (or {@code cmt}) the
+ * comment and its {@code type} a tag. Waypoints without name or time are still read, but will be
+ * skipped by the import as incomplete. The file is parsed through a pull parser, so only the
+ * current waypoint is kept in memory.
+ *
+ * @author Rico Bergmann
+ */
+public class GpxObservationReader implements ObservationReader {
+
+  @NonNull
+  private final InputStream mIn;
+
+  @NonNull
+  private final XmlPullParser mParser;
+
+  private final Timestamps mTimestamps = new Timestamps();
+
+  public GpxObservationReader(@NonNull InputStream in) throws IOException {
+    this.mIn = in;
+    try {
+      this.mParser = XmlPullParserFactory.newInstance().newPullParser();
+      this.mParser.setInput(in, null);
+    } catch (XmlPullParserException e) {
+      throw new IOException("Could not create parser", e);
+    }
+  }
+
+  @Override
+  public boolean read(@NonNull ImportRecord record) throws IOException {
+    try {
+      int event;
+      while ((event = mParser.next()) != XmlPullParser.END_DOCUMENT) {
+        if (event == XmlPullParser.START_TAG && "wpt".equals(mParser.getName())) {
+          readWaypoint(record);
+          return true;
+        }
+      }
+      return false;
+    } catch (XmlPullParserException e) {
+      throw new IOException("Malformed GPX file", e);
+    }
+  }
+
+  private void readWaypoint(@NonNull ImportRecord record) throws IOException, XmlPullParserException {
+    record.clear();
+    record.setLatitude(DelimitedObservationReader.parseDouble(attribute("lat")));
+    record.setLongitude(DelimitedObservationReader.parseDouble(attribute("lon")));
+
+    final int depth = mParser.getDepth();
+    String comment = null;
+    int event;
+    while ((event = mParser.next()) != XmlPullParser.END_DOCUMENT) {
+      if (event == XmlPullParser.END_TAG && mParser.getDepth() == depth) {
+        break;
+      } else if (event != XmlPullParser.START_TAG || mParser.getDepth() != depth + 1) {
+        continue;
+      }
+
+      switch (mParser.getName()) {
+        case "time":
+          Long time = mTimestamps.parse(mParser.nextText());
+          if (time != null) {
+            record.setTime(time);
+          }
+          break;
+        case "name":
+          record.setSuspicion(mParser.nextText().trim());
+          break;
+        case "desc":
+          record.setComment(mParser.nextText());
+          break;
+        case "cmt":
+          comment = mParser.nextText();
+          break;
+        case "type":
+          record.addTag(mParser.nextText());
+          break;
+      }
+    }
+
+    if (record.getComment() == null) {
+      record.setComment(comment);
+    }
+  }
+
+  @NonNull
+  private String attribute(@NonNull String name) {
+    String value = mParser.getAttributeValue(null, name);
+    return value == null ? "" : value;
+  }
+
+  @Override
+  public void close() throws IOException {
+    mIn.close();
+  }
+
+}
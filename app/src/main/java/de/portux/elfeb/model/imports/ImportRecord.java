@@ -0,0 +1,136 @@
+package de.portux.elfeb.model.imports;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single observation as it has been read from an import file.
+ * <p>
+ * Instances are re-used for consecutive observations, such that parsing does not allocate per row
+ * beyond the values themselves.
+ *
+ * @author Rico Bergmann
+ */
+public class ImportRecord {
+
+  private boolean mTimeKnown;
+  private long mTime;
+  private String mSuspicion;
+  private String mComment;
+  private boolean mDetermined;
+  private Double mLatitude;
+  private Double mLongitude;
+  private final List<String> mTags = new ArrayList<>();
+
+  /**
+   * Resets all attributes.
+   */
+  public void clear() {
+    mTimeKnown = false;
+    mTime = 0;
+    mSuspicion = null;
+    mComment = null;
+    mDetermined = false;
+    mLatitude = null;
+    mLongitude = null;
+    mTags.clear();
+  }
+
+  /**
+   * Checks whether all mandatory attributes - the time and the suspicion - are present.
+   */
+  public boolean isComplete() {
+    return mTimeKnown && mSuspicion != null && !mSuspicion.isEmpty();
+  }
+
+  /**
+   * The time of the observation in milliseconds since the epoch.
+   */
+  public long getTime() {
+    return mTime;
+  }
+
+  public void setTime(long time) {
+    this.mTime = time;
+    this.mTimeKnown = true;
+  }
+
+  @Nullable
+  public String getSuspicion() {
+    return mSuspicion;
+  }
+
+  public void setSuspicion(@Nullable String suspicion) {
+    this.mSuspicion = suspicion;
+  }
+
+  @Nullable
+  public String getComment() {
+    return mComment;
+  }
+
+  public void setComment(@Nullable String comment) {
+    this.mComment = comment == null || comment.isEmpty() ? null : comment;
+  }
+
+  public boolean isDetermined() {
+    return mDetermined;
+  }
+
+  public void setDetermined(boolean determined) {
+    this.mDetermined = determined;
+  }
+
+  public boolean isLocationAttached() {
+    return mLatitude != null && mLongitude != null;
+  }
+
+  @Nullable
+  public Double getLatitude() {
+    return mLatitude;
+  }
+
+  public void setLatitude(@Nullable Double latitude) {
+    this.mLatitude = latitude;
+  }
+
+  @Nullable
+  public Double getLongitude() {
+    return mLongitude;
+  }
+
+  public void setLongitude(@Nullable Double longitude) {
+    this.mLongitude = longitude;
+  }
+
+  @NonNull
+  public List<String> getTags() {
+    return Collections.unmodifiableList(mTags);
+  }
+
+  public void addTag(@NonNull String tag) {
+    String trimmed = tag.trim();
+    if (!trimmed.isEmpty()) {
+      mTags.add(trimmed);
+    }
+  }
+
+  /**
+   * Adds all tags of a list.
+   *
+   * @param tags the tags, separated by {@code separator}
+   */
+  public void addTags(@NonNull String tags, char separator) {
+    int start = 0;
+    int end;
+    while ((end = tags.indexOf(separator, start)) >= 0) {
+      addTag(tags.substring(start, end));
+      start = end + 1;
+    }
+    addTag(tags.substring(start));
+  }
+
+}
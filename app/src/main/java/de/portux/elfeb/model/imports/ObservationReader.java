@@ -0,0 +1,22 @@
+package de.portux.elfeb.model.imports;
+
+import androidx.annotation.NonNull;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads observations from some file format incrementally, one after another.
+ *
+ * @author Rico Bergmann
+ */
+public interface ObservationReader extends Closeable {
+
+  /**
+   * Reads the next observation.
+   *
+   * @param record the record to fill. All of its attributes will be replaced.
+   * @return whether there was another observation. If not, {@code record} is left untouched.
+   */
+  boolean read(@NonNull ImportRecord record) throws IOException;
+
+}
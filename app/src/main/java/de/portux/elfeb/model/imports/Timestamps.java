@@ -0,0 +1,128 @@
+package de.portux.elfeb.model.imports;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Parses the timestamps of imported observations. ISO 8601 dates and times are supported, as well
+ * as plain milliseconds since the epoch. Times without a zone are interpreted as UTC.
+ * <p>
+ * A number of eight digits is a date in the basic format of ISO 8601, such as {@code 20180501}.
+ * Other numbers are milliseconds since the epoch if they have between 9 and 13 digits, which
+ * covers the years 1970 to 2286.
+ * <p>
+ * Instances are not thread-safe.
+ *
+ * @author Rico Bergmann
+ */
+class Timestamps {
+
+  private static final String[] PATTERNS = {"yyyy-MM-dd'T'HH:mm:ss.SSSZ",
+      "yyyy-MM-dd'T'HH:mm:ssZ", "yyyy-MM-dd'T'HH:mm:ss.SSS", "yyyy-MM-dd'T'HH:mm:ss",
+      "yyyy-MM-dd'T'HH:mm", "yyyy-MM-dd"};
+
+  private static final String BASIC_DATE_PATTERN = "yyyyMMdd";
+
+  private static final int MIN_MILLIS_DIGITS = 9;
+
+  private static final int MAX_MILLIS_DIGITS = 13;
+
+  private final SimpleDateFormat[] mFormats = new SimpleDateFormat[PATTERNS.length];
+
+  private final SimpleDateFormat mBasicDateFormat = createFormat(BASIC_DATE_PATTERN);
+
+  Timestamps() {
+    for (int i = 0; i < PATTERNS.length; ++i) {
+      mFormats[i] = createFormat(PATTERNS[i]);
+    }
+  }
+
+  /**
+   * Parses a timestamp.
+   *
+   * @return the milliseconds since the epoch. Will be {@code null} if the value is not a valid
+   *     timestamp.
+   */
+  @Nullable
+  Long parse(@NonNull String value) {
+    String timestamp = normalizeZone(value.trim());
+    if (timestamp.isEmpty()) {
+      return null;
+    }
+    if (isNumeric(timestamp)) {
+      int digits = timestamp.length();
+      if (digits == BASIC_DATE_PATTERN.length()) {
+        return parse(mBasicDateFormat, timestamp);
+      }
+      // longer numbers might not even fit into a long
+      return digits >= MIN_MILLIS_DIGITS && digits <= MAX_MILLIS_DIGITS
+          ? Long.parseLong(timestamp) : null;
+    }
+
+    // ranges such as 2018-05-01/2018-05-03 are reduced to their start
+    int rangeSeparator = timestamp.indexOf('/');
+    if (rangeSeparator > 0) {
+      timestamp = timestamp.substring(0, rangeSeparator);
+    }
+
+    for (SimpleDateFormat format : mFormats) {
+      Long time = parse(format, timestamp);
+      if (time != null) {
+        return time;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Parses a timestamp which has to match a format entirely.
+   */
+  @Nullable
+  private static Long parse(@NonNull SimpleDateFormat format, @NonNull String timestamp) {
+    ParsePosition position = new ParsePosition(0);
+    Date date = format.parse(timestamp, position);
+    return date != null && position.getIndex() == timestamp.length() ? date.getTime() : null;
+  }
+
+  @NonNull
+  private static SimpleDateFormat createFormat(@NonNull String pattern) {
+    SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    format.setLenient(false);
+    return format;
+  }
+
+  /**
+   * Converts the zone designators of ISO 8601 ({@code Z} and {@code +hh:mm}) into the RFC 822
+   * format understood by {@link SimpleDateFormat} on all API levels.
+   */
+  @NonNull
+  private static String normalizeZone(@NonNull String timestamp) {
+    if (timestamp.endsWith("Z")) {
+      return timestamp.substring(0, timestamp.length() - 1) + "+0000";
+    }
+    int length = timestamp.length();
+    if (length > 6 && timestamp.charAt(length - 3) == ':' && timestamp.indexOf('T') > 0) {
+      char sign = timestamp.charAt(length - 6);
+      if (sign == '+' || sign == '-') {
+        return timestamp.substring(0, length - 3) + timestamp.substring(length - 2);
+      }
+    }
+    return timestamp;
+  }
+
+  private static boolean isNumeric(@NonNull String value) {
+    for (int i = 0; i < value.length(); ++i) {
+      if (!Character.isDigit(value.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
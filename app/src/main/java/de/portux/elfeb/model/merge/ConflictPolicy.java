@@ -0,0 +1,37 @@
+package de.portux.elfeb.model.merge;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Decides which values to keep if both databases being merged contain the same observation (i.e.
+ * one with the same time and suspicion) but with different values.
+ *
+ * @author Rico Bergmann
+ */
+public interface ConflictPolicy {
+
+  /**
+   * Keeps the local values.
+   */
+  ConflictPolicy KEEP_LOCAL = (local, other) -> local;
+
+  /**
+   * Replaces the local values by those of the other database.
+   */
+  ConflictPolicy TAKE_OTHER = (local, other) -> other;
+
+  /**
+   * Keeps the local values, but fills in those which are only known to the other database.
+   */
+  ConflictPolicy FILL_GAPS = (local, other) -> local.fillGapsFrom(other);
+
+  /**
+   * @param local the version of the local database
+   * @param other the version of the database being merged into the local one
+   * @return the version to keep. It has to have the same time and suspicion.
+   */
+  @NonNull
+  ObservationVersion resolve(@NonNull ObservationVersion local,
+      @NonNull ObservationVersion other);
+
+}
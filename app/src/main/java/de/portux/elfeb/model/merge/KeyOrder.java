@@ -0,0 +1,51 @@
+package de.portux.elfeb.model.merge;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Compares observation keys the way SQLite orders them by the {@code (time, suspicion)} index.
+ * <p>
+ * SQLite compares text by its UTF-8 bytes, which amounts to comparing code points. Java's {@link
+ * String#compareTo(String)} compares UTF-16 code units instead, which sorts characters beyond the
+ * basic multilingual plane before those in {@code U+E000} to {@code U+FFFF}. Walking two index
+ * scans in lockstep requires the exact same order as the index, though.
+ *
+ * @author Rico Bergmann
+ */
+public class KeyOrder {
+
+  private KeyOrder() {}
+
+  /**
+   * Compares two observation keys.
+   *
+   * @return a negative number, zero or a positive number if the first key sorts before, equal to
+   *     or after the second one
+   */
+  public static int compare(long time, @NonNull String suspicion, long otherTime,
+      @NonNull String otherSuspicion) {
+    if (time != otherTime) {
+      return time < otherTime ? -1 : 1;
+    }
+    return compareCodePoints(suspicion, otherSuspicion);
+  }
+
+  /**
+   * Compares two strings by their code points.
+   */
+  public static int compareCodePoints(@NonNull String first, @NonNull String second) {
+    int i = 0;
+    int j = 0;
+    while (i < first.length() && j < second.length()) {
+      int a = first.codePointAt(i);
+      int b = second.codePointAt(j);
+      if (a != b) {
+        return a < b ? -1 : 1;
+      }
+      i += Character.charCount(a);
+      j += Character.charCount(b);
+    }
+    return Integer.compare(first.length() - i, second.length() - j);
+  }
+
+}
@@ -0,0 +1,120 @@
+package de.portux.elfeb.model.merge;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.portux.elfeb.support.Assert;
+import java.util.Objects;
+
+/**
+ * The values of an observation as found in one of the databases being merged. Tags and
+ * attachments are not part of a version, as they are always united.
+ *
+ * @author Rico Bergmann
+ */
+public class ObservationVersion {
+
+  private final long mTime;
+  @NonNull
+  private final String mSuspicion;
+  @Nullable
+  private final String mComment;
+  private final boolean mDetermined;
+  @Nullable
+  private final Double mLatitude;
+  @Nullable
+  private final Double mLongitude;
+
+  /**
+   * @param time the time of the observation in milliseconds since the epoch
+   */
+  public ObservationVersion(long time, @NonNull String suspicion, @Nullable String comment,
+      boolean determined, @Nullable Double latitude, @Nullable Double longitude) {
+    Assert.notNull(suspicion, "Suspicion may not be null");
+    this.mTime = time;
+    this.mSuspicion = suspicion;
+    this.mComment = comment;
+    this.mDetermined = determined;
+    this.mLatitude = latitude;
+    this.mLongitude = longitude;
+  }
+
+  /**
+   * The time of the observation in milliseconds since the epoch.
+   */
+  public long getTime() {
+    return mTime;
+  }
+
+  @NonNull
+  public String getSuspicion() {
+    return mSuspicion;
+  }
+
+  @Nullable
+  public String getComment() {
+    return mComment;
+  }
+
+  public boolean isDetermined() {
+    return mDetermined;
+  }
+
+  public boolean isLocationAttached() {
+    return mLatitude != null && mLongitude != null;
+  }
+
+  @Nullable
+  public Double getLatitude() {
+    return mLatitude;
+  }
+
+  @Nullable
+  public Double getLongitude() {
+    return mLongitude;
+  }
+
+  /**
+   * Keeps all values of {@code this} version, but takes those which are missing from an other
+   * version. The result is determined if either version is.
+   */
+  @NonNull
+  public ObservationVersion fillGapsFrom(@NonNull ObservationVersion other) {
+    boolean locationAttached = isLocationAttached();
+    return new ObservationVersion(mTime, mSuspicion, //
+        mComment != null ? mComment : other.mComment, //
+        mDetermined || other.mDetermined, //
+        locationAttached ? mLatitude : other.mLatitude, //
+        locationAttached ? mLongitude : other.mLongitude);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    ObservationVersion that = (ObservationVersion) o;
+    return mTime == that.mTime &&
+        mDetermined == that.mDetermined &&
+        mSuspicion.equals(that.mSuspicion) &&
+        Objects.equals(mComment, that.mComment) &&
+        Objects.equals(mLatitude, that.mLatitude) &&
+        Objects.equals(mLongitude, that.mLongitude);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(mTime, mSuspicion);
+  }
+
+  @Override
+  public String toString() {
+    return this.getClass().getSimpleName() + '{' +
+        "mTime=" + mTime +
+        ", mSuspicion='" + mSuspicion + '\'' +
+        '}';
+  }
+
+}
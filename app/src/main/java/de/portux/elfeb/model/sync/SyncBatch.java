@@ -0,0 +1,169 @@
+package de.portux.elfeb.model.sync;
+
+import androidx.annotation.NonNull;
+import de.portux.elfeb.model.Attachment.AttachmentType;
+import de.portux.elfeb.model.sync.SyncedObservation.SyncedAttachment;
+import de.portux.elfeb.support.Assert;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A number of changed observations which are transferred at once.
+ * <p>
+ * On the wire a batch is a gzip-compressed stream of binary records as written by
+ * {@link DataOutputStream}. Tags and suspicions repeat a lot, so the compression reduces the size
+ * of a batch considerably.
+ *
+ * @author Rico Bergmann
+ */
+public class SyncBatch {
+
+  private static final int MAGIC = 0x454c4653; // "ELFS"
+  private static final int VERSION = 1;
+
+  private static final int BUFFER_SIZE = 16 * 1024;
+
+  private final long mSequence;
+
+  @NonNull
+  private final List<SyncedObservation> mObservations;
+
+  /**
+   * @param sequence the sequence number of the last change contained in the batch
+   * @param observations the changed observations
+   */
+  public SyncBatch(long sequence, @NonNull List<SyncedObservation> observations) {
+    Assert.notNull(observations, "Observations may not be null");
+    this.mSequence = sequence;
+    this.mObservations = Collections.unmodifiableList(new ArrayList<>(observations));
+  }
+
+  /**
+   * The sequence number of the last change contained in {@code this} batch. Requesting the changes
+   * after this number continues right after the batch.
+   */
+  public long getSequence() {
+    return mSequence;
+  }
+
+  @NonNull
+  public List<SyncedObservation> getObservations() {
+    return mObservations;
+  }
+
+  public boolean isEmpty() {
+    return mObservations.isEmpty();
+  }
+
+  /**
+   * Writes {@code this} batch in its wire format. The stream will not be closed.
+   */
+  public void writeTo(@NonNull OutputStream target) throws IOException {
+    GZIPOutputStream compressed = new GZIPOutputStream(target, BUFFER_SIZE);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(compressed, BUFFER_SIZE));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeLong(mSequence);
+    out.writeInt(mObservations.size());
+    for (SyncedObservation observation : mObservations) {
+      out.writeLong(observation.getTime());
+      out.writeUTF(observation.getSuspicion());
+      out.writeBoolean(observation.isDeleted());
+      if (observation.isDeleted()) {
+        continue;
+      }
+      out.writeBoolean(observation.getComment() != null);
+      if (observation.getComment() != null) {
+        out.writeUTF(observation.getComment());
+      }
+      out.writeBoolean(observation.isDetermined());
+      out.writeBoolean(observation.isLocationAttached());
+      if (observation.isLocationAttached()) {
+        out.writeDouble(observation.getLatitude());
+        out.writeDouble(observation.getLongitude());
+      }
+      out.writeInt(observation.getTags().size());
+      for (String tag : observation.getTags()) {
+        out.writeUTF(tag);
+      }
+      out.writeInt(observation.getAttachments().size());
+      for (SyncedAttachment attachment : observation.getAttachments()) {
+        out.writeUTF(attachment.getName());
+        out.writeUTF(attachment.getType().name());
+      }
+    }
+    out.flush();
+    compressed.finish();
+  }
+
+  /**
+   * Reads a batch from its wire format. The stream will not be closed.
+   *
+   * @throws IOException if the stream does not contain a (complete) batch
+   */
+  @NonNull
+  public static SyncBatch readFrom(@NonNull InputStream source) throws IOException {
+    DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new GZIPInputStream(source, BUFFER_SIZE), BUFFER_SIZE));
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a sync batch");
+    }
+    int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported version: " + version);
+    }
+    long sequence = in.readLong();
+    int count = in.readInt();
+    List<SyncedObservation> observations = new ArrayList<>(count);
+    for (int i = 0; i < count; ++i) {
+      long time = in.readLong();
+      String suspicion = in.readUTF();
+      if (in.readBoolean()) {
+        observations.add(SyncedObservation.deleted(time, suspicion));
+        continue;
+      }
+      String comment = in.readBoolean() ? in.readUTF() : null;
+      boolean determined = in.readBoolean();
+      Double latitude = null;
+      Double longitude = null;
+      if (in.readBoolean()) {
+        latitude = in.readDouble();
+        longitude = in.readDouble();
+      }
+      int tagCount = in.readInt();
+      List<String> tags = new ArrayList<>(tagCount);
+      for (int t = 0; t < tagCount; ++t) {
+        tags.add(in.readUTF());
+      }
+      int attachmentCount = in.readInt();
+      List<SyncedAttachment> attachments = new ArrayList<>(attachmentCount);
+      for (int a = 0; a < attachmentCount; ++a) {
+        String name = in.readUTF();
+        attachments.add(new SyncedAttachment(name, parseType(in.readUTF())));
+      }
+      observations.add(SyncedObservation.updated(time, suspicion, comment, determined, latitude,
+          longitude, tags, attachments));
+    }
+    return new SyncBatch(sequence, observations);
+  }
+
+  @NonNull
+  private static AttachmentType parseType(@NonNull String type) throws IOException {
+    try {
+      return AttachmentType.valueOf(type);
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Unknown attachment type: " + type, e);
+    }
+  }
+
+}
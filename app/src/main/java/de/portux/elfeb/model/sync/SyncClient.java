@@ -0,0 +1,298 @@
+package de.portux.elfeb.model.sync;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import de.portux.elfeb.support.Assert;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+
+/**
+ * Talks to a sync server over HTTP.
+ * <p>
+ * The server provides the following resources:
+ * <ul>
+ * <li>{@code POST /changes?device=<id>} accepts a {@link SyncBatch} and answers with the server's
+ * sequence number after the batch has been applied.</li>
+ * <li>{@code GET /changes?device=<id>&since=<seq>&limit=<n>} answers with a batch of at most
+ * {@code n} observations which have been changed after {@code seq} by other devices.</li>
+ * <li>{@code HEAD /attachments/<name>} tells how many bytes of a file have been received in its
+ * {@value #OFFSET_HEADER} header. {@code PUT} appends a chunk to the file, which has to start at
+ * the offset given in the same header. {@code GET} supports a {@code Range} header.</li>
+ * </ul>
+ * Files are transferred in chunks, so an interrupted transfer continues where it stopped instead
+ * of starting over.
+ *
+ * @author Rico Bergmann
+ */
+public class SyncClient {
+
+  /**
+   * The number of bytes of a file which have been received by the server.
+   */
+  public static final String OFFSET_HEADER = "Upload-Offset";
+
+  static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+  private static final int TIMEOUT_MILLIS = 30_000;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * The suffix of files which are still being downloaded.
+   */
+  private static final String PARTIAL_SUFFIX = ".part";
+
+  @NonNull
+  private final URL mServer;
+
+  @NonNull
+  private final String mDeviceId;
+
+  private final int mChunkSize;
+
+  /**
+   * @param server the base URL of the server
+   * @param deviceId identifies this device. The server will not send back its own changes.
+   */
+  public SyncClient(@NonNull URL server, @NonNull String deviceId) {
+    this(server, deviceId, DEFAULT_CHUNK_SIZE);
+  }
+
+  SyncClient(@NonNull URL server, @NonNull String deviceId, int chunkSize) {
+    Assert.notNull(server, "Server may not be null");
+    Assert.notNull(deviceId, "Device id may not be null");
+    Assert.isTrue(chunkSize > 0, "Chunk size must be positive");
+    this.mServer = server;
+    this.mDeviceId = deviceId;
+    this.mChunkSize = chunkSize;
+  }
+
+  /**
+   * Sends a batch of local changes.
+   *
+   * @return the server's sequence number after the batch has been applied
+   */
+  @WorkerThread
+  public long push(@NonNull SyncBatch batch) throws IOException {
+    Assert.notNull(batch, "Batch may not be null");
+    HttpURLConnection connection = open("changes?device=" + encode(mDeviceId), "POST");
+    try {
+      connection.setDoOutput(true);
+      connection.setChunkedStreamingMode(0);
+      connection.setRequestProperty("Content-Type", "application/octet-stream");
+      try (OutputStream out = connection.getOutputStream()) {
+        batch.writeTo(out);
+      }
+      expect(connection, HttpURLConnection.HTTP_OK);
+      try (InputStream in = connection.getInputStream()) {
+        return Long.parseLong(readText(in).trim());
+      } catch (NumberFormatException e) {
+        throw new IOException("Invalid sequence number", e);
+      }
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Fetches the changes of other devices.
+   *
+   * @param since the sequence number of the last change which has been fetched before
+   * @param limit the maximum number of observations
+   * @return the changes. The batch will be empty if there are no more changes.
+   */
+  @NonNull
+  @WorkerThread
+  public SyncBatch pull(long since, int limit) throws IOException {
+    Assert.isTrue(limit > 0, "Limit must be positive");
+    HttpURLConnection connection = open("changes?device=" + encode(mDeviceId) + "&since=" + since
+        + "&limit=" + limit, "GET");
+    try {
+      expect(connection, HttpURLConnection.HTTP_OK);
+      try (InputStream in = connection.getInputStream()) {
+        return SyncBatch.readFrom(in);
+      }
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Uploads a file unless the server has received all of it already. A previous upload of the same
+   * file is resumed.
+   *
+   * @param name the name of the file on the server. As uploads are resumed by name alone, it has
+   *     to identify the content of the file, e.g. by its hash.
+   * @param file the file to upload
+   * @return the number of bytes that have actually been sent
+   */
+  @WorkerThread
+  public long upload(@NonNull String name, @NonNull File file) throws IOException {
+    Assert.notNull(name, "Name may not be null");
+    Assert.notNull(file, "File may not be null");
+    final long length = file.length();
+    long offset = receivedLength(name);
+    if (offset > length) {
+      throw new IOException("Server has received more bytes than " + file + " contains");
+    }
+
+    final long start = offset;
+    byte[] chunk = new byte[(int) Math.min(mChunkSize, Math.max(length - offset, 1))];
+    try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+      while (offset < length) {
+        int size = (int) Math.min(chunk.length, length - offset);
+        in.seek(offset);
+        in.readFully(chunk, 0, size);
+        offset = uploadChunk(name, offset, chunk, size);
+      }
+    }
+    return offset - start;
+  }
+
+  /**
+   * Downloads a file. The data is written to a temporary file next to the target first, which is
+   * kept if the download fails and is resumed the next time.
+   *
+   * @param name the name of the file on the server
+   * @param target where to put the file
+   * @return the number of bytes that have actually been received
+   */
+  @WorkerThread
+  public long download(@NonNull String name, @NonNull File target) throws IOException {
+    Assert.notNull(name, "Name may not be null");
+    Assert.notNull(target, "Target may not be null");
+    File partial = new File(target.getPath() + PARTIAL_SUFFIX);
+    long offset = partial.length();
+
+    HttpURLConnection connection = open("attachments/" + encode(name), "GET");
+    long received = 0;
+    try {
+      if (offset > 0) {
+        connection.setRequestProperty("Range", "bytes=" + offset + "-");
+      }
+      int status = connection.getResponseCode();
+      if (status != HttpURLConnection.HTTP_PARTIAL
+          && status != HttpURLConnection.HTTP_OK
+          && status != 416) { // range not satisfiable, i.e. all bytes have been received already
+        throw new IOException("Could not download " + name + ": " + status);
+      }
+      if (status != 416) {
+        // the server may ignore the range and send the whole file
+        boolean append = status == HttpURLConnection.HTTP_PARTIAL;
+        byte[] buffer = new byte[mChunkSize];
+        try (InputStream in = connection.getInputStream();
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(partial, append))) {
+          int count;
+          while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+            received += count;
+          }
+        }
+      }
+    } finally {
+      connection.disconnect();
+    }
+
+    if (!partial.renameTo(target)) {
+      throw new IOException("Could not move " + partial + " to " + target);
+    }
+    return received;
+  }
+
+  /**
+   * Asks the server how many bytes of a file it has received so far.
+   */
+  private long receivedLength(@NonNull String name) throws IOException {
+    HttpURLConnection connection = open("attachments/" + encode(name), "HEAD");
+    try {
+      int status = connection.getResponseCode();
+      if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+        return 0;
+      }
+      expect(connection, HttpURLConnection.HTTP_OK);
+      return offsetOf(connection);
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * @return the number of bytes the server has received after the chunk
+   */
+  private long uploadChunk(@NonNull String name, long offset, @NonNull byte[] chunk, int size)
+      throws IOException {
+    HttpURLConnection connection = open("attachments/" + encode(name), "PUT");
+    try {
+      connection.setDoOutput(true);
+      connection.setFixedLengthStreamingMode(size);
+      connection.setRequestProperty("Content-Type", "application/octet-stream");
+      connection.setRequestProperty(OFFSET_HEADER, Long.toString(offset));
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(chunk, 0, size);
+      }
+      expect(connection, HttpURLConnection.HTTP_NO_CONTENT);
+      return offsetOf(connection);
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  @NonNull
+  private HttpURLConnection open(@NonNull String path, @NonNull String method) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(mServer, path).openConnection();
+    connection.setRequestMethod(method);
+    connection.setConnectTimeout(TIMEOUT_MILLIS);
+    connection.setReadTimeout(TIMEOUT_MILLIS);
+    connection.setUseCaches(false);
+    return connection;
+  }
+
+  private static void expect(@NonNull HttpURLConnection connection, int status)
+      throws IOException {
+    int actual = connection.getResponseCode();
+    if (actual != status) {
+      throw new IOException(connection.getRequestMethod() + " " + connection.getURL()
+          + " failed: " + actual + " " + connection.getResponseMessage());
+    }
+  }
+
+  private static long offsetOf(@NonNull HttpURLConnection connection) throws IOException {
+    String offset = connection.getHeaderField(OFFSET_HEADER);
+    if (offset == null) {
+      throw new IOException("Server did not send the " + OFFSET_HEADER);
+    }
+    try {
+      return Long.parseLong(offset);
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid " + OFFSET_HEADER + ": " + offset, e);
+    }
+  }
+
+  @NonNull
+  private static String encode(@NonNull String value) throws UnsupportedEncodingException {
+    // the name ends up in the path, where a '+' does not denote a space
+    return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+  }
+
+  @NonNull
+  private static String readText(@NonNull InputStream in) throws IOException {
+    StringBuilder text = new StringBuilder();
+    byte[] buffer = new byte[256];
+    int count;
+    while ((count = in.read(buffer)) != -1) {
+      text.append(new String(buffer, 0, count, UTF_8));
+    }
+    return text.toString();
+  }
+
+}
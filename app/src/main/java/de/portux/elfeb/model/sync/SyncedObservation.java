@@ -0,0 +1,216 @@
+package de.portux.elfeb.model.sync;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.portux.elfeb.model.Attachment.AttachmentType;
+import de.portux.elfeb.support.Assert;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The state of a single observation as it is exchanged during a sync.
+ * <p>
+ * Observations are identified by their time and suspicion, as the ids differ between devices. A
+ * deleted observation only carries its key. Otherwise the complete observation including its tags
+ * and attachments is transferred, so the receiver may simply replace its own state.
+ *
+ * @author Rico Bergmann
+ */
+public class SyncedObservation {
+
+  /**
+   * A file attached to a synced observation. Files are transferred separately and referred to by
+   * their name.
+   */
+  public static class SyncedAttachment {
+    @NonNull
+    private final String mName;
+    @NonNull
+    private final AttachmentType mType;
+
+    public SyncedAttachment(@NonNull String name, @NonNull AttachmentType type) {
+      Assert.notNull(name, "Name may not be null");
+      Assert.notNull(type, "Type may not be null");
+      this.mName = name;
+      this.mType = type;
+    }
+
+    @NonNull
+    public String getName() {
+      return mName;
+    }
+
+    @NonNull
+    public AttachmentType getType() {
+      return mType;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      SyncedAttachment that = (SyncedAttachment) o;
+      return mName.equals(that.mName) && mType == that.mType;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(mName, mType);
+    }
+  }
+
+  private final long mTime;
+  @NonNull
+  private final String mSuspicion;
+  private final boolean mDeleted;
+  @Nullable
+  private final String mComment;
+  private final boolean mDetermined;
+  @Nullable
+  private final Double mLatitude;
+  @Nullable
+  private final Double mLongitude;
+  @NonNull
+  private final List<String> mTags;
+  @NonNull
+  private final List<SyncedAttachment> mAttachments;
+
+  /**
+   * Describes an observation which has been deleted.
+   */
+  @NonNull
+  public static SyncedObservation deleted(long time, @NonNull String suspicion) {
+    return new SyncedObservation(time, suspicion, true, null, false, null, null,
+        Collections.emptyList(), Collections.emptyList());
+  }
+
+  /**
+   * Describes the current state of an observation.
+   *
+   * @param time the time of the observation in milliseconds since the epoch
+   */
+  @NonNull
+  public static SyncedObservation updated(long time, @NonNull String suspicion,
+      @Nullable String comment, boolean determined, @Nullable Double latitude,
+      @Nullable Double longitude, @NonNull List<String> tags,
+      @NonNull List<SyncedAttachment> attachments) {
+    return new SyncedObservation(time, suspicion, false, comment, determined, latitude, longitude,
+        tags, attachments);
+  }
+
+  private SyncedObservation(long time, @NonNull String suspicion, boolean deleted,
+      @Nullable String comment, boolean determined, @Nullable Double latitude,
+      @Nullable Double longitude, @NonNull List<String> tags,
+      @NonNull List<SyncedAttachment> attachments) {
+    Assert.notNull(suspicion, "Suspicion may not be null");
+    Assert.notNull(tags, "Tags may not be null");
+    Assert.notNull(attachments, "Attachments may not be null");
+    this.mTime = time;
+    this.mSuspicion = suspicion;
+    this.mDeleted = deleted;
+    this.mComment = comment;
+    this.mDetermined = determined;
+    this.mLatitude = latitude;
+    this.mLongitude = longitude;
+    this.mTags = Collections.unmodifiableList(new ArrayList<>(tags));
+    this.mAttachments = Collections.unmodifiableList(new ArrayList<>(attachments));
+  }
+
+  /**
+   * The time of the observation in milliseconds since the epoch.
+   */
+  public long getTime() {
+    return mTime;
+  }
+
+  @NonNull
+  public String getSuspicion() {
+    return mSuspicion;
+  }
+
+  public boolean isDeleted() {
+    return mDeleted;
+  }
+
+  @Nullable
+  public String getComment() {
+    return mComment;
+  }
+
+  public boolean isDetermined() {
+    return mDetermined;
+  }
+
+  public boolean isLocationAttached() {
+    return mLatitude != null && mLongitude != null;
+  }
+
+  @Nullable
+  public Double getLatitude() {
+    return mLatitude;
+  }
+
+  @Nullable
+  public Double getLongitude() {
+    return mLongitude;
+  }
+
+  @NonNull
+  public List<String> getTags() {
+    return mTags;
+  }
+
+  @NonNull
+  public List<SyncedAttachment> getAttachments() {
+    return mAttachments;
+  }
+
+  /**
+   * Checks whether {@code this} and an other observation share the same key, i.e. describe the
+   * same observation.
+   */
+  public boolean hasSameKey(@NonNull SyncedObservation other) {
+    return mTime == other.mTime && mSuspicion.equals(other.mSuspicion);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    SyncedObservation that = (SyncedObservation) o;
+    return mTime == that.mTime &&
+        mDeleted == that.mDeleted &&
+        mDetermined == that.mDetermined &&
+        mSuspicion.equals(that.mSuspicion) &&
+        Objects.equals(mComment, that.mComment) &&
+        Objects.equals(mLatitude, that.mLatitude) &&
+        Objects.equals(mLongitude, that.mLongitude) &&
+        mTags.equals(that.mTags) &&
+        mAttachments.equals(that.mAttachments);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(mTime, mSuspicion);
+  }
+
+  @Override
+  public String toString() {
+    return this.getClass().getSimpleName() + '{' +
+        "mTime=" + mTime +
+        ", mSuspicion='" + mSuspicion + '\'' +
+        ", mDeleted=" + mDeleted +
+        '}';
+  }
+
+}
@@ -5,11 +5,11 @@ import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
-import android.os.Environment;
 import android.provider.MediaStore;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import de.portux.elfeb.model.GPSPosition;
+import de.portux.elfeb.model.PhotoStorage;
 import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
@@ -34,7 +34,12 @@ public class StorageService {
       String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(now);
       String imageFileName = "IMG_" + timeStamp;
 
-      File storageDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM);
+      // the photos are owned by the app, such that their originals may be archived once a working
+      // copy has been ingested
+      File storageDir = PhotoStorage.getCaptureDirectory(mCtx);
+      if (!storageDir.isDirectory() && !storageDir.mkdirs()) {
+        throw new RuntimeException("Could not create " + storageDir);
+      }
       try {
         File image = File.createTempFile(imageFileName, ".jpg", storageDir);
         return image;
@@ -70,8 +70,8 @@ public class FieldNotesListAdapter extends PagedListAdapter<Observation, Observa
       TextView observationView = view.findViewById(R.id.observation_suspicion);
       Observation observation = (Observation) observationView.getTag();
       Intent showObservationIntent = new Intent(ctx, ObservationDetailsActivity.class);
-      showObservationIntent.putExtra("obsDate", observation.getTime());
-      showObservationIntent.putExtra("obsSuspicion", observation.getSuspicion());
+      showObservationIntent.putExtra(ObservationDetailsActivity.EXTRA_OBSERVATION_ID,
+          observation.getId());
       ctx.startActivity(showObservationIntent);
     };
 
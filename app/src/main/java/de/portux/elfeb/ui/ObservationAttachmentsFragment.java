@@ -2,6 +2,7 @@ package de.portux.elfeb.ui;
 
 import android.content.Intent;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
 import android.util.Log;
@@ -22,9 +23,12 @@ import androidx.recyclerview.widget.RecyclerView;
 import androidx.recyclerview.widget.RecyclerView.LayoutManager;
 import de.portux.elfeb.BuildConfig;
 import de.portux.elfeb.R;
+import de.portux.elfeb.images.ThumbnailLoader;
+import de.portux.elfeb.images.Thumbnails;
 import de.portux.elfeb.model.Attachment;
 import de.portux.elfeb.model.Observation;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -32,10 +36,13 @@ public class ObservationAttachmentsFragment extends Fragment {
 
   private static final String TAG = ObservationAttachmentsFragment.class.getSimpleName();
 
-  public static class ImageAttachmentViewHolder extends RecyclerView.ViewHolder {
+  public static class ImageAttachmentViewHolder extends RecyclerView.ViewHolder implements
+      ThumbnailLoader.Target<Bitmap> {
     TextView mImageNameText;
     ImageView mObservationImage;
     ImageButton mDeleteImageButton;
+    ThumbnailLoader.Request mThumbnailRequest;
+    Bitmap mThumbnail;
 
     public ImageAttachmentViewHolder(@NonNull View itemView) {
       super(itemView);
@@ -43,6 +50,34 @@ public class ObservationAttachmentsFragment extends Fragment {
       mObservationImage = itemView.findViewById(R.id.image_observation_image);
       mDeleteImageButton = itemView.findViewById(R.id.button_observation_image_delete);
     }
+
+    /**
+     * Drops the thumbnail which is currently shown or loaded, such that a late result of a previous
+     * bind never shows up in this holder. The shown thumbnail is handed back to the loader, which
+     * will reuse its bitmap for other images.
+     */
+    void clearThumbnail(ThumbnailLoader<Bitmap> loader) {
+      if (mThumbnailRequest != null) {
+        mThumbnailRequest.cancel();
+        mThumbnailRequest = null;
+      }
+      mObservationImage.setImageDrawable(null);
+      if (mThumbnail != null) {
+        loader.release(mThumbnail);
+        mThumbnail = null;
+      }
+    }
+
+    @Override
+    public void onThumbnailLoaded(@NonNull Bitmap thumbnail) {
+      mThumbnail = thumbnail;
+      mObservationImage.setImageBitmap(thumbnail);
+    }
+
+    @Override
+    public void onThumbnailFailed(@NonNull IOException cause) {
+      Log.w(TAG, "Could not load thumbnail", cause);
+    }
   }
 
   public static class ImageAttachmentsAdapter extends
@@ -52,6 +87,8 @@ public class ObservationAttachmentsFragment extends Fragment {
     private ObservationViewModel mViewModel;
     private Observation mObservation;
     private List<Attachment> mImages;
+    private ThumbnailLoader<Bitmap> mThumbnailLoader;
+    private int mThumbnailSize;
 
     private final OnClickListener openImageListener;
 
@@ -70,13 +107,25 @@ public class ObservationAttachmentsFragment extends Fragment {
       this.mFragment = fragment;
       this.mViewModel = ViewModelProviders.of(fragment).get(ObservationViewModel.class);
       this.mObservation = mObservation;
+      this.mThumbnailLoader = Thumbnails.getLoader(fragment.getContext());
+      // the images span the whole width of the list
+      this.mThumbnailSize = fragment.getResources().getDisplayMetrics().widthPixels;
 
       this.openImageListener = new OnClickListener() {
         @Override
         public void onClick(View v) {
           Attachment image = (Attachment) v.getTag(R.id.tag_image);
+          if (image.isMissing()) {
+            return;
+          }
+          // show the archived original in full resolution, as long as it is kept
+          File imageFile = image.getPath();
+          if (image.getOriginalPath() != null && image.getOriginalPath().isFile()) {
+            imageFile = image.getOriginalPath();
+            mViewModel.recordOriginalOpened(image);
+          }
           Intent showImageIntent = new Intent(Intent.ACTION_VIEW);
-          showImageIntent.setDataAndType(FileProvider.getUriForFile(fragment.getContext(), BuildConfig.APPLICATION_ID +".provider", image.getPath()), "image/*");
+          showImageIntent.setDataAndType(FileProvider.getUriForFile(fragment.getContext(), BuildConfig.APPLICATION_ID +".provider", imageFile), "image/*");
           showImageIntent.addFlags(Intent.FLAG_GRANT_WRITE_URI_PERMISSION | Intent.FLAG_GRANT_PERSISTABLE_URI_PERMISSION | Intent.FLAG_GRANT_READ_URI_PERMISSION);
           if (showImageIntent.resolveActivity(mFragment.getActivity().getPackageManager()) != null) {
             mFragment.startActivity(showImageIntent);
@@ -103,12 +152,24 @@ public class ObservationAttachmentsFragment extends Fragment {
         String fileName = image.getPath().getName();
         Resources res = mFragment.getResources();
         holder.mDeleteImageButton.setTag(R.id.tag_image, image);
-        holder.mImageNameText.setText(res.getString(R.string.observation_image_title, fileName));
+        holder.mImageNameText.setText(res.getString(image.isMissing()
+            ? R.string.observation_image_missing
+            : R.string.observation_image_title, fileName));
         holder.mObservationImage.setTag(R.id.tag_image, image);
-        holder.mObservationImage.setImageURI(Uri.fromFile(image.getPath()));
+        holder.clearThumbnail(mThumbnailLoader);
+        // the file of a missing image has been deleted outside of the app
+        if (!image.isMissing()) {
+          holder.mThumbnailRequest = mThumbnailLoader
+              .load(image.getPath(), mThumbnailSize, mThumbnailSize, holder);
+        }
       }
     }
 
+    @Override
+    public void onViewRecycled(@NonNull ImageAttachmentViewHolder holder) {
+      holder.clearThumbnail(mThumbnailLoader);
+    }
+
     @Override
     public int getItemCount() {
       if (mImages != null) {
@@ -197,7 +258,10 @@ public class ObservationAttachmentsFragment extends Fragment {
         String fileName = recording.getPath().getName();
         holder.mPlayRecordingButton.setTag(R.id.tag_recording, recording);
         holder.mDeleteRecordingButton.setTag(R.id.tag_recording, recording);
-        holder.mRecordingTitleText.setText(res.getString(R.string.observation_audio_title, fileName));
+        holder.mRecordingTitleText.setText(res.getString(recording.isMissing()
+            ? R.string.observation_audio_missing
+            : R.string.observation_audio_title, fileName));
+        holder.mPlayRecordingButton.setEnabled(!recording.isMissing());
       }
     }
 
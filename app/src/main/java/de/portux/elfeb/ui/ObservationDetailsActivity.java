@@ -14,7 +14,6 @@ import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.content.FileProvider;
-import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.Observer;
 import androidx.lifecycle.ViewModelProviders;
@@ -39,7 +38,6 @@ import de.portux.elfeb.model.Observation;
 import de.portux.elfeb.model.Tag;
 import de.portux.elfeb.services.StorageService;
 import java.io.File;
-import java.util.Date;
 import java.util.List;
 
 public class ObservationDetailsActivity extends AppCompatActivity {
@@ -74,6 +72,11 @@ public class ObservationDetailsActivity extends AppCompatActivity {
     }
   }
 
+  /**
+   * The id of the observation to show, as a {@code long}.
+   */
+  static final String EXTRA_OBSERVATION_ID = "obsId";
+
   private static final String TAG = ObservationDetailsActivity.class.getSimpleName();
   private static final int PAGE_DETAILS = 0;
   private static final int PAGE_ATTACHMENTS = 1;
@@ -110,6 +113,12 @@ public class ObservationDetailsActivity extends AppCompatActivity {
 
   private MutableLiveData<Observation> mObservation = new MutableLiveData<>();
 
+  /**
+   * The tags most recently loaded for the observation, which each new version of it is tagged with.
+   */
+  @Nullable
+  private Tag[] mTags;
+
   private File mImageAttachment;
 
   @Override
@@ -140,24 +149,26 @@ public class ObservationDetailsActivity extends AppCompatActivity {
     mTagViewModel = ViewModelProviders.of(this).get(TagViewModel.class);
 
 
-    mObservationViewModel.getAllObservations().observe(this, observations -> {
-      Intent callee = getIntent();
-      Date obsDate = (Date) callee.getSerializableExtra("obsDate");
-      String obsSuspicion = callee.getStringExtra("obsSuspicion");
-
-      for (Observation observation : observations) {
-        if (observation.getTime().equals(obsDate) && observation.getSuspicion().equals(obsSuspicion)) {
-          mObservation.setValue(observation);
-          LiveData<List<Tag>> tags = mObservationViewModel.getTagsFor(observation);
-          tags.observe(this, ts -> observation.tagIfNecessary(ts.toArray(new Tag[]{})));
+    // the observation is followed by its id, as its key changes along with its suspicion
+    long obsId = getIntent().getLongExtra(EXTRA_OBSERVATION_ID, -1);
+    mObservationViewModel.getObservation(obsId).observe(this, observation -> {
+      if (observation == null) {
+        return;
+      }
 
-          if (!observation.isDetermined()) {
-            mObservationDetermined.show();
-          }
+      if (mObservation.getValue() == null) {
+        // the tags are looked up by the id as well, so they follow all versions of the observation
+        mObservationViewModel.getTagsFor(observation).observe(this, this::tagObservation);
+      } else if (mTags != null) {
+        observation.tagIfNecessary(mTags);
+      }
+      mObservation.setValue(observation);
 
-          mObservationUpdated.show();
-        }
+      if (!observation.isDetermined()) {
+        mObservationDetermined.show();
       }
+
+      mObservationUpdated.show();
     });
 
     mObservationDetermined = findViewById(R.id.button_observation_determined);
@@ -285,6 +296,11 @@ public class ObservationDetailsActivity extends AppCompatActivity {
     }
   }
 
+  private void tagObservation(List<Tag> tags) {
+    mTags = tags.toArray(new Tag[]{});
+    mObservation.getValue().tagIfNecessary(mTags);
+  }
+
   private void updateObservation(Observation observation) {
     mDetailsFragment.updateObservation(observation);
     finish();
@@ -0,0 +1,351 @@
+package de.portux.elfeb.images;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import de.portux.elfeb.images.AttachmentReconciler.Reference;
+import de.portux.elfeb.model.merge.KeyOrder;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AttachmentReconcilerTest {
+
+  /**
+   * The referenced files, mapped to whether they have been flagged as missing. They are ordered by
+   * the code points of their paths, like the database orders them.
+   */
+  private static final class FakeCatalog implements AttachmentReconciler.Catalog {
+    final TreeMap<File, Boolean> references = new TreeMap<>(
+        (first, second) -> KeyOrder.compareCodePoints(first.getPath(), second.getPath()));
+    int pageCount = 0;
+    int lookupCount = 0;
+
+    void reference(File file) {
+      references.put(file.getAbsoluteFile(), false);
+    }
+
+    boolean isFlagged(File file) {
+      return references.get(file.getAbsoluteFile());
+    }
+
+    @Override
+    public List<Reference> getReferences(File after, int limit) {
+      ++pageCount;
+      Map<File, Boolean> candidates = after != null ? references.tailMap(after, false) : references;
+      List<Reference> page = new ArrayList<>();
+      for (Map.Entry<File, Boolean> reference : candidates.entrySet()) {
+        if (page.size() == limit) {
+          break;
+        }
+        page.add(new Reference(reference.getKey(), reference.getValue()));
+      }
+      return page;
+    }
+
+    @Override
+    public boolean isReferenced(File file) {
+      ++lookupCount;
+      return references.containsKey(file);
+    }
+
+    @Override
+    public void recordMissing(File file) {
+      references.put(file, true);
+    }
+
+    @Override
+    public void recordFound(File file) {
+      references.put(file, false);
+    }
+  }
+
+  private static final class FakeCheckpoint implements AttachmentReconciler.Checkpoint {
+    File position;
+    long completedAt;
+
+    @Override
+    public File getPosition() {
+      return position;
+    }
+
+    @Override
+    public void savePosition(File position) {
+      this.position = position;
+    }
+
+    @Override
+    public long getCompletedAt() {
+      return completedAt;
+    }
+
+    @Override
+    public void saveCompleted(long completedAt) {
+      this.position = null;
+      this.completedAt = completedAt;
+    }
+  }
+
+  private static final class ManualExecutor implements Executor {
+    final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+    }
+
+    void runOne() {
+      tasks.poll().run();
+    }
+
+    void runAll() {
+      while (!tasks.isEmpty()) {
+        tasks.poll().run();
+      }
+    }
+  }
+
+  private static final long OLD =
+      System.currentTimeMillis() - 2 * AttachmentReconciler.GRACE_PERIOD;
+
+  private File mDirectory;
+  private File mCaptureDirectory;
+  private File mStoreDirectory;
+  private File mQuarantine;
+  private FakeCatalog mCatalog;
+  private FakeCheckpoint mCheckpoint;
+  private ManualExecutor mExecutor;
+
+  @Before
+  public void setUp() throws IOException {
+    mDirectory = Files.createTempDirectory("reconciler").toFile();
+    mCaptureDirectory = new File(mDirectory, "capture");
+    mStoreDirectory = new File(mDirectory, "photos");
+    mQuarantine = new File(mDirectory, "quarantine");
+    mCatalog = new FakeCatalog();
+    mCheckpoint = new FakeCheckpoint();
+    mExecutor = new ManualExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    delete(mDirectory);
+  }
+
+  @Test
+  public void quarantinesOrphansAndFlagsDanglingReferences() throws IOException {
+    File referenced = create(mStoreDirectory, "ab/ab01.jpg", OLD);
+    File orphan = create(mStoreDirectory, "ab/ab02.jpg", OLD);
+    File recent = create(mCaptureDirectory, "IMG_1.jpg", System.currentTimeMillis());
+    File deleted = new File(mStoreDirectory, "cd/cd01.jpg");
+    File foreign = create(mDirectory, "gallery/holiday.jpg", OLD);
+    File foreignDeleted = new File(mDirectory, "gallery/gone.jpg");
+    for (File file : Arrays.asList(referenced, deleted, foreign, foreignDeleted)) {
+      mCatalog.reference(file);
+    }
+    AttachmentReconciler reconciler = newReconciler();
+
+    reconciler.reconcile();
+    mExecutor.runAll();
+
+    assertFalse(orphan.exists());
+    assertTrue(new File(mQuarantine, "photos/ab/ab02.jpg").isFile());
+    assertTrue(referenced.exists());
+    assertTrue(recent.exists());
+    assertTrue(foreign.exists());
+    assertTrue(mCatalog.isFlagged(deleted));
+    assertTrue(mCatalog.isFlagged(foreignDeleted));
+    assertFalse(mCatalog.isFlagged(referenced));
+    assertFalse(mCatalog.isFlagged(foreign));
+    assertEquals(1, reconciler.getOrphanCount());
+    assertEquals(100, reconciler.getQuarantinedBytes());
+    assertEquals(2, reconciler.getDanglingCount());
+    assertEquals(3, reconciler.getPassFileCount());
+    assertEquals(4, reconciler.getPassReferenceCount());
+    assertEquals(1, reconciler.getPassCount());
+    assertFalse(reconciler.isRunning());
+    assertNull(mCheckpoint.position);
+    assertTrue(mCheckpoint.completedAt > 0);
+  }
+
+  @Test
+  public void clearsTheFlagOfFilesWhichHaveShownUpAgain() throws IOException {
+    File file = create(mStoreDirectory, "ab/ab01.jpg", OLD);
+    mCatalog.reference(file);
+    mCatalog.recordMissing(file.getAbsoluteFile());
+
+    AttachmentReconciler reconciler = newReconciler();
+    reconciler.reconcile();
+    mExecutor.runAll();
+
+    assertFalse(mCatalog.isFlagged(file));
+    assertEquals(1, reconciler.getFoundCount());
+    assertEquals(0, reconciler.getDanglingCount());
+  }
+
+  @Test
+  public void walksTheFilesInTheOrderOfTheirPaths() throws IOException {
+    // a plain sort by name would visit ab/ before ab-c.jpg and ab.jpg
+    List<File> files = Arrays.asList(create(mStoreDirectory, "ab/x.jpg", OLD),
+        create(mStoreDirectory, "ab-c.jpg", OLD), create(mStoreDirectory, "ab.jpg", OLD),
+        create(mCaptureDirectory, "IMG_1.jpg", OLD));
+    for (File file : files) {
+      mCatalog.reference(file);
+    }
+
+    AttachmentReconciler reconciler = newReconciler();
+    reconciler.reconcile();
+    mExecutor.runAll();
+
+    assertEquals(0, reconciler.getOrphanCount());
+    assertEquals(0, reconciler.getDanglingCount());
+    assertEquals(4, reconciler.getPassFileCount());
+    for (File file : files) {
+      assertTrue(file.exists());
+    }
+  }
+
+  @Test
+  public void walksTheFilesInTheOrderOfTheirCodePoints() throws IOException {
+    // U+1F426 comes after U+FF21, but its UTF-16 surrogates come before it
+    String[] names = {"\uFF21.jpg", "\uD83D\uDC26.jpg"};
+    List<File> files = new ArrayList<>();
+    for (String name : names) {
+      File file = create(mStoreDirectory, name, OLD);
+      Assume.assumeTrue("The file system does not keep non-ASCII names",
+          Arrays.asList(mStoreDirectory.list()).contains(name));
+      files.add(file);
+      mCatalog.reference(file);
+    }
+
+    AttachmentReconciler reconciler = newReconciler();
+    reconciler.reconcile();
+    mExecutor.runAll();
+
+    assertEquals(0, reconciler.getOrphanCount());
+    assertEquals(0, reconciler.getDanglingCount());
+    assertEquals(2, reconciler.getPassFileCount());
+    // each file has met its reference in the merge, rather than being looked up as an orphan
+    assertEquals(0, mCatalog.lookupCount);
+    for (File file : files) {
+      assertTrue(file.exists());
+    }
+  }
+
+  @Test
+  public void resumesInterruptedPassesAtTheCheckpoint() throws IOException {
+    int fileCount = AttachmentReconciler.SLICE_SIZE * 2 + 100;
+    for (int i = 0; i < fileCount; ++i) {
+      String name = String.format("%02x/%04d.jpg", i % 256, i);
+      File file = create(mStoreDirectory, name, OLD);
+      if (i % 2 == 0) {
+        mCatalog.reference(file);
+      }
+    }
+    AttachmentReconciler interrupted = newReconciler();
+    interrupted.reconcile();
+    mExecutor.runOne();
+    assertNotNull(mCheckpoint.position);
+    assertTrue(interrupted.getPassFileCount() < fileCount);
+    assertTrue(interrupted.isRunning());
+
+    // the app is restarted
+    mExecutor.tasks.clear();
+    AttachmentReconciler resumed = newReconciler();
+    assertTrue(resumed.reconcileIfDue(Long.MAX_VALUE));
+    mExecutor.runAll();
+
+    assertEquals(fileCount, interrupted.getPassFileCount() + resumed.getPassFileCount());
+    assertEquals(fileCount / 2, interrupted.getOrphanCount() + resumed.getOrphanCount());
+    assertEquals(fileCount / 2, countFiles(mStoreDirectory));
+    assertEquals(0, resumed.getDanglingCount());
+    assertTrue(mCatalog.pageCount > 1);
+    assertNull(mCheckpoint.position);
+  }
+
+  @Test
+  public void startsPassesOnlyOnceDue() {
+    AttachmentReconciler reconciler = newReconciler();
+    mCheckpoint.completedAt = System.currentTimeMillis();
+
+    assertFalse(reconciler.reconcileIfDue(60_000));
+    assertTrue(mExecutor.tasks.isEmpty());
+
+    mCheckpoint.completedAt -= 60_000;
+
+    assertTrue(reconciler.reconcileIfDue(60_000));
+    mExecutor.runAll();
+    assertEquals(1, reconciler.getPassCount());
+  }
+
+  @Test
+  public void purgesQuarantinedFilesOnceTheirRetentionHasPassed() throws IOException {
+    long expired = System.currentTimeMillis() - AttachmentReconciler.QUARANTINE_RETENTION - 1;
+    File purged = create(mQuarantine, "photos/ab/ab01.jpg", expired);
+    File kept = create(mQuarantine, "photos/ab/ab02.jpg", OLD);
+
+    AttachmentReconciler reconciler = newReconciler();
+    reconciler.reconcile();
+    mExecutor.runAll();
+
+    assertFalse(purged.exists());
+    assertTrue(kept.exists());
+    assertEquals(1, reconciler.getPurgedCount());
+  }
+
+  private AttachmentReconciler newReconciler() {
+    return new AttachmentReconciler(mCatalog, mCheckpoint,
+        Arrays.asList(mStoreDirectory, mCaptureDirectory), mQuarantine, mExecutor);
+  }
+
+  private static File create(File directory, String name, long lastModified) throws IOException {
+    File file = new File(directory, name).getAbsoluteFile();
+    assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+    try (OutputStream out = new FileOutputStream(file)) {
+      out.write(new byte[100]);
+    }
+    assertTrue(file.setLastModified(lastModified));
+    return file;
+  }
+
+  private static int countFiles(File directory) {
+    File[] children = directory.listFiles();
+    if (children == null) {
+      return 0;
+    }
+    int count = 0;
+    for (File child : children) {
+      count += child.isDirectory() ? countFiles(child) : 1;
+    }
+    return count;
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    //noinspection ResultOfMethodCallIgnored
+    file.delete();
+  }
+
+}
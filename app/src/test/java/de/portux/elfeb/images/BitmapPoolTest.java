@@ -0,0 +1,59 @@
+package de.portux.elfeb.images;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import de.portux.elfeb.images.ThumbnailLoaderTest.FakeImage;
+import org.junit.Test;
+
+public class BitmapPoolTest {
+
+  private static BitmapPool<FakeImage> newPool(long maxBytes) {
+    return new BitmapPool<>(maxBytes, image -> image.allocationSize);
+  }
+
+  @Test
+  public void servesRequestsFromTheSmallestSufficientBucket() {
+    BitmapPool<FakeImage> pool = newPool(1_000_000);
+    FakeImage small = new FakeImage(100, 100);
+    FakeImage large = new FakeImage(200, 200);
+    pool.put(large);
+    pool.put(small);
+
+    assertSame(small, pool.get(20_000));
+    assertSame(large, pool.get(20_000));
+    assertNull(pool.get(20_000));
+
+    assertEquals(2, pool.getReuseCount());
+    assertEquals(1, pool.getAllocationCount());
+    assertEquals(0, pool.size());
+  }
+
+  @Test
+  public void doesNotHandOutBitmapsWhichAreFarTooLarge() {
+    BitmapPool<FakeImage> pool = newPool(1_000_000);
+    pool.put(new FakeImage(400, 400));
+
+    assertNull(pool.get(10_000));
+    assertEquals(320_000, pool.size());
+  }
+
+  @Test
+  public void dropsTheEldestBitmapsOnceFull() {
+    BitmapPool<FakeImage> pool = newPool(50_000);
+    FakeImage eldest = new FakeImage(100, 100);
+    FakeImage middle = new FakeImage(100, 100);
+    FakeImage youngest = new FakeImage(100, 100);
+    pool.put(eldest);
+    pool.put(middle);
+    pool.put(youngest);
+
+    assertEquals(40_000, pool.size());
+    assertEquals(1, pool.getEvictionCount());
+    assertSame(youngest, pool.get(20_000));
+    assertSame(middle, pool.get(20_000));
+    assertNull(pool.get(20_000));
+  }
+
+}
@@ -0,0 +1,92 @@
+package de.portux.elfeb.images;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ContentStoreTest {
+
+  private static final String ABC_HASH =
+      "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+  private File mDirectory;
+  private ContentStore mStore;
+
+  @Before
+  public void setUp() throws IOException {
+    mDirectory = Files.createTempDirectory("store").toFile();
+    mStore = new ContentStore(new File(mDirectory, "photos"));
+  }
+
+  @After
+  public void tearDown() {
+    delete(mDirectory);
+  }
+
+  @Test
+  public void hashesTheContentOfFiles() throws IOException {
+    File file = new File(mDirectory, "abc.txt");
+    write(file, "abc");
+
+    assertEquals(ABC_HASH, ContentStore.hash(file));
+  }
+
+  @Test
+  public void hashesFilesLargerThanTheBuffer() throws IOException {
+    File file = new File(mDirectory, "large.bin");
+    try (OutputStream out = new FileOutputStream(file)) {
+      out.write(new byte[200 * 1024]);
+    }
+    File copy = new File(mDirectory, "copy.bin");
+    try (OutputStream out = new FileOutputStream(copy)) {
+      out.write(new byte[200 * 1024]);
+      out.write(1);
+    }
+
+    assertEquals(64, ContentStore.hash(file).length());
+    assertFalse(ContentStore.hash(file).equals(ContentStore.hash(copy)));
+  }
+
+  @Test
+  public void shardsTheFilesByTheirHash() throws IOException {
+    File temp = mStore.newTempFile();
+    write(temp, "abc");
+
+    File stored = mStore.put(temp, ABC_HASH, ".jpg");
+
+    assertEquals(new File(new File(mStore.getRoot(), "ba"), ABC_HASH + ".jpg"), stored);
+    assertEquals(stored, mStore.fileFor(ABC_HASH, ".jpg"));
+    assertTrue(stored.isFile());
+    assertFalse(temp.exists());
+    assertTrue(mStore.contains(stored));
+    assertFalse(mStore.contains(new File(mDirectory, "abc.jpg")));
+  }
+
+  private static void write(File file, String content) throws IOException {
+    try (OutputStream out = new FileOutputStream(file)) {
+      out.write(content.getBytes(StandardCharsets.US_ASCII));
+    }
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    //noinspection ResultOfMethodCallIgnored
+    file.delete();
+  }
+
+}
@@ -0,0 +1,569 @@
+package de.portux.elfeb.images;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import de.portux.elfeb.images.PhotoIngestion.ArchivedOriginal;
+import de.portux.elfeb.images.PhotoIngestion.OriginalPolicy;
+import de.portux.elfeb.images.PhotoIngestion.StoredContent;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PhotoIngestionTest {
+
+  /**
+   * Shrinks each image by a fixed factor. Files which are empty cannot be decoded.
+   */
+  private static final class FakeCodec implements PhotoIngestion.Codec {
+    int divisor = 4;
+    int transcodeCount = 0;
+
+    @Override
+    public void transcode(File source, File target, int maxDimension) throws IOException {
+      ++transcodeCount;
+      if (source.length() == 0) {
+        throw new IOException("Not an image: " + source);
+      }
+      writeBytes(target, source.length() / divisor);
+    }
+  }
+
+  /**
+   * The attachments and blobs as they would be stored in the database.
+   */
+  private static final class FakeCatalog implements PhotoIngestion.Catalog {
+
+    private static final class Row {
+      final long observation;
+      File file;
+      String hash;
+
+      Row(long observation, File file) {
+        this.observation = observation;
+        this.file = file;
+      }
+    }
+
+    private static final class Blob {
+      File file;
+      long size;
+      File original;
+      long originalSize;
+      long accessed;
+    }
+
+    final List<Row> rows = new ArrayList<>();
+    final Map<String, Blob> blobs = new TreeMap<>();
+    long clock = 0;
+
+    void attach(long observation, File image) {
+      rows.add(new Row(observation, image));
+    }
+
+    void remove(File file) {
+      rows.removeIf(row -> row.file.equals(file));
+    }
+
+    void open(File file) {
+      blobOf(file).accessed = ++clock;
+    }
+
+    Blob blobOf(File file) {
+      for (Row row : rows) {
+        if (row.file.equals(file) && row.hash != null) {
+          return blobs.get(row.hash);
+        }
+      }
+      throw new AssertionError("No blob for " + file);
+    }
+
+    Blob onlyBlob() {
+      assertEquals(1, blobs.size());
+      return blobs.values().iterator().next();
+    }
+
+    int referencesTo(String hash) {
+      int references = 0;
+      for (Row row : rows) {
+        if (hash.equals(row.hash)) {
+          ++references;
+        }
+      }
+      return references;
+    }
+
+    @Override
+    public boolean isPending(File image) {
+      for (Row row : rows) {
+        if (row.file.equals(image) && row.hash == null) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public List<File> getPendingImages(File after, int limit) {
+      TreeSet<File> pending = new TreeSet<>();
+      for (Row row : rows) {
+        if (row.hash == null && (after == null || row.file.compareTo(after) > 0)) {
+          pending.add(row.file);
+        }
+      }
+      List<File> page = new ArrayList<>(pending);
+      return page.subList(0, Math.min(limit, page.size()));
+    }
+
+    @Override
+    public StoredContent findContent(String hash) {
+      Blob blob = blobs.get(hash);
+      return blob != null ? new StoredContent(hash, blob.file, blob.size, blob.original) : null;
+    }
+
+    @Override
+    public boolean recordIngested(File source, StoredContent content, long originalSize) {
+      Blob blob = blobs.get(content.getHash());
+      if (blob == null) {
+        blob = new Blob();
+        blob.original = content.getOriginal();
+        blob.originalSize = originalSize;
+        blob.accessed = ++clock;
+        blobs.put(content.getHash(), blob);
+      }
+      blob.file = content.getFile();
+      blob.size = content.getSize();
+      return recordDuplicate(source, content, originalSize);
+    }
+
+    @Override
+    public boolean recordDuplicate(File source, StoredContent content, long originalSize) {
+      boolean recorded = false;
+      for (Iterator<Row> rows = this.rows.iterator(); rows.hasNext(); ) {
+        Row row = rows.next();
+        if (!row.file.equals(source) || row.hash != null) {
+          continue;
+        }
+        recorded = true;
+        if (refersTo(row.observation, content.getHash())) {
+          rows.remove();
+        } else {
+          row.file = content.getFile();
+          row.hash = content.getHash();
+        }
+      }
+      return recorded;
+    }
+
+    private boolean refersTo(long observation, String hash) {
+      for (Row row : rows) {
+        if (row.observation == observation && hash.equals(row.hash)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public long getArchivedSize() {
+      long size = 0;
+      for (Blob blob : blobs.values()) {
+        if (blob.original != null) {
+          size += blob.originalSize;
+        }
+      }
+      return size;
+    }
+
+    @Override
+    public List<ArchivedOriginal> getLeastRecentlyUsedOriginals(int limit) {
+      List<Blob> archived = new ArrayList<>();
+      for (Blob blob : blobs.values()) {
+        if (blob.original != null) {
+          archived.add(blob);
+        }
+      }
+      Collections.sort(archived, (first, second) -> Long.compare(first.accessed, second.accessed));
+      List<ArchivedOriginal> originals = new ArrayList<>();
+      for (Blob blob : archived.subList(0, Math.min(limit, archived.size()))) {
+        originals.add(new ArchivedOriginal(blob.original, blob.originalSize));
+      }
+      return originals;
+    }
+
+    @Override
+    public void recordDemoted(File archivedOriginal) {
+      for (Blob blob : blobs.values()) {
+        if (archivedOriginal.equals(blob.original)) {
+          blob.original = null;
+        }
+      }
+    }
+
+    @Override
+    public List<StoredContent> getUnreferencedContents(int limit) {
+      List<StoredContent> unreferenced = new ArrayList<>();
+      for (String hash : blobs.keySet()) {
+        if (referencesTo(hash) == 0 && unreferenced.size() < limit) {
+          unreferenced.add(findContent(hash));
+        }
+      }
+      return unreferenced;
+    }
+
+    @Override
+    public boolean removeContent(String hash) {
+      if (referencesTo(hash) > 0) {
+        return false;
+      }
+      for (Row row : rows) {
+        if (row.file.equals(blobs.get(hash).file)) {
+          return false;
+        }
+      }
+      return blobs.remove(hash) != null;
+    }
+  }
+
+  private static final class ManualExecutor implements Executor {
+    final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+    }
+
+    void runAll() {
+      while (!tasks.isEmpty()) {
+        tasks.poll().run();
+      }
+    }
+  }
+
+  private static final int MAX_DIMENSION = 1024;
+  private static final int QUEUE_CAPACITY = 8;
+
+  private File mDirectory;
+  private File mCaptureDirectory;
+  private File mGalleryDirectory;
+  private File mStoreDirectory;
+  private File mArchiveDirectory;
+  private FakeCodec mCodec;
+  private FakeCatalog mCatalog;
+  private ManualExecutor mExecutor;
+
+  @Before
+  public void setUp() throws IOException {
+    mDirectory = Files.createTempDirectory("ingestion").toFile();
+    mCaptureDirectory = new File(mDirectory, "capture");
+    mGalleryDirectory = new File(mDirectory, "gallery");
+    mStoreDirectory = new File(mDirectory, "photos");
+    mArchiveDirectory = new File(mDirectory, "originals");
+    mCodec = new FakeCodec();
+    mCatalog = new FakeCatalog();
+    mExecutor = new ManualExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    delete(mDirectory);
+  }
+
+  @Test
+  public void replacesOwnedImagesByWorkingCopiesAndArchivesTheOriginals() throws IOException {
+    PhotoIngestion ingestion = newIngestion(10_000, OriginalPolicy.ARCHIVE);
+    File photo = attach(mCaptureDirectory, "IMG_1.jpg", 4000);
+
+    assertTrue(ingestion.submit(photo));
+    mExecutor.runAll();
+
+    FakeCatalog.Blob blob = mCatalog.onlyBlob();
+    assertEquals(blob.file, mCatalog.rows.get(0).file);
+    assertTrue(isWithin(blob.file, mStoreDirectory));
+    assertEquals(1000, blob.file.length());
+    assertEquals(1000, blob.size);
+    assertEquals(4000, blob.originalSize);
+    assertNotNull(blob.original);
+    assertTrue(isWithin(blob.original, mArchiveDirectory));
+    assertEquals(4000, blob.original.length());
+    assertFalse(photo.exists());
+    assertEquals(1, ingestion.getIngestedCount());
+    assertEquals(4000, ingestion.getOriginalBytes());
+    assertEquals(1000, ingestion.getStoredBytes());
+    assertEquals(4000, ingestion.getHashedBytes());
+  }
+
+  @Test
+  public void deletesOwnedOriginalsIfTheyShouldNotBeArchived() throws IOException {
+    PhotoIngestion ingestion = newIngestion(10_000, OriginalPolicy.DELETE);
+    File photo = attach(mCaptureDirectory, "IMG_1.jpg", 4000);
+
+    ingestion.submit(photo);
+    mExecutor.runAll();
+
+    assertNull(mCatalog.onlyBlob().original);
+    assertFalse(photo.exists());
+    assertEquals(0, countFiles(mArchiveDirectory));
+  }
+
+  @Test
+  public void leavesTheOriginalsOfForeignImagesAlone() throws IOException {
+    PhotoIngestion ingestion = newIngestion(10_000, OriginalPolicy.DELETE);
+    File picked = attach(mGalleryDirectory, "holiday.jpg", 4000);
+
+    ingestion.submit(picked);
+    mExecutor.runAll();
+
+    FakeCatalog.Blob blob = mCatalog.onlyBlob();
+    assertTrue(isWithin(blob.file, mStoreDirectory));
+    assertNull(blob.original);
+    assertEquals(4000, picked.length());
+  }
+
+  @Test
+  public void keepsImagesWhichCannotBeShrunk() throws IOException {
+    PhotoIngestion ingestion = newIngestion(10_000, OriginalPolicy.ARCHIVE);
+    File small = attach(mCaptureDirectory, "small.jpg", 400);
+    File broken = attach(mCaptureDirectory, "broken.jpg", 0);
+    File picked = attach(mGalleryDirectory, "small.png", 400);
+    mCodec.divisor = 1;
+
+    ingestion.submit(small);
+    ingestion.submit(broken);
+    ingestion.submit(picked);
+    mExecutor.runAll();
+
+    assertEquals(3, mCatalog.blobs.size());
+    assertEquals(3, ingestion.getKeptCount());
+    assertEquals(0, ingestion.getIngestedCount());
+    for (FakeCatalog.Row row : mCatalog.rows) {
+      assertEquals(row.file, mCatalog.blobs.get(row.hash).file);
+      assertTrue(row.file.isFile());
+      assertNull(mCatalog.blobs.get(row.hash).original);
+    }
+    // owned images are moved into the store as they are, foreign ones are referred to in place
+    assertFalse(small.exists());
+    assertFalse(broken.exists());
+    assertEquals(400, picked.length());
+    assertEquals(2, countFiles(mStoreDirectory));
+  }
+
+  @Test
+  public void demotesTheLeastRecentlyOpenedOriginalsOnceTheBudgetIsExceeded() throws IOException {
+    PhotoIngestion ingestion = newIngestion(10_000, OriginalPolicy.ARCHIVE);
+    File first = attach(mCaptureDirectory, "IMG_1.jpg", 4000);
+    File second = attach(mCaptureDirectory, "IMG_2.jpg", 4000);
+    ingestion.submit(first);
+    ingestion.submit(second);
+    mExecutor.runAll();
+    File firstCopy = mCatalog.rows.get(0).file;
+    File secondCopy = mCatalog.rows.get(1).file;
+    File firstOriginal = mCatalog.blobOf(firstCopy).original;
+    File secondOriginal = mCatalog.blobOf(secondCopy).original;
+    mCatalog.open(firstCopy);
+
+    ingestion.submit(attach(mCaptureDirectory, "IMG_3.jpg", 4000));
+    mExecutor.runAll();
+
+    assertEquals(8000, mCatalog.getArchivedSize());
+    assertNull(mCatalog.blobOf(secondCopy).original);
+    assertFalse(secondOriginal.exists());
+    assertTrue(firstOriginal.exists());
+    assertEquals(1, ingestion.getDemotedCount());
+    assertEquals(4000, ingestion.getDemotedBytes());
+
+    ingestion.setStorageBudget(0);
+    mExecutor.runAll();
+
+    assertEquals(0, mCatalog.getArchivedSize());
+    assertFalse(firstOriginal.exists());
+    assertEquals(0, countFiles(mArchiveDirectory));
+    assertEquals(3, countFiles(mStoreDirectory));
+  }
+
+  @Test
+  public void sweepsImagesWhichDidNotFitIntoTheQueue() throws IOException {
+    PhotoIngestion ingestion = newIngestion(100_000, OriginalPolicy.ARCHIVE);
+    List<File> photos = new ArrayList<>();
+    for (int i = 0; i < PhotoIngestion.SWEEP_PAGE_SIZE * 2; ++i) {
+      photos.add(attach(mCaptureDirectory, "IMG_" + i + ".jpg", 400));
+    }
+
+    int queued = 0;
+    for (File photo : photos) {
+      if (ingestion.submit(photo)) {
+        ++queued;
+      }
+    }
+    mExecutor.runAll();
+
+    assertEquals(QUEUE_CAPACITY, queued);
+    assertEquals(photos.size() - QUEUE_CAPACITY, ingestion.getRejectedCount());
+    assertEquals(photos.size(), ingestion.getIngestedCount());
+    assertTrue(mCatalog.getPendingImages(null, Integer.MAX_VALUE).isEmpty());
+  }
+
+  @Test
+  public void ingestsEachImageOnlyOnce() throws IOException {
+    PhotoIngestion ingestion = newIngestion(10_000, OriginalPolicy.ARCHIVE);
+    File photo = attach(mCaptureDirectory, "IMG_1.jpg", 4000);
+
+    ingestion.submit(photo);
+    ingestion.submit(photo);
+    ingestion.submitPending();
+    mExecutor.runAll();
+
+    assertEquals(1, mCodec.transcodeCount);
+    assertEquals(1, ingestion.getIngestedCount());
+  }
+
+  @Test
+  public void storesIdenticalContentOnlyOnce() throws IOException {
+    PhotoIngestion ingestion = newIngestion(10_000, OriginalPolicy.ARCHIVE);
+    File photo = attach(1, mCaptureDirectory, "IMG_1.jpg", 4000, "bird");
+    File shared = attach(2, mGalleryDirectory, "shared.jpg", 4000, "bird");
+    File again = attach(1, mGalleryDirectory, "again.jpg", 4000, "bird");
+
+    ingestion.submit(photo);
+    ingestion.submit(shared);
+    ingestion.submit(again);
+    mExecutor.runAll();
+
+    assertEquals(1, mCodec.transcodeCount);
+    FakeCatalog.Blob blob = mCatalog.onlyBlob();
+    // the same observation does not refer to the same content twice
+    assertEquals(2, mCatalog.rows.size());
+    for (FakeCatalog.Row row : mCatalog.rows) {
+      assertEquals(blob.file, row.file);
+    }
+    assertEquals(1, countFiles(mStoreDirectory));
+    assertEquals(1, ingestion.getIngestedCount());
+    assertEquals(2, ingestion.getDuplicateCount());
+    assertEquals(8000, ingestion.getDuplicateBytes());
+    assertEquals(1000, ingestion.getStoredBytes());
+    assertTrue(shared.exists());
+    assertTrue(again.exists());
+  }
+
+  @Test
+  public void collectsContentWhichIsNotReferencedAnymore() throws IOException {
+    PhotoIngestion ingestion = newIngestion(10_000, OriginalPolicy.ARCHIVE);
+    attach(1, mCaptureDirectory, "IMG_1.jpg", 4000, "bird");
+    attach(2, mGalleryDirectory, "shared.jpg", 4000, "bird");
+    ingestion.submitPending();
+    mExecutor.runAll();
+    FakeCatalog.Blob blob = mCatalog.onlyBlob();
+    FakeCatalog.Row first = mCatalog.rows.get(0);
+
+    mCatalog.rows.remove(first);
+    ingestion.collectGarbage();
+    mExecutor.runAll();
+
+    assertEquals(0, ingestion.getCollectedCount());
+    assertTrue(blob.file.exists());
+
+    mCatalog.remove(blob.file);
+    ingestion.collectGarbage();
+    mExecutor.runAll();
+
+    assertTrue(mCatalog.blobs.isEmpty());
+    assertEquals(1, ingestion.getCollectedCount());
+    assertFalse(blob.file.exists());
+    assertFalse(blob.original.exists());
+  }
+
+  @Test
+  public void skipsImagesWhoseAttachmentHasBeenRemoved() throws IOException {
+    PhotoIngestion ingestion = newIngestion(10_000, OriginalPolicy.ARCHIVE);
+    File photo = attach(mCaptureDirectory, "IMG_1.jpg", 4000);
+
+    ingestion.submit(photo);
+    mCatalog.rows.clear();
+    mExecutor.runAll();
+
+    assertEquals(0, mCodec.transcodeCount);
+    assertTrue(photo.exists());
+  }
+
+  private PhotoIngestion newIngestion(long storageBudget, OriginalPolicy originalPolicy) {
+    return new PhotoIngestion(mCodec, mCatalog, Arrays.asList(mCaptureDirectory),
+        mStoreDirectory, mArchiveDirectory, MAX_DIMENSION, QUEUE_CAPACITY, storageBudget,
+        originalPolicy, mExecutor);
+  }
+
+  private File attach(File directory, String name, long size) throws IOException {
+    return attach(1, directory, name, size, name);
+  }
+
+  /**
+   * Attaches an image whose content repeats the given text, such that images with the same text
+   * are identical.
+   */
+  private File attach(long observation, File directory, String name, long size, String content)
+      throws IOException {
+    assertTrue(directory.isDirectory() || directory.mkdirs());
+    File image = new File(directory, name);
+    try (OutputStream out = new FileOutputStream(image)) {
+      for (long i = 0; i < size; ++i) {
+        out.write(content.charAt((int) (i % content.length())));
+      }
+    }
+    mCatalog.attach(observation, image);
+    return image;
+  }
+
+  private static boolean isWithin(File file, File directory) {
+    return file.getAbsolutePath().startsWith(directory.getAbsolutePath() + File.separator);
+  }
+
+  private static int countFiles(File directory) {
+    File[] children = directory.listFiles();
+    if (children == null) {
+      return 0;
+    }
+    int count = 0;
+    for (File child : children) {
+      count += child.isDirectory() ? countFiles(child) : 1;
+    }
+    return count;
+  }
+
+  private static void writeBytes(File file, long size) throws IOException {
+    try (OutputStream out = new FileOutputStream(file)) {
+      for (long i = 0; i < size; ++i) {
+        out.write('x');
+      }
+    }
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    //noinspection ResultOfMethodCallIgnored
+    file.delete();
+  }
+
+}
@@ -0,0 +1,362 @@
+package de.portux.elfeb.images;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ThumbnailLoaderTest {
+
+  /**
+   * An image which only consists of its dimensions. Just like a bitmap, it may be reconfigured to
+   * other dimensions as long as it has allocated enough memory.
+   */
+  static final class FakeImage {
+    int width;
+    int height;
+    final int allocationSize;
+
+    FakeImage(int width, int height) {
+      this.width = width;
+      this.height = height;
+      this.allocationSize = width * height * 2;
+    }
+
+    void reconfigure(int width, int height) {
+      assertTrue(width * height * 2 <= allocationSize);
+      this.width = width;
+      this.height = height;
+    }
+  }
+
+  /**
+   * Reads image files which contain nothing but their width and height. Each pixel takes up two
+   * bytes in memory.
+   */
+  static final class FakeDecoder implements ThumbnailLoader.Decoder<FakeImage> {
+
+    @Override
+    public FakeImage decode(File source, int maxWidth, int maxHeight,
+        BitmapPool<FakeImage> pool) throws IOException {
+      FakeImage bounds = readFile(source);
+      int sampleSize = ThumbnailLoader
+          .calculateSampleSize(bounds.width, bounds.height, maxWidth, maxHeight);
+      float width = (float) bounds.width / sampleSize;
+      float height = (float) bounds.height / sampleSize;
+      float scale = Math.min(1f, Math.min(maxWidth / width, maxHeight / height));
+      return decodeInto(Math.round(width * scale), Math.round(height * scale), pool);
+    }
+
+    @Override
+    public FakeImage read(File thumbnail, BitmapPool<FakeImage> pool) throws IOException {
+      FakeImage bounds = readFile(thumbnail);
+      return decodeInto(bounds.width, bounds.height, pool);
+    }
+
+    private static FakeImage decodeInto(int width, int height, BitmapPool<FakeImage> pool) {
+      FakeImage image = pool.get(width * height * 2);
+      if (image == null) {
+        return new FakeImage(width, height);
+      }
+      image.reconfigure(width, height);
+      return image;
+    }
+
+    private static FakeImage readFile(File file) throws IOException {
+      try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+        String line = in.readLine();
+        if (line == null || !line.matches("\\d+ \\d+")) {
+          throw new IOException("Not an image");
+        }
+        String[] dimensions = line.split(" ");
+        return new FakeImage(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]));
+      }
+    }
+
+    @Override
+    public void encode(FakeImage thumbnail, OutputStream out) throws IOException {
+      Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+      writer.write(thumbnail.width + " " + thumbnail.height + "\n");
+      writer.flush();
+    }
+
+    @Override
+    public int sizeOf(FakeImage thumbnail) {
+      return thumbnail.allocationSize;
+    }
+  }
+
+  /**
+   * Runs the tasks only when asked to, such that requests may be cancelled in between.
+   */
+  private static final class ManualExecutor implements Executor {
+    final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+    }
+
+    void runAll() {
+      while (!tasks.isEmpty()) {
+        tasks.poll().run();
+      }
+    }
+  }
+
+  private static final class RecordingTarget implements ThumbnailLoader.Target<FakeImage> {
+    FakeImage thumbnail;
+    IOException failure;
+
+    @Override
+    public void onThumbnailLoaded(FakeImage thumbnail) {
+      this.thumbnail = thumbnail;
+    }
+
+    @Override
+    public void onThumbnailFailed(IOException cause) {
+      this.failure = cause;
+    }
+  }
+
+  private static final Executor DIRECT = Runnable::run;
+
+  private File mDirectory;
+  private File mCacheDirectory;
+  private FakeDecoder mDecoder;
+
+  @Before
+  public void setUp() throws IOException {
+    mDirectory = Files.createTempDirectory("thumbnails").toFile();
+    mCacheDirectory = new File(mDirectory, "cache");
+    mDecoder = new FakeDecoder();
+  }
+
+  @After
+  public void tearDown() {
+    delete(mDirectory);
+  }
+
+  @Test
+  public void servesRepeatedRequestsFromMemory() throws IOException {
+    ThumbnailLoader<FakeImage> loader = newLoader(1024 * 1024, DIRECT, DIRECT);
+    File image = writeImage("photo.jpg", 4000, 3000);
+
+    RecordingTarget first = new RecordingTarget();
+    loader.load(image, 100, 100, first);
+    RecordingTarget second = new RecordingTarget();
+    loader.load(image, 100, 100, second);
+
+    assertNotNull(first.thumbnail);
+    assertSame(first.thumbnail, second.thumbnail);
+    assertEquals(100, first.thumbnail.width);
+    assertEquals(75, first.thumbnail.height);
+    assertEquals(1, loader.getDecodeCount());
+    assertEquals(1, loader.getMemoryHitCount());
+  }
+
+  @Test
+  public void servesThumbnailsFromDiskOnceEvictedFromMemory() throws IOException {
+    File image = writeImage("photo.jpg", 4000, 3000);
+    newLoader(1024 * 1024, DIRECT, DIRECT).load(image, 100, 100, new RecordingTarget());
+
+    ThumbnailLoader<FakeImage> restarted = newLoader(1024 * 1024, DIRECT, DIRECT);
+    RecordingTarget target = new RecordingTarget();
+    restarted.load(image, 100, 100, target);
+
+    assertEquals(100, target.thumbnail.width);
+    assertEquals(0, restarted.getDecodeCount());
+    assertEquals(1, restarted.getDiskHitCount());
+  }
+
+  @Test
+  public void skipsRequestsWhichAreCancelledBeforeDecoding() throws IOException {
+    ManualExecutor decoder = new ManualExecutor();
+    ThumbnailLoader<FakeImage> loader = newLoader(1024 * 1024, decoder, DIRECT);
+    RecordingTarget target = new RecordingTarget();
+
+    ThumbnailLoader.Request request = loader
+        .load(writeImage("photo.jpg", 4000, 3000), 100, 100, target);
+    request.cancel();
+    decoder.runAll();
+
+    assertNull(target.thumbnail);
+    assertEquals(0, loader.getDecodeCount());
+  }
+
+  @Test
+  public void dropsResultsOfRequestsWhichAreCancelledWhileDecoding() throws IOException {
+    ManualExecutor callbacks = new ManualExecutor();
+    ThumbnailLoader<FakeImage> loader = newLoader(1024 * 1024, DIRECT, callbacks);
+    File image = writeImage("photo.jpg", 4000, 3000);
+    RecordingTarget recycled = new RecordingTarget();
+
+    // the view holder is recycled after the image has been decoded, but before it is shown
+    loader.load(image, 100, 100, recycled).cancel();
+    callbacks.runAll();
+
+    assertNull(recycled.thumbnail);
+    assertEquals(1, loader.getDecodeCount());
+    assertEquals(1, loader.getCancelCount());
+
+    // the work is not lost though
+    RecordingTarget rebound = new RecordingTarget();
+    loader.load(image, 100, 100, rebound);
+    assertNotNull(rebound.thumbnail);
+    assertEquals(1, loader.getMemoryHitCount());
+  }
+
+  @Test
+  public void staysWithinItsMemoryBound() throws IOException {
+    // each thumbnail takes 100 * 75 * 2 = 15000 bytes
+    ThumbnailLoader<FakeImage> loader = newLoader(100_000, DIRECT, DIRECT);
+    for (int i = 0; i < 50; ++i) {
+      RecordingTarget target = new RecordingTarget();
+      loader.load(writeImage("photo" + i + ".jpg", 4000, 3000), 100, 100, target);
+      assertNotNull(target.thumbnail);
+      assertTrue(loader.getMemoryCacheSize() <= loader.getMaxMemoryCacheSize());
+    }
+    assertEquals(6 * 15000, loader.getMemoryCacheSize());
+
+    loader.clearMemory();
+    assertEquals(0, loader.getMemoryCacheSize());
+  }
+
+  @Test
+  public void reusesTheBitmapsOfThumbnailsWhichAreNeitherCachedNorDisplayed() throws IOException {
+    // each thumbnail takes 100 * 75 * 2 = 15000 bytes, so only one of them is cached
+    ThumbnailLoader<FakeImage> loader = newLoader(20_000, DIRECT, DIRECT);
+    RecordingTarget first = new RecordingTarget();
+    loader.load(writeImage("first.jpg", 4000, 3000), 100, 100, first);
+
+    loader.release(first.thumbnail);
+    assertEquals(0, loader.getBitmapPool().size());
+
+    RecordingTarget second = new RecordingTarget();
+    loader.load(writeImage("second.jpg", 4000, 3000), 100, 100, second);
+    assertEquals(15000, loader.getBitmapPool().size());
+
+    RecordingTarget third = new RecordingTarget();
+    loader.load(writeImage("third.jpg", 3000, 4000), 100, 100, third);
+    assertSame(first.thumbnail, third.thumbnail);
+    assertEquals(75, third.thumbnail.width);
+    assertEquals(100, third.thumbnail.height);
+    assertEquals(1, loader.getBitmapPool().getReuseCount());
+    // the second thumbnail has been evicted from the cache, but is still displayed
+    assertEquals(0, loader.getBitmapPool().size());
+  }
+
+  @Test
+  public void allocatesNoBitmapsWhileScrollingInSteadyState() throws IOException {
+    // each thumbnail takes 100 * 75 * 2 = 15000 bytes, so three of them are cached
+    ThumbnailLoader<FakeImage> loader = new ThumbnailLoader<>(mDecoder, 50_000, 500_000, null, 0,
+        DIRECT, DIRECT);
+    List<File> images = new ArrayList<>();
+    for (int i = 0; i < 100; ++i) {
+      images.add(writeImage("photo" + i + ".jpg", 4000, 3000));
+    }
+    RecordingTarget[] holders = new RecordingTarget[5];
+    for (int i = 0; i < holders.length; ++i) {
+      holders[i] = new RecordingTarget();
+    }
+
+    scroll(loader, images, holders, 0, images.size());
+    long allocations = loader.getBitmapPool().getAllocationCount();
+    long reuses = loader.getBitmapPool().getReuseCount();
+
+    scroll(loader, images, holders, images.size() - 1, -1);
+    scroll(loader, images, holders, 0, images.size());
+
+    assertEquals(allocations, loader.getBitmapPool().getAllocationCount());
+    assertTrue(loader.getBitmapPool().getReuseCount() >= reuses + 2 * images.size() - 20);
+    assertTrue(loader.getMemoryCacheSize() <= loader.getMaxMemoryCacheSize());
+  }
+
+  /**
+   * Binds the images from {@code from} (inclusive) to {@code to} (exclusive) to the holders, just
+   * like a recycler view which is scrolled through them.
+   */
+  private static void scroll(ThumbnailLoader<FakeImage> loader, List<File> images,
+      RecordingTarget[] holders, int from, int to) {
+    int step = from < to ? 1 : -1;
+    for (int position = from; position != to; position += step) {
+      RecordingTarget holder = holders[position % holders.length];
+      if (holder.thumbnail != null) {
+        loader.release(holder.thumbnail);
+        holder.thumbnail = null;
+      }
+      loader.load(images.get(position), 100, 100, holder);
+      assertNotNull(holder.thumbnail);
+    }
+  }
+
+  @Test
+  public void reportsImagesWhichCannotBeDecoded() throws IOException {
+    ThumbnailLoader<FakeImage> loader = newLoader(1024 * 1024, DIRECT, DIRECT);
+    File broken = new File(mDirectory, "broken.jpg");
+    try (OutputStream out = new FileOutputStream(broken)) {
+      out.write("garbage".getBytes(StandardCharsets.UTF_8));
+    }
+
+    RecordingTarget target = new RecordingTarget();
+    loader.load(broken, 100, 100, target);
+
+    assertNull(target.thumbnail);
+    assertNotNull(target.failure);
+  }
+
+  @Test
+  public void subsamplesByTheLargestPowerOfTwoWhichStillCoversTheBounds() {
+    assertEquals(1, ThumbnailLoader.calculateSampleSize(100, 100, 100, 100));
+    assertEquals(1, ThumbnailLoader.calculateSampleSize(50, 50, 100, 100));
+    assertEquals(2, ThumbnailLoader.calculateSampleSize(4000, 3000, 1080, 1080));
+    assertEquals(16, ThumbnailLoader.calculateSampleSize(4000, 3000, 200, 200));
+    // a panorama is scaled by its width
+    assertEquals(4, ThumbnailLoader.calculateSampleSize(8000, 1000, 1080, 1080));
+  }
+
+  private ThumbnailLoader<FakeImage> newLoader(long memoryBytes, Executor decoder,
+      Executor callbacks) {
+    return new ThumbnailLoader<>(mDecoder, memoryBytes, memoryBytes, mCacheDirectory,
+        1024 * 1024, decoder, callbacks);
+  }
+
+  private File writeImage(String name, int width, int height) throws IOException {
+    File image = new File(mDirectory, name);
+    try (OutputStream out = new FileOutputStream(image)) {
+      mDecoder.encode(new FakeImage(width, height), out);
+    }
+    return image;
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    //noinspection ResultOfMethodCallIgnored
+    file.delete();
+  }
+
+}
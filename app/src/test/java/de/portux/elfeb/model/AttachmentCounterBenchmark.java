@@ -0,0 +1,150 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+
+import de.portux.elfeb.support.Benchmarks;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Deletes 10k of the 80k attachments of 20k observations, once with the counters kept by the
+ * triggers of the {@link FieldNotesDatabase} and once the way
+ * {@code deleteAttachmentsAndUpdateFlags} did before them: by counting the remaining attachments
+ * of each observation and type, and clearing the flags of those left without any. Both run in a
+ * single transaction, such that only the work of the statements is compared.
+ */
+public class AttachmentCounterBenchmark {
+
+  private static final int OBSERVATIONS = 20_000;
+
+  private static final int DELETED = 10_000;
+
+  private SqliteTestDatabase mDatabase;
+  private File mFile;
+  private List<List<Object>> mDeleted;
+
+  @Before
+  public void setUp() throws IOException, SQLException {
+    Benchmarks.assumeEnabled();
+    mFile = File.createTempFile("field_notes", ".db");
+    mDatabase = new SqliteTestDatabase(mFile);
+    mDatabase.runInTransaction(() -> {
+      try {
+        // three images and a recording each
+        mDatabase.execute("WITH RECURSIVE k(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM k "
+            + "WHERE i < " + (OBSERVATIONS - 1) + ") INSERT INTO observations (time, suspicion, "
+            + "determined, images_attached, recordings_attached, image_count, audio_count) "
+            + "SELECT i * 60000, 'Species ' || (i % 40), 0, 1, 1, 3, 1 FROM k");
+        mDatabase.execute("WITH RECURSIVE k(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM k "
+            + "WHERE i < 3) INSERT INTO attachments (observation_id, file_path, type) "
+            + "SELECT o.id, '/files/' || o.id || '-' || k.i, CASE k.i WHEN 3 THEN 'AUDIO' "
+            + "ELSE 'IMAGE' END FROM observations o, k");
+      } catch (SQLException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    // the recordings of a quarter of the observations, and all images of the first 2,500
+    mDeleted = mDatabase.query("SELECT observation_id, file_path, type FROM attachments "
+        + "WHERE (type = 'AUDIO' AND observation_id % 4 = 0) OR observation_id <= 2500 "
+        + "ORDER BY file_path LIMIT ?", DELETED);
+  }
+
+  @After
+  public void tearDown() {
+    if (mDatabase != null) {
+      mDatabase.close();
+      for (String suffix : new String[]{"", "-wal", "-shm"}) {
+        new File(mFile.getPath() + suffix).delete();
+      }
+    }
+  }
+
+  @Test
+  public void counterTriggers() throws Exception {
+    FieldNotesDatabase.createAttachmentCounterTriggers(mDatabase.asSupportDatabase());
+
+    Benchmarks.time("Deletion of 10k attachments, counter triggers",
+        () -> mDatabase.runInTransaction(() -> {
+          try {
+            for (List<Object> attachment : mDeleted) {
+              delete(attachment);
+            }
+          } catch (SQLException e) {
+            throw new IllegalStateException(e);
+          }
+        }));
+
+    assertFlags();
+  }
+
+  @Test
+  public void countQueries() throws Exception {
+    Benchmarks.time("Deletion of 10k attachments, COUNT queries",
+        () -> mDatabase.runInTransaction(() -> {
+          try {
+            deleteAndUpdateFlags();
+          } catch (SQLException e) {
+            throw new IllegalStateException(e);
+          }
+        }));
+
+    assertFlags();
+  }
+
+  private void deleteAndUpdateFlags() throws SQLException {
+    Map<Long, Long> remainingImages = new HashMap<>();
+    Map<Long, Long> remainingRecordings = new HashMap<>();
+    for (List<Object> attachment : mDeleted) {
+      Map<Long, Long> remaining = "IMAGE".equals(attachment.get(2))
+          ? remainingImages
+          : remainingRecordings;
+      Long count = remaining.get(attachment.get(0));
+      if (count == null) {
+        count = (Long) mDatabase.query("SELECT COUNT(*) FROM attachments "
+            + "WHERE observation_id = ? AND type = ?", attachment.get(0), attachment.get(2))
+            .get(0).get(0);
+      }
+      remaining.put((Long) attachment.get(0), count - 1);
+    }
+
+    for (List<Object> attachment : mDeleted) {
+      delete(attachment);
+    }
+
+    for (Map.Entry<Long, Long> remaining : remainingImages.entrySet()) {
+      if (remaining.getValue() == 0) {
+        mDatabase.execute("UPDATE observations SET images_attached = 0 WHERE id = ?",
+            remaining.getKey());
+      }
+    }
+    for (Map.Entry<Long, Long> remaining : remainingRecordings.entrySet()) {
+      if (remaining.getValue() == 0) {
+        mDatabase.execute("UPDATE observations SET recordings_attached = 0 WHERE id = ?",
+            remaining.getKey());
+      }
+    }
+  }
+
+  private void delete(List<Object> attachment) throws SQLException {
+    mDatabase.execute("DELETE FROM attachments WHERE file_path = ? AND observation_id = ?",
+        attachment.get(1), attachment.get(0));
+  }
+
+  private void assertFlags() throws SQLException {
+    assertEquals(4L * OBSERVATIONS - DELETED,
+        mDatabase.query("SELECT COUNT(*) FROM attachments").get(0).get(0));
+    assertEquals(0L, mDatabase.query("SELECT COUNT(*) FROM observations o "
+        + "WHERE images_attached != EXISTS (SELECT 1 FROM attachments a "
+        + "WHERE a.observation_id = o.id AND a.type = 'IMAGE') "
+        + "OR recordings_attached != EXISTS (SELECT 1 FROM attachments a "
+        + "WHERE a.observation_id = o.id AND a.type = 'AUDIO')").get(0).get(0));
+  }
+
+}
@@ -0,0 +1,145 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class BatchingWriteQueueTest {
+
+  private static final int BURST_SIZE = 100;
+
+  /**
+   * Stands in for the database: counts transactions and undoes the writes of failed ones.
+   */
+  private static class RecordingTransactionRunner implements BatchingWriteQueue.TransactionRunner {
+    final List<Integer> committed = Collections.synchronizedList(new ArrayList<>());
+    final List<Integer> currentTransaction = new ArrayList<>();
+    final AtomicInteger transactions = new AtomicInteger();
+    final CountDownLatch firstTransactionStarted = new CountDownLatch(1);
+    final CountDownLatch releaseFirstTransaction = new CountDownLatch(1);
+
+    @Override
+    public void runInTransaction(Runnable transaction) {
+      firstTransactionStarted.countDown();
+      awaitQuietly(releaseFirstTransaction);
+      currentTransaction.clear();
+      transaction.run();
+      committed.addAll(currentTransaction);
+      transactions.incrementAndGet();
+    }
+
+    void write(int value) {
+      currentTransaction.add(value);
+    }
+  }
+
+  @Test
+  public void burstIsCoalescedIntoFewTransactions() throws Exception {
+    RecordingTransactionRunner db = new RecordingTransactionRunner();
+    BatchingWriteQueue queue = new BatchingWriteQueue(db);
+
+    // the first write occupies the writer while the rest of the burst queues up
+    List<ListenableFuture<Void>> completions = new ArrayList<>();
+    completions.add(queue.submit(() -> db.write(0)));
+    assertTrue(db.firstTransactionStarted.await(5, TimeUnit.SECONDS));
+    for (int i = 1; i < BURST_SIZE; ++i) {
+      final int value = i;
+      completions.add(queue.submit(() -> db.write(value)));
+    }
+    db.releaseFirstTransaction.countDown();
+    awaitAll(completions);
+
+    assertEquals(2, db.transactions.get());
+    assertEquals(2, queue.getTransactionCount());
+    assertEquals(BURST_SIZE, queue.getMutationCount());
+  }
+
+  @Test
+  public void mutationsAreAppliedInSubmissionOrder() throws Exception {
+    RecordingTransactionRunner db = new RecordingTransactionRunner();
+    db.releaseFirstTransaction.countDown();
+    BatchingWriteQueue queue = new BatchingWriteQueue(db);
+
+    List<ListenableFuture<Void>> completions = new ArrayList<>();
+    List<Integer> expected = new ArrayList<>();
+    for (int i = 0; i < 10 * BURST_SIZE; ++i) {
+      final int value = i;
+      expected.add(value);
+      completions.add(queue.submit(() -> db.write(value)));
+    }
+    awaitAll(completions);
+
+    assertEquals(expected, db.committed);
+  }
+
+  @Test
+  public void failingMutationOnlyFailsItsOwnFuture() throws Exception {
+    RecordingTransactionRunner db = new RecordingTransactionRunner();
+    BatchingWriteQueue queue = new BatchingWriteQueue(db);
+
+    ListenableFuture<Void> blocker = queue.submit(() -> db.write(-1));
+    assertTrue(db.firstTransactionStarted.await(5, TimeUnit.SECONDS));
+    ListenableFuture<Void> before = queue.submit(() -> db.write(1));
+    ListenableFuture<Void> broken = queue.submit(() -> {
+      throw new IllegalStateException("broken");
+    });
+    ListenableFuture<Void> after = queue.submit(() -> db.write(2));
+    db.releaseFirstTransaction.countDown();
+    awaitAll(Collections.singletonList(blocker));
+
+    before.get(5, TimeUnit.SECONDS);
+    after.get(5, TimeUnit.SECONDS);
+    try {
+      broken.get(5, TimeUnit.SECONDS);
+      fail("Broken mutation should have failed");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    assertEquals(3, db.committed.size());
+  }
+
+  @Test
+  public void errorsFailTheirBatchWithoutStallingTheQueue() throws Exception {
+    RecordingTransactionRunner db = new RecordingTransactionRunner();
+    db.releaseFirstTransaction.countDown();
+    BatchingWriteQueue queue = new BatchingWriteQueue(db);
+
+    ListenableFuture<Void> broken = queue.submit(() -> {
+      throw new StackOverflowError("broken");
+    });
+    try {
+      broken.get(5, TimeUnit.SECONDS);
+      fail("Broken mutation should have failed");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof StackOverflowError);
+    }
+
+    queue.submit(() -> db.write(1)).get(5, TimeUnit.SECONDS);
+    assertEquals(Collections.singletonList(1), db.committed);
+  }
+
+  private static void awaitAll(List<ListenableFuture<Void>> completions) throws Exception {
+    for (ListenableFuture<Void> completion : completions) {
+      completion.get(5, TimeUnit.SECONDS);
+    }
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
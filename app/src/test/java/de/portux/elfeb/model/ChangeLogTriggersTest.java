@@ -0,0 +1,137 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChangeLogTriggersTest {
+
+  private SqliteTestDatabase mDatabase;
+
+  @Before
+  public void setUp() throws SQLException {
+    mDatabase = new SqliteTestDatabase();
+    FieldNotesDatabase.createChangeLogTriggers(mDatabase.asSupportDatabase());
+    mDatabase.insertTag("Aves", null);
+  }
+
+  @After
+  public void tearDown() {
+    mDatabase.close();
+  }
+
+  @Test
+  public void logsInsertsUpdatesAndDeletes() throws SQLException {
+    long id = mDatabase.insertObservation(1_000, "Parus major", false);
+    mDatabase.execute("UPDATE observations SET comment = ? WHERE id = ?", "At the feeder", id);
+    mDatabase.execute("UPDATE observations SET determined = 1 WHERE id = ?", id);
+    mDatabase.execute("DELETE FROM observations WHERE id = ?", id);
+
+    assertEquals(Arrays.asList(entry(id, 1_000, "Parus major", false),
+        entry(id, 1_000, "Parus major", false), entry(id, 1_000, "Parus major", false),
+        entry(id, 1_000, "Parus major", true)), changeLog());
+  }
+
+  @Test
+  public void logsKeyChangeAsDeletionOfTheOldKey() throws SQLException {
+    long id = mDatabase.insertObservation(1_000, "Parus majr", false);
+    clearChangeLog();
+
+    mDatabase.execute("UPDATE observations SET suspicion = ? WHERE id = ?", "Parus major", id);
+
+    // both entries are written by the same statement, so their order does not matter
+    assertEquals(new HashSet<>(Arrays.asList(entry(id, 1_000, "Parus majr", true),
+        entry(id, 1_000, "Parus major", false))), new HashSet<>(changeLog()));
+  }
+
+  @Test
+  public void ignoresUpdatesWhichDoNotChangeTheKey() throws SQLException {
+    long id = mDatabase.insertObservation(1_000, "Parus major", false);
+    clearChangeLog();
+
+    mDatabase.execute("UPDATE observations SET suspicion = suspicion, comment = ? WHERE id = ?",
+        "At the feeder", id);
+
+    assertEquals(Arrays.asList(entry(id, 1_000, "Parus major", false)), changeLog());
+  }
+
+  @Test
+  public void ignoresColumnsWhichAreNotSynced() throws SQLException {
+    long id = mDatabase.insertObservation(1_000, "Parus major", false);
+    clearChangeLog();
+
+    mDatabase.execute("UPDATE observations SET image_count = 2, images_attached = 1 "
+        + "WHERE id = ?", id);
+
+    assertTrue(changeLog().isEmpty());
+  }
+
+  @Test
+  public void logsTagsAndAttachmentsAsChangesOfTheirObservation() throws SQLException {
+    long id = mDatabase.insertObservation(1_000, "Parus major", false);
+    clearChangeLog();
+
+    mDatabase.execute("INSERT INTO observation_tags (observation_id, tag) VALUES (?, 'Aves')", id);
+    mDatabase.execute("DELETE FROM observation_tags WHERE observation_id = ?", id);
+    mDatabase.execute("INSERT INTO attachments (observation_id, file_path, type) "
+        + "VALUES (?, '/synced/a.jpg', 'IMAGE')", id);
+    mDatabase.execute("DELETE FROM attachments WHERE observation_id = ?", id);
+
+    List<List<Object>> entries = changeLog();
+    assertEquals(4, entries.size());
+    for (List<Object> entry : entries) {
+      assertEquals(entry(id, 1_000, "Parus major", false), entry);
+    }
+  }
+
+  @Test
+  public void deletingObservationOnlyLogsItsDeletion() throws SQLException {
+    long id = mDatabase.insertObservation(1_000, "Parus major", false);
+    mDatabase.execute("INSERT INTO observation_tags (observation_id, tag) VALUES (?, 'Aves')", id);
+    mDatabase.execute("INSERT INTO attachments (observation_id, file_path, type) "
+        + "VALUES (?, '/synced/a.jpg', 'IMAGE')", id);
+    clearChangeLog();
+
+    // the tags and attachments are deleted by the cascade, after their observation is gone
+    mDatabase.execute("DELETE FROM observations WHERE id = ?", id);
+
+    assertEquals(Arrays.asList(entry(id, 1_000, "Parus major", true)), changeLog());
+  }
+
+  @Test
+  public void sequenceNumbersAreNotReusedAfterPruning() throws SQLException {
+    mDatabase.insertObservation(1_000, "Parus major", false);
+    mDatabase.insertObservation(2_000, "Bellis perennis", false);
+    long last = (Long) mDatabase.query("SELECT MAX(seq) FROM change_log").get(0).get(0);
+    clearChangeLog();
+
+    mDatabase.insertObservation(3_000, "Turdus merula", false);
+
+    assertEquals(Arrays.<Object>asList(last + 1),
+        mDatabase.query("SELECT seq FROM change_log").get(0));
+  }
+
+  private void clearChangeLog() throws SQLException {
+    mDatabase.execute("DELETE FROM change_log");
+  }
+
+  /**
+   * @return the entries without their sequence numbers, in order
+   */
+  private List<List<Object>> changeLog() throws SQLException {
+    return mDatabase.query("SELECT observation_id, time, suspicion, deleted FROM change_log "
+        + "ORDER BY seq");
+  }
+
+  private static List<Object> entry(long id, long time, String suspicion, boolean deleted) {
+    return Arrays.<Object>asList(id, time, suspicion, deleted ? 1L : 0L);
+  }
+
+}
@@ -0,0 +1,100 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+
+import de.portux.elfeb.model.FieldNotesExporter.Format;
+import de.portux.elfeb.support.Benchmarks;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Locale;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Exports 200k located observations with two tags and an attachment each into a file, in each of
+ * the formats of the {@link FieldNotesExporter}.
+ * <p>
+ * The cursors of the test database hold all of their rows, unlike the windowed cursors on a
+ * device. The memory required is therefore not measured here.
+ */
+public class FieldNotesExporterBenchmark {
+
+  private static final int OBSERVATIONS = 200_000;
+
+  private SqliteTestDatabase mDatabase;
+  private File mFile;
+  private File mTarget;
+
+  @Before
+  public void setUp() throws IOException, SQLException {
+    Benchmarks.assumeEnabled();
+    mFile = File.createTempFile("field_notes", ".db");
+    mTarget = File.createTempFile("export", ".tmp");
+    mDatabase = new SqliteTestDatabase(mFile);
+    mDatabase.runInTransaction(() -> {
+      try {
+        mDatabase.execute("WITH RECURSIVE k(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM k "
+            + "WHERE i < 19) INSERT INTO tags (tag) SELECT 'Tag ' || i FROM k");
+        mDatabase.execute("WITH RECURSIVE k(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM k "
+            + "WHERE i < " + (OBSERVATIONS - 1) + ") INSERT INTO observations (time, suspicion, "
+            + "comment, determined, images_attached, recordings_attached, image_count, "
+            + "audio_count, pos_latitude, pos_longitude) SELECT 1500000000000 + i * 60000, "
+            + "'Species ' || (i % 400), 'Seen, \"twice\" ' || i, i % 2, 1, 0, 1, 0, "
+            + "52 + (i % 1000) / 1000.0, 13 + (i % 777) / 1000.0 FROM k");
+        mDatabase.execute("INSERT INTO observation_tags (observation_id, tag) "
+            + "SELECT id, 'Tag ' || (id % 20) FROM observations UNION ALL "
+            + "SELECT id, 'Tag ' || ((id / 20 + 1) % 20) FROM observations "
+            + "WHERE (id / 20 + 1) % 20 != id % 20");
+        mDatabase.execute("INSERT INTO attachments (observation_id, file_path, type) "
+            + "SELECT id, '/photos/IMG_' || id || '.jpg', 'IMAGE' FROM observations");
+      } catch (SQLException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    if (mDatabase != null) {
+      mDatabase.close();
+      mTarget.delete();
+      for (String suffix : new String[]{"", "-wal", "-shm"}) {
+        new File(mFile.getPath() + suffix).delete();
+      }
+    }
+  }
+
+  @Test
+  public void csv() throws Exception {
+    export(Format.CSV);
+  }
+
+  @Test
+  public void geoJson() throws Exception {
+    export(Format.GEOJSON);
+  }
+
+  @Test
+  public void darwinCoreArchive() throws Exception {
+    export(Format.DARWIN_CORE_ARCHIVE);
+  }
+
+  private void export(Format format) throws Exception {
+    FieldNotesExporter exporter = new FieldNotesExporter(mDatabase.asOpenHelper());
+    int[] exported = new int[1];
+
+    long millis = Benchmarks.time("Export of 200k observations, " + format, () -> {
+      try (FileOutputStream out = new FileOutputStream(mTarget)) {
+        exported[0] = exporter.export(format, out.getChannel(), false);
+      }
+    });
+    System.out.println(String.format(Locale.US, "%-50s %8d per second, %d MiB", "",
+        OBSERVATIONS * 1000L / Math.max(millis, 1), mTarget.length() >> 20));
+
+    assertEquals(OBSERVATIONS, exported[0]);
+  }
+
+}
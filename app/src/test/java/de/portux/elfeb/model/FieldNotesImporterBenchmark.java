@@ -0,0 +1,108 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+
+import de.portux.elfeb.model.FieldNotesImporter.Format;
+import de.portux.elfeb.model.imports.CsvObservationReader;
+import de.portux.elfeb.model.imports.ImportRecord;
+import de.portux.elfeb.model.imports.ObservationReader;
+import de.portux.elfeb.support.Benchmarks;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Imports 100k generated rows into a database file, once through the {@link FieldNotesImporter}
+ * and once the way observations were written before it existed: one transaction per observation.
+ */
+public class FieldNotesImporterBenchmark {
+
+  private static final int ROWS = 100_000;
+
+  private static final String[] SUSPICIONS = {"Parus major", "Turdus merula", "Bellis perennis",
+      "Erithacus rubecula", "Fringilla coelebs"};
+
+  private static final String[] TAGS = {"Aves", "Plantae", "Garden", "Forest", "Survey"};
+
+  private File mFile;
+  private File mDatabaseFile;
+
+  @Before
+  public void setUp() throws IOException {
+    Benchmarks.assumeEnabled();
+    mDatabaseFile = File.createTempFile("field_notes", ".db");
+    mFile = File.createTempFile("observations", ".csv");
+    try (PrintWriter out = new PrintWriter(mFile, "UTF-8")) {
+      out.print("time,suspicion,comment,latitude,longitude,tags\r\n");
+      for (int i = 0; i < ROWS; ++i) {
+        out.print((1_500_000_000_000L + i * 60_000L) + "," + SUSPICIONS[i % SUSPICIONS.length]
+            + ",Row " + i + "," + (52 + i % 100 / 100.0) + "," + (13 + i % 77 / 100.0) + ","
+            + TAGS[i % TAGS.length] + "|" + TAGS[i / 7 % TAGS.length] + "\r\n");
+      }
+    }
+  }
+
+  @After
+  public void tearDown() {
+    if (mFile != null) {
+      mFile.delete();
+      for (String suffix : new String[]{"", "-wal", "-shm"}) {
+        new File(mDatabaseFile.getPath() + suffix).delete();
+      }
+    }
+  }
+
+  @Test
+  public void importInBatches() throws Exception {
+    try (SqliteTestDatabase database = new SqliteTestDatabase(mDatabaseFile)) {
+      FieldNotesImporter importer = new FieldNotesImporter(database.asOpenHelper(),
+          new BatchingWriteQueue(database::runInTransaction), InMemoryPreferences.create());
+
+      Benchmarks.time("Import of 100k rows in batches",
+          () -> importer.importFrom(mFile, Format.CSV, null));
+
+      assertEquals((long) ROWS, database.query("SELECT COUNT(*) FROM observations").get(0).get(0));
+    }
+  }
+
+  @Test
+  public void importOneTransactionPerObservation() throws Exception {
+    try (SqliteTestDatabase database = new SqliteTestDatabase(mDatabaseFile);
+        ObservationReader reader = new CsvObservationReader(
+            new BufferedInputStream(new FileInputStream(mFile)))) {
+      Benchmarks.time("Import of 100k rows, one transaction each", () -> {
+        ImportRecord record = new ImportRecord();
+        while (reader.read(record)) {
+          database.runInTransaction(() -> insert(database, record));
+        }
+      });
+
+      assertEquals((long) ROWS, database.query("SELECT COUNT(*) FROM observations").get(0).get(0));
+    }
+  }
+
+  private static void insert(SqliteTestDatabase database, ImportRecord record) {
+    try {
+      long id = database.insert("INSERT INTO observations (time, suspicion, comment, determined, "
+              + "images_attached, recordings_attached, image_count, audio_count, pos_latitude, "
+              + "pos_longitude, geohash) VALUES (?, ?, ?, ?, 0, 0, 0, 0, ?, ?, ?)",
+          record.getTime(), record.getSuspicion(), record.getComment(),
+          record.isDetermined() ? 1 : 0, record.getLatitude(), record.getLongitude(),
+          GeoHash.encode(record.getLatitude(), record.getLongitude(), GeoHash.STORED_PRECISION));
+      for (String tag : record.getTags()) {
+        database.execute("INSERT OR IGNORE INTO tags (tag) VALUES (?)", tag);
+        database.execute("INSERT OR IGNORE INTO observation_tags (observation_id, tag) "
+            + "VALUES (?, ?)", id, tag);
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
@@ -0,0 +1,252 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.content.SharedPreferences;
+import com.google.common.util.concurrent.ListenableFuture;
+import de.portux.elfeb.model.FieldNotesImporter.Format;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FieldNotesImporterTest {
+
+  private static final int BATCH_SIZE = FieldNotesImporter.BATCH_SIZE;
+
+  private static final int ROWS = 2 * BATCH_SIZE + 500;
+
+  private static final long FIRST_TIME = 1_500_000_000_000L;
+
+  private static final long INTERVAL = 60_000;
+
+  private static final String[] SUSPICIONS = {"Parus major", "Turdus merula", "Bellis perennis"};
+
+  private SqliteTestDatabase mDatabase;
+  private SharedPreferences mCheckpoints;
+  private ExecutorService mWriter;
+  private File mFile;
+
+  /**
+   * The number of observations each committed transaction has added, in order.
+   */
+  private final List<Long> mCommitted = Collections.synchronizedList(new ArrayList<>());
+
+  private int mTransactions = 0;
+
+  /**
+   * The transaction to fail, counting from 0. Will be -1 if none should fail.
+   */
+  private int mFailingTransaction = -1;
+
+  /**
+   * Whether the failing transaction is committed before it fails, as if the import was
+   * interrupted right before its checkpoint could be saved.
+   */
+  private boolean mFailAfterCommit = false;
+
+  @Before
+  public void setUp() throws IOException, SQLException {
+    mDatabase = new SqliteTestDatabase();
+    // the tags table ignores duplicates, so the attempts to insert them are counted separately
+    mDatabase.execute("CREATE TABLE tag_inserts (tag TEXT NOT NULL)");
+    mDatabase.execute("CREATE TRIGGER count_tag_inserts BEFORE INSERT ON tags "
+        + "BEGIN INSERT INTO tag_inserts (tag) VALUES (NEW.tag); END");
+    mCheckpoints = InMemoryPreferences.create();
+    mWriter = Executors.newSingleThreadExecutor();
+    mFile = File.createTempFile("observations", ".csv");
+    try (PrintWriter out = new PrintWriter(mFile, "UTF-8")) {
+      out.print("time,suspicion,comment,tags\r\n");
+      for (int i = 0; i < ROWS; ++i) {
+        out.print((FIRST_TIME + i * INTERVAL) + "," + SUSPICIONS[i % SUSPICIONS.length]
+            + ",Row " + i + ",Aves|Survey " + (i / BATCH_SIZE) + "\r\n");
+      }
+    }
+  }
+
+  @After
+  public void tearDown() {
+    mWriter.shutdown();
+    mDatabase.close();
+    mFile.delete();
+  }
+
+  @Test
+  public void importsAllRowsInBatchesWhileParsingTheNextOne() throws Exception {
+    List<Integer> progress = new ArrayList<>();
+
+    int imported = newImporter().importFrom(mFile, Format.CSV,
+        (importedSoFar, skipped) -> progress.add(importedSoFar));
+
+    assertEquals(ROWS, imported);
+    assertEquals(Arrays.asList(2_000, 4_000, 4_500), progress);
+    assertEquals(Arrays.asList(2_000L, 2_000L, 500L), mCommitted);
+    // each row ended up in its own observation, although its batch was reused while it was written
+    assertEquals(ROWS, count("SELECT COUNT(*) FROM observations "
+        + "WHERE comment = 'Row ' || ((time - ?) / ?)", FIRST_TIME, INTERVAL));
+    assertEquals(2 * ROWS, count("SELECT COUNT(*) FROM observation_tags"));
+  }
+
+  @Test
+  public void insertsEachTagOnlyOnce() throws Exception {
+    mDatabase.insertTag("Aves", null);
+    mDatabase.execute("DELETE FROM tag_inserts");
+
+    newImporter().importFrom(mFile, Format.CSV, null);
+
+    // the tag which existed already is not inserted at all
+    assertEquals(Arrays.asList(Arrays.<Object>asList("Survey 0", 1L),
+        Arrays.<Object>asList("Survey 1", 1L), Arrays.<Object>asList("Survey 2", 1L)),
+        mDatabase.query("SELECT tag, COUNT(*) FROM tag_inserts GROUP BY tag ORDER BY tag"));
+    assertEquals(ROWS, count("SELECT COUNT(*) FROM observation_tags WHERE tag = 'Aves'"));
+  }
+
+  @Test
+  public void insertsTagsAgainWhenTheirBatchIsRetried() throws Exception {
+    CountDownLatch submitted = new CountDownLatch(2);
+    BatchingWriteQueue writeQueue = new BatchingWriteQueue(this::runInTransaction, mWriter,
+        BatchingWriteQueue.DEFAULT_MAX_BATCH_SIZE) {
+      @Override
+      ListenableFuture<Void> submit(Runnable mutation) {
+        ListenableFuture<Void> completion = super.submit(mutation);
+        submitted.countDown();
+        return completion;
+      }
+    };
+    CountDownLatch release = new CountDownLatch(1);
+    writeQueue.submit(() -> awaitUninterruptibly(release));
+    ExecutorService importer = Executors.newSingleThreadExecutor();
+    Future<Integer> imported = importer.submit(
+        () -> new FieldNotesImporter(mDatabase.asOpenHelper(), writeQueue, mCheckpoints)
+            .importFrom(mFile, Format.CSV, null));
+    assertTrue(submitted.await(10, TimeUnit.SECONDS));
+    // the first batch of the import is coalesced with a broken mutation, so it is rolled back
+    // and retried on its own
+    writeQueue.submit(() -> {
+      throw new IllegalStateException("Broken mutation");
+    });
+    release.countDown();
+
+    assertEquals(ROWS, (int) imported.get(10, TimeUnit.SECONDS));
+    importer.shutdown();
+    assertEquals(2 * ROWS, count("SELECT COUNT(*) FROM observation_tags"));
+  }
+
+  @Test
+  public void resumesFromTheLastCheckpoint() throws Exception {
+    // the second batch is rolled back, along with the tag it has created
+    mFailingTransaction = 1;
+    assertImportFails();
+    assertEquals(BATCH_SIZE, count("SELECT COUNT(*) FROM observations"));
+
+    mFailingTransaction = -1;
+    List<Integer> skipped = new ArrayList<>();
+    int imported = newImporter().importFrom(mFile, Format.CSV,
+        (importedSoFar, skippedSoFar) -> skipped.add(skippedSoFar));
+
+    // the rows up to the checkpoint are not read again, so they are not even skipped
+    assertEquals(ROWS - BATCH_SIZE, imported);
+    assertEquals(Arrays.asList(0, 0), skipped);
+    assertEquals(ROWS, count("SELECT COUNT(*) FROM observations"));
+    assertEquals(ROWS - BATCH_SIZE, count("SELECT COUNT(*) FROM observation_tags "
+        + "WHERE tag IN ('Survey 1', 'Survey 2')"));
+  }
+
+  @Test
+  public void skipsTheRowsOfCommittedBatchesWhichHaveNotBeenCheckpointed() throws Exception {
+    mFailingTransaction = 1;
+    mFailAfterCommit = true;
+    assertImportFails();
+    assertEquals(2 * BATCH_SIZE, count("SELECT COUNT(*) FROM observations"));
+
+    mFailingTransaction = -1;
+    List<Integer> skipped = new ArrayList<>();
+    int imported = newImporter().importFrom(mFile, Format.CSV,
+        (importedSoFar, skippedSoFar) -> skipped.add(skippedSoFar));
+
+    assertEquals(ROWS - 2 * BATCH_SIZE, imported);
+    assertEquals(Arrays.asList(BATCH_SIZE, BATCH_SIZE), skipped);
+    assertEquals(ROWS, count("SELECT COUNT(*) FROM observations"));
+    assertEquals(2 * ROWS, count("SELECT COUNT(*) FROM observation_tags"));
+  }
+
+  @Test
+  public void startsOverOnceTheFileHasBeenImported() throws Exception {
+    newImporter().importFrom(mFile, Format.CSV, null);
+
+    List<Integer> skipped = new ArrayList<>();
+    int imported = newImporter().importFrom(mFile, Format.CSV,
+        (importedSoFar, skippedSoFar) -> skipped.add(skippedSoFar));
+
+    // there is no checkpoint left, so all rows are read and found to exist
+    assertEquals(0, imported);
+    assertEquals(ROWS, (int) skipped.get(skipped.size() - 1));
+  }
+
+  private FieldNotesImporter newImporter() {
+    BatchingWriteQueue writeQueue = new BatchingWriteQueue(this::runInTransaction, mWriter,
+        BatchingWriteQueue.DEFAULT_MAX_BATCH_SIZE);
+    return new FieldNotesImporter(mDatabase.asOpenHelper(), writeQueue, mCheckpoints);
+  }
+
+  /**
+   * Runs a transaction on the writer thread, recording how many observations it added. The
+   * transaction is delayed a little, such that the next batch is parsed while it is running.
+   */
+  private void runInTransaction(Runnable transaction) {
+    int index = mTransactions++;
+    boolean failing = index == mFailingTransaction;
+    try {
+      Thread.sleep(20);
+      long before = count("SELECT COUNT(*) FROM observations");
+      mDatabase.runInTransaction(() -> {
+        transaction.run();
+        if (failing && !mFailAfterCommit) {
+          throw new IllegalStateException("Disk full");
+        }
+      });
+      mCommitted.add(count("SELECT COUNT(*) FROM observations") - before);
+    } catch (InterruptedException | SQLException e) {
+      throw new IllegalStateException(e);
+    }
+    if (failing) {
+      throw new IllegalStateException("Interrupted before the checkpoint");
+    }
+  }
+
+  private void assertImportFails() {
+    try {
+      newImporter().importFrom(mFile, Format.CSV, null);
+      fail("Import should have failed");
+    } catch (IOException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private long count(String sql, Object... args) throws SQLException {
+    return (Long) mDatabase.query(sql, args).get(0).get(0);
+  }
+
+}
@@ -0,0 +1,156 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+
+import de.portux.elfeb.model.merge.ConflictPolicy;
+import de.portux.elfeb.support.Benchmarks;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Merges two databases of 100k observations each, half of which exist in both, once through the
+ * {@link FieldNotesMerger} and once row by row: each observation of the other database is looked
+ * up locally by its key, and its tags and attachments are queried one observation at a time.
+ */
+public class FieldNotesMergerBenchmark {
+
+  private static final int OBSERVATIONS = 100_000;
+
+  private SqliteTestDatabase mLocal;
+  private SqliteTestDatabase mOther;
+  private File mLocalFile;
+  private File mOtherFile;
+
+  @Before
+  public void setUp() throws IOException, SQLException {
+    Benchmarks.assumeEnabled();
+    mLocalFile = File.createTempFile("local", ".db");
+    mOtherFile = File.createTempFile("other", ".db");
+    mLocal = new SqliteTestDatabase(mLocalFile);
+    mOther = new SqliteTestDatabase(mOtherFile);
+    populate(mLocal, 0, "Local");
+    populate(mOther, OBSERVATIONS / 2, "Other");
+  }
+
+  @After
+  public void tearDown() {
+    if (mLocal != null) {
+      mLocal.close();
+      mOther.close();
+      for (File file : new File[]{mLocalFile, mOtherFile}) {
+        for (String suffix : new String[]{"", "-wal", "-shm"}) {
+          new File(file.getPath() + suffix).delete();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void sortedMergeJoin() throws Exception {
+    FieldNotesMerger merger = new FieldNotesMerger(mLocal.asOpenHelper(),
+        new BatchingWriteQueue(mLocal::runInTransaction));
+
+    Benchmarks.time("Merge of 2 x 100k observations, sorted", () -> merger.merge(
+        (sql, arguments) -> mOther.asSupportDatabase().query(sql, arguments),
+        ConflictPolicy.TAKE_OTHER));
+
+    assertMerged();
+  }
+
+  @Test
+  public void rowByRow() throws Exception {
+    Benchmarks.time("Merge of 2 x 100k observations, row by row",
+        () -> mLocal.runInTransaction(this::mergeRowByRow));
+
+    assertMerged();
+  }
+
+  private void mergeRowByRow() {
+    try {
+      for (String tag : column(mOther.query("SELECT tag FROM tags"))) {
+        mLocal.execute("INSERT OR IGNORE INTO tags (tag) VALUES (?)", tag);
+      }
+      for (List<Object> other : mOther.query("SELECT id, time, suspicion, comment, determined "
+          + "FROM observations")) {
+        List<List<Object>> local = mLocal.query("SELECT id FROM observations "
+            + "WHERE time = ? AND suspicion = ?", other.get(1), other.get(2));
+        long id;
+        if (local.isEmpty()) {
+          id = mLocal.insert("INSERT INTO observations (time, suspicion, comment, determined, "
+                  + "images_attached, recordings_attached, image_count, audio_count) "
+                  + "VALUES (?, ?, ?, ?, 0, 0, 0, 0)", other.get(1), other.get(2), other.get(3),
+              other.get(4));
+        } else {
+          id = (Long) local.get(0).get(0);
+          mLocal.execute("UPDATE observations SET comment = ?, determined = ? WHERE id = ?",
+              other.get(3), other.get(4), id);
+        }
+        for (String tag : column(mOther.query("SELECT tag FROM observation_tags "
+            + "WHERE observation_id = ?", other.get(0)))) {
+          mLocal.execute("INSERT OR IGNORE INTO observation_tags (observation_id, tag) "
+              + "VALUES (?, ?)", id, tag);
+        }
+        for (List<Object> attachment : mOther.query("SELECT file_path, type FROM attachments "
+            + "WHERE observation_id = ?", other.get(0))) {
+          mLocal.execute("INSERT OR IGNORE INTO attachments (observation_id, file_path, type) "
+              + "VALUES (?, ?, ?)", id, attachment.get(0), attachment.get(1));
+        }
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void assertMerged() throws SQLException {
+    assertEquals(OBSERVATIONS * 3L / 2, count("SELECT COUNT(*) FROM observations"));
+    assertEquals(OBSERVATIONS / 2L, count("SELECT COUNT(*) FROM observations "
+        + "WHERE comment = 'Other' AND time < ?", OBSERVATIONS * 60_000L));
+    assertEquals(OBSERVATIONS * 3L / 2, count("SELECT COUNT(*) FROM attachments"));
+  }
+
+  private long count(String sql, Object... args) throws SQLException {
+    return (Long) mLocal.query(sql, args).get(0).get(0);
+  }
+
+  /**
+   * Inserts {@link #OBSERVATIONS} observations with two tags and an attachment each.
+   *
+   * @param first the index of the first observation. Observations of the same index have the
+   *     same key in all databases.
+   */
+  private static void populate(SqliteTestDatabase database, int first, String comment)
+      throws SQLException {
+    String indexes = "WITH RECURSIVE k(i) AS (SELECT " + first + " UNION ALL SELECT i + 1 FROM k "
+        + "WHERE i < " + (first + OBSERVATIONS - 1) + ") ";
+    database.runInTransaction(() -> {
+      try {
+        database.execute("WITH RECURSIVE k(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM k "
+            + "WHERE i < 19) INSERT INTO tags (tag) SELECT 'Tag ' || i FROM k");
+        database.execute(indexes + "INSERT INTO observations (time, suspicion, comment, "
+            + "determined, images_attached, recordings_attached, image_count, audio_count) "
+            + "SELECT i * 60000, 'Species ' || (i % 50), ?, i % 2, 0, 0, 0, 0 FROM k", comment);
+        database.execute("INSERT OR IGNORE INTO observation_tags (observation_id, tag) "
+            + "SELECT id, 'Tag ' || (id % 20) FROM observations UNION ALL "
+            + "SELECT id, 'Tag ' || (id / 20 % 20) FROM observations");
+        database.execute("INSERT INTO attachments (observation_id, file_path, type) "
+            + "SELECT id, '/photos/' || (time / 60000) || '.jpg', 'IMAGE' FROM observations");
+      } catch (SQLException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+  }
+
+  private static String[] column(List<List<Object>> rows) {
+    String[] values = new String[rows.size()];
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = (String) rows.get(i).get(0);
+    }
+    return values;
+  }
+
+}
@@ -0,0 +1,188 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+
+import de.portux.elfeb.model.merge.ConflictPolicy;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FieldNotesMergerTest {
+
+  private SqliteTestDatabase mLocal;
+  private SqliteTestDatabase mOther;
+  private BatchingWriteQueue mWriteQueue;
+  private FieldNotesMerger mMerger;
+
+  @Before
+  public void setUp() throws SQLException {
+    mLocal = new SqliteTestDatabase();
+    mOther = new SqliteTestDatabase();
+    FieldNotesDatabase.createTagClosureTriggers(mLocal.asSupportDatabase());
+    FieldNotesDatabase.createTagClosureTriggers(mOther.asSupportDatabase());
+    mWriteQueue = new BatchingWriteQueue(mLocal::runInTransaction, Runnable::run,
+        BatchingWriteQueue.DEFAULT_MAX_BATCH_SIZE);
+    mMerger = new FieldNotesMerger(mLocal.asOpenHelper(), mWriteQueue);
+  }
+
+  @After
+  public void tearDown() {
+    mLocal.close();
+    mOther.close();
+  }
+
+  @Test
+  public void joinsBothDatabasesAcrossPages() throws Exception {
+    // every third key is local and every second one is in the other database, such that both
+    // scans run ahead of each other in turns. The other scan crosses a page within a single time.
+    String[] suspicions = {"Bellis perennis", "Parus major", "Turdus merula"};
+    int keys = 3 * FieldNotesMerger.PAGE_SIZE;
+    Set<List<Object>> expected = new TreeSet<>(FieldNotesMergerTest::compareRows);
+    int common = 0;
+    for (int k = 0; k < keys; ++k) {
+      long time = k / suspicions.length;
+      String suspicion = suspicions[k % suspicions.length];
+      if (k % 3 == 0) {
+        mLocal.insertObservation(time, suspicion, false);
+      }
+      if (k % 2 == 0) {
+        mOther.insertObservation(time, suspicion, false);
+      }
+      if (k % 2 == 0 || k % 3 == 0) {
+        expected.add(Arrays.<Object>asList(time, suspicion));
+      }
+      if (k % 6 == 0) {
+        ++common;
+      }
+    }
+
+    FieldNotesMerger.Result result = merge(ConflictPolicy.KEEP_LOCAL);
+
+    assertEquals(keys / 2 - common, result.getInserted());
+    assertEquals(common, result.getUnchanged());
+    assertEquals(0, result.getUpdated());
+    assertEquals(new ArrayList<>(expected), keys(mLocal));
+    assertEquals(1, mWriteQueue.getTransactionCount());
+  }
+
+  @Test
+  public void ordersSuspicionsLikeTheIndex() throws Exception {
+    // Java compares the surrogates of the supplementary letter as less than the fullwidth A, while
+    // the index compares their code points the other way round
+    for (String suspicion : new String[]{"Parus major", "\u00C4sche", "\uD835\uDC00"}) {
+      mLocal.insertObservation(1_000, suspicion, false);
+    }
+    for (String suspicion : new String[]{"parus major", "\u00C4sche", "\uFF21", "\uD835\uDC00"}) {
+      mOther.insertObservation(1_000, suspicion, false);
+    }
+
+    FieldNotesMerger.Result result = merge(ConflictPolicy.KEEP_LOCAL);
+
+    assertEquals(2, result.getInserted());
+    assertEquals(2, result.getUnchanged());
+    assertEquals(5, keys(mLocal).size());
+  }
+
+  @Test
+  public void resolvesConflictsByThePolicy() throws Exception {
+    long local = mLocal.insertObservation(1_000, "Parus major", false);
+    mLocal.execute("UPDATE observations SET comment = 'Local' WHERE id = ?", local);
+    long other = mOther.insertObservation(1_000, "Parus major", true);
+    mOther.execute("UPDATE observations SET comment = 'Other' WHERE id = ?", other);
+
+    assertEquals(1, merge(ConflictPolicy.KEEP_LOCAL).getUnchanged());
+    assertEquals(Arrays.<Object>asList("Local", 0L), commentAndDetermined(local));
+
+    assertEquals(1, merge(ConflictPolicy.TAKE_OTHER).getUpdated());
+    assertEquals(Arrays.<Object>asList("Other", 1L), commentAndDetermined(local));
+  }
+
+  @Test
+  public void unitesTagsAndAttachments() throws Exception {
+    long local = mLocal.insertObservation(1_000, "Parus major", false);
+    mLocal.insertTag("Aves", null);
+    mLocal.execute("INSERT INTO observation_tags (observation_id, tag) VALUES (?, 'Aves')", local);
+    mLocal.execute("INSERT INTO attachments (observation_id, file_path, type) "
+        + "VALUES (?, '/photos/a.jpg', 'IMAGE')", local);
+
+    long other = mOther.insertObservation(1_000, "Parus major", false);
+    long otherOnly = mOther.insertObservation(2_000, "Turdus merula", false);
+    mOther.insertTag("Aves", null);
+    mOther.insertTag("Garden", null);
+    for (long id : new long[]{other, otherOnly}) {
+      mOther.execute("INSERT INTO observation_tags (observation_id, tag) VALUES (?, 'Aves')", id);
+      mOther.execute("INSERT INTO observation_tags (observation_id, tag) VALUES (?, 'Garden')",
+          id);
+      mOther.execute("INSERT INTO attachments (observation_id, file_path, type) "
+          + "VALUES (?, '/photos/a.jpg', 'IMAGE')", id);
+    }
+    mOther.execute("INSERT INTO attachments (observation_id, file_path, type) "
+        + "VALUES (?, '/recordings/b.m4a', 'AUDIO')", other);
+
+    merge(ConflictPolicy.KEEP_LOCAL);
+
+    assertEquals(Arrays.asList(Arrays.<Object>asList(1_000L, "Aves"),
+        Arrays.<Object>asList(1_000L, "Garden"), Arrays.<Object>asList(2_000L, "Aves"),
+        Arrays.<Object>asList(2_000L, "Garden")),
+        mLocal.query("SELECT o.time, ot.tag FROM observation_tags ot "
+            + "INNER JOIN observations o ON o.id = ot.observation_id ORDER BY o.time, ot.tag"));
+    assertEquals(Arrays.asList(Arrays.<Object>asList(1_000L, "/photos/a.jpg", "IMAGE"),
+        Arrays.<Object>asList(1_000L, "/recordings/b.m4a", "AUDIO"),
+        Arrays.<Object>asList(2_000L, "/photos/a.jpg", "IMAGE")),
+        mLocal.query("SELECT o.time, a.file_path, a.type FROM attachments a "
+            + "INNER JOIN observations o ON o.id = a.observation_id ORDER BY o.time, a.file_path"));
+  }
+
+  @Test
+  public void adoptsParentsUnlessTheyChangeTheLocalHierarchy() throws Exception {
+    mLocal.insertTag("Garden", null);
+    mLocal.insertTag("Forest", null);
+    mLocal.insertTag("Woodland", "Forest");
+    mLocal.insertTag("Birds", null);
+    mLocal.insertTag("Aves", "Birds");
+
+    mOther.insertTag("Habitat", null);
+    mOther.insertTag("Garden", "Habitat");
+    mOther.insertTag("Woodland", "Habitat");
+    mOther.insertTag("Aves", null);
+    mOther.insertTag("Birds", "Aves");
+
+    merge(ConflictPolicy.KEEP_LOCAL);
+
+    // a tag without parent adopts the other one, a tag with a parent keeps it, and a tag does not
+    // adopt one of its own sub-tags
+    assertEquals(Arrays.asList(Arrays.<Object>asList("Aves", "Birds"),
+        Arrays.<Object>asList("Birds", null), Arrays.<Object>asList("Forest", null),
+        Arrays.<Object>asList("Garden", "Habitat"), Arrays.<Object>asList("Habitat", null),
+        Arrays.<Object>asList("Woodland", "Forest")),
+        mLocal.query("SELECT tag, parent FROM tags ORDER BY tag"));
+    assertEquals(Arrays.<Object>asList(1L),
+        mLocal.query("SELECT depth FROM tag_closure "
+            + "WHERE ancestor = 'Habitat' AND descendant = 'Garden'").get(0));
+  }
+
+  private FieldNotesMerger.Result merge(ConflictPolicy policy) throws Exception {
+    return mMerger.merge((sql, arguments) -> mOther.asSupportDatabase().query(sql, arguments),
+        policy);
+  }
+
+  private List<Object> commentAndDetermined(long id) throws SQLException {
+    return mLocal.query("SELECT comment, determined FROM observations WHERE id = ?", id).get(0);
+  }
+
+  private static List<List<Object>> keys(SqliteTestDatabase database) throws SQLException {
+    return database.query("SELECT time, suspicion FROM observations ORDER BY time, suspicion");
+  }
+
+  private static int compareRows(List<Object> first, List<Object> second) {
+    int order = Long.compare((Long) first.get(0), (Long) second.get(0));
+    return order != 0 ? order : ((String) first.get(1)).compareTo((String) second.get(1));
+  }
+
+}
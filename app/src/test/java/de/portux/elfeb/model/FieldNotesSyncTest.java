@@ -0,0 +1,321 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import de.portux.elfeb.images.ContentStore;
+import de.portux.elfeb.model.sync.ReferenceSyncServer;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FieldNotesSyncTest {
+
+  /**
+   * A device with its own database, which syncs with the server.
+   */
+  private static class Device implements Closeable {
+    final SqliteTestDatabase database;
+    final File syncedDirectory;
+    final File storeDirectory;
+    final FieldNotesSync sync;
+
+    Device(ReferenceSyncServer server) throws IOException, SQLException {
+      database = new SqliteTestDatabase();
+      FieldNotesDatabase.createChangeLogTriggers(database.asSupportDatabase());
+      FieldNotesDatabase.createBlobTriggers(database.asSupportDatabase());
+      syncedDirectory = Files.createTempDirectory("synced").toFile();
+      storeDirectory = Files.createTempDirectory("store").toFile();
+      // mutations are applied on the calling thread, one transaction per batch
+      BatchingWriteQueue writeQueue = new BatchingWriteQueue(database::runInTransaction,
+          Runnable::run, BatchingWriteQueue.DEFAULT_MAX_BATCH_SIZE);
+      sync = new FieldNotesSync(database.asOpenHelper(), writeQueue, InMemoryPreferences.create(),
+          server.getUrl(), syncedDirectory);
+    }
+
+    long insert(long time, String suspicion) throws SQLException {
+      return database.insertObservation(time, suspicion, false);
+    }
+
+    void comment(long id, String comment) throws SQLException {
+      database.execute("UPDATE observations SET comment = ? WHERE id = ?", comment, id);
+    }
+
+    void tag(long id, String tag) throws SQLException {
+      database.execute("INSERT OR IGNORE INTO tags (tag) VALUES (?)", tag);
+      database.execute("INSERT INTO observation_tags (observation_id, tag) VALUES (?, ?)", id,
+          tag);
+    }
+
+    void attach(long id, File file) throws SQLException {
+      database.execute("INSERT INTO attachments (observation_id, file_path, type) "
+          + "VALUES (?, ?, 'IMAGE')", id, file.getAbsolutePath());
+    }
+
+    /**
+     * Ingests an attached file like the {@link de.portux.elfeb.images.PhotoIngestion} does: it is
+     * moved into the store and its attachments are switched over to the new blob.
+     *
+     * @param hash the hash the content is stored under
+     * @return the stored file
+     */
+    File ingest(File file, String hash) throws IOException, SQLException {
+      File stored = new File(storeDirectory, hash + ".jpg");
+      Files.move(file.toPath(), stored.toPath());
+      database.execute("INSERT INTO blobs (hash, file_path, size, ref_count) VALUES (?, ?, ?, 0)",
+          hash, stored.getAbsolutePath(), stored.length());
+      database.execute("UPDATE attachments SET file_path = ?, content_hash = ?, stored_size = ? "
+          + "WHERE file_path = ? AND content_hash IS NULL", stored.getAbsolutePath(), hash,
+          stored.length(), file.getAbsolutePath());
+      return stored;
+    }
+
+    /**
+     * @return the file, content hash and reference count of each attachment
+     */
+    List<List<Object>> attachments() throws SQLException {
+      return database.query("SELECT a.file_path, a.content_hash, b.ref_count FROM attachments a "
+          + "LEFT JOIN blobs b ON b.hash = a.content_hash ORDER BY a.file_path");
+    }
+
+    List<List<Object>> observations() throws SQLException {
+      return database.query("SELECT o.time, o.suspicion, o.comment, "
+          + "(SELECT group_concat(tag) FROM (SELECT tag FROM observation_tags "
+          + "WHERE observation_id = o.id ORDER BY tag)) "
+          + "FROM observations o ORDER BY o.time, o.suspicion");
+    }
+
+    long changeLogSize() throws SQLException {
+      return (Long) database.query("SELECT COUNT(*) FROM change_log").get(0).get(0);
+    }
+
+    @Override
+    public void close() {
+      database.close();
+      deleteDirectory(syncedDirectory);
+      deleteDirectory(storeDirectory);
+    }
+  }
+
+  private ReferenceSyncServer mServer;
+  private Device mFirst;
+  private Device mSecond;
+  private File mCaptureDirectory;
+
+  @Before
+  public void setUp() throws IOException, SQLException {
+    mServer = new ReferenceSyncServer();
+    mFirst = new Device(mServer);
+    mSecond = new Device(mServer);
+    mCaptureDirectory = Files.createTempDirectory("capture").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    mFirst.close();
+    mSecond.close();
+    mServer.close();
+    deleteDirectory(mCaptureDirectory);
+  }
+
+  @Test
+  public void pushesEachChangedObservationOnce() throws Exception {
+    long id = mFirst.insert(1_000, "Parus major");
+    mFirst.comment(id, "At the feeder");
+    mFirst.comment(id, "At the feeder, two of them");
+    mFirst.tag(id, "Aves");
+    mFirst.insert(2_000, "Bellis perennis");
+    assertEquals(5, mFirst.changeLogSize());
+
+    assertEquals(2, mFirst.sync.sync().getPushed());
+    assertEquals(0, mFirst.changeLogSize());
+
+    assertEquals(2, mSecond.sync.sync().getPulled());
+    assertEquals(mFirst.observations(), mSecond.observations());
+    assertEquals(Arrays.<Object>asList(1_000L, "Parus major", "At the feeder, two of them",
+        "Aves"), mSecond.observations().get(0));
+  }
+
+  @Test
+  public void deletedAndNotedAgainIsPushedAsTheNewObservation() throws Exception {
+    long id = mFirst.insert(1_000, "Parus major");
+    mFirst.database.execute("DELETE FROM observations WHERE id = ?", id);
+    long again = mFirst.insert(1_000, "Parus major");
+    mFirst.comment(again, "Noted again");
+
+    // the deletion is superseded by the later entries of the same key
+    assertEquals(1, mFirst.sync.sync().getPushed());
+    mSecond.sync.sync();
+    assertEquals(Collections.singletonList(
+        Arrays.<Object>asList(1_000L, "Parus major", "Noted again", null)),
+        mSecond.observations());
+  }
+
+  @Test
+  public void changedKeyReplacesTheObservationOnOtherDevices() throws Exception {
+    long id = mFirst.insert(1_000, "Parus majr");
+    mFirst.comment(id, "At the feeder");
+    mFirst.sync.sync();
+    mSecond.sync.sync();
+
+    mFirst.database.execute("UPDATE observations SET suspicion = ? WHERE id = ?", "Parus major",
+        id);
+
+    // the old key is deleted, the new one is updated
+    assertEquals(2, mFirst.sync.sync().getPushed());
+    assertEquals(2, mSecond.sync.sync().getPulled());
+    assertEquals(Collections.singletonList(
+        Arrays.<Object>asList(1_000L, "Parus major", "At the feeder", null)),
+        mSecond.observations());
+  }
+
+  @Test
+  public void keyChangedBeforeTheFirstPushIsNotPushedTwice() throws Exception {
+    long id = mFirst.insert(1_000, "Parus majr");
+    mFirst.database.execute("UPDATE observations SET suspicion = ? WHERE id = ?", "Parus major",
+        id);
+
+    // the insert and the deletion of the old key are coalesced into the deletion
+    assertEquals(2, mFirst.sync.sync().getPushed());
+    mSecond.sync.sync();
+    assertEquals(Collections.singletonList(
+        Arrays.<Object>asList(1_000L, "Parus major", null, null)), mSecond.observations());
+  }
+
+  @Test
+  public void pulledChangesAreNotEchoed() throws Exception {
+    long id = mFirst.insert(1_000, "Parus major");
+    mFirst.tag(id, "Aves");
+    mFirst.sync.sync();
+
+    FieldNotesSync.Result pulled = mSecond.sync.sync();
+
+    assertEquals(0, pulled.getPushed());
+    assertEquals(1, pulled.getPulled());
+    assertEquals(0, mSecond.changeLogSize());
+    assertEquals(0, mSecond.sync.sync().getPushed());
+    assertEquals(0, mFirst.sync.sync().getPulled());
+  }
+
+  @Test
+  public void localChangesAreKeptWhileApplyingRemoteOnes() throws Exception {
+    mFirst.insert(1_000, "Parus major");
+    mFirst.sync.sync();
+    long local = mSecond.insert(2_000, "Bellis perennis");
+
+    // the local change is pushed before the remote ones are pulled
+    FieldNotesSync.Result result = mSecond.sync.sync();
+    assertEquals(1, result.getPushed());
+    assertEquals(1, result.getPulled());
+
+    mSecond.comment(local, "In the lawn");
+    assertEquals(1, mSecond.changeLogSize());
+    assertEquals(1, mSecond.sync.sync().getPushed());
+    mFirst.sync.sync();
+    assertEquals(mSecond.observations(), mFirst.observations());
+  }
+
+  @Test
+  public void remoteDeletionRemovesTheObservation() throws Exception {
+    long id = mFirst.insert(1_000, "Parus major");
+    mFirst.insert(2_000, "Bellis perennis");
+    mFirst.sync.sync();
+    mSecond.sync.sync();
+
+    mFirst.database.execute("DELETE FROM observations WHERE id = ?", id);
+    mFirst.sync.sync();
+    mSecond.sync.sync();
+
+    assertEquals(Collections.singletonList(
+        Arrays.<Object>asList(2_000L, "Bellis perennis", null, null)), mSecond.observations());
+    assertTrue(mSecond.database.query("SELECT * FROM change_log").isEmpty());
+  }
+
+  @Test
+  public void ingestedAttachmentsAreNeitherDownloadedNorReplacedAgain() throws Exception {
+    long id = mFirst.insert(1_000, "Parus major");
+    File front = capture("front.jpg", 1);
+    File back = capture("back.jpg", 2);
+    mFirst.attach(id, front);
+    mFirst.attach(id, back);
+    mFirst.sync.sync();
+    mSecond.sync.sync();
+    File[] downloaded = mSecond.syncedDirectory.listFiles();
+    assertEquals(2, downloaded.length);
+    for (File file : downloaded) {
+      mSecond.ingest(file, ContentStore.hash(file));
+    }
+    List<List<Object>> ingested = mSecond.attachments();
+    long bytesSent = mServer.getBytesSent();
+
+    mFirst.comment(id, "At the feeder");
+    mFirst.sync.sync();
+    mSecond.sync.sync();
+
+    assertEquals(bytesSent, mServer.getBytesSent());
+    assertEquals(0, mSecond.syncedDirectory.listFiles().length);
+    assertEquals(ingested, mSecond.attachments());
+    assertEquals(1L, ingested.get(0).get(2));
+
+    mFirst.database.execute("DELETE FROM attachments WHERE file_path = ?",
+        back.getAbsolutePath());
+    mFirst.sync.sync();
+    mSecond.sync.sync();
+
+    assertEquals(bytesSent, mServer.getBytesSent());
+    List<List<Object>> remaining = mSecond.attachments();
+    assertEquals(1, remaining.size());
+    assertTrue(ingested.contains(remaining.get(0)));
+  }
+
+  @Test
+  public void ownAttachmentsAreNotDownloadedAfterRemoteEdit() throws Exception {
+    long id = mFirst.insert(1_000, "Parus major");
+    File photo = capture("photo.jpg", 1);
+    mFirst.attach(id, photo);
+    // the blob is keyed by the hash of the original, which differs from the one of the file
+    mFirst.ingest(photo, "0f1e2d3c");
+    List<List<Object>> attached = mFirst.attachments();
+    mFirst.sync.sync();
+    mSecond.sync.sync();
+    long bytesSent = mServer.getBytesSent();
+
+    long remote = (Long) mSecond.database.query("SELECT id FROM observations").get(0).get(0);
+    mSecond.comment(remote, "At the feeder");
+    mSecond.sync.sync();
+    assertEquals(1, mFirst.sync.sync().getPulled());
+
+    assertEquals(bytesSent, mServer.getBytesSent());
+    assertEquals(0, mFirst.syncedDirectory.listFiles().length);
+    assertEquals(attached, mFirst.attachments());
+    assertEquals("At the feeder", mFirst.observations().get(0).get(2));
+  }
+
+  /**
+   * Creates a file as if it had been captured by the camera.
+   */
+  private File capture(String name, int seed) throws IOException {
+    byte[] content = new byte[4096];
+    new Random(seed).nextBytes(content);
+    File file = new File(mCaptureDirectory, name);
+    Files.write(file.toPath(), content);
+    return file;
+  }
+
+  private static void deleteDirectory(File directory) {
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+}
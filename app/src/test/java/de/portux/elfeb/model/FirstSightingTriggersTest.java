@@ -0,0 +1,198 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FirstSightingTriggersTest {
+
+  private static final String SUSPICION = FirstSighting.Kind.SUSPICION.name();
+  private static final String TAG = FirstSighting.Kind.TAG.name();
+  private static final long ALL_TIME = FirstSighting.ALL_TIME;
+
+  private static final String[] SUSPICIONS = {"Parus major", "Bellis perennis",
+      "Erithacus rubecula", "Turdus merula"};
+
+  private static final String[] TAGS = {"Aves", "Passeriformes", "Asterales", "Garden"};
+
+  // noon (UTC) in the middle of the year, so the year is the same in any time zone
+  private static final long MARCH_2018 = 1519905600000L;
+  private static final long MAY_2018 = 1525176000000L;
+  private static final long JUNE_2019 = 1559390400000L;
+  private static final long JUNE_2020 = 1591012800000L;
+
+  /**
+   * 2017-12-30 12:00 UTC, such that random observations span the turn of several years.
+   */
+  private static final long START = 1514635200000L;
+
+  /**
+   * Determines the first sightings by scanning all observations.
+   */
+  private static final String FULL_SCAN = "SELECT '" + SUSPICION + "', suspicion, " + ALL_TIME
+      + ", MIN(time) FROM observations GROUP BY 2 "
+      + "UNION ALL SELECT '" + SUSPICION + "', suspicion, " + yearOf("time") + ", MIN(time) "
+      + "FROM observations GROUP BY 2, 3 "
+      + "UNION ALL SELECT '" + TAG + "', ot.tag, " + ALL_TIME + ", MIN(o.time) "
+      + "FROM observation_tags ot INNER JOIN observations o ON o.id = ot.observation_id "
+      + "GROUP BY 2 "
+      + "UNION ALL SELECT '" + TAG + "', ot.tag, " + yearOf("o.time") + ", MIN(o.time) "
+      + "FROM observation_tags ot INNER JOIN observations o ON o.id = ot.observation_id "
+      + "GROUP BY 2, 3 "
+      + "ORDER BY 1, 2, 3";
+
+  private SqliteTestDatabase mDatabase;
+
+  @Before
+  public void setUp() throws SQLException {
+    mDatabase = new SqliteTestDatabase();
+    FieldNotesDatabase.createFirstSightingTriggers(mDatabase.asSupportDatabase());
+    for (String tag : TAGS) {
+      mDatabase.insertTag(tag, null);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    mDatabase.close();
+  }
+
+  @Test
+  public void replacesDeletedFirstSightingByTheNextOne() throws SQLException {
+    long first = mDatabase.insertObservation(MARCH_2018, SUSPICIONS[0], false);
+    mDatabase.insertObservation(MAY_2018, SUSPICIONS[0], false);
+    mDatabase.insertObservation(JUNE_2019, SUSPICIONS[0], false);
+
+    mDatabase.execute("DELETE FROM observations WHERE id = ?", first);
+
+    assertEquals(Arrays.asList(MAY_2018, MAY_2018, JUNE_2019),
+        sightings(SUSPICION, SUSPICIONS[0], ALL_TIME, 2018, 2019));
+    assertMatchesFullScan();
+  }
+
+  @Test
+  public void followsSightingsMovedToAnotherYear() throws SQLException {
+    long moved = mDatabase.insertObservation(MAY_2018, SUSPICIONS[0], false);
+    mDatabase.insertObservation(JUNE_2019, SUSPICIONS[0], false);
+    tag(moved, TAGS[0]);
+
+    mDatabase.execute("UPDATE observations SET time = ? WHERE id = ?", JUNE_2020, moved);
+
+    assertEquals(Arrays.asList(JUNE_2019, JUNE_2019, JUNE_2020),
+        sightings(SUSPICION, SUSPICIONS[0], ALL_TIME, 2019, 2020));
+    assertEquals(Arrays.asList(JUNE_2020, JUNE_2020), sightings(TAG, TAGS[0], ALL_TIME, 2020));
+    assertEquals(0, mDatabase.query("SELECT * FROM first_sightings WHERE year = 2018").size());
+    assertMatchesFullScan();
+  }
+
+  @Test
+  public void replacesFirstSightingsOfTagsWhenTheirObservationIsDeleted() throws SQLException {
+    long first = mDatabase.insertObservation(MARCH_2018, SUSPICIONS[0], false);
+    long second = mDatabase.insertObservation(MAY_2018, SUSPICIONS[1], false);
+    tag(first, TAGS[0]);
+    tag(second, TAGS[0]);
+
+    // the tags of the observation are deleted by the foreign key
+    mDatabase.execute("DELETE FROM observations WHERE id = ?", first);
+
+    assertEquals(Arrays.asList(MAY_2018, MAY_2018), sightings(TAG, TAGS[0], ALL_TIME, 2018));
+    assertMatchesFullScan();
+
+    mDatabase.execute("DELETE FROM observations WHERE id = ?", second);
+
+    assertTrue(mDatabase.query("SELECT * FROM first_sightings").isEmpty());
+  }
+
+  @Test
+  public void firstSightingsMatchFullScanAfterRandomChanges() throws SQLException {
+    Random random = new Random(42);
+    List<Long> observations = new ArrayList<>();
+    for (int step = 0; step < 2_000; ++step) {
+      int operation = observations.isEmpty() ? 0 : random.nextInt(6);
+      switch (operation) {
+        case 0:
+        case 1:
+          observations.add(mDatabase.insertObservation(randomTime(random, step),
+              randomOf(random, SUSPICIONS), false));
+          break;
+        case 2:
+          if (random.nextBoolean()) {
+            mDatabase.execute("UPDATE observations SET time = ? WHERE id = ?",
+                randomTime(random, step), randomOf(random, observations));
+          } else {
+            mDatabase.execute("UPDATE observations SET suspicion = ? WHERE id = ?",
+                randomOf(random, SUSPICIONS), randomOf(random, observations));
+          }
+          break;
+        case 3:
+          mDatabase.execute("DELETE FROM observations WHERE id = ?",
+              observations.remove(random.nextInt(observations.size())));
+          break;
+        case 4:
+          mDatabase.execute("INSERT OR IGNORE INTO observation_tags (observation_id, tag) "
+              + "VALUES (?, ?)", randomOf(random, observations), randomOf(random, TAGS));
+          break;
+        default:
+          mDatabase.execute("DELETE FROM observation_tags WHERE observation_id = ? AND tag = ?",
+              randomOf(random, observations), randomOf(random, TAGS));
+      }
+      if (step % 100 == 0) {
+        assertMatchesFullScan();
+      }
+    }
+    assertMatchesFullScan();
+  }
+
+  private void tag(long observationId, String tag) throws SQLException {
+    mDatabase.execute("INSERT INTO observation_tags (observation_id, tag) VALUES (?, ?)",
+        observationId, tag);
+  }
+
+  /**
+   * @return the times of the first sightings of a subject within the given years
+   */
+  private List<Long> sightings(String kind, String subject, long... years) throws SQLException {
+    List<Long> times = new ArrayList<>();
+    for (long year : years) {
+      List<List<Object>> rows = mDatabase.query("SELECT time FROM first_sightings "
+          + "WHERE kind = ? AND subject = ? AND year = ?", kind, subject, year);
+      times.add(rows.isEmpty() ? null : (Long) rows.get(0).get(0));
+    }
+    return times;
+  }
+
+  private void assertMatchesFullScan() throws SQLException {
+    assertEquals(mDatabase.query(FULL_SCAN), mDatabase.query("SELECT kind, subject, year, time "
+        + "FROM first_sightings ORDER BY 1, 2, 3"));
+  }
+
+  /**
+   * Picks a time within about three years after the start. The step is added as milliseconds, so
+   * no two times are the same and the key of the observations stays unique.
+   */
+  private static long randomTime(Random random, int step) {
+    return START + TimeUnit.DAYS.toMillis(random.nextInt(3 * 365)) + step;
+  }
+
+  private static String yearOf(String time) {
+    return "CAST(strftime('%Y', " + time + " / 1000, 'unixepoch', 'localtime') AS INTEGER)";
+  }
+
+  private static <T> T randomOf(Random random, T[] values) {
+    return values[random.nextInt(values.length)];
+  }
+
+  private static <T> T randomOf(Random random, List<T> values) {
+    return values.get(random.nextInt(values.size()));
+  }
+
+}
@@ -0,0 +1,124 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+
+import de.portux.elfeb.support.Benchmarks;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Searches 100k observations for a word, once through the full-text index the way
+ * {@link ObservationDao#searchObservations(String)} does, and once by matching the suspicion, the
+ * comment and the tags with {@code LIKE}. Both count the matches and load the first of them, like
+ * the data source Room generates for the query does.
+ */
+public class FullTextSearchBenchmark {
+
+  private static final int OBSERVATIONS = 100_000;
+
+  private static final int FIRST_LOAD = 45;
+
+  private static final int RUNS = 20;
+
+  /**
+   * None of these is part of an other one, such that {@code LIKE} finds what the index finds.
+   */
+  private static final String[] WORDS = {"Waldrand", "Hecke", "Teichufer", "Wiese", "Brache",
+      "Garten", "Feldweg", "Moor", "Bachlauf", "Steinbruch", "Friedhof", "Parkplatz", "Acker",
+      "Streuobst", "Schilf", "Kiesgrube", "Heide", "Dorfkern", "Auwald", "Deich"};
+
+  /**
+   * The query of {@link ObservationDao#searchObservations(String)}.
+   */
+  private static final String FULL_TEXT = "SELECT o.* FROM observations o INNER JOIN ("
+      + "SELECT rowid, offsets(observations_fts) AS hits FROM observations_fts "
+      + "WHERE observations_fts MATCH ?) m ON m.rowid = o.id "
+      + "ORDER BY substr(m.hits, 1, 1), length(m.hits) - length(replace(m.hits, ' ', '')) DESC, "
+      + "o.time DESC";
+
+  private static final String LIKE = "SELECT o.* FROM observations o "
+      + "WHERE o.suspicion LIKE ?1 OR o.comment LIKE ?1 OR EXISTS (SELECT 1 "
+      + "FROM observation_tags ot WHERE ot.observation_id = o.id AND ot.tag LIKE ?1) "
+      + "ORDER BY o.time DESC";
+
+  private SqliteTestDatabase mDatabase;
+  private File mFile;
+
+  @Before
+  public void setUp() throws IOException, SQLException {
+    Benchmarks.assumeEnabled();
+    mFile = File.createTempFile("field_notes", ".db");
+    mDatabase = new SqliteTestDatabase(mFile);
+    FieldNotesDatabase.createFullTextTriggers(mDatabase.asSupportDatabase());
+    mDatabase.runInTransaction(() -> {
+      try {
+        mDatabase.execute("CREATE TEMP TABLE words (i INTEGER PRIMARY KEY, word TEXT)");
+        for (int i = 0; i < WORDS.length; ++i) {
+          mDatabase.execute("INSERT INTO temp.words (i, word) VALUES (?, ?)", i, WORDS[i]);
+        }
+        mDatabase.execute("INSERT INTO tags (tag) SELECT 'Am ' || word FROM temp.words");
+        mDatabase.execute("WITH RECURSIVE k(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM k "
+            + "WHERE i < " + (OBSERVATIONS - 1) + ") INSERT INTO observations (time, suspicion, "
+            + "comment, determined, images_attached, recordings_attached, image_count, "
+            + "audio_count) SELECT 1500000000000 + i * 60000, 'Species ' || (i % 400), "
+            + "'Gesehen am ' || (SELECT word FROM temp.words WHERE words.i = k.i % 20) || ' bei ' "
+            + "|| (SELECT word FROM temp.words WHERE words.i = k.i * 7 % 19) "
+            + "|| CASE WHEN i % 1000 = 0 THEN ' am Nistkasten' ELSE '' END, i % 2, 0, 0, 0, 0 "
+            + "FROM k");
+        mDatabase.execute("INSERT INTO observation_tags (observation_id, tag) "
+            + "SELECT id, 'Am ' || (SELECT word FROM temp.words WHERE words.i = id * 13 % 17) "
+            + "FROM observations");
+        mDatabase.execute("DROP TABLE temp.words");
+      } catch (SQLException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    if (mDatabase != null) {
+      mDatabase.close();
+      for (String suffix : new String[]{"", "-wal", "-shm"}) {
+        new File(mFile.getPath() + suffix).delete();
+      }
+    }
+  }
+
+  @Test
+  public void searchARareWord() throws Exception {
+    // in one of 1,000 observations
+    compare("Search for a rare word", "Nistkasten");
+  }
+
+  @Test
+  public void searchACommonWord() throws Exception {
+    // in about one of 7 observations
+    compare("Search for a common word", "Steinbruch");
+  }
+
+  private void compare(String name, String word) throws Exception {
+    String fullText = ObservationQueries.fullText(word);
+    String like = "%" + word + "%";
+    assertEquals(firstLoad(LIKE, like).get(0), firstLoad(FULL_TEXT, fullText).get(0));
+
+    Benchmarks.time(name + ", full-text index", RUNS, () -> firstLoad(FULL_TEXT, fullText));
+    Benchmarks.time(name + ", LIKE", RUNS, () -> firstLoad(LIKE, like));
+  }
+
+  /**
+   * @return the count of the matching observations, followed by the first of them
+   */
+  private List<List<Object>> firstLoad(String sql, String argument) throws SQLException {
+    List<List<Object>> rows = mDatabase.query("SELECT COUNT(*) FROM ( " + sql + " )", argument);
+    rows.addAll(mDatabase.query("SELECT * FROM ( " + sql + " ) LIMIT " + FIRST_LOAD + " OFFSET 0",
+        argument));
+    return rows;
+  }
+
+}
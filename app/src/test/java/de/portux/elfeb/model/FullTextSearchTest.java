@@ -0,0 +1,91 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FullTextSearchTest {
+
+  private SqliteTestDatabase mDatabase;
+
+  @Before
+  public void setUp() throws SQLException {
+    mDatabase = new SqliteTestDatabase();
+    FieldNotesDatabase.createFullTextTriggers(mDatabase.asSupportDatabase());
+  }
+
+  @After
+  public void tearDown() {
+    mDatabase.close();
+  }
+
+  @Test
+  public void foldsLettersBeyondAscii() {
+    // ASCII letters are left to the tokenizer, and letters beyond the folded blocks are kept
+    assertEquals("\u00E4pfel \u00E9T\u00E9 \u0142\u00F3D\u017A \u0394",
+        FullTextFolding.fold("\u00C4pfel \u00C9T\u00C9 \u0141\u00D3D\u0179 \u0394"));
+  }
+
+  @Test
+  public void foldsTheIndexLikeTheQueries() throws SQLException {
+    StringBuilder letters = new StringBuilder();
+    for (char letter = '\u00C0'; letter <= '\u017F'; ++letter) {
+      letters.append(letter);
+    }
+    long observation = mDatabase.insertObservation(1000, letters.toString(), false);
+    mDatabase.execute("UPDATE observations SET comment = suspicion WHERE id = ?", observation);
+
+    String folded = FullTextFolding.fold(letters.toString());
+    assertEquals(Collections.singletonList(Arrays.<Object>asList(folded, folded)),
+        mDatabase.query("SELECT suspicion, comment FROM observations_fts"));
+  }
+
+  @Test
+  public void findsWordsRegardlessOfTheirCase() throws SQLException {
+    long apples = mDatabase.insertObservation(1000, "\u00C4pfel", false);
+    long pears = mDatabase.insertObservation(2000, "Birnen", false);
+    mDatabase.execute("UPDATE observations SET comment = ? WHERE id = ?",
+        "\u00DCberall \u00E4pfel", pears);
+
+    assertEquals(Arrays.asList(apples, pears), search("\u00E4pf"));
+    assertEquals(Arrays.asList(apples, pears), search("\u00C4PFEL"));
+    assertEquals(Collections.singletonList(pears), search("\u00FCberall"));
+  }
+
+  @Test
+  public void findsTagsRegardlessOfTheirCase() throws SQLException {
+    long observation = mDatabase.insertObservation(1000, "Parus major", false);
+    mDatabase.insertTag("\u00D6kologie", null);
+    mDatabase.execute("INSERT INTO observation_tags (observation_id, tag) VALUES (?, ?)",
+        observation, "\u00D6kologie");
+
+    assertEquals(Collections.singletonList(observation), search("\u00F6ko"));
+
+    mDatabase.execute("DELETE FROM observation_tags");
+
+    assertEquals(Collections.emptyList(), search("\u00F6ko"));
+  }
+
+  /**
+   * Runs the full-text query for some input, as {@link ObservationDao#searchObservations(String)}
+   * does.
+   *
+   * @return the ids of the matching observations
+   */
+  private List<Long> search(String input) throws SQLException {
+    List<Long> ids = new ArrayList<>();
+    for (List<Object> row : mDatabase.query("SELECT rowid FROM observations_fts "
+        + "WHERE observations_fts MATCH ? ORDER BY rowid", ObservationQueries.fullText(input))) {
+      ids.add((Long) row.get(0));
+    }
+    return ids;
+  }
+
+}
@@ -0,0 +1,139 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.sqlite.db.SupportSQLiteQuery;
+import de.portux.elfeb.support.Benchmarks;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the spatial queries of the {@link ObservationQueries} on 100k located observations and
+ * compares them to full scans over the coordinates. Half of the observations are spread over
+ * Germany, the other half cluster around a home area, as field notes tend to.
+ */
+public class GeoHashBenchmark {
+
+  private static final int OBSERVATIONS = 100_000;
+
+  private static final int ROWS_PER_INSERT = 200;
+
+  private static final int RUNS = 20;
+
+  private static final GPSPosition HOME = GPSPosition.of(52.52, 13.40);
+
+  /**
+   * The squared equirectangular distance to {@link #HOME}, with the longitude scaled like
+   * {@link ObservationQueries} scales it.
+   */
+  private static final String SQUARED_DISTANCE = "((pos_latitude - 52.52) * (pos_latitude - 52.52) "
+      + "+ (pos_longitude - 13.40) * (pos_longitude - 13.40) * "
+      + Math.pow(Math.cos(Math.toRadians(HOME.latitude)), 2) + ")";
+
+  private SqliteTestDatabase mDatabase;
+  private File mFile;
+
+  @Before
+  public void setUp() throws IOException, SQLException {
+    Benchmarks.assumeEnabled();
+    mFile = File.createTempFile("field_notes", ".db");
+    mDatabase = new SqliteTestDatabase(mFile);
+    Random random = new Random(7);
+    mDatabase.runInTransaction(() -> {
+      try {
+        for (int first = 0; first < OBSERVATIONS; first += ROWS_PER_INSERT) {
+          StringBuilder sql = new StringBuilder("INSERT INTO observations (time, suspicion, "
+              + "determined, images_attached, recordings_attached, image_count, audio_count, "
+              + "pos_latitude, pos_longitude, geohash) VALUES ");
+          List<Object> args = new ArrayList<>(4 * ROWS_PER_INSERT);
+          for (int i = first; i < first + ROWS_PER_INSERT; ++i) {
+            double latitude;
+            double longitude;
+            if (i % 2 == 0) {
+              latitude = 47.5 + random.nextDouble() * 7.5;
+              longitude = 6 + random.nextDouble() * 9;
+            } else {
+              latitude = HOME.latitude + random.nextGaussian() * 0.1;
+              longitude = HOME.longitude + random.nextGaussian() * 0.15;
+            }
+            sql.append(i == first ? "" : ", ").append("(?, 'Species ' || ? % 40, 0, 0, 0, 0, 0, "
+                + "?, ?, ?)");
+            args.add(1_500_000_000_000L + i * 60_000L);
+            args.add(i);
+            args.add(latitude);
+            args.add(longitude);
+            args.add(GeoHash.encode(latitude, longitude, GeoHash.STORED_PRECISION));
+          }
+          mDatabase.execute(sql.toString(), args.toArray());
+        }
+      } catch (SQLException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    if (mDatabase != null) {
+      mDatabase.close();
+      for (String suffix : new String[]{"", "-wal", "-shm"}) {
+        new File(mFile.getPath() + suffix).delete();
+      }
+    }
+  }
+
+  @Test
+  public void boundingBox() throws Exception {
+    SupportSQLiteQuery within = ObservationQueries.within(GPSPosition.of(52.51, 13.38),
+        GPSPosition.of(52.53, 13.42));
+    String scan = "SELECT * FROM observations WHERE pos_latitude BETWEEN 52.51 AND 52.53 "
+        + "AND pos_longitude BETWEEN 13.38 AND 13.42 ORDER BY time DESC";
+    assertEquals(mDatabase.query(scan), mDatabase.query(within));
+
+    Benchmarks.time("Bounding box of 2 x 3 km, geohash index", RUNS,
+        () -> mDatabase.query(within));
+    Benchmarks.time("Bounding box of 2 x 3 km, full scan", RUNS, () -> mDatabase.query(scan));
+  }
+
+  @Test
+  public void withinRadius() throws Exception {
+    SupportSQLiteQuery near = ObservationQueries.near(HOME, 1_000, 0);
+    double radius = 1_000 / 111_320.0;
+    String scan = "SELECT * FROM observations WHERE " + SQUARED_DISTANCE + " <= "
+        + radius * radius + " ORDER BY " + SQUARED_DISTANCE + ", time DESC";
+    assertEquals(mDatabase.query(scan), mDatabase.query(near));
+
+    Benchmarks.time("Within 1 km, geohash index", RUNS, () -> mDatabase.query(near));
+    Benchmarks.time("Within 1 km, full scan", RUNS, () -> mDatabase.query(scan));
+  }
+
+  @Test
+  public void nearest() throws Exception {
+    SupportSQLiteQuery scan = ObservationQueries.nearest(HOME, 20);
+    assertEquals(mDatabase.query(scan), nearestByGrowingSquares(20));
+
+    Benchmarks.time("Nearest 20, growing squares", RUNS, () -> nearestByGrowingSquares(20));
+    Benchmarks.time("Nearest 20, full scan", RUNS, () -> mDatabase.query(scan));
+  }
+
+  /**
+   * Finds the nearest observations the way
+   * {@link ObservationDao#getNearestObservations(GPSPosition, int)} does.
+   */
+  private List<List<Object>> nearestByGrowingSquares(int count) throws SQLException {
+    for (double halfSide = 500; ; halfSide *= 4) {
+      if ((Long) mDatabase.query(ObservationQueries.countAround(HOME, halfSide)).get(0).get(0)
+          >= count) {
+        return mDatabase.query(ObservationQueries.near(HOME, halfSide * Math.sqrt(2), count));
+      }
+    }
+  }
+
+}
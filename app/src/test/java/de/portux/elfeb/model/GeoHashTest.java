@@ -0,0 +1,57 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class GeoHashTest {
+
+  @Test
+  public void encodesKnownPositions() {
+    assertEquals("u4pruydqqvj", GeoHash.encode(57.64911, 10.40744, 11));
+    assertEquals("u33dc0", GeoHash.encode(52.5200, 13.4050, 6));
+  }
+
+  @Test
+  public void successorSortsAfterAllHashesWithPrefix() {
+    assertEquals("u4q", GeoHash.successor("u4p"));
+    assertEquals("u5", GeoHash.successor("u4z"));
+    assertEquals("{", GeoHash.successor("zz"));
+  }
+
+  @Test
+  public void coverContainsEveryPositionWithinTheBox() {
+    Random random = new Random(42);
+    for (int box = 0; box < 200; ++box) {
+      double minLat = -80 + random.nextDouble() * 150;
+      double minLon = -170 + random.nextDouble() * 330;
+      double size = Math.pow(10, -4 + random.nextDouble() * 4);
+      double maxLat = Math.min(90, minLat + size);
+      double maxLon = Math.min(180, minLon + size * 1.5);
+      List<GeoHash.Range> cover = GeoHash.cover(minLat, minLon, maxLat, maxLon);
+      assertTrue(cover.size() <= GeoHash.MAX_COVERING_CELLS);
+
+      for (int position = 0; position < 50; ++position) {
+        double lat = minLat + random.nextDouble() * (maxLat - minLat);
+        double lon = minLon + random.nextDouble() * (maxLon - minLon);
+        String hash = GeoHash.encode(lat, lon, GeoHash.STORED_PRECISION);
+        assertTrue(hash + " not covered by " + cover, isCovered(hash, cover));
+      }
+      assertTrue(isCovered(GeoHash.encode(maxLat, maxLon, GeoHash.STORED_PRECISION), cover));
+      assertTrue(isCovered(GeoHash.encode(minLat, minLon, GeoHash.STORED_PRECISION), cover));
+    }
+  }
+
+  private static boolean isCovered(String hash, List<GeoHash.Range> cover) {
+    for (GeoHash.Range range : cover) {
+      if (hash.compareTo(range.lowerBound) >= 0 && hash.compareTo(range.upperBound) < 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
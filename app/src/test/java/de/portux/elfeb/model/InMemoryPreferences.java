@@ -0,0 +1,59 @@
+package de.portux.elfeb.model;
+
+import android.content.SharedPreferences;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link SharedPreferences} which are kept in memory, for the classes which store their state in
+ * them. Edits are applied right away, regardless of whether they are applied or committed.
+ */
+final class InMemoryPreferences {
+
+  private InMemoryPreferences() {}
+
+  static SharedPreferences create() {
+    Map<String, Object> values = new HashMap<>();
+    return (SharedPreferences) Proxy.newProxyInstance(InMemoryPreferences.class.getClassLoader(),
+        new Class<?>[]{SharedPreferences.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "contains":
+              return values.containsKey(args[0]);
+            case "edit":
+              return editorOf(values);
+            default:
+              if (method.getName().startsWith("get") && args != null && args.length == 2) {
+                return values.containsKey(args[0]) ? values.get(args[0]) : args[1];
+              }
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  private static SharedPreferences.Editor editorOf(Map<String, Object> values) {
+    return (SharedPreferences.Editor) Proxy.newProxyInstance(
+        InMemoryPreferences.class.getClassLoader(), new Class<?>[]{SharedPreferences.Editor.class},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "remove":
+              values.remove(args[0]);
+              return proxy;
+            case "clear":
+              values.clear();
+              return proxy;
+            case "apply":
+              return null;
+            case "commit":
+              return true;
+            default:
+              if (method.getName().startsWith("put")) {
+                values.put((String) args[0], args[1]);
+                return proxy;
+              }
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+}
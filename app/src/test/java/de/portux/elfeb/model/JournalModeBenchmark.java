@@ -0,0 +1,123 @@
+package de.portux.elfeb.model;
+
+import de.portux.elfeb.support.Benchmarks;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures how long reading the first page of 100k observations takes while a writer commits
+ * batches of new observations without pause, once in the write-ahead log mode the database is
+ * opened in and once in the rollback journal mode SQLite falls back to on low-memory devices.
+ * Reader and writer use connections of their own, like the reader pool and the
+ * {@link BatchingWriteQueue} do.
+ */
+public class JournalModeBenchmark {
+
+  private static final int OBSERVATIONS = 100_000;
+
+  private static final int READS = 500;
+
+  /**
+   * The size of the batches written, the default of the {@link BatchingWriteQueue}.
+   */
+  private static final int BATCH_SIZE = BatchingWriteQueue.DEFAULT_MAX_BATCH_SIZE;
+
+  private static final String FIRST_PAGE = "SELECT * FROM observations ORDER BY time DESC "
+      + "LIMIT 45";
+
+  private File mFile;
+
+  @Before
+  public void setUp() throws IOException {
+    Benchmarks.assumeEnabled();
+    mFile = File.createTempFile("field_notes", ".db");
+  }
+
+  @After
+  public void tearDown() {
+    if (mFile != null) {
+      for (String suffix : new String[]{"", "-wal", "-shm", "-journal"}) {
+        new File(mFile.getPath() + suffix).delete();
+      }
+    }
+  }
+
+  @Test
+  public void writeAheadLog() throws Exception {
+    // synchronous = NORMAL as configured by the FieldNotesDatabase
+    readWhileWriting("WAL", "NORMAL");
+  }
+
+  @Test
+  public void rollbackJournal() throws Exception {
+    readWhileWriting("TRUNCATE", "FULL");
+  }
+
+  private void readWhileWriting(String journalMode, String synchronous) throws Exception {
+    try (SqliteTestDatabase writer = new SqliteTestDatabase(mFile, journalMode)) {
+      writer.execute("PRAGMA synchronous = " + synchronous);
+      writer.execute("PRAGMA busy_timeout = 10000");
+      writer.execute("WITH RECURSIVE k(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM k "
+          + "WHERE i < " + (OBSERVATIONS - 1) + ") INSERT INTO observations (time, suspicion, "
+          + "determined, images_attached, recordings_attached, image_count, audio_count) "
+          + "SELECT i * 60000, 'Species ' || (i % 40), i % 2, 0, 0, 0, 0 FROM k");
+
+      try (SqliteTestDatabase reader = new SqliteTestDatabase(mFile, journalMode)) {
+        reader.execute("PRAGMA busy_timeout = 10000");
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicInteger batches = new AtomicInteger();
+        Thread writerThread = new Thread(() -> {
+          try {
+            for (long first = OBSERVATIONS; writing.get(); first += BATCH_SIZE) {
+              writer.execute("WITH RECURSIVE k(i) AS (SELECT ? UNION ALL SELECT i + 1 FROM k "
+                  + "WHERE i < ?) INSERT INTO observations (time, suspicion, determined, "
+                  + "images_attached, recordings_attached, image_count, audio_count) "
+                  + "SELECT i * 60000, 'Species ' || (i % 40), i % 2, 0, 0, 0, 0 FROM k", first,
+                  first + BATCH_SIZE - 1);
+              batches.incrementAndGet();
+            }
+          } catch (SQLException e) {
+            throw new IllegalStateException(e);
+          }
+        }, "Writer");
+        writerThread.start();
+
+        long[] latencies = new long[READS];
+        long start = System.nanoTime();
+        try {
+          for (int i = 0; i < READS; ++i) {
+            long readStart = System.nanoTime();
+            reader.query(FIRST_PAGE);
+            latencies[i] = System.nanoTime() - readStart;
+          }
+        } finally {
+          writing.set(false);
+          writerThread.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Arrays.sort(latencies);
+        System.out.println(String.format(Locale.US, "%-50s %8.2f ms p50, %.2f ms p90, "
+                + "%.2f ms p99, %.2f ms max, %.0f batches per second", "First page while "
+                + "writing, " + journalMode, percentile(latencies, 50), percentile(latencies, 90),
+            percentile(latencies, 99), latencies[READS - 1] / 1e6, batches.get() / seconds));
+      }
+    }
+  }
+
+  /**
+   * @return the latency in milliseconds
+   */
+  private static double percentile(long[] sortedLatencies, int percent) {
+    return sortedLatencies[(sortedLatencies.length - 1) * percent / 100] / 1e6;
+  }
+
+}
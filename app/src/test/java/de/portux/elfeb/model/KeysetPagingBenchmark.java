@@ -0,0 +1,85 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+
+import de.portux.elfeb.support.Benchmarks;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Loads a page of 100k observations near the top and far down the list, once through the keyset
+ * query of {@link ObservationDao#getObservationsOlderThan(java.util.Date, String, int)} and once
+ * through {@code LIMIT} and {@code OFFSET}, as Room's positional data source did.
+ */
+public class KeysetPagingBenchmark {
+
+  private static final int OBSERVATIONS = 100_000;
+
+  /**
+   * The page size of the {@link ObservationRepository}.
+   */
+  private static final int PAGE_SIZE = 15;
+
+  private static final int RUNS = 50;
+
+  private static final String OLDER_THAN = "SELECT * FROM observations WHERE time <= ? "
+      + "AND (time < ? OR suspicion < ?) ORDER BY time DESC, suspicion DESC LIMIT ?";
+
+  private static final String OFFSET = "SELECT * FROM observations "
+      + "ORDER BY time DESC, suspicion DESC LIMIT ? OFFSET ?";
+
+  private SqliteTestDatabase mDatabase;
+  private File mFile;
+
+  @Before
+  public void setUp() throws IOException, SQLException {
+    Benchmarks.assumeEnabled();
+    mFile = File.createTempFile("field_notes", ".db");
+    mDatabase = new SqliteTestDatabase(mFile);
+    // observations noted at the same time as others, such that the keys tie on their time
+    mDatabase.execute("WITH RECURSIVE k(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM k "
+        + "WHERE i < " + (OBSERVATIONS - 1) + ") INSERT INTO observations (time, suspicion, "
+        + "determined, images_attached, recordings_attached, image_count, audio_count) "
+        + "SELECT i / 3 * 60000, 'Species ' || (i % 3), i % 2, 0, 0, 0, 0 FROM k");
+  }
+
+  @After
+  public void tearDown() {
+    if (mDatabase != null) {
+      mDatabase.close();
+      for (String suffix : new String[]{"", "-wal", "-shm"}) {
+        new File(mFile.getPath() + suffix).delete();
+      }
+    }
+  }
+
+  @Test
+  public void secondPage() throws Exception {
+    compare("Page 2", 2);
+  }
+
+  @Test
+  public void page5000() throws Exception {
+    compare("Page 5,000", 5_000);
+  }
+
+  private void compare(String name, int page) throws Exception {
+    int offset = (page - 1) * PAGE_SIZE;
+    // the last observation of the previous page
+    List<Object> key = mDatabase.query(OFFSET, 1, offset - 1).get(0);
+    Object time = key.get(1);
+    Object suspicion = key.get(2);
+    assertEquals(mDatabase.query(OFFSET, PAGE_SIZE, offset),
+        mDatabase.query(OLDER_THAN, time, time, suspicion, PAGE_SIZE));
+
+    Benchmarks.time(name + ", keyset", RUNS,
+        () -> mDatabase.query(OLDER_THAN, time, time, suspicion, PAGE_SIZE));
+    Benchmarks.time(name + ", offset", RUNS, () -> mDatabase.query(OFFSET, PAGE_SIZE, offset));
+  }
+
+}
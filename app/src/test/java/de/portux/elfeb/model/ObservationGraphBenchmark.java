@@ -0,0 +1,190 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import de.portux.elfeb.support.Benchmarks;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Locale;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Writes observations with two tags and an attachment each the way the {@link ObservationDao}
+ * does: through one compiled statement per kind of row, as Room's insertion adapters do. The
+ * observations are written once with each insert method committing on its own, as Room commits
+ * them when they are not called within a transaction and as they were called before
+ * {@link ObservationDao#insertObservationWithTagsAndAttachments(Observation)} became one. They
+ * are then written in a transaction per observation, and in a single transaction like
+ * {@link ObservationDao#insertObservationGraphs(java.util.List)} writes them.
+ */
+public class ObservationGraphBenchmark {
+
+  private static final int OBSERVATIONS = 2_000;
+
+  private static final String INSERT_OBSERVATION = "INSERT OR REPLACE INTO observations (id, "
+      + "time, suspicion, comment, determined, images_attached, recordings_attached, "
+      + "image_count, audio_count, pos_latitude, pos_longitude, geohash) "
+      + "VALUES (nullif(?, 0), ?, ?, ?, ?, 0, 0, 0, 0, ?, ?, ?)";
+
+  private static final String INSERT_TAG = "INSERT OR IGNORE INTO tags (tag, parent) "
+      + "VALUES (?, ?)";
+
+  private static final String INSERT_OBSERVATION_TAG = "INSERT OR IGNORE INTO observation_tags "
+      + "(observation_id, tag) VALUES (?, ?)";
+
+  private static final String INSERT_ATTACHMENT = "INSERT INTO attachments (observation_id, "
+      + "file_path, type) VALUES (?, ?, ?)";
+
+  private static final String[] TAGS = {"Aves", "Plantae", "Garden", "Forest", "Survey"};
+
+  private SqliteTestDatabase mDatabase;
+  private File mFile;
+
+  @Before
+  public void setUp() throws IOException, SQLException {
+    Benchmarks.assumeEnabled();
+    mFile = File.createTempFile("field_notes", ".db");
+    mDatabase = new SqliteTestDatabase(mFile);
+  }
+
+  @After
+  public void tearDown() {
+    if (mDatabase != null) {
+      mDatabase.close();
+      for (String suffix : new String[]{"", "-wal", "-shm"}) {
+        new File(mFile.getPath() + suffix).delete();
+      }
+    }
+  }
+
+  @Test
+  public void insertMethodsCommittingOnTheirOwn() throws Exception {
+    SupportSQLiteDatabase database = mDatabase.asSupportDatabase();
+    Statements statements = new Statements(database);
+    time("Observations, every insert method committed", () -> {
+      for (int i = 0; i < OBSERVATIONS; ++i) {
+        final int observation = i;
+        long[] id = new long[1];
+        mDatabase.runInTransaction(() -> id[0] = statements.writeObservation(observation));
+        mDatabase.runInTransaction(() -> statements.writeTags(observation));
+        mDatabase.runInTransaction(() -> statements.writeObservationTags(observation, id[0]));
+        mDatabase.runInTransaction(() -> statements.writeAttachment(observation, id[0]));
+      }
+    });
+  }
+
+  @Test
+  public void transactionPerObservation() throws Exception {
+    SupportSQLiteDatabase database = mDatabase.asSupportDatabase();
+    Statements statements = new Statements(database);
+    time("Observations, one transaction each", () -> {
+      for (int i = 0; i < OBSERVATIONS; ++i) {
+        final int observation = i;
+        mDatabase.runInTransaction(() -> statements.write(observation));
+      }
+    });
+  }
+
+  @Test
+  public void singleTransaction() throws Exception {
+    SupportSQLiteDatabase database = mDatabase.asSupportDatabase();
+    Statements statements = new Statements(database);
+    time("Observations, all in one transaction", () -> mDatabase.runInTransaction(() -> {
+      for (int i = 0; i < OBSERVATIONS; ++i) {
+        statements.write(i);
+      }
+    }));
+  }
+
+  private void time(String name, Benchmarks.Task task) throws Exception {
+    long millis = Benchmarks.time(name, task);
+    System.out.println(String.format(Locale.US, "%-50s %8d per second", "",
+        OBSERVATIONS * 1000L / Math.max(millis, 1)));
+
+    assertEquals((long) OBSERVATIONS,
+        mDatabase.query("SELECT COUNT(*) FROM observations").get(0).get(0));
+    assertEquals(2L * OBSERVATIONS,
+        mDatabase.query("SELECT COUNT(*) FROM observation_tags").get(0).get(0));
+    assertEquals((long) OBSERVATIONS,
+        mDatabase.query("SELECT COUNT(*) FROM attachments").get(0).get(0));
+  }
+
+  /**
+   * The compiled statements of the insertion adapters, which are re-bound for every row.
+   */
+  private static class Statements {
+
+    private final SupportSQLiteStatement mObservation;
+    private final SupportSQLiteStatement mTag;
+    private final SupportSQLiteStatement mObservationTag;
+    private final SupportSQLiteStatement mAttachment;
+
+    Statements(SupportSQLiteDatabase database) {
+      mObservation = database.compileStatement(INSERT_OBSERVATION);
+      mTag = database.compileStatement(INSERT_TAG);
+      mObservationTag = database.compileStatement(INSERT_OBSERVATION_TAG);
+      mAttachment = database.compileStatement(INSERT_ATTACHMENT);
+    }
+
+    /**
+     * Writes the observation of some index along with its tags and its attachment.
+     */
+    void write(int index) {
+      long id = writeObservation(index);
+      writeTags(index);
+      writeObservationTags(index, id);
+      writeAttachment(index, id);
+    }
+
+    /**
+     * @return the id of the observation
+     */
+    long writeObservation(int index) {
+      double latitude = 52 + index % 100 / 100.0;
+      double longitude = 13 + index % 77 / 100.0;
+      mObservation.bindLong(1, 0);
+      mObservation.bindLong(2, 1_500_000_000_000L + index * 60_000L);
+      mObservation.bindString(3, "Species " + index % 40);
+      mObservation.bindString(4, "Observation " + index);
+      mObservation.bindLong(5, index % 2);
+      mObservation.bindDouble(6, latitude);
+      mObservation.bindDouble(7, longitude);
+      mObservation.bindString(8, GeoHash.encode(latitude, longitude, GeoHash.STORED_PRECISION));
+      return mObservation.executeInsert();
+    }
+
+    void writeTags(int index) {
+      for (String tag : tagsOf(index)) {
+        mTag.bindString(1, tag);
+        mTag.bindNull(2);
+        mTag.executeInsert();
+      }
+    }
+
+    void writeObservationTags(int index, long id) {
+      for (String tag : tagsOf(index)) {
+        mObservationTag.bindLong(1, id);
+        mObservationTag.bindString(2, tag);
+        mObservationTag.executeInsert();
+      }
+    }
+
+    void writeAttachment(int index, long id) {
+      mAttachment.bindLong(1, id);
+      mAttachment.bindString(2, "/photos/" + index + ".jpg");
+      mAttachment.bindString(3, "IMAGE");
+      mAttachment.executeInsert();
+    }
+
+    private static String[] tagsOf(int index) {
+      return new String[]{TAGS[index % TAGS.length], TAGS[(index + 1) % TAGS.length]};
+    }
+
+  }
+
+}
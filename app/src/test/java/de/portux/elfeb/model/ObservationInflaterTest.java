@@ -0,0 +1,92 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import de.portux.elfeb.model.Attachment.AttachmentType;
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class ObservationInflaterTest {
+
+  private static final int PAGE_SIZE = 15;
+
+  @Test
+  public void inflatesPageInTwoQueries() {
+    AtomicInteger queries = new AtomicInteger();
+    ObservationInflater inflater = new ObservationInflater(countingDao(queries));
+    List<Observation> page = createPage();
+
+    inflater.apply(page);
+
+    assertEquals(2, queries.get());
+    for (Observation observation : page) {
+      assertTrue(observation.isCompletelyInflated());
+      boolean even = observation.getId() % 2 == 0;
+      assertEquals(even ? 1 : 0, observation.getAttachments().size());
+      assertEquals(even ? 0 : 2, observation.getTags().size());
+    }
+  }
+
+  @Test
+  public void skipsInflatedObservations() {
+    AtomicInteger queries = new AtomicInteger();
+    ObservationInflater inflater = new ObservationInflater(countingDao(queries));
+    List<Observation> page = createPage();
+
+    inflater.apply(page);
+    inflater.apply(page);
+
+    assertEquals(2, queries.get());
+  }
+
+  private static List<Observation> createPage() {
+    List<Observation> page = new ArrayList<>(PAGE_SIZE);
+    for (int i = 1; i <= PAGE_SIZE; ++i) {
+      Observation observation = new Observation("Suspicion " + i, "");
+      observation.setId(i);
+      page.add(observation);
+    }
+    return page;
+  }
+
+  /**
+   * Creates a DAO which counts its queries. Even observations have an image attached, odd ones are
+   * tagged twice.
+   */
+  private static ObservationDao countingDao(AtomicInteger queries) {
+    return (ObservationDao) Proxy.newProxyInstance(ObservationDao.class.getClassLoader(),
+        new Class<?>[]{ObservationDao.class}, (proxy, method, args) -> {
+          @SuppressWarnings("unchecked")
+          List<Long> ids = (List<Long>) args[0];
+          switch (method.getName()) {
+            case "getAttachmentsForObservations":
+              queries.incrementAndGet();
+              List<Attachment> attachments = new ArrayList<>();
+              for (long id : ids) {
+                if (id % 2 == 0) {
+                  attachments.add(new Attachment(id, new File(id + ".jpg"), AttachmentType.IMAGE));
+                }
+              }
+              return attachments;
+            case "getTagsForObservations":
+              queries.incrementAndGet();
+              List<TagOfObservation> tags = new ArrayList<>();
+              for (long id : ids) {
+                if (id % 2 != 0) {
+                  tags.add(new TagOfObservation(id, Tag.generateFor("Aves")));
+                  tags.add(new TagOfObservation(id, Tag.generateFor("Passeriformes")));
+                }
+              }
+              return tags;
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+}
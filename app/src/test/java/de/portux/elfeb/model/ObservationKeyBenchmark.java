@@ -0,0 +1,159 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+
+import de.portux.elfeb.support.Benchmarks;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the surrogate id of the observations to the composite {@code (time, suspicion)} key
+ * they had up to version 2 of the database, on 100k observations with two tags and an attachment
+ * each. The tables of version 2 are recreated next to the current ones with a {@code legacy_}
+ * prefix.
+ */
+public class ObservationKeyBenchmark {
+
+  private static final int OBSERVATIONS = 100_000;
+
+  private static final int RUNS = 20;
+
+  /**
+   * The number of suspicions changed by the update benchmark.
+   */
+  private static final int UPDATES = 2_000;
+
+  private static final String[] LEGACY_SCHEMA = {
+      "CREATE TABLE legacy_observations (time INTEGER NOT NULL, suspicion TEXT NOT NULL, "
+          + "comment TEXT, determined INTEGER NOT NULL, images_attached INTEGER NOT NULL, "
+          + "recordings_attached INTEGER NOT NULL, pos_latitude REAL, pos_longitude REAL, "
+          + "PRIMARY KEY(time, suspicion))",
+      "CREATE TABLE legacy_observation_tags (observation_time INTEGER NOT NULL, "
+          + "observation_suspicion TEXT NOT NULL, tag TEXT NOT NULL, "
+          + "PRIMARY KEY(observation_time, observation_suspicion, tag), "
+          + "FOREIGN KEY(observation_time, observation_suspicion) "
+          + "REFERENCES legacy_observations(time, suspicion) "
+          + "ON UPDATE CASCADE ON DELETE CASCADE, "
+          + "FOREIGN KEY(tag) REFERENCES tags(tag) ON UPDATE NO ACTION ON DELETE NO ACTION)",
+      "CREATE TABLE legacy_attachments (observation_time INTEGER NOT NULL, "
+          + "observation_suspicion TEXT NOT NULL, file_path TEXT NOT NULL, type TEXT NOT NULL, "
+          + "PRIMARY KEY(file_path), FOREIGN KEY(observation_time, observation_suspicion) "
+          + "REFERENCES legacy_observations(time, suspicion) "
+          + "ON UPDATE CASCADE ON DELETE NO ACTION)",
+      "CREATE INDEX index_legacy_attachments_observation_time_observation_suspicion "
+          + "ON legacy_attachments (observation_time, observation_suspicion)"};
+
+  private SqliteTestDatabase mDatabase;
+  private File mFile;
+
+  @Before
+  public void setUp() throws IOException, SQLException {
+    Benchmarks.assumeEnabled();
+    mFile = File.createTempFile("field_notes", ".db");
+    mDatabase = new SqliteTestDatabase(mFile);
+    for (String statement : LEGACY_SCHEMA) {
+      mDatabase.execute(statement);
+    }
+    mDatabase.runInTransaction(() -> {
+      try {
+        mDatabase.execute("WITH RECURSIVE k(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM k "
+            + "WHERE i < 19) INSERT INTO tags (tag) SELECT 'Tag ' || i FROM k");
+        mDatabase.execute("WITH RECURSIVE k(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM k "
+            + "WHERE i < " + (OBSERVATIONS - 1) + ") INSERT INTO observations (time, suspicion, "
+            + "determined, images_attached, recordings_attached, image_count, audio_count) "
+            + "SELECT 1500000000000 + i * 60000, 'Species ' || (i % 50), i % 2, 1, 0, 1, 0 "
+            + "FROM k");
+        mDatabase.execute("INSERT INTO observation_tags (observation_id, tag) "
+            + "SELECT id, 'Tag ' || (id % 20) FROM observations UNION ALL "
+            + "SELECT id, 'Tag ' || ((id / 20 + 1) % 20) FROM observations "
+            + "WHERE (id / 20 + 1) % 20 != id % 20");
+        mDatabase.execute("INSERT INTO attachments (observation_id, file_path, type) "
+            + "SELECT id, '/photos/' || id || '.jpg', 'IMAGE' FROM observations");
+
+        mDatabase.execute("INSERT INTO legacy_observations (time, suspicion, determined, "
+            + "images_attached, recordings_attached) SELECT time, suspicion, determined, "
+            + "images_attached, recordings_attached FROM observations");
+        mDatabase.execute("INSERT INTO legacy_observation_tags (observation_time, "
+            + "observation_suspicion, tag) SELECT o.time, o.suspicion, ot.tag "
+            + "FROM observation_tags ot INNER JOIN observations o ON o.id = ot.observation_id");
+        mDatabase.execute("INSERT INTO legacy_attachments (observation_time, "
+            + "observation_suspicion, file_path, type) SELECT o.time, o.suspicion, a.file_path, "
+            + "a.type FROM attachments a INNER JOIN observations o ON o.id = a.observation_id");
+      } catch (SQLException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    if (mDatabase != null) {
+      mDatabase.close();
+      for (String suffix : new String[]{"", "-wal", "-shm"}) {
+        new File(mFile.getPath() + suffix).delete();
+      }
+    }
+  }
+
+  @Test
+  public void joinTagsOfADay() throws Exception {
+    long from = 1_500_000_000_000L + 40_000 * 60_000L;
+    long to = from + 24 * 3_600_000L;
+    String surrogate = "SELECT o.time, o.suspicion, ot.tag FROM observations o "
+        + "INNER JOIN observation_tags ot ON ot.observation_id = o.id "
+        + "WHERE o.time BETWEEN ? AND ? ORDER BY o.time, ot.tag";
+    String composite = "SELECT o.time, o.suspicion, ot.tag FROM legacy_observations o "
+        + "INNER JOIN legacy_observation_tags ot ON ot.observation_time = o.time "
+        + "AND ot.observation_suspicion = o.suspicion "
+        + "WHERE o.time BETWEEN ? AND ? ORDER BY o.time, ot.tag";
+    assertEquals(mDatabase.query(composite, from, to), mDatabase.query(surrogate, from, to));
+
+    Benchmarks.time("Tags of a day's observations, surrogate id", RUNS,
+        () -> mDatabase.query(surrogate, from, to));
+    Benchmarks.time("Tags of a day's observations, composite key", RUNS,
+        () -> mDatabase.query(composite, from, to));
+  }
+
+  @Test
+  public void changeSuspicions() throws Exception {
+    List<List<Object>> observations = mDatabase.query("SELECT id, time, suspicion "
+        + "FROM observations ORDER BY id LIMIT ?", UPDATES);
+
+    Benchmarks.time("Suspicion changes, surrogate id", () -> mDatabase.runInTransaction(() -> {
+      try {
+        for (List<Object> observation : observations) {
+          mDatabase.execute("UPDATE observations SET suspicion = ? WHERE id = ?",
+              observation.get(2) + " sp.", observation.get(0));
+        }
+      } catch (SQLException e) {
+        throw new IllegalStateException(e);
+      }
+    }));
+    Benchmarks.time("Suspicion changes, composite key", () -> mDatabase.runInTransaction(() -> {
+      try {
+        for (List<Object> observation : observations) {
+          mDatabase.execute("UPDATE legacy_observations SET suspicion = ? "
+              + "WHERE time = ? AND suspicion = ?", observation.get(2) + " sp.",
+              observation.get(1), observation.get(2));
+        }
+      } catch (SQLException e) {
+        throw new IllegalStateException(e);
+      }
+    }));
+
+    // the legacy children followed their observations through the cascades
+    assertEquals(mDatabase.query("SELECT COUNT(*) FROM observation_tags ot "
+            + "INNER JOIN observations o ON o.id = ot.observation_id "
+            + "WHERE o.suspicion LIKE '% sp.'"),
+        mDatabase.query("SELECT COUNT(*) FROM legacy_observation_tags "
+            + "WHERE observation_suspicion LIKE '% sp.'"));
+    assertEquals((long) UPDATES, mDatabase.query("SELECT COUNT(*) FROM legacy_attachments "
+        + "WHERE observation_suspicion LIKE '% sp.'").get(0).get(0));
+  }
+
+}
@@ -0,0 +1,181 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.sqlite.db.SupportSQLiteProgram;
+import androidx.sqlite.db.SupportSQLiteQuery;
+import de.portux.elfeb.support.Benchmarks;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Loads the first page of 100k observations filtered by a year and a tag including its sub-tags,
+ * once through the query of {@link ObservationQueries#filteredBy(FilterCriteria)} paged the way
+ * Room's limit-offset data source pages it, and once by reading all observations and their tags
+ * and filtering them in memory.
+ */
+public class ObservationQueriesBenchmark {
+
+  private static final int OBSERVATIONS = 100_000;
+
+  /**
+   * The initial load of the observation list, three pages of the repository.
+   */
+  private static final int FIRST_LOAD = 45;
+
+  private static final int RUNS = 20;
+
+  private static final long START_OF_2018 = 1514764800000L;
+  private static final long END_OF_2018 = 1546300799999L;
+
+  private SqliteTestDatabase mDatabase;
+  private File mFile;
+
+  @Before
+  public void setUp() throws IOException, SQLException {
+    Benchmarks.assumeEnabled();
+    mFile = File.createTempFile("field_notes", ".db");
+    mDatabase = new SqliteTestDatabase(mFile);
+    FieldNotesDatabase.createTagClosureTriggers(mDatabase.asSupportDatabase());
+    mDatabase.runInTransaction(() -> {
+      try {
+        // five root tags with five sub-tags each
+        mDatabase.execute("WITH RECURSIVE k(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM k "
+            + "WHERE i < 4) INSERT INTO tags (tag) SELECT 'Tag ' || i FROM k");
+        mDatabase.execute("WITH RECURSIVE k(i) AS (SELECT 5 UNION ALL SELECT i + 1 FROM k "
+            + "WHERE i < 29) INSERT INTO tags (tag, parent) SELECT 'Tag ' || i, 'Tag ' || (i % 5) "
+            + "FROM k");
+        // 2017 to 2019
+        mDatabase.execute("WITH RECURSIVE k(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM k "
+            + "WHERE i < " + (OBSERVATIONS - 1) + ") INSERT OR IGNORE INTO observations (time, "
+            + "suspicion, determined, images_attached, recordings_attached, image_count, "
+            + "audio_count) SELECT 1483228800000 + abs(random()) % 94608000000, "
+            + "'Species ' || (abs(random()) % 40), abs(random()) % 2, 0, 0, 0, 0 FROM k");
+        mDatabase.execute("INSERT OR IGNORE INTO observation_tags (observation_id, tag) "
+            + "SELECT id, 'Tag ' || (abs(random()) % 30) FROM observations UNION ALL "
+            + "SELECT id, 'Tag ' || (abs(random()) % 30) FROM observations");
+      } catch (SQLException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    if (mDatabase != null) {
+      mDatabase.close();
+      for (String suffix : new String[]{"", "-wal", "-shm"}) {
+        new File(mFile.getPath() + suffix).delete();
+      }
+    }
+  }
+
+  @Test
+  public void firstPageOfYearAndTag() throws Exception {
+    FilterCriteria criteria = FilterCriteria.construct() //
+        .startingOn(new Date(START_OF_2018)) //
+        .endingOn(new Date(END_OF_2018)) //
+        .withTags(Collections.singleton(new Tag("Tag 1"))) //
+        .done();
+    SupportSQLiteQuery query = ObservationQueries.filteredBy(criteria);
+    assertEquals(scanThenFilter(), firstLoad(query));
+
+    Benchmarks.time("First page of a year and tag, indexed query", RUNS,
+        () -> firstLoad(query));
+    Benchmarks.time("First page of a year and tag, scan then filter", RUNS,
+        this::scanThenFilter);
+  }
+
+  /**
+   * Counts the matching observations and loads the first of them, like the limit-offset data
+   * source Room generates for the query does.
+   *
+   * @return the ids of the loaded observations
+   */
+  private List<Long> firstLoad(SupportSQLiteQuery query) throws SQLException {
+    List<List<Object>> count = mDatabase.query(new WrappedQuery(
+        "SELECT COUNT(*) FROM ( " + query.getSql() + " )", query));
+    List<Long> ids = new ArrayList<>(FIRST_LOAD);
+    for (List<Object> row : mDatabase.query(new WrappedQuery(
+        "SELECT * FROM ( " + query.getSql() + " ) LIMIT " + FIRST_LOAD + " OFFSET 0", query))) {
+      ids.add((Long) row.get(0));
+    }
+    assertTrue((Long) count.get(0).get(0) >= ids.size());
+    return ids;
+  }
+
+  /**
+   * Reads all observations, as counting the matching ones requires, and keeps the first matching.
+   *
+   * @return the ids of the first matching observations
+   */
+  private List<Long> scanThenFilter() throws SQLException {
+    Set<String> requested = new HashSet<>();
+    for (List<Object> row : mDatabase.query("SELECT descendant FROM tag_closure "
+        + "WHERE ancestor = 'Tag 1'")) {
+      requested.add((String) row.get(0));
+    }
+    Map<Long, List<String>> tags = new HashMap<>();
+    for (List<Object> row : mDatabase.query("SELECT observation_id, tag FROM observation_tags")) {
+      tags.computeIfAbsent((Long) row.get(0), id -> new ArrayList<>()).add((String) row.get(1));
+    }
+    List<Long> ids = new ArrayList<>(FIRST_LOAD);
+    for (List<Object> row : mDatabase.query("SELECT * FROM observations ORDER BY time DESC")) {
+      long time = (Long) row.get(1);
+      if (time < START_OF_2018 || time > END_OF_2018 || ids.size() == FIRST_LOAD) {
+        continue;
+      }
+      for (String tag : tags.getOrDefault((Long) row.get(0), Collections.emptyList())) {
+        if (requested.contains(tag)) {
+          ids.add((Long) row.get(0));
+          break;
+        }
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * A query wrapping an other one, whose arguments it takes over.
+   */
+  private static class WrappedQuery implements SupportSQLiteQuery {
+
+    private final String mSql;
+    private final SupportSQLiteQuery mQuery;
+
+    WrappedQuery(String sql, SupportSQLiteQuery query) {
+      mSql = sql;
+      mQuery = query;
+    }
+
+    @Override
+    public String getSql() {
+      return mSql;
+    }
+
+    @Override
+    public void bindTo(SupportSQLiteProgram statement) {
+      mQuery.bindTo(statement);
+    }
+
+    @Override
+    public int getArgCount() {
+      return mQuery.getArgCount();
+    }
+
+  }
+
+}
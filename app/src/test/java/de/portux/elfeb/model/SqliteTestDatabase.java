@@ -0,0 +1,391 @@
+package de.portux.elfeb.model;
+
+import android.database.Cursor;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.sqlite.db.SupportSQLiteProgram;
+import androidx.sqlite.db.SupportSQLiteQuery;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import java.io.Closeable;
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An in-memory SQLite database on the JVM, such that the triggers of the
+ * {@link FieldNotesDatabase} may be tested without a device.
+ * <p>
+ * Room is not available here, so the tables the triggers work on are created after the entities
+ * by hand. The triggers themselves are created by the very methods the database uses, which get a
+ * {@link SupportSQLiteDatabase} that passes their statements on to JDBC.
+ */
+class SqliteTestDatabase implements Closeable {
+
+  private static final String[] SCHEMA = {
+      "CREATE TABLE tags (tag TEXT NOT NULL, parent TEXT, PRIMARY KEY(tag), "
+          + "FOREIGN KEY(parent) REFERENCES tags(tag) ON UPDATE NO ACTION ON DELETE SET NULL)",
+      "CREATE INDEX index_tags_parent ON tags (parent)",
+      "CREATE TABLE tag_closure (ancestor TEXT NOT NULL, descendant TEXT NOT NULL, "
+          + "depth INTEGER NOT NULL, PRIMARY KEY(ancestor, descendant), "
+          + "FOREIGN KEY(ancestor) REFERENCES tags(tag) ON UPDATE NO ACTION ON DELETE CASCADE, "
+          + "FOREIGN KEY(descendant) REFERENCES tags(tag) ON UPDATE NO ACTION ON DELETE CASCADE)",
+      "CREATE INDEX index_tag_closure_descendant_ancestor ON tag_closure (descendant, ancestor)",
+      "CREATE TABLE observations (id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+          + "time INTEGER NOT NULL, suspicion TEXT NOT NULL, comment TEXT, "
+          + "determined INTEGER NOT NULL, images_attached INTEGER NOT NULL, "
+          + "recordings_attached INTEGER NOT NULL, pos_latitude REAL, pos_longitude REAL, "
+          + "geohash TEXT, image_count INTEGER NOT NULL, audio_count INTEGER NOT NULL)",
+      "CREATE UNIQUE INDEX index_observations_time_suspicion ON observations (time, suspicion)",
+      "CREATE INDEX index_observations_suspicion_time ON observations (suspicion, time)",
+      "CREATE INDEX index_observations_geohash ON observations (geohash)",
+      "CREATE TABLE observation_tags (observation_id INTEGER NOT NULL, tag TEXT NOT NULL, "
+          + "PRIMARY KEY(observation_id, tag), "
+          + "FOREIGN KEY(observation_id) REFERENCES observations(id) "
+          + "ON UPDATE NO ACTION ON DELETE CASCADE, "
+          + "FOREIGN KEY(tag) REFERENCES tags(tag) ON UPDATE NO ACTION ON DELETE NO ACTION)",
+      "CREATE INDEX index_observation_tags_tag_observation_id "
+          + "ON observation_tags (tag, observation_id)",
+      "CREATE VIRTUAL TABLE observations_fts USING FTS4(suspicion TEXT, tags TEXT, comment TEXT)",
+      "CREATE TABLE observation_rollups (period TEXT NOT NULL, bucket TEXT NOT NULL, "
+          + "suspicion TEXT NOT NULL, determined INTEGER NOT NULL, count INTEGER NOT NULL, "
+          + "PRIMARY KEY(period, bucket, suspicion, determined))",
+      "CREATE TABLE tag_rollups (period TEXT NOT NULL, bucket TEXT NOT NULL, tag TEXT NOT NULL, "
+          + "determined INTEGER NOT NULL, count INTEGER NOT NULL, "
+          + "PRIMARY KEY(period, bucket, tag, determined))",
+      "CREATE TABLE first_sightings (kind TEXT NOT NULL, subject TEXT NOT NULL, "
+          + "year INTEGER NOT NULL, time INTEGER NOT NULL, PRIMARY KEY(kind, subject, year))",
+      "CREATE INDEX index_first_sightings_kind_year_time ON first_sightings (kind, year, time)",
+      "CREATE TABLE attachments (observation_id INTEGER NOT NULL, file_path TEXT NOT NULL, "
+          + "type TEXT NOT NULL, content_hash TEXT, original_path TEXT, original_size INTEGER, "
+          + "stored_size INTEGER, missing_since INTEGER, PRIMARY KEY(file_path, observation_id), "
+          + "FOREIGN KEY(observation_id) REFERENCES observations(id) "
+          + "ON UPDATE NO ACTION ON DELETE CASCADE)",
+      "CREATE INDEX index_attachments_observation_id ON attachments (observation_id)",
+      "CREATE INDEX index_attachments_content_hash ON attachments (content_hash)",
+      "CREATE TABLE blobs (hash TEXT NOT NULL, file_path TEXT NOT NULL, size INTEGER NOT NULL, "
+          + "original_path TEXT, original_size INTEGER, original_accessed INTEGER, "
+          + "ref_count INTEGER NOT NULL, PRIMARY KEY(hash))",
+      "CREATE TABLE change_log (seq INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+          + "observation_id INTEGER NOT NULL, time INTEGER NOT NULL, suspicion TEXT NOT NULL, "
+          + "deleted INTEGER NOT NULL)"};
+
+  private final Connection mConnection;
+
+  private int mTransactionDepth = 0;
+  private boolean mTransactionSuccessful = false;
+
+  SqliteTestDatabase() throws SQLException {
+    this(":memory:", true);
+  }
+
+  /**
+   * Opens a database in a file, in the journal mode Room uses on a device. Commits therefore cost
+   * about what they cost there, which is what benchmarks need.
+   */
+  SqliteTestDatabase(File file) throws SQLException {
+    this(file, "WAL");
+  }
+
+  /**
+   * Opens a database in a file in some journal mode. The tables are only created if the file is
+   * empty, such that a database may be opened by several connections.
+   */
+  SqliteTestDatabase(File file, String journalMode) throws SQLException {
+    this(file.getAbsolutePath(), file.length() == 0);
+    query("PRAGMA journal_mode = " + journalMode);
+  }
+
+  private SqliteTestDatabase(String path, boolean createTables) throws SQLException {
+    mConnection = DriverManager.getConnection("jdbc:sqlite:" + path);
+    execute("PRAGMA foreign_keys = ON");
+    if (createTables) {
+      for (String statement : SCHEMA) {
+        execute(statement);
+      }
+    }
+  }
+
+  /**
+   * Provides a view of {@code this} database for the code under test. Statements, queries and
+   * transactions are supported, which is what the triggers and the raw SQL of the app use.
+   */
+  SupportSQLiteDatabase asSupportDatabase() {
+    return (SupportSQLiteDatabase) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[]{SupportSQLiteDatabase.class}, (proxy, method, args) -> {
+          try {
+            switch (method.getName()) {
+              case "execSQL":
+                execute((String) args[0], args.length > 1 ? (Object[]) args[1] : new Object[0]);
+                return null;
+              case "query":
+                if (args[0] instanceof SupportSQLiteQuery) {
+                  return cursorOver(query((SupportSQLiteQuery) args[0]));
+                }
+                return cursorOver(query((String) args[0],
+                    args.length > 1 && args[1] != null ? (Object[]) args[1] : new Object[0]));
+              case "compileStatement":
+                return compile((String) args[0]);
+              case "beginTransaction":
+                beginTransaction();
+                return null;
+              case "setTransactionSuccessful":
+                mTransactionSuccessful = true;
+                return null;
+              case "endTransaction":
+                endTransaction();
+                return null;
+              case "inTransaction":
+                return mTransactionDepth > 0;
+              default:
+                throw new UnsupportedOperationException(method.getName());
+            }
+          } catch (SQLException e) {
+            throw new IllegalStateException(e);
+          }
+        });
+  }
+
+  /**
+   * Provides an open helper whose readable and writable database are both
+   * {@link #asSupportDatabase() this database}.
+   */
+  SupportSQLiteOpenHelper asOpenHelper() {
+    SupportSQLiteDatabase database = asSupportDatabase();
+    return (SupportSQLiteOpenHelper) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[]{SupportSQLiteOpenHelper.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getWritableDatabase":
+            case "getReadableDatabase":
+              return database;
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  /**
+   * Runs some work within a transaction, like {@code RoomDatabase#runInTransaction(Runnable)}
+   * does. It may be passed on to a {@link BatchingWriteQueue}.
+   */
+  void runInTransaction(Runnable transaction) {
+    try {
+      beginTransaction();
+      try {
+        transaction.run();
+        mTransactionSuccessful = true;
+      } finally {
+        endTransaction();
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return the id of the new observation
+   */
+  long insertObservation(long time, String suspicion, boolean determined) throws SQLException {
+    return insert("INSERT INTO observations (time, suspicion, determined, images_attached, "
+        + "recordings_attached, image_count, audio_count) VALUES (?, ?, ?, 0, 0, 0, 0)", time,
+        suspicion, determined ? 1 : 0);
+  }
+
+  void insertTag(String tag, String parent) throws SQLException {
+    execute("INSERT INTO tags (tag, parent) VALUES (?, ?)", tag, parent);
+  }
+
+  void execute(String sql, Object... args) throws SQLException {
+    try (PreparedStatement statement = prepare(sql, args)) {
+      statement.execute();
+    }
+  }
+
+  /**
+   * @return the row id of the inserted row
+   */
+  long insert(String sql, Object... args) throws SQLException {
+    execute(sql, args);
+    return (Long) query("SELECT last_insert_rowid()").get(0).get(0);
+  }
+
+  /**
+   * Runs a query and collects all of its rows. Integers are always returned as {@link Long}, such
+   * that rows may be compared regardless of the size of their values.
+   */
+  List<List<Object>> query(String sql, Object... args) throws SQLException {
+    List<List<Object>> rows = new ArrayList<>();
+    try (PreparedStatement statement = prepare(sql, args);
+        ResultSet result = statement.executeQuery()) {
+      int columnCount = result.getMetaData().getColumnCount();
+      while (result.next()) {
+        Object[] row = new Object[columnCount];
+        for (int i = 0; i < columnCount; ++i) {
+          Object value = result.getObject(i + 1);
+          row[i] = value instanceof Integer ? Long.valueOf((Integer) value) : value;
+        }
+        rows.add(Arrays.asList(row));
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * Runs a query such as the ones built by {@link ObservationQueries} and collects all of its rows.
+   */
+  List<List<Object>> query(SupportSQLiteQuery query) throws SQLException {
+    Map<Integer, Object> bindings = new TreeMap<>();
+    query.bindTo((SupportSQLiteProgram) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[]{SupportSQLiteProgram.class}, (proxy, method, args) -> {
+          if (method.getName().equals("bindNull")) {
+            bindings.put((Integer) args[0], null);
+          } else {
+            bindings.put((Integer) args[0], args[1]);
+          }
+          return null;
+        }));
+    return query(query.getSql(), argumentsOf(bindings, query.getArgCount()));
+  }
+
+  @Override
+  public void close() {
+    try {
+      mConnection.close();
+    } catch (SQLException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void beginTransaction() throws SQLException {
+    if (mTransactionDepth++ == 0) {
+      mTransactionSuccessful = false;
+      execute("BEGIN");
+    }
+  }
+
+  private void endTransaction() throws SQLException {
+    if (--mTransactionDepth == 0) {
+      execute(mTransactionSuccessful ? "COMMIT" : "ROLLBACK");
+    }
+  }
+
+  /**
+   * Compiles a statement the way {@link SupportSQLiteDatabase#compileStatement(String)} does. Its
+   * arguments are bound by their index and kept until they are cleared.
+   */
+  private SupportSQLiteStatement compile(String sql) {
+    Map<Integer, Object> bindings = new TreeMap<>();
+    // the statements of the app do not contain question marks other than their parameters
+    int parameterCount = sql.length() - sql.replace("?", "").length();
+    return (SupportSQLiteStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[]{SupportSQLiteStatement.class}, (proxy, method, args) -> {
+          try {
+            switch (method.getName()) {
+              case "bindNull":
+                bindings.put((Integer) args[0], null);
+                return null;
+              case "bindLong":
+              case "bindDouble":
+              case "bindString":
+                bindings.put((Integer) args[0], args[1]);
+                return null;
+              case "clearBindings":
+                bindings.clear();
+                return null;
+              case "execute":
+                execute(sql, argumentsOf(bindings, parameterCount));
+                return null;
+              case "executeUpdateDelete":
+                execute(sql, argumentsOf(bindings, parameterCount));
+                return ((Long) query("SELECT changes()").get(0).get(0)).intValue();
+              case "executeInsert":
+                execute(sql, argumentsOf(bindings, parameterCount));
+                List<Object> inserted = query("SELECT changes(), last_insert_rowid()").get(0);
+                return (Long) inserted.get(0) > 0 ? inserted.get(1) : -1L;
+              case "simpleQueryForLong":
+                return query(sql, argumentsOf(bindings, parameterCount)).get(0).get(0);
+              case "close":
+                return null;
+              default:
+                throw new UnsupportedOperationException(method.getName());
+            }
+          } catch (SQLException e) {
+            throw new IllegalStateException(e);
+          }
+        });
+  }
+
+  /**
+   * Arguments which have not been bound are {@code null}, as they would be in SQLite.
+   */
+  private static Object[] argumentsOf(Map<Integer, Object> bindings, int parameterCount) {
+    Object[] args = new Object[parameterCount];
+    for (Map.Entry<Integer, Object> binding : bindings.entrySet()) {
+      args[binding.getKey() - 1] = binding.getValue();
+    }
+    return args;
+  }
+
+  /**
+   * Provides the rows of a query as a {@link Cursor}, such as the one returned by
+   * {@link SupportSQLiteDatabase#query(String, Object[])}.
+   */
+  private Cursor cursorOver(List<List<Object>> rows) {
+    int[] position = {-1};
+    return (Cursor) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[]{Cursor.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "moveToNext":
+              return ++position[0] < rows.size();
+            case "moveToFirst":
+              position[0] = 0;
+              return !rows.isEmpty();
+            case "getCount":
+              return rows.size();
+            case "getColumnCount":
+              // the columns of an empty result are not known, but there is nothing to read anyway
+              return rows.isEmpty() ? 0 : rows.get(0).size();
+            case "isNull":
+              return rows.get(position[0]).get((Integer) args[0]) == null;
+            case "getLong":
+              return valueAt(rows.get(position[0]), (Integer) args[0]).longValue();
+            case "getInt":
+              return valueAt(rows.get(position[0]), (Integer) args[0]).intValue();
+            case "getDouble":
+              return valueAt(rows.get(position[0]), (Integer) args[0]).doubleValue();
+            case "getString":
+              Object value = rows.get(position[0]).get((Integer) args[0]);
+              return value != null ? value.toString() : null;
+            case "close":
+              return null;
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  /**
+   * Reads a numeric column. {@code NULL} is read as 0, like Android does.
+   */
+  private static Number valueAt(List<Object> row, int column) {
+    Object value = row.get(column);
+    return value != null ? (Number) value : 0;
+  }
+
+  private PreparedStatement prepare(String sql, Object[] args) throws SQLException {
+    PreparedStatement statement = mConnection.prepareStatement(sql);
+    for (int i = 0; i < args.length; ++i) {
+      statement.setObject(i + 1, args[i]);
+    }
+    return statement;
+  }
+
+}
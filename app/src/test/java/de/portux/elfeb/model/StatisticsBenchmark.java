@@ -0,0 +1,124 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+
+import de.portux.elfeb.support.Benchmarks;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.HashSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Reads the statistics of 100k observations spread over three years, once from the rollups the
+ * way the {@link StatisticsDao} does and once by grouping the observations ad hoc.
+ */
+public class StatisticsBenchmark {
+
+  private static final int OBSERVATIONS = 100_000;
+
+  private static final int RUNS = 20;
+
+  /**
+   * The query of {@link StatisticsDao#getSuspicionStatistics(String)}.
+   */
+  private static final String SUSPICION_ROLLUPS = "SELECT bucket, suspicion AS subject, "
+      + "SUM(count) AS count, "
+      + "SUM(CASE WHEN determined THEN 0 ELSE count END) AS undetermined_count "
+      + "FROM observation_rollups WHERE period = ? "
+      + "GROUP BY bucket, suspicion ORDER BY bucket DESC, count DESC";
+
+  /**
+   * The query of {@link StatisticsDao#getTagStatistics(String)}.
+   */
+  private static final String TAG_ROLLUPS = "SELECT bucket, tag AS subject, SUM(count) AS count, "
+      + "SUM(CASE WHEN determined THEN 0 ELSE count END) AS undetermined_count "
+      + "FROM tag_rollups WHERE period = ? "
+      + "GROUP BY bucket, tag ORDER BY bucket DESC, count DESC";
+
+  private static final String SUSPICION_GROUP_BY = "SELECT %s AS bucket, suspicion AS subject, "
+      + "COUNT(*) AS count, SUM(NOT determined) AS undetermined_count FROM observations "
+      + "GROUP BY bucket, suspicion ORDER BY bucket DESC, count DESC";
+
+  private static final String TAG_GROUP_BY = "SELECT %s AS bucket, ot.tag AS subject, "
+      + "COUNT(*) AS count, SUM(NOT o.determined) AS undetermined_count "
+      + "FROM observation_tags ot INNER JOIN observations o ON o.id = ot.observation_id "
+      + "GROUP BY bucket, ot.tag ORDER BY bucket DESC, count DESC";
+
+  private SqliteTestDatabase mDatabase;
+  private File mFile;
+
+  @Before
+  public void setUp() throws IOException, SQLException {
+    Benchmarks.assumeEnabled();
+    mFile = File.createTempFile("field_notes", ".db");
+    mDatabase = new SqliteTestDatabase(mFile);
+    mDatabase.runInTransaction(() -> {
+      try {
+        mDatabase.execute("WITH RECURSIVE k(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM k "
+            + "WHERE i < 29) INSERT INTO tags (tag) SELECT 'Tag ' || i FROM k");
+        // 2017 to 2019, with observations of 40 species a day
+        mDatabase.execute("WITH RECURSIVE k(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM k "
+            + "WHERE i < " + (OBSERVATIONS - 1) + ") INSERT OR IGNORE INTO observations (time, "
+            + "suspicion, determined, images_attached, recordings_attached, image_count, "
+            + "audio_count) SELECT 1483228800000 + abs(random()) % 94608000000, "
+            + "'Species ' || (abs(random()) % 40), abs(random()) % 2, 0, 0, 0, 0 FROM k");
+        mDatabase.execute("INSERT OR IGNORE INTO observation_tags (observation_id, tag) "
+            + "SELECT id, 'Tag ' || (abs(random()) % 30) FROM observations UNION ALL "
+            + "SELECT id, 'Tag ' || (abs(random()) % 30) FROM observations");
+      } catch (SQLException e) {
+        throw new IllegalStateException(e);
+      }
+      FieldNotesDatabase.rebuildStatistics(mDatabase.asSupportDatabase());
+    });
+  }
+
+  @After
+  public void tearDown() {
+    if (mDatabase != null) {
+      mDatabase.close();
+      for (String suffix : new String[]{"", "-wal", "-shm"}) {
+        new File(mFile.getPath() + suffix).delete();
+      }
+    }
+  }
+
+  @Test
+  public void suspicionsPerMonth() throws Exception {
+    compare("Suspicions per month", SUSPICION_ROLLUPS, "MONTH",
+        String.format(SUSPICION_GROUP_BY, monthOf("time")));
+  }
+
+  @Test
+  public void suspicionsPerDay() throws Exception {
+    compare("Suspicions per day", SUSPICION_ROLLUPS, "DAY",
+        String.format(SUSPICION_GROUP_BY, dayOf("time")));
+  }
+
+  @Test
+  public void tagsPerMonth() throws Exception {
+    compare("Tags per month", TAG_ROLLUPS, "MONTH",
+        String.format(TAG_GROUP_BY, monthOf("o.time")));
+  }
+
+  private void compare(String name, String rollups, String period, String groupBy)
+      throws Exception {
+    // rows of the same count may come in any order
+    assertEquals(new HashSet<>(mDatabase.query(groupBy)),
+        new HashSet<>(mDatabase.query(rollups, period)));
+
+    Benchmarks.time(name + ", rollups", RUNS, () -> mDatabase.query(rollups, period));
+    Benchmarks.time(name + ", GROUP BY", RUNS, () -> mDatabase.query(groupBy));
+  }
+
+  private static String monthOf(String time) {
+    return "strftime('%Y-%m', " + time + " / 1000, 'unixepoch', 'localtime')";
+  }
+
+  private static String dayOf(String time) {
+    return "date(" + time + " / 1000, 'unixepoch', 'localtime')";
+  }
+
+}
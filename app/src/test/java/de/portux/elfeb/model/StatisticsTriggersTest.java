@@ -0,0 +1,152 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StatisticsTriggersTest {
+
+  private static final String[] SUSPICIONS = {"Parus major", "Bellis perennis",
+      "Erithacus rubecula", "Turdus merula"};
+
+  private static final String[] TAGS = {"Aves", "Passeriformes", "Asterales", "Garden"};
+
+  /**
+   * 2017-12-30 12:00 UTC, such that observations end up in different days, months and years.
+   */
+  private static final long START = 1514635200000L;
+
+  private static final String OBSERVATION_RECOUNT =
+      "SELECT 'DAY', date(time / 1000, 'unixepoch', 'localtime'), suspicion, determined, COUNT(*) "
+          + "FROM observations GROUP BY 2, 3, 4 "
+          + "UNION ALL SELECT 'MONTH', strftime('%Y-%m', time / 1000, 'unixepoch', 'localtime'), "
+          + "suspicion, determined, COUNT(*) FROM observations GROUP BY 2, 3, 4 "
+          + "ORDER BY 1, 2, 3, 4";
+
+  private static final String TAG_RECOUNT =
+      "SELECT 'DAY', date(o.time / 1000, 'unixepoch', 'localtime'), ot.tag, o.determined, "
+          + "COUNT(*) FROM observation_tags ot INNER JOIN observations o "
+          + "ON o.id = ot.observation_id GROUP BY 2, 3, 4 "
+          + "UNION ALL SELECT 'MONTH', strftime('%Y-%m', o.time / 1000, 'unixepoch', 'localtime'), "
+          + "ot.tag, o.determined, COUNT(*) FROM observation_tags ot INNER JOIN observations o "
+          + "ON o.id = ot.observation_id GROUP BY 2, 3, 4 "
+          + "ORDER BY 1, 2, 3, 4";
+
+  private SqliteTestDatabase mDatabase;
+
+  @Before
+  public void setUp() throws SQLException {
+    mDatabase = new SqliteTestDatabase();
+    FieldNotesDatabase.createStatisticsTriggers(mDatabase.asSupportDatabase());
+    for (String tag : TAGS) {
+      mDatabase.insertTag(tag, null);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    mDatabase.close();
+  }
+
+  @Test
+  public void rollupsMatchRecountAfterRandomChanges() throws SQLException {
+    Random random = new Random(42);
+    List<Long> observations = new ArrayList<>();
+    for (int step = 0; step < 2_000; ++step) {
+      int operation = observations.isEmpty() ? 0 : random.nextInt(6);
+      switch (operation) {
+        case 0:
+        case 1:
+          observations.add(mDatabase.insertObservation(randomTime(random, step),
+              randomOf(random, SUSPICIONS), random.nextBoolean()));
+          break;
+        case 2:
+          update(random, randomOf(random, observations), step);
+          break;
+        case 3:
+          mDatabase.execute("DELETE FROM observations WHERE id = ?",
+              observations.remove(random.nextInt(observations.size())));
+          break;
+        case 4:
+          mDatabase.execute("INSERT OR IGNORE INTO observation_tags (observation_id, tag) "
+              + "VALUES (?, ?)", randomOf(random, observations), randomOf(random, TAGS));
+          break;
+        default:
+          mDatabase.execute("DELETE FROM observation_tags WHERE observation_id = ? AND tag = ?",
+              randomOf(random, observations), randomOf(random, TAGS));
+      }
+      if (step % 100 == 0) {
+        assertRollupsMatchRecount();
+      }
+    }
+    assertRollupsMatchRecount();
+    assertFalse(mDatabase.query("SELECT * FROM tag_rollups").isEmpty());
+  }
+
+  @Test
+  public void removesEmptyBuckets() throws SQLException {
+    long id = mDatabase.insertObservation(START, SUSPICIONS[0], false);
+    mDatabase.execute("INSERT INTO observation_tags (observation_id, tag) VALUES (?, ?)", id,
+        TAGS[0]);
+
+    mDatabase.execute("DELETE FROM observations WHERE id = ?", id);
+
+    assertEquals(0, mDatabase.query("SELECT * FROM observation_rollups").size());
+    assertEquals(0, mDatabase.query("SELECT * FROM tag_rollups").size());
+  }
+
+  /**
+   * Changes the time, suspicion or determined flag of an observation, or all of them at once.
+   */
+  private void update(Random random, long id, int step) throws SQLException {
+    switch (random.nextInt(4)) {
+      case 0:
+        mDatabase.execute("UPDATE observations SET time = ? WHERE id = ?",
+            randomTime(random, step), id);
+        break;
+      case 1:
+        mDatabase.execute("UPDATE observations SET suspicion = ? WHERE id = ?",
+            randomOf(random, SUSPICIONS), id);
+        break;
+      case 2:
+        mDatabase.execute("UPDATE observations SET determined = 1 - determined WHERE id = ?", id);
+        break;
+      default:
+        mDatabase.execute("UPDATE observations SET time = ?, suspicion = ?, determined = ? "
+                + "WHERE id = ?", randomTime(random, step), randomOf(random, SUSPICIONS),
+            random.nextInt(2), id);
+    }
+  }
+
+  private void assertRollupsMatchRecount() throws SQLException {
+    assertEquals(mDatabase.query(OBSERVATION_RECOUNT), mDatabase.query("SELECT period, bucket, "
+        + "suspicion, determined, count FROM observation_rollups ORDER BY 1, 2, 3, 4"));
+    assertEquals(mDatabase.query(TAG_RECOUNT), mDatabase.query("SELECT period, bucket, tag, "
+        + "determined, count FROM tag_rollups ORDER BY 1, 2, 3, 4"));
+  }
+
+  /**
+   * Picks a time within about two months after the start. The step is added as milliseconds, so
+   * no two times are the same and the key of the observations stays unique.
+   */
+  private static long randomTime(Random random, int step) {
+    return START + TimeUnit.HOURS.toMillis(random.nextInt(60 * 24)) + step;
+  }
+
+  private static <T> T randomOf(Random random, T[] values) {
+    return values[random.nextInt(values.length)];
+  }
+
+  private static <T> T randomOf(Random random, List<T> values) {
+    return values.get(random.nextInt(values.size()));
+  }
+
+}
@@ -0,0 +1,191 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TagClosureTriggersTest {
+
+  /**
+   * A synthetic taxonomy, given as pairs of tag and parent. Parents come before their sub-tags.
+   */
+  private static final String[][] TAXONOMY = {{"Animalia", null}, {"Aves", "Animalia"},
+      {"Passeriformes", "Aves"}, {"Paridae", "Passeriformes"}, {"Parus", "Paridae"},
+      {"Turdidae", "Passeriformes"}, {"Accipitriformes", "Aves"}, {"Plantae", null},
+      {"Asterales", "Plantae"}, {"Asteraceae", "Asterales"}};
+
+  private SqliteTestDatabase mDatabase;
+
+  /**
+   * The parent of each tag, which the closure is expected to be derived from.
+   */
+  private final Map<String, String> mParents = new HashMap<>();
+
+  @Before
+  public void setUp() throws SQLException {
+    mDatabase = new SqliteTestDatabase();
+    FieldNotesDatabase.createTagClosureTriggers(mDatabase.asSupportDatabase());
+    for (String[] tag : TAXONOMY) {
+      mDatabase.insertTag(tag[0], tag[1]);
+      mParents.put(tag[0], tag[1]);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    mDatabase.close();
+  }
+
+  @Test
+  public void insertsPathsToAllAncestors() throws SQLException {
+    assertClosureMatchesParents();
+    assertEquals(Arrays.asList("Animalia", "Aves", "Passeriformes", "Paridae"),
+        ancestorsOf("Parus"));
+    assertTrue(ancestorsOf("Animalia").isEmpty());
+  }
+
+  @Test
+  public void reparentingMovesTheWholeSubTree() throws SQLException {
+    updateParent("Passeriformes", "Plantae");
+
+    assertClosureMatchesParents();
+    assertEquals(Arrays.asList("Plantae", "Passeriformes", "Paridae"), ancestorsOf("Parus"));
+
+    updateParent("Paridae", null);
+
+    assertClosureMatchesParents();
+    assertEquals(Collections.singletonList("Paridae"), ancestorsOf("Parus"));
+  }
+
+  @Test
+  public void rejectsCycles() throws SQLException {
+    for (String parent : new String[]{"Aves", "Passeriformes", "Parus"}) {
+      try {
+        mDatabase.execute("UPDATE tags SET parent = ? WHERE tag = ?", parent, "Aves");
+        fail("Aves has become a sub-tag of " + parent);
+      } catch (SQLException e) {
+        assertTrue(e.getMessage().contains("Tag may not become a sub-tag of itself"));
+      }
+    }
+
+    assertEquals(Collections.singletonList(Arrays.<Object>asList("Animalia")),
+        mDatabase.query("SELECT parent FROM tags WHERE tag = 'Aves'"));
+    assertClosureMatchesParents();
+  }
+
+  @Test
+  public void deletingTagMakesItsSubTagsTopLevel() throws SQLException {
+    mDatabase.execute("DELETE FROM tags WHERE tag = ?", "Passeriformes");
+    mParents.remove("Passeriformes");
+    mParents.put("Paridae", null);
+    mParents.put("Turdidae", null);
+
+    assertClosureMatchesParents();
+    assertEquals(Collections.singletonList("Paridae"), ancestorsOf("Parus"));
+    assertTrue(ancestorsOf("Turdidae").isEmpty());
+  }
+
+  @Test
+  public void findsSelfAndDescendants() throws SQLException {
+    assertEquals(new HashSet<>(Arrays.asList("Passeriformes", "Paridae", "Parus", "Turdidae")),
+        selfAndDescendantsOf("Passeriformes"));
+    assertEquals(new HashSet<>(Arrays.asList("Asterales", "Asteraceae")),
+        selfAndDescendantsOf("Asterales"));
+    assertEquals(Collections.singleton("Parus"), selfAndDescendantsOf("Parus"));
+  }
+
+  @Test
+  public void closureMatchesParentsAfterRandomReparenting() throws SQLException {
+    Random random = new Random(42);
+    List<String> tags = new ArrayList<>(mParents.keySet());
+    Collections.sort(tags);
+    for (int step = 0; step < 500; ++step) {
+      String tag = tags.get(random.nextInt(tags.size()));
+      String parent = random.nextInt(5) == 0 ? null : tags.get(random.nextInt(tags.size()));
+      if (parent != null && pathToRoot(parent).contains(tag)) {
+        try {
+          updateParent(tag, parent);
+          fail(tag + " has become a sub-tag of " + parent);
+        } catch (SQLException e) {
+          // expected, as the tag would become its own ancestor
+        }
+      } else {
+        updateParent(tag, parent);
+      }
+      assertClosureMatchesParents();
+    }
+  }
+
+  private void updateParent(String tag, String parent) throws SQLException {
+    mDatabase.execute("UPDATE tags SET parent = ? WHERE tag = ?", parent, tag);
+    mParents.put(tag, parent);
+  }
+
+  /**
+   * Reads the closure rows which {@link TagDao#getAncestors(String)} joins the tags with.
+   *
+   * @return the ancestors of the tag, starting at its top-level tag
+   */
+  private List<String> ancestorsOf(String tag) throws SQLException {
+    List<String> ancestors = new ArrayList<>();
+    for (List<Object> row : mDatabase.query("SELECT ancestor FROM tag_closure "
+        + "WHERE descendant = ? AND depth > 0 ORDER BY depth DESC", tag)) {
+      ancestors.add((String) row.get(0));
+    }
+    return ancestors;
+  }
+
+  /**
+   * Reads the closure rows which {@link TagDao#getSelfAndDescendants(List)} selects for a tag.
+   */
+  private Set<String> selfAndDescendantsOf(String tag) throws SQLException {
+    Set<String> tags = new HashSet<>();
+    for (List<Object> row : mDatabase.query(
+        "SELECT descendant FROM tag_closure WHERE ancestor = ?", tag)) {
+      assertTrue(tags.add((String) row.get(0)));
+    }
+    return tags;
+  }
+
+  /**
+   * @return the tag itself, followed by its ancestors
+   */
+  private List<String> pathToRoot(String tag) {
+    List<String> path = new ArrayList<>();
+    for (String ancestor = tag; ancestor != null; ancestor = mParents.get(ancestor)) {
+      path.add(ancestor);
+    }
+    return path;
+  }
+
+  private void assertClosureMatchesParents() throws SQLException {
+    List<List<Object>> expected = new ArrayList<>();
+    for (String tag : mParents.keySet()) {
+      List<String> path = pathToRoot(tag);
+      for (int depth = 0; depth < path.size(); ++depth) {
+        expected.add(Arrays.<Object>asList(path.get(depth), tag, (long) depth));
+      }
+    }
+    expected.sort(Comparator.comparing((List<Object> row) -> (String) row.get(0))
+        .thenComparing(row -> (String) row.get(1)));
+
+    assertEquals(expected, mDatabase.query(
+        "SELECT ancestor, descendant, depth FROM tag_closure ORDER BY ancestor, descendant"));
+  }
+
+}
@@ -0,0 +1,159 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.Test;
+
+public class TagDeltaTest {
+
+  private static final long OBSERVATION_ID = 42;
+
+  @Test
+  public void writesOnlyChangedRows() {
+    List<ObservationTag> current = tagsNumbered(0, 50);
+    List<ObservationTag> updated = tagsNumbered(1, 51);
+
+    TagDelta delta = TagDelta.between(current, updated);
+
+    assertEquals(2, delta.size());
+    assertEquals(Collections.singletonList(tag(50)), delta.getAdded());
+    assertEquals(Collections.singletonList(tag(0)), delta.getRemoved());
+  }
+
+  @Test
+  public void writesSingleRowForAddedTag() {
+    List<ObservationTag> current = tagsNumbered(0, 50);
+    List<ObservationTag> updated = tagsNumbered(0, 51);
+
+    assertEquals(1, TagDelta.between(current, updated).size());
+  }
+
+  @Test
+  public void writesNothingForUnchangedTags() {
+    assertTrue(TagDelta.between(tagsNumbered(0, 50), tagsNumbered(0, 50)).isEmpty());
+  }
+
+  @Test
+  public void updatesOneOfFiftyTagsWithOneInsertAndOneDelete() throws Throwable {
+    try (SqliteTestDatabase database = new SqliteTestDatabase()) {
+      long id = database.insertObservation(1000, "Parus major", false);
+      for (int i = 0; i <= 50; ++i) {
+        database.insertTag("Tag " + i, null);
+      }
+      for (ObservationTag tag : tagsNumbered(id, 0, 50)) {
+        database.execute("INSERT INTO observation_tags (observation_id, tag) VALUES (?, ?)",
+            tag.observationId, tag.tag);
+      }
+      database.execute("CREATE TEMP TABLE tag_writes (kind TEXT NOT NULL)");
+      database.execute("CREATE TEMP TRIGGER count_tag_inserts AFTER INSERT ON observation_tags "
+          + "BEGIN INSERT INTO tag_writes (kind) VALUES ('INSERT'); END");
+      database.execute("CREATE TEMP TRIGGER count_tag_deletes AFTER DELETE ON observation_tags "
+          + "BEGIN INSERT INTO tag_writes (kind) VALUES ('DELETE'); END");
+      Observation observation = new Observation("Parus major", "");
+      observation.setId(id);
+      ObservationDao dao = databaseDao(database);
+
+      dao.updateTags(observation, tagsNumbered(id, 1, 51));
+
+      assertEquals(Arrays.asList(Arrays.<Object>asList("DELETE", 1L),
+          Arrays.<Object>asList("INSERT", 1L)),
+          database.query("SELECT kind, count(*) FROM tag_writes GROUP BY kind ORDER BY kind"));
+      assertEquals(new HashSet<>(tagsNumbered(id, 1, 51)),
+          new HashSet<>(dao.getObservationTagsForObservation(id)));
+    }
+  }
+
+  private static List<ObservationTag> tagsNumbered(int from, int to) {
+    return tagsNumbered(OBSERVATION_ID, from, to);
+  }
+
+  private static List<ObservationTag> tagsNumbered(long observationId, int from, int to) {
+    List<ObservationTag> tags = new ArrayList<>(to - from);
+    for (int i = from; i < to; ++i) {
+      tags.add(new ObservationTag(observationId, "Tag " + i));
+    }
+    return tags;
+  }
+
+  private static ObservationTag tag(int number) {
+    return new ObservationTag(OBSERVATION_ID, "Tag " + number);
+  }
+
+  /**
+   * Creates a DAO on the database which runs the very statements Room generates for the methods
+   * used by {@link ObservationDao#updateTags(Observation, Collection)}.
+   */
+  private static ObservationDao databaseDao(SqliteTestDatabase database) {
+    return (ObservationDao) Proxy.newProxyInstance(ObservationDao.class.getClassLoader(),
+        new Class<?>[]{ObservationDao.class}, (proxy, method, args) -> {
+          if (method.isDefault()) {
+            return invokeDefault(proxy, method, args);
+          }
+          switch (method.getName()) {
+            case "getObservationTagsForObservation":
+              List<ObservationTag> tags = new ArrayList<>();
+              for (List<Object> row : database.query(
+                  "SELECT observation_id, tag FROM observation_tags WHERE observation_id = ?",
+                  args[0])) {
+                tags.add(new ObservationTag((Long) row.get(0), (String) row.get(1)));
+              }
+              return tags;
+            case "insertObservationTags":
+              for (ObservationTag tag : observationTags(args[0])) {
+                database.execute("INSERT OR IGNORE INTO observation_tags (observation_id, tag) "
+                    + "VALUES (?, ?)", tag.observationId, tag.tag);
+              }
+              return null;
+            case "deleteObservationTags":
+              for (ObservationTag tag : observationTags(args[0])) {
+                database.execute("DELETE FROM observation_tags WHERE observation_id = ? "
+                    + "AND tag = ?", tag.observationId, tag.tag);
+              }
+              return null;
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Collection<ObservationTag> observationTags(Object arg) {
+    return arg instanceof ObservationTag[] ? Arrays.asList((ObservationTag[]) arg)
+        : (Collection<ObservationTag>) arg;
+  }
+
+  /**
+   * Runs the default implementation of a method on a proxy, which the proxy cannot do on its own.
+   */
+  private static Object invokeDefault(Object proxy, Method method, Object[] args)
+      throws Throwable {
+    Class<?> declaringClass = method.getDeclaringClass();
+    MethodHandles.Lookup lookup;
+    try {
+      // Java 9 and later
+      Method privateLookupIn = MethodHandles.class.getMethod("privateLookupIn", Class.class,
+          MethodHandles.Lookup.class);
+      lookup = (MethodHandles.Lookup) privateLookupIn.invoke(null, declaringClass,
+          MethodHandles.lookup());
+    } catch (NoSuchMethodException e) {
+      Constructor<MethodHandles.Lookup> constructor =
+          MethodHandles.Lookup.class.getDeclaredConstructor(Class.class);
+      constructor.setAccessible(true);
+      lookup = constructor.newInstance(declaringClass);
+    }
+    return lookup.unreflectSpecial(method, declaringClass).bindTo(proxy)
+        .invokeWithArguments(args);
+  }
+
+}
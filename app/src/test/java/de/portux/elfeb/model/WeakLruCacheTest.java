@@ -0,0 +1,45 @@
+package de.portux.elfeb.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class WeakLruCacheTest {
+
+  @Test
+  public void staysBoundedWhileScrollingThroughManyObservations() {
+    WeakLruCache<Long, Object> cache = new WeakLruCache<>(64);
+    for (long id = 1; id <= 50_000; ++id) {
+      cache.get(id, key -> new Object());
+      assertTrue(cache.size() <= cache.getCapacity());
+    }
+    assertEquals(0, cache.getHitCount());
+    assertEquals(50_000, cache.getMissCount());
+  }
+
+  @Test
+  public void countsHitsAndMisses() {
+    WeakLruCache<Long, Object> cache = new WeakLruCache<>(2);
+    Object first = cache.get(1L, key -> new Object());
+    Object second = cache.get(2L, key -> new Object());
+
+    assertSame(first, cache.get(1L, key -> new Object()));
+    cache.get(3L, key -> new Object());
+    assertNotSame(second, cache.get(2L, key -> new Object()));
+
+    assertEquals(1, cache.getHitCount());
+    assertEquals(4, cache.getMissCount());
+  }
+
+  @Test
+  public void recreatesInvalidatedValues() {
+    WeakLruCache<Long, Object> cache = new WeakLruCache<>(2);
+    Object value = cache.get(1L, key -> new Object());
+    cache.invalidate(1L);
+    assertNotSame(value, cache.get(1L, key -> new Object()));
+  }
+
+}
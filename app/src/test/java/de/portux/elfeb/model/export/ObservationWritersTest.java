@@ -0,0 +1,168 @@
+package de.portux.elfeb.model.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ObservationWritersTest {
+
+  private ObservationRecord mLocated;
+  private ObservationRecord mUnlocated;
+
+  @Before
+  public void setUp() {
+    mLocated = new ObservationRecord();
+    mLocated.fill(1, 0, "Parus major", "singing, \"loudly\"", true, 52.5, 13.4, "Aves|Passeriformes",
+        "/sdcard/DCIM/IMG_1.jpg", '|');
+    mUnlocated = new ObservationRecord();
+    mUnlocated.fill(2, 60_000, "Bellis perennis", null, false, null, null, null, null, '|');
+  }
+
+  @Test
+  public void writesCsv() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ObservationWriter writer = new CsvObservationWriter(out)) {
+      writer.write(mLocated);
+      writer.write(mUnlocated);
+    }
+
+    String[] lines = out.toString("UTF-8").split("\r\n");
+    assertEquals(3, lines.length);
+    assertEquals("1,1970-01-01T00:00:00.000Z,Parus major,\"singing, \"\"loudly\"\"\",true,52.5,13.4,"
+        + "Aves|Passeriformes,/sdcard/DCIM/IMG_1.jpg", lines[1]);
+    assertEquals("2,1970-01-01T00:01:00.000Z,Bellis perennis,,false,,,,", lines[2]);
+  }
+
+  @Test
+  public void writesGeoJson() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ObservationWriter writer = new GeoJsonObservationWriter(out)) {
+      writer.write(mLocated);
+      writer.write(mUnlocated);
+    }
+
+    String json = out.toString("UTF-8");
+    assertTrue(json.startsWith("{\"type\":\"FeatureCollection\""));
+    assertTrue(json.contains("\"coordinates\":[13.4,52.5]"));
+    assertTrue(json.contains("\"comment\":\"singing, \\\"loudly\\\"\""));
+    assertTrue(json.contains("\"tags\":[\"Aves\",\"Passeriformes\"]"));
+    assertTrue(json.contains("\"id\":2,\"geometry\":null"));
+    assertTrue(json.trim().endsWith("]}"));
+  }
+
+  @Test
+  public void writesDarwinCoreArchive() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ObservationWriter writer = new DarwinCoreArchiveWriter(out)) {
+      writer.write(mLocated);
+      writer.write(mUnlocated);
+    }
+
+    String occurrences = null;
+    String meta = null;
+    try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        String content = readFully(zip);
+        if (entry.getName().equals("occurrence.txt")) {
+          occurrences = content;
+        } else if (entry.getName().equals("meta.xml")) {
+          meta = content;
+        }
+      }
+    }
+
+    String[] rows = occurrences.split("\n");
+    assertEquals(3, rows.length);
+    String[] located = rows[1].split("\t", -1);
+    assertEquals(11, located.length);
+    assertEquals("Parus major", located[3]);
+    assertEquals("media/IMG_1.jpg", located[10]);
+    assertTrue(meta.contains("<location>occurrence.txt</location>"));
+  }
+
+  @Test
+  public void storesSharedAndEquallyNamedAttachmentsOnce() throws IOException {
+    File directory = Files.createTempDirectory("export").toFile();
+    try {
+      File first = create(new File(directory, "a/IMG_1.jpg"), "first");
+      File second = create(new File(directory, "b/IMG_1.jpg"), "second");
+      ObservationRecord both = new ObservationRecord();
+      both.fill(3, 0, "Parus major", null, false, null, null, null,
+          first.getPath() + "|" + second.getPath(), '|');
+      ObservationRecord shared = new ObservationRecord();
+      shared.fill(4, 0, "Parus major", null, false, null, null, null, first.getPath(), '|');
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try (DarwinCoreArchiveWriter writer = new DarwinCoreArchiveWriter(out)) {
+        writer.write(both);
+        writer.write(shared);
+        assertTrue(writer.addAttachment(first));
+        assertTrue(writer.addAttachment(second));
+        assertFalse(writer.addAttachment(first));
+      }
+
+      Map<String, String> entries = new HashMap<>();
+      try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+          entries.put(entry.getName(), readFully(zip));
+        }
+      }
+
+      String[] rows = entries.get("occurrence.txt").split("\n");
+      assertEquals("media/IMG_1.jpg | media/IMG_1-2.jpg", rows[1].split("\t", -1)[10]);
+      assertEquals("media/IMG_1.jpg", rows[2].split("\t", -1)[10]);
+      assertEquals("first", entries.get("media/IMG_1.jpg"));
+      assertEquals("second", entries.get("media/IMG_1-2.jpg"));
+      assertEquals(4, entries.size());
+    } finally {
+      delete(directory);
+    }
+  }
+
+  private static File create(File file, String content) throws IOException {
+    assertTrue(file.getParentFile().mkdirs());
+    try (OutputStream out = new FileOutputStream(file)) {
+      out.write(content.getBytes(StandardCharsets.UTF_8));
+    }
+    return file;
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    //noinspection ResultOfMethodCallIgnored
+    file.delete();
+  }
+
+  private static String readFully(ZipInputStream zip) throws IOException {
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1024];
+    int read;
+    while ((read = zip.read(buffer)) >= 0) {
+      content.write(buffer, 0, read);
+    }
+    return new String(content.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+}
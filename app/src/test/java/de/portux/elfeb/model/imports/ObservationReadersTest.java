@@ -0,0 +1,125 @@
+package de.portux.elfeb.model.imports;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import de.portux.elfeb.model.export.CsvObservationWriter;
+import de.portux.elfeb.model.export.DarwinCoreArchiveWriter;
+import de.portux.elfeb.model.export.ObservationRecord;
+import de.portux.elfeb.model.export.ObservationWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.junit.Test;
+
+public class ObservationReadersTest {
+
+  @Test
+  public void readsCsv() throws IOException {
+    String csv = "id,time,suspicion,comment,determined,latitude,longitude,tags,attachments\r\n"
+        + "1,1970-01-01T00:00:00Z,Parus major,\"singing,\r\n\"\"loudly\"\"\",true,52.5,13.4,"
+        + "Aves|Passeriformes,/sdcard/DCIM/IMG_1.jpg\r\n"
+        + "\r\n"
+        + "2,1970-01-01T00:01:00Z,Bellis perennis,,false,,,,\r\n";
+    ImportRecord record = new ImportRecord();
+
+    try (ObservationReader reader = new CsvObservationReader(streamOf(csv))) {
+      assertTrue(reader.read(record));
+      assertEquals(0, record.getTime());
+      assertEquals("Parus major", record.getSuspicion());
+      assertEquals("singing,\r\n\"loudly\"", record.getComment());
+      assertTrue(record.isDetermined());
+      assertEquals(52.5, record.getLatitude(), 0);
+      assertEquals(Arrays.asList("Aves", "Passeriformes"), record.getTags());
+
+      assertTrue(reader.read(record));
+      assertEquals(60_000, record.getTime());
+      assertNull(record.getComment());
+      assertFalse(record.isLocationAttached());
+      assertTrue(record.getTags().isEmpty());
+
+      assertFalse(reader.read(record));
+    }
+  }
+
+  @Test
+  public void readsDarwinCoreOccurrences() throws IOException {
+    String occurrences = "occurrenceID\teventDate\tscientificName\tidentificationVerificationStatus"
+        + "\tdecimalLatitude\tdecimalLongitude\tdynamicProperties\n"
+        + "1\t2018-05-01T10:15:00+02:00\tParus major\tverified\t52.5\t13.4"
+        + "\t{\"tags\":[\"Aves\",\"Passer\\u00e9\"]}\n"
+        + "2\t\tBellis perennis\t\t\t\t\n";
+    ImportRecord record = new ImportRecord();
+
+    try (ObservationReader reader = new DarwinCoreObservationReader(streamOf(occurrences))) {
+      assertTrue(reader.read(record));
+      assertTrue(record.isComplete());
+      assertEquals(1525162500000L, record.getTime());
+      assertTrue(record.isDetermined());
+      assertEquals(Arrays.asList("Aves", "Passer\u00e9"), record.getTags());
+
+      assertTrue(reader.read(record));
+      assertFalse(record.isComplete());
+    }
+  }
+
+  @Test
+  public void parsesTimestamps() {
+    Timestamps timestamps = new Timestamps();
+    assertEquals(Long.valueOf(1525132800000L), timestamps.parse("2018-05-01"));
+    assertEquals(Long.valueOf(1525169700000L), timestamps.parse("2018-05-01T10:15:00Z"));
+    assertEquals(Long.valueOf(1525169700000L), timestamps.parse("2018-05-01T10:15:00"));
+    assertEquals(Long.valueOf(1525162500000L), timestamps.parse("2018-05-01T10:15:00+0200"));
+    assertEquals(Long.valueOf(1525169700123L), timestamps.parse("2018-05-01T10:15:00.123Z"));
+    assertEquals(Long.valueOf(1525132800000L), timestamps.parse("2018-05-01/2018-05-03"));
+    assertEquals(Long.valueOf(1525132800000L), timestamps.parse("20180501"));
+    assertEquals(Long.valueOf(1525169700000L), timestamps.parse("1525169700000"));
+    assertNull(timestamps.parse("42"));
+    assertNull(timestamps.parse("20180532"));
+    assertNull(timestamps.parse("15251697000001525169"));
+    assertNull(timestamps.parse("yesterday"));
+  }
+
+  @Test
+  public void readsTheExactTimesOfExportsBack() throws IOException {
+    // observations are recognized as already imported by their time, so it must not lose precision
+    ObservationRecord exported = new ObservationRecord();
+    exported.fill(1, 1525169700123L, "Parus major", null, true, 52.5, 13.4, "Aves", null, '|');
+    ImportRecord record = new ImportRecord();
+
+    ByteArrayOutputStream csv = new ByteArrayOutputStream();
+    try (ObservationWriter writer = new CsvObservationWriter(csv)) {
+      writer.write(exported);
+    }
+    try (ObservationReader reader = new CsvObservationReader(
+        new ByteArrayInputStream(csv.toByteArray()))) {
+      assertTrue(reader.read(record));
+      assertEquals(1525169700123L, record.getTime());
+    }
+
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    try (ObservationWriter writer = new DarwinCoreArchiveWriter(archive)) {
+      writer.write(exported);
+    }
+    try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()))) {
+      ZipEntry entry = zip.getNextEntry();
+      assertEquals("occurrence.txt", entry.getName());
+      ObservationReader reader = new DarwinCoreObservationReader(zip);
+      assertTrue(reader.read(record));
+      assertEquals(1525169700123L, record.getTime());
+      assertEquals("Parus major", record.getSuspicion());
+    }
+  }
+
+  private static InputStream streamOf(String content) {
+    return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+  }
+
+}
@@ -0,0 +1,50 @@
+package de.portux.elfeb.model.merge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ConflictPolicyTest {
+
+  private final ObservationVersion mLocal = new ObservationVersion(1_000, "Parus major", null,
+      false, 52.5, 13.4);
+  private final ObservationVersion mOther = new ObservationVersion(1_000, "Parus major",
+      "singing", true, 48.1, 11.6);
+
+  @Test
+  public void keepsLocalVersion() {
+    assertSame(mLocal, ConflictPolicy.KEEP_LOCAL.resolve(mLocal, mOther));
+  }
+
+  @Test
+  public void takesOtherVersion() {
+    assertSame(mOther, ConflictPolicy.TAKE_OTHER.resolve(mLocal, mOther));
+  }
+
+  @Test
+  public void fillsGapsOfLocalVersion() {
+    ObservationVersion resolved = ConflictPolicy.FILL_GAPS.resolve(mLocal, mOther);
+
+    assertEquals("singing", resolved.getComment());
+    assertTrue(resolved.isDetermined());
+    assertEquals(52.5, resolved.getLatitude(), 0);
+    assertEquals(13.4, resolved.getLongitude(), 0);
+  }
+
+  @Test
+  public void ordersKeysLikeSqlite() {
+    assertTrue(KeyOrder.compare(1, "b", 2, "a") < 0);
+    assertTrue(KeyOrder.compare(2, "a", 2, "b") < 0);
+    assertTrue(KeyOrder.compare(2, "ab", 2, "a") > 0);
+    assertEquals(0, KeyOrder.compare(2, "a", 2, "a"));
+
+    // UTF-8 puts supplementary characters after the private use area, UTF-16 before it
+    String privateUse = "\uE000";
+    String supplementary = "\uD83D\uDC26";
+    assertTrue(supplementary.compareTo(privateUse) < 0);
+    assertTrue(KeyOrder.compareCodePoints(supplementary, privateUse) > 0);
+  }
+
+}
@@ -0,0 +1,258 @@
+package de.portux.elfeb.model.sync;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal sync server which keeps everything in memory. It stands in for the desktop server in
+ * tests and runs on a free port of the loopback interface.
+ * <p>
+ * The server keeps the latest state of each observation along with the sequence number of its last
+ * change and the device that made it. It counts the bytes of attached files it receives and sends,
+ * such that tests can verify that transfers are resumed rather than repeated.
+ */
+public class ReferenceSyncServer implements Closeable {
+
+  private static class Change {
+    final long sequence;
+    final String device;
+    final SyncedObservation observation;
+
+    Change(long sequence, String device, SyncedObservation observation) {
+      this.sequence = sequence;
+      this.device = device;
+      this.observation = observation;
+    }
+  }
+
+  private final HttpServer mServer;
+
+  /**
+   * The changes by observation key, ordered by their sequence number.
+   */
+  private final LinkedHashMap<String, Change> mChanges = new LinkedHashMap<>();
+
+  private final Map<String, ByteArrayOutputStream> mFiles = new HashMap<>();
+
+  private long mSequence = 0;
+  private long mBytesReceived = 0;
+  private long mBytesSent = 0;
+
+  public ReferenceSyncServer() throws IOException {
+    mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    mServer.createContext("/changes", this::handleChanges);
+    mServer.createContext("/attachments/", this::handleAttachment);
+    mServer.start();
+  }
+
+  public URL getUrl() throws IOException {
+    return new URL("http", mServer.getAddress().getHostString(), mServer.getAddress().getPort(),
+        "/");
+  }
+
+  public synchronized void putFile(String name, byte[] content) {
+    ByteArrayOutputStream file = new ByteArrayOutputStream();
+    file.write(content, 0, content.length);
+    mFiles.put(name, file);
+  }
+
+  public synchronized byte[] getFile(String name) {
+    ByteArrayOutputStream file = mFiles.get(name);
+    return file == null ? null : file.toByteArray();
+  }
+
+  public synchronized long getBytesReceived() {
+    return mBytesReceived;
+  }
+
+  public synchronized long getBytesSent() {
+    return mBytesSent;
+  }
+
+  @Override
+  public void close() {
+    mServer.stop(0);
+  }
+
+  private void handleChanges(HttpExchange exchange) throws IOException {
+    Map<String, String> parameters = parametersOf(exchange);
+    String device = parameters.get("device");
+    try {
+      if (device == null) {
+        respond(exchange, 400, null);
+      } else if (exchange.getRequestMethod().equals("POST")) {
+        SyncBatch batch;
+        try (InputStream in = exchange.getRequestBody()) {
+          batch = SyncBatch.readFrom(in);
+        }
+        respond(exchange, 200, Long.toString(apply(device, batch))
+            .getBytes(StandardCharsets.UTF_8));
+      } else if (exchange.getRequestMethod().equals("GET")) {
+        SyncBatch batch = changesFor(device, Long.parseLong(parameters.get("since")),
+            Integer.parseInt(parameters.get("limit")));
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        batch.writeTo(body);
+        respond(exchange, 200, body.toByteArray());
+      } else {
+        respond(exchange, 405, null);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private synchronized long apply(String device, SyncBatch batch) {
+    for (SyncedObservation observation : batch.getObservations()) {
+      String key = observation.getTime() + ":" + observation.getSuspicion();
+      mChanges.remove(key);
+      mChanges.put(key, new Change(++mSequence, device, observation));
+    }
+    return mSequence;
+  }
+
+  private synchronized SyncBatch changesFor(String device, long since, int limit) {
+    List<SyncedObservation> observations = new ArrayList<>();
+    long sequence = since;
+    Iterator<Change> changes = mChanges.values().iterator();
+    while (changes.hasNext() && observations.size() < limit) {
+      Change change = changes.next();
+      if (change.sequence > since && !change.device.equals(device)) {
+        observations.add(change.observation);
+        sequence = change.sequence;
+      }
+    }
+    return new SyncBatch(sequence, observations);
+  }
+
+  private void handleAttachment(HttpExchange exchange) throws IOException {
+    String name = exchange.getRequestURI().getPath().substring("/attachments/".length());
+    try {
+      switch (exchange.getRequestMethod()) {
+        case "HEAD":
+          // the JDK's server leaves kept-alive connections unusable after a HEAD response
+          exchange.getResponseHeaders().set("Connection", "close");
+          synchronized (this) {
+            ByteArrayOutputStream file = mFiles.get(name);
+            if (file == null) {
+              respond(exchange, 404, null);
+              return;
+            }
+            exchange.getResponseHeaders().set(SyncClient.OFFSET_HEADER,
+                Integer.toString(file.size()));
+          }
+          exchange.sendResponseHeaders(200, -1);
+          break;
+        case "PUT":
+          appendChunk(exchange, name);
+          break;
+        case "GET":
+          sendFile(exchange, name);
+          break;
+        default:
+          respond(exchange, 405, null);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void appendChunk(HttpExchange exchange, String name) throws IOException {
+    long offset = Long.parseLong(exchange.getRequestHeaders().getFirst(SyncClient.OFFSET_HEADER));
+    byte[] chunk = readAll(exchange.getRequestBody());
+    int length;
+    synchronized (this) {
+      ByteArrayOutputStream file = mFiles.get(name);
+      if (file == null) {
+        file = new ByteArrayOutputStream();
+        mFiles.put(name, file);
+      }
+      if (offset != file.size()) {
+        exchange.getResponseHeaders().set(SyncClient.OFFSET_HEADER, Integer.toString(file.size()));
+        respond(exchange, 409, null);
+        return;
+      }
+      file.write(chunk, 0, chunk.length);
+      mBytesReceived += chunk.length;
+      length = file.size();
+    }
+    exchange.getResponseHeaders().set(SyncClient.OFFSET_HEADER, Integer.toString(length));
+    exchange.sendResponseHeaders(204, -1);
+  }
+
+  private void sendFile(HttpExchange exchange, String name) throws IOException {
+    byte[] content = getFile(name);
+    if (content == null) {
+      respond(exchange, 404, null);
+      return;
+    }
+    String range = exchange.getRequestHeaders().getFirst("Range");
+    int offset = range == null ? 0
+        : Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+    if (offset >= content.length && range != null) {
+      respond(exchange, 416, null);
+      return;
+    }
+    int length = content.length - offset;
+    synchronized (this) {
+      mBytesSent += length;
+    }
+    exchange.sendResponseHeaders(range == null ? 200 : 206, length == 0 ? -1 : length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(content, offset, length);
+    }
+  }
+
+  private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+    exchange.sendResponseHeaders(status, body == null ? -1 : body.length);
+    if (body != null) {
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    }
+  }
+
+  private static Map<String, String> parametersOf(HttpExchange exchange) throws IOException {
+    Map<String, String> parameters = new HashMap<>();
+    String query = exchange.getRequestURI().getRawQuery();
+    if (query == null) {
+      return parameters;
+    }
+    for (String parameter : query.split("&")) {
+      int separator = parameter.indexOf('=');
+      if (separator > 0) {
+        parameters.put(URLDecoder.decode(parameter.substring(0, separator), "UTF-8"),
+            URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+      }
+    }
+    return parameters;
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    try (InputStream body = in) {
+      ByteArrayOutputStream content = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int count;
+      while ((count = body.read(buffer)) != -1) {
+        content.write(buffer, 0, count);
+      }
+      return content.toByteArray();
+    }
+  }
+
+}
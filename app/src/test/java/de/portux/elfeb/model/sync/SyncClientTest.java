@@ -0,0 +1,142 @@
+package de.portux.elfeb.model.sync;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import de.portux.elfeb.model.Attachment.AttachmentType;
+import de.portux.elfeb.model.sync.SyncedObservation.SyncedAttachment;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SyncClientTest {
+
+  private static final int CHUNK_SIZE = 1024;
+
+  private ReferenceSyncServer mServer;
+  private File mDirectory;
+
+  @Before
+  public void setUp() throws IOException {
+    mServer = new ReferenceSyncServer();
+    mDirectory = Files.createTempDirectory("sync").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    mServer.close();
+    for (File file : mDirectory.listFiles()) {
+      file.delete();
+    }
+    mDirectory.delete();
+  }
+
+  @Test
+  public void batchSurvivesWireFormat() throws IOException {
+    SyncBatch batch = new SyncBatch(42, Arrays.asList(
+        observation(1_000, "Parus major"),
+        SyncedObservation.deleted(2_000, "Bellis perennis")));
+
+    ByteArrayOutputStream wire = new ByteArrayOutputStream();
+    batch.writeTo(wire);
+    SyncBatch read = SyncBatch.readFrom(new ByteArrayInputStream(wire.toByteArray()));
+
+    assertEquals(42, read.getSequence());
+    assertEquals(batch.getObservations(), read.getObservations());
+  }
+
+  @Test
+  public void pullsChangesOfOtherDevicesOnly() throws IOException {
+    SyncClient first = new SyncClient(mServer.getUrl(), "first");
+    SyncClient second = new SyncClient(mServer.getUrl(), "second");
+
+    long sequence = first.push(new SyncBatch(3, Arrays.asList(
+        observation(1_000, "Parus major"), observation(2_000, "Bellis perennis"))));
+    assertEquals(2, sequence);
+
+    assertTrue(first.pull(0, 10).isEmpty());
+    SyncBatch pulled = second.pull(0, 10);
+    assertEquals(2, pulled.getSequence());
+    assertEquals(Arrays.asList(observation(1_000, "Parus major"),
+        observation(2_000, "Bellis perennis")), pulled.getObservations());
+  }
+
+  @Test
+  public void pullsOnlyChangesAfterSequence() throws IOException {
+    SyncClient first = new SyncClient(mServer.getUrl(), "first");
+    SyncClient second = new SyncClient(mServer.getUrl(), "second");
+    first.push(new SyncBatch(1, Arrays.asList(
+        observation(1_000, "Parus major"), observation(2_000, "Bellis perennis"))));
+
+    SyncBatch firstPage = second.pull(0, 1);
+    assertEquals(Collections.singletonList(observation(1_000, "Parus major")),
+        firstPage.getObservations());
+
+    first.push(new SyncBatch(2, Collections.singletonList(
+        SyncedObservation.deleted(1_000, "Parus major"))));
+    SyncBatch secondPage = second.pull(firstPage.getSequence(), 10);
+    assertEquals(Arrays.asList(observation(2_000, "Bellis perennis"),
+        SyncedObservation.deleted(1_000, "Parus major")), secondPage.getObservations());
+    assertTrue(second.pull(secondPage.getSequence(), 10).isEmpty());
+  }
+
+  @Test
+  public void resumesInterruptedUpload() throws IOException {
+    byte[] content = randomBytes(5 * CHUNK_SIZE + 17);
+    File file = write("IMG_1.jpg", content);
+    mServer.putFile("IMG_1.jpg", Arrays.copyOf(content, 2 * CHUNK_SIZE));
+    SyncClient client = new SyncClient(mServer.getUrl(), "first", CHUNK_SIZE);
+
+    assertEquals(content.length - 2 * CHUNK_SIZE, client.upload("IMG_1.jpg", file));
+    assertArrayEquals(content, mServer.getFile("IMG_1.jpg"));
+    assertEquals(content.length - 2 * CHUNK_SIZE, mServer.getBytesReceived());
+
+    assertEquals(0, client.upload("IMG_1.jpg", file));
+  }
+
+  @Test
+  public void resumesInterruptedDownload() throws IOException {
+    byte[] content = randomBytes(3 * CHUNK_SIZE + 5);
+    mServer.putFile("rec 1.3gp", content);
+    write("rec 1.3gp.part", Arrays.copyOf(content, CHUNK_SIZE + 3));
+    SyncClient client = new SyncClient(mServer.getUrl(), "second", CHUNK_SIZE);
+
+    File target = new File(mDirectory, "rec 1.3gp");
+    assertEquals(content.length - CHUNK_SIZE - 3, client.download("rec 1.3gp", target));
+    assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    assertEquals(content.length - CHUNK_SIZE - 3, mServer.getBytesSent());
+  }
+
+  private static SyncedObservation observation(long time, String suspicion) {
+    List<SyncedAttachment> attachments = Collections.singletonList(
+        new SyncedAttachment("IMG_" + time + ".jpg", AttachmentType.IMAGE));
+    return SyncedObservation.updated(time, suspicion, "near the pond", true, 52.5, 13.4,
+        Arrays.asList("Aves", "Passeriformes"), attachments);
+  }
+
+  private File write(String name, byte[] content) throws IOException {
+    File file = new File(mDirectory, name);
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(content);
+    }
+    return file;
+  }
+
+  private static byte[] randomBytes(int count) {
+    byte[] bytes = new byte[count];
+    new Random(count).nextBytes(bytes);
+    return bytes;
+  }
+
+}
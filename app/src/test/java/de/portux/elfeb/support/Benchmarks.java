@@ -0,0 +1,67 @@
+package de.portux.elfeb.support;
+
+import java.util.Locale;
+import org.junit.Assume;
+
+/**
+ * Support for the benchmarks among the unit tests. They take a while, so they are skipped unless
+ * the tests are run with {@code -Dbenchmarks=true}.
+ * <p>
+ * Benchmarks run on the JVM against SQLite, not on a device. Their absolute times therefore do
+ * not tell much, but the ratio between an implementation and the one it replaced does.
+ */
+public final class Benchmarks {
+
+  /**
+   * The work to measure.
+   */
+  public interface Task {
+    void run() throws Exception;
+  }
+
+  private static final String ENABLED = "benchmarks";
+
+  private Benchmarks() {}
+
+  /**
+   * Skips the calling test unless benchmarks are enabled. Meant to be called by {@code @Before}.
+   */
+  public static void assumeEnabled() {
+    Assume.assumeTrue("Benchmarks are only run with -D" + ENABLED + "=true",
+        Boolean.getBoolean(ENABLED));
+  }
+
+  /**
+   * Runs a task once and prints how long it took.
+   *
+   * @param name names the task in the output
+   * @return the time taken in milliseconds
+   */
+  public static long time(String name, Task task) throws Exception {
+    long start = System.nanoTime();
+    task.run();
+    long millis = (System.nanoTime() - start) / 1_000_000;
+    System.out.println(String.format(Locale.US, "%-50s %8d ms", name, millis));
+    return millis;
+  }
+
+  /**
+   * Runs a task repeatedly and prints how long a single run took on average. The task is run once
+   * more beforehand to warm up.
+   *
+   * @param name names the task in the output
+   * @param runs the number of runs to measure
+   * @return the average time of a run in milliseconds
+   */
+  public static double time(String name, int runs, Task task) throws Exception {
+    task.run();
+    long start = System.nanoTime();
+    for (int i = 0; i < runs; ++i) {
+      task.run();
+    }
+    double millis = (System.nanoTime() - start) / 1_000_000.0 / runs;
+    System.out.println(String.format(Locale.US, "%-50s %8.2f ms per run", name, millis));
+    return millis;
+  }
+
+}